@@ -42,6 +42,8 @@ public class ParserOptions {
 	private boolean myStripVersionsFromReferences = true;
 	private Set<String> myDontStripVersionsFromReferencesAtPaths = Collections.emptySet();
 	private boolean myOverrideResourceIdWithBundleEntryFullUrl = true;
+	private boolean myStreamingJsonParsing = false;
+	private boolean myStrictPrimitiveCoercion = true;
 	
 	/**
 	 * If supplied value(s), any resource references at the specified paths will have their
@@ -174,4 +176,74 @@ public class ParserOptions {
 		myOverrideResourceIdWithBundleEntryFullUrl = theOverrideResourceIdWithBundleEntryFullUrl;
 		return this;
 	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the JSON parser will build its
+	 * intermediate representation of the document directly from a streaming pull parser instead of
+	 * first creating a complete Gson document tree. This substantially reduces the memory and GC
+	 * overhead of parsing very large documents (e.g. transaction Bundles) and produces identical
+	 * results. This setting has no effect on the encoding process.
+	 *
+	 * @return Returns the parser instance's configuration setting for streaming JSON parsing. Default is <code>false</code>.
+	 */
+	public boolean isStreamingJsonParsing() {
+		return myStreamingJsonParsing;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), the JSON parser will build its
+	 * intermediate representation of the document directly from a streaming pull parser instead of
+	 * first creating a complete Gson document tree. This substantially reduces the memory and GC
+	 * overhead of parsing very large documents (e.g. transaction Bundles) and produces identical
+	 * results. This setting has no effect on the encoding process.
+	 *
+	 * @param theStreamingJsonParsing
+	 *           Set this to <code>true</code> to enable streaming JSON parsing
+	 *
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 */
+	public ParserOptions setStreamingJsonParsing(boolean theStreamingJsonParsing) {
+		myStreamingJsonParsing = theStreamingJsonParsing;
+		return this;
+	}
+
+	/**
+	 * If set to <code>true</code> (which is the default), primitive datatype values (e.g. <code>dateTime</code>,
+	 * <code>instant</code>, <code>decimal</code> and <code>integer</code>) are validated and converted into their
+	 * Java representation as they are parsed, and any invalid value is reported to the parser error handler.
+	 * <p>
+	 * If set to <code>false</code>, datatypes which support it keep the encoded string and only convert it the
+	 * first time its value is requested. This avoids the parsing and allocation cost for resources that are only
+	 * re-encoded (e.g. read and pass-through scenarios), but invalid values are no longer reported to the parser
+	 * error handler. Instead, such a value is still encoded exactly as it was received and its coerced value is
+	 * <code>null</code>.
+	 * </p>
+	 *
+	 * @return Returns the parser instance's configuration setting for strict primitive coercion. Default is <code>true</code>.
+	 */
+	public boolean isStrictPrimitiveCoercion() {
+		return myStrictPrimitiveCoercion;
+	}
+
+	/**
+	 * If set to <code>true</code> (which is the default), primitive datatype values (e.g. <code>dateTime</code>,
+	 * <code>instant</code>, <code>decimal</code> and <code>integer</code>) are validated and converted into their
+	 * Java representation as they are parsed, and any invalid value is reported to the parser error handler.
+	 * <p>
+	 * If set to <code>false</code>, datatypes which support it keep the encoded string and only convert it the
+	 * first time its value is requested. This avoids the parsing and allocation cost for resources that are only
+	 * re-encoded (e.g. read and pass-through scenarios), but invalid values are no longer reported to the parser
+	 * error handler. Instead, such a value is still encoded exactly as it was received and its coerced value is
+	 * <code>null</code>.
+	 * </p>
+	 *
+	 * @param theStrictPrimitiveCoercion
+	 *           Set this to <code>false</code> to defer primitive value coercion until values are accessed
+	 *
+	 * @return Returns a reference to <code>this</code> parser so that method calls can be chained together
+	 */
+	public ParserOptions setStrictPrimitiveCoercion(boolean theStrictPrimitiveCoercion) {
+		myStrictPrimitiveCoercion = theStrictPrimitiveCoercion;
+		return this;
+	}
 }
@@ -159,7 +159,12 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 
 	@Override
 	public <T extends IBaseResource> T doParseResource(Class<T> theResourceType, Reader theReader) {
-		JsonLikeStructure jsonStructure = new GsonStructure();
+		JsonLikeStructure jsonStructure;
+		if (myContext.getParserOptions().isStreamingJsonParsing()) {
+			jsonStructure = new GsonStreamingStructure();
+		} else {
+			jsonStructure = new GsonStructure();
+		}
 		jsonStructure.load(theReader);
 
 		T retVal = doParseResource(theResourceType, jsonStructure);
@@ -218,22 +223,18 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 					break;
 				}
 
-				if (value instanceof IBaseIntegerDatatype) {
+				/*
+				 * Datatypes which defer coercion may hold a value which can't be coerced (e.g. an
+				 * integer of "abc"), in which case the original string is written as-is
+				 */
+				BigDecimal decimalValue = value instanceof IBaseDecimalDatatype ? toDecimalKeepingEncoding(value) : null;
+				if (value instanceof IBaseIntegerDatatype && ((IBaseIntegerDatatype) value).getValue() != null) {
 					if (theChildName != null) {
 						write(theEventWriter, theChildName, ((IBaseIntegerDatatype) value).getValue());
 					} else {
 						theEventWriter.write(((IBaseIntegerDatatype) value).getValue());
 					}
-				} else if (value instanceof IBaseDecimalDatatype) {
-					BigDecimal decimalValue = ((IBaseDecimalDatatype) value).getValue();
-					decimalValue = new BigDecimal(decimalValue.toString()) {
-						private static final long serialVersionUID = 1L;
-
-						@Override
-						public String toString() {
-							return value.getValueAsString();
-						}
-					};
+				} else if (decimalValue != null) {
 					if (theChildName != null) {
 						write(theEventWriter, theChildName, decimalValue);
 					} else {
@@ -1296,6 +1297,26 @@ public class JsonParser extends BaseParser implements IJsonLikeParser {
 		return gson;
 	}
 
+	/**
+	 * Creates a decimal from the string value of the given datatype (so that datatypes which
+	 * defer coercion don't need to coerce here) which encodes exactly as that string did,
+	 * or returns <code>null</code> if the string is not a valid decimal
+	 */
+	private static BigDecimal toDecimalKeepingEncoding(final IPrimitiveType<?> theValue) {
+		try {
+			return new BigDecimal(theValue.getValueAsString()) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public String toString() {
+					return theValue.getValueAsString();
+				}
+			};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 	private static void write(JsonLikeWriter theWriter, String theName, String theValue) throws IOException {
 		theWriter.write(theName, theValue);
 	}
@@ -1285,7 +1285,11 @@ class ParserState<T> {
 					myErrorHandler.invalidValue(null, theValue, "Attribute values must not be empty (\"\")");
 				} else {
 					try {
-						myInstance.setValueAsString(theValue);
+						if (myInstance instanceof ILazyCoercionPrimitiveType && !myContext.getParserOptions().isStrictPrimitiveCoercion()) {
+							((ILazyCoercionPrimitiveType<?>) myInstance).setValueAsStringLazily(theValue);
+						} else {
+							myInstance.setValueAsString(theValue);
+						}
 					} catch (DataFormatException e) {
 						myErrorHandler.invalidValue(null, theValue, e.getMessage());
 					} catch (IllegalArgumentException e) {
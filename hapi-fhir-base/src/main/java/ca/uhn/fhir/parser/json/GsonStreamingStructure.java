@@ -0,0 +1,264 @@
+package ca.uhn.fhir.parser.json;
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.json.JsonLikeValue.ScalarType;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * {@link JsonLikeStructure} implementation which builds a compact tree of
+ * {@link JsonLikeValue} nodes directly from a Gson {@link JsonReader} pull
+ * parser. Unlike {@link GsonStructure}, no intermediate Gson
+ * {@link com.google.gson.JsonElement} tree is created and then wrapped, which
+ * roughly halves the memory needed to hold a large document (e.g. a transaction
+ * Bundle) while it is being parsed.
+ * <p>
+ * This structure is used by the JSON parser when
+ * {@link ca.uhn.fhir.context.ParserOptions#setStreamingJsonParsing(boolean)} is enabled.
+ * </p>
+ */
+public class GsonStreamingStructure implements JsonLikeStructure {
+
+	private JsonLikeValue myRoot = null;
+	private GsonWriter myJsonLikeWriter = null;
+
+	public GsonStreamingStructure() {
+		super();
+	}
+
+	@Override
+	public JsonLikeStructure getInstance() {
+		return new GsonStreamingStructure();
+	}
+
+	@Override
+	public void load(Reader theReader) throws DataFormatException {
+		this.load(theReader, false);
+	}
+
+	@Override
+	public void load(Reader theReader, boolean allowArray) throws DataFormatException {
+		PushbackReader pbr = new PushbackReader(theReader);
+		try {
+			GsonStructure.readFirstCharacter(pbr, allowArray);
+
+			JsonReader reader = new JsonReader(pbr);
+			// Gson#fromJson(Reader, Class) parses leniently, so we do too
+			reader.setLenient(true);
+			myRoot = readValue(reader);
+
+			if (reader.peek() != JsonToken.END_DOCUMENT) {
+				throw new DataFormatException("JSON document was not fully consumed.");
+			}
+		} catch (MalformedJsonException e) {
+			if (e.getMessage().startsWith("Unexpected char 39")) {
+				throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage() + " - This may indicate that single quotes are being used as JSON escapes where double quotes are required", e);
+			}
+			throw new DataFormatException("Failed to parse JSON encoded FHIR content: " + e.getMessage(), e);
+		} catch (Exception e) {
+			throw new DataFormatException("Failed to parse JSON content, error was: " + e.getMessage(), e);
+		}
+	}
+
+	private static JsonLikeValue readValue(JsonReader theReader) throws IOException {
+		JsonToken token = theReader.peek();
+		switch (token) {
+			case BEGIN_OBJECT: {
+				StreamingJsonObject retVal = new StreamingJsonObject();
+				theReader.beginObject();
+				while (theReader.hasNext()) {
+					String name = theReader.nextName();
+					retVal.put(name, readValue(theReader));
+				}
+				theReader.endObject();
+				return retVal;
+			}
+			case BEGIN_ARRAY: {
+				StreamingJsonArray retVal = new StreamingJsonArray();
+				theReader.beginArray();
+				while (theReader.hasNext()) {
+					retVal.add(readValue(theReader));
+				}
+				theReader.endArray();
+				retVal.trimToSize();
+				return retVal;
+			}
+			case STRING:
+				return new StreamingJsonScalar(theReader.nextString(), ScalarType.STRING);
+			case NUMBER:
+				return new StreamingJsonScalar(theReader.nextString(), ScalarType.NUMBER);
+			case BOOLEAN:
+				return theReader.nextBoolean() ? JsonLikeValue.TRUE : JsonLikeValue.FALSE;
+			case NULL:
+				theReader.nextNull();
+				return JsonLikeValue.NULL;
+			default:
+				throw new MalformedJsonException("Unexpected token " + token + " at " + theReader.getPath());
+		}
+	}
+
+	@Override
+	public JsonLikeWriter getJsonLikeWriter(Writer writer) {
+		if (null == myJsonLikeWriter) {
+			myJsonLikeWriter = new GsonWriter(writer);
+		}
+		return myJsonLikeWriter;
+	}
+
+	@Override
+	public JsonLikeWriter getJsonLikeWriter() {
+		if (null == myJsonLikeWriter) {
+			myJsonLikeWriter = new GsonWriter();
+		}
+		return myJsonLikeWriter;
+	}
+
+	@Override
+	public JsonLikeObject getRootObject() throws DataFormatException {
+		if (myRoot != null && myRoot.isObject()) {
+			return myRoot.getAsObject();
+		}
+		throw new DataFormatException("Content must be a valid JSON Object. It must start with '{'.");
+	}
+
+	@Override
+	public JsonLikeArray getRootArray() throws DataFormatException {
+		if (myRoot != null && myRoot.isArray()) {
+			return myRoot.getAsArray();
+		}
+		throw new DataFormatException("Content must be a valid JSON Array. It must start with '['.");
+	}
+
+	private static class StreamingJsonObject extends JsonLikeObject {
+		private final Map<String, JsonLikeValue> myChildren = new LinkedHashMap<String, JsonLikeValue>(8);
+
+		@Override
+		public Object getValue() {
+			return null;
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return Collections.unmodifiableSet(myChildren.keySet());
+		}
+
+		@Override
+		public JsonLikeValue get(String key) {
+			return myChildren.get(key);
+		}
+
+		/**
+		 * As with Gson, a repeated key replaces the earlier value but keeps its position
+		 */
+		void put(String theKey, JsonLikeValue theValue) {
+			myChildren.put(theKey, theValue);
+		}
+	}
+
+	private static class StreamingJsonArray extends JsonLikeArray {
+		private final ArrayList<JsonLikeValue> myChildren = new ArrayList<JsonLikeValue>();
+
+		@Override
+		public Object getValue() {
+			return null;
+		}
+
+		@Override
+		public int size() {
+			return myChildren.size();
+		}
+
+		@Override
+		public JsonLikeValue get(int index) {
+			return myChildren.get(index);
+		}
+
+		void add(JsonLikeValue theValue) {
+			myChildren.add(theValue);
+		}
+
+		void trimToSize() {
+			myChildren.trimToSize();
+		}
+	}
+
+	private static class StreamingJsonScalar extends JsonLikeValue {
+		private final String myValue;
+		private final ScalarType myDataType;
+
+		StreamingJsonScalar(String theValue, ScalarType theDataType) {
+			myValue = theValue;
+			myDataType = theDataType;
+		}
+
+		@Override
+		public ValueType getJsonType() {
+			return ValueType.SCALAR;
+		}
+
+		@Override
+		public ScalarType getDataType() {
+			return myDataType;
+		}
+
+		@Override
+		public Object getValue() {
+			if (myDataType == ScalarType.NUMBER) {
+				return getAsNumber();
+			}
+			return myValue;
+		}
+
+		@Override
+		public Number getAsNumber() {
+			if (myDataType == ScalarType.NUMBER) {
+				return new BigDecimal(myValue);
+			}
+			return null;
+		}
+
+		@Override
+		public String getAsString() {
+			// Numbers keep their original text so that decimal precision is preserved
+			return myValue;
+		}
+
+		@Override
+		public String toString() {
+			return myValue;
+		}
+	}
+
+}
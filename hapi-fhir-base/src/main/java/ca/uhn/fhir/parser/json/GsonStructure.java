@@ -19,6 +19,7 @@ package ca.uhn.fhir.parser.json;
  * #L%
  */
 
+import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.Writer;
@@ -85,27 +86,7 @@ public class GsonStructure implements JsonLikeStructure {
 		PushbackReader pbr = new PushbackReader(theReader);
 		int nextInt;
 		try {
-			while(true) {
-					nextInt = pbr.read();
-				if (nextInt == -1) {
-					throw new DataFormatException("Did not find any content to parse");
-				}
-				if (nextInt == '{') {
-					pbr.unread(nextInt);
-					break;
-				}
-				if (Character.isWhitespace(nextInt)) {
-					continue;
-				}
-				if (allowArray) {
-					if (nextInt == '[') {
-						pbr.unread(nextInt);
-						break;
-					}
-					throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{' or '[')");
-				}
-				throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{')");
-			}
+			nextInt = readFirstCharacter(pbr, allowArray);
 		
 			Gson gson = new GsonBuilder().disableHtmlEscaping().create();
 			if (nextInt == '{') {
@@ -126,6 +107,36 @@ public class GsonStructure implements JsonLikeStructure {
 		}
 	}
 
+	/**
+	 * Skips any leading whitespace and returns the first character of the document,
+	 * which is pushed back onto the reader so that it can be parsed
+	 */
+	static int readFirstCharacter(PushbackReader thePushbackReader, boolean theAllowArray) throws IOException {
+		int nextInt;
+		while(true) {
+			nextInt = thePushbackReader.read();
+			if (nextInt == -1) {
+				throw new DataFormatException("Did not find any content to parse");
+			}
+			if (nextInt == '{') {
+				thePushbackReader.unread(nextInt);
+				break;
+			}
+			if (Character.isWhitespace(nextInt)) {
+				continue;
+			}
+			if (theAllowArray) {
+				if (nextInt == '[') {
+					thePushbackReader.unread(nextInt);
+					break;
+				}
+				throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{' or '[')");
+			}
+			throw new DataFormatException("Content does not appear to be FHIR JSON, first non-whitespace character was: '" + (char)nextInt + "' (must be '{')");
+		}
+		return nextInt;
+	}
+
 	@Override
 	public JsonLikeWriter getJsonLikeWriter (Writer writer) {
 		if (null == jsonLikeWriter) {
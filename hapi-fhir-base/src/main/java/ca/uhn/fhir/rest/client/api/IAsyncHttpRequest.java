@@ -0,0 +1,46 @@
+package ca.uhn.fhir.rest.client.api;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+/**
+ * Optional interface for {@link IHttpRequest} implementations whose transport can
+ * execute requests without blocking a thread while waiting for the response. The
+ * client checks for this interface when a request is started with
+ * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync()}. Requests which
+ * do not implement it are executed with {@link #execute()} on the
+ * async executor of the client factory (<code>RestfulClientFactory#getAsyncExecutor()</code>)
+ * instead.
+ *
+ * @since 3.3.0
+ */
+public interface IAsyncHttpRequest extends IHttpRequest {
+
+	/**
+	 * Execute the request without blocking the calling thread. The callback is notified on
+	 * a thread belonging to the transport once the response has been received or the request
+	 * has failed.
+	 *
+	 * @param theCallback the callback to notify
+	 */
+	void executeAsync(IHttpResponseCallback theCallback);
+
+}
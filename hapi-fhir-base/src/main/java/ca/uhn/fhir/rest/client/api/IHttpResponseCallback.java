@@ -0,0 +1,42 @@
+package ca.uhn.fhir.rest.client.api;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Callback which is notified when a request started with
+ * {@link IAsyncHttpRequest#executeAsync(IHttpResponseCallback)} completes, or when the client
+ * finishes executing a blocking {@link IHttpRequest} on behalf of an asynchronous invocation.
+ * Exactly one of the two methods is invoked, exactly once.
+ */
+public interface IHttpResponseCallback {
+
+	/**
+	 * The request could not be executed, or no response was received
+	 */
+	void onFailure(Throwable theError);
+
+	/**
+	 * A response was received. The response body may not have been read yet, and the
+	 * callback is responsible for closing the response.
+	 */
+	void onResponse(IHttpResponse theResponse);
+
+}
@@ -0,0 +1,51 @@
+package ca.uhn.fhir.rest.gclient;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Optional interface for {@link IClientExecutable} implementations which can execute their
+ * operation without blocking the calling thread. Every executable returned by the fluent
+ * generic client of HAPI FHIR implements it, but other implementations of
+ * {@link IClientExecutable} need not. {@link ca.uhn.fhir.util.AsyncClientUtil#executeAsync(IClientExecutable)}
+ * can be used to start an operation without casting.
+ *
+ * @since 3.3.0
+ */
+public interface IAsyncClientExecutable<Y> {
+
+	/**
+	 * Execute the client operation asynchronously, returning immediately. The request is
+	 * prepared (and client interceptors are notified of it) on the calling thread, and then
+	 * handed to the transport. If the transport implements
+	 * {@link ca.uhn.fhir.rest.client.api.IAsyncHttpRequest} (e.g. OkHttp) no thread waits
+	 * for the response, otherwise the request is executed on the async executor of the client
+	 * factory which created the client. The response is always processed on that executor.
+	 * <p>
+	 * Any exception which would have been thrown by {@link IClientExecutable#execute()} (e.g. a
+	 * {@link ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException}) is instead
+	 * used to complete the returned future exceptionally.
+	 * </p>
+	 */
+	ListenableFuture<Y> executeAsync();
+
+}
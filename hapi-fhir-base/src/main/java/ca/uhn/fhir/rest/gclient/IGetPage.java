@@ -24,6 +24,11 @@ import org.hl7.fhir.instance.model.api.IBaseBundle;
 
 public interface IGetPage {
 
+	/**
+	 * Default number of pages to load ahead of the caller for {@link #iterate(IBaseBundle)}
+	 */
+	int DEFAULT_READ_AHEAD_PAGES = 2;
+
 	/**
 	 * Load the next page of results using the link with relation "next" in the bundle. This
 	 * method accepts a DSTU2 Bundle resource
@@ -45,4 +50,43 @@ public interface IGetPage {
 	 */
 	IGetPageUntyped byUrl(String thePageUrl);
 
+	/**
+	 * Returns an iterator over every resource in the given bundle, followed by every resource
+	 * in each subsequent page of results (found using the link with relation "next"). This
+	 * is equivalent to calling <code>iterate(theBundle, DEFAULT_READ_AHEAD_PAGES)</code>.
+	 *
+	 * @see #iterate(IBaseBundle, int)
+	 * @since 3.3.0
+	 */
+	IPagingResourceIterator iterate(IBaseBundle theBundle);
+
+	/**
+	 * Returns an iterator over every resource in the given bundle, followed by every resource
+	 * in each subsequent page of results (found using the link with relation "next").
+	 * <p>
+	 * Subsequent pages are requested in the background using {@link IAsyncClientExecutable#executeAsync()},
+	 * so the next page is usually ready by the time the caller finishes the current one. At
+	 * most <code>theReadAheadPages</code> pages are held waiting for the caller, and each page
+	 * is released as soon as the caller moves past it, so memory use is bounded no matter how
+	 * large the result set is.
+	 * </p>
+	 * <p>
+	 * All resources in each bundle are returned, including any which were added by
+	 * <code>_include</code>.
+	 * </p>
+	 * <p>
+	 * If a page fails to load, the failure is thrown from the iterator's <code>hasNext()</code>
+	 * once the caller reaches that page, and no further pages are loaded.
+	 * </p>
+	 * <p>
+	 * Note that implementations of this interface written for versions of HAPI FHIR
+	 * prior to 3.3.0 must add the <code>iterate</code> methods.
+	 * </p>
+	 *
+	 * @param theBundle The first page of results
+	 * @param theReadAheadPages The maximum number of pages to load ahead of the caller (must be at least 1)
+	 * @since 3.3.0
+	 */
+	IPagingResourceIterator iterate(IBaseBundle theBundle, int theReadAheadPages);
+
 }
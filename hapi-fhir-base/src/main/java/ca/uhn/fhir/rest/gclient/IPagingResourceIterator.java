@@ -0,0 +1,52 @@
+package ca.uhn.fhir.rest.gclient;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Iterates over the resources in a page of search results and every page which follows
+ * it, loading pages ahead of the caller in the background. See {@link IGetPage#iterate(org.hl7.fhir.instance.model.api.IBaseBundle, int)}.
+ * <p>
+ * If the caller stops iterating before the last page has been reached, {@link #close()}
+ * should be called so that no further pages are requested.
+ * </p>
+ *
+ * @since 3.3.0
+ */
+public interface IPagingResourceIterator extends Iterator<IBaseResource>, Closeable {
+
+	/**
+	 * Stops requesting further pages and discards any which have already been loaded
+	 */
+	@Override
+	void close();
+
+	/**
+	 * Returns the number of pages which have been loaded from the server so far, not
+	 * including the page the iteration started with
+	 */
+	int getPagesLoaded();
+
+}
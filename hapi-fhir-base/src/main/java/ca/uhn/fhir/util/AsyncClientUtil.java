@@ -0,0 +1,55 @@
+package ca.uhn.fhir.util;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.rest.gclient.IAsyncClientExecutable;
+import ca.uhn.fhir.rest.gclient.IClientExecutable;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Starts fluent client operations asynchronously
+ *
+ * @since 3.3.0
+ */
+public class AsyncClientUtil {
+
+	/**
+	 * Non-instantiable
+	 */
+	private AsyncClientUtil() {
+		// nothing
+	}
+
+	/**
+	 * Starts the given operation using {@link IAsyncClientExecutable#executeAsync()}, e.g.
+	 * <code>AsyncClientUtil.executeAsync(client.read().resource(Patient.class).withId("123"))</code>
+	 *
+	 * @throws UnsupportedOperationException If the executable does not implement {@link IAsyncClientExecutable}
+	 */
+	@SuppressWarnings("unchecked")
+	public static <Y> ListenableFuture<Y> executeAsync(IClientExecutable<?, Y> theExecutable) {
+		if (!(theExecutable instanceof IAsyncClientExecutable)) {
+			throw new UnsupportedOperationException(theExecutable.getClass().getName() + " does not support asynchronous execution");
+		}
+		return ((IAsyncClientExecutable<Y>) theExecutable).executeAsync();
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.hl7.fhir.instance.model.api;
+
+/*
+ * #%L
+ * HAPI FHIR - Core Library
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Primitive datatypes implementing this interface are able to store an encoded
+ * value and defer converting it into the "coerced" Java representation (e.g.
+ * a {@link java.util.Date} or {@link java.math.BigDecimal}) until the value
+ * is first requested.
+ *
+ * @see ca.uhn.fhir.context.ParserOptions#setStrictPrimitiveCoercion(boolean)
+ */
+public interface ILazyCoercionPrimitiveType<T> extends IPrimitiveType<T> {
+
+	/**
+	 * Sets the encoded value of this datatype without validating or converting it.
+	 * Conversion happens the first time the coerced value is requested, and a value which
+	 * can not be converted is treated as having no coerced value (i.e. <code>getValue()</code>
+	 * returns <code>null</code>) while still being encoded as it was supplied. Datatypes which do
+	 * not benefit from deferring may simply delegate to {@link #setValueAsString(String)}.
+	 */
+	void setValueAsStringLazily(String theValue);
+
+}
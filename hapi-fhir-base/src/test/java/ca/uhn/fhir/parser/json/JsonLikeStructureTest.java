@@ -1,12 +1,19 @@
 package ca.uhn.fhir.parser.json;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.junit.Test;
 
+import ca.uhn.fhir.parser.DataFormatException;
+
 public class JsonLikeStructureTest {
 //	private static FhirContext ourCtx;
 //	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(JsonLikeStructureTest.class);
@@ -69,8 +76,43 @@ public class JsonLikeStructureTest {
 
 	@Test
 	public void testJsonAndDataTypes() {
+		verifyJsonAndDataTypes(new GsonStructure());
+	}
+
+	@Test
+	public void testJsonAndDataTypesStreaming() {
+		verifyJsonAndDataTypes(new GsonStreamingStructure());
+	}
+
+	@Test
+	public void testStreamingStructureKeyOrderAndErrors() {
+		JsonLikeStructure jsonStructure = new GsonStreamingStructure();
+		jsonStructure.load(new StringReader("  {\"b\":1, \"a\":[], \"c\":\"x\", \"a\":\"y\"}"));
+		JsonLikeObject rootObject = jsonStructure.getRootObject();
+		assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<String>(rootObject.keySet()));
+		assertEquals("y", rootObject.getString("a"));
+
+		try {
+			new GsonStreamingStructure().load(new StringReader("[]"));
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("must be '{'"));
+		}
+
+		try {
+			new GsonStreamingStructure().load(new StringReader("{\"a\":"));
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("Failed to parse JSON"));
+		}
+
+		jsonStructure = new GsonStreamingStructure();
+		jsonStructure.load(new StringReader("[{}]"), true);
+		assertEquals(1, jsonStructure.getRootArray().size());
+	}
+
+	private void verifyJsonAndDataTypes(JsonLikeStructure jsonStructure) {
 		StringReader reader = new StringReader(TEST_JSONTYPES_DATA);
-		JsonLikeStructure jsonStructure = new GsonStructure();
 		jsonStructure.load(reader);
 		
 		JsonLikeObject rootObject = jsonStructure.getRootObject();
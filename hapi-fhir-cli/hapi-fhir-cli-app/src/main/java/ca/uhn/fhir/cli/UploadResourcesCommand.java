@@ -0,0 +1,421 @@
+package ca.uhn.fhir.cli;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.*;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import com.google.common.base.Charsets;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.util.BundleUtil;
+import ca.uhn.fhir.util.StopWatch;
+
+/**
+ * Uploads large numbers of resources from NDJSON or Bundle files. Files are read one at a
+ * time (NDJSON files line by line), grouped into transactions, and a bounded number of
+ * transactions are kept in flight at once. <code>transaction</code> and <code>batch</code>
+ * Bundles are sent as they are, since their entries may refer to each other.
+ */
+public class UploadResourcesCommand extends BaseCommand {
+
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final int DEFAULT_RETRIES = 3;
+	private static final int DEFAULT_THREADS = 4;
+	static final long MAXIMUM_RETRY_DELAY_MILLIS = 5 * DateUtils.MILLIS_PER_MINUTE;
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(UploadResourcesCommand.class);
+	private static final long PROGRESS_INTERVAL_MILLIS = 5 * DateUtils.MILLIS_PER_SECOND;
+	private static final long RETRY_BASE_DELAY_MILLIS = DateUtils.MILLIS_PER_SECOND;
+
+	private List<File> findInputFiles(String[] theDataPaths) throws ParseException {
+		List<File> retVal = new ArrayList<File>();
+		for (String next : theDataPaths) {
+			File file = new File(FilenameUtils.normalize(next));
+			if (file.isDirectory()) {
+				Collection<File> files = FileUtils.listFiles(file, new String[] {"ndjson", "json", "xml"}, false);
+				retVal.addAll(files);
+			} else if (file.exists()) {
+				retVal.add(file);
+			} else {
+				throw new ParseException("Data file does not exist: " + next);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the delay before retrying a transaction, which doubles with each attempt
+	 * (starting at zero) up to {@link #MAXIMUM_RETRY_DELAY_MILLIS}
+	 */
+	static long getRetryDelayMillis(long theBaseDelayMillis, int theAttempt) {
+		long retVal = theBaseDelayMillis;
+		for (int i = 0; i < theAttempt && retVal < MAXIMUM_RETRY_DELAY_MILLIS; i++) {
+			retVal = retVal * 2;
+		}
+		return Math.min(retVal, MAXIMUM_RETRY_DELAY_MILLIS);
+	}
+
+	@Override
+	public String getCommandDescription() {
+		return "Uploads resources to a server from NDJSON files (one resource per line) and/or "
+				+ "Bundle files (JSON or XML). Resources are grouped into transactions of a "
+				+ "configurable size, and several transactions are sent concurrently.";
+	}
+
+	@Override
+	public String getCommandName() {
+		return "upload";
+	}
+
+	@Override
+	public Options getOptions() {
+		Options options = new Options();
+		Option opt;
+
+		addFhirVersionOption(options);
+
+		opt = new Option("t", "target", true, "Base URL for the target server (e.g. \"http://example.com/fhir\")");
+		opt.setRequired(true);
+		options.addOption(opt);
+
+		opt = new Option("d", "data", true, "Local *.ndjson, *.json or *.xml file, or directory containing such files, to upload");
+		opt.setRequired(true);
+		options.addOption(opt);
+
+		opt = new Option("s", "batch-size", true, "Number of resources per transaction (default is " + DEFAULT_BATCH_SIZE + ")");
+		opt.setRequired(false);
+		options.addOption(opt);
+
+		opt = new Option("n", "threads", true, "Number of transactions to keep in flight concurrently (default is " + DEFAULT_THREADS + ")");
+		opt.setRequired(false);
+		options.addOption(opt);
+
+		opt = new Option("r", "retries", true, "Number of times to retry a transaction which fails with a server or connection error (default is " + DEFAULT_RETRIES + ")");
+		opt.setRequired(false);
+		options.addOption(opt);
+
+		opt = new Option("b", "bearer-token", true, "Bearer token to add to the request");
+		opt.setRequired(false);
+		options.addOption(opt);
+
+		opt = new Option("v", "verbose", false, "Verbose output");
+		opt.setRequired(false);
+		options.addOption(opt);
+
+		return options;
+	}
+
+	private int parsePositiveInt(CommandLine theCommandLine, String theOption, int theDefault) throws ParseException {
+		String value = theCommandLine.getOptionValue(theOption);
+		if (isBlank(value)) {
+			return theDefault;
+		}
+		try {
+			int retVal = Integer.parseInt(value);
+			if (retVal < 0 || (retVal == 0 && !"r".equals(theOption))) {
+				throw new ParseException("Invalid value for option -" + theOption + ": " + value);
+			}
+			return retVal;
+		} catch (NumberFormatException e) {
+			throw new ParseException("Invalid value for option -" + theOption + ": " + value);
+		}
+	}
+
+	void readBundleFile(FhirContext theCtx, File theFile, ChunkUploader theUploader) throws IOException, InterruptedException {
+		IParser parser;
+		if ("xml".equalsIgnoreCase(FilenameUtils.getExtension(theFile.getName()))) {
+			parser = theCtx.newXmlParser();
+		} else {
+			parser = theCtx.newJsonParser();
+		}
+
+		IBaseResource resource;
+		Reader reader = new InputStreamReader(new BufferedInputStream(new FileInputStream(theFile)), Charsets.UTF_8);
+		try {
+			resource = parser.parseResource(reader);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+
+		if (resource instanceof IBaseBundle) {
+			IBaseBundle bundle = (IBaseBundle) resource;
+			String type = BundleUtil.getBundleType(theCtx, bundle);
+			List<IBaseResource> resources = BundleUtil.toListOfResources(theCtx, bundle);
+			if ("transaction".equals(type) || "batch".equals(type)) {
+				/*
+				 * The entries of these bundles carry fullUrl and request elements, and may
+				 * refer to each other using urn:uuid: placeholder IDs, so they can't be split
+				 * up or regrouped with other resources
+				 */
+				theUploader.addBundle(bundle, resources.size());
+			} else {
+				for (IBaseResource next : resources) {
+					theUploader.add(next);
+				}
+			}
+		} else {
+			theUploader.add(resource);
+		}
+	}
+
+	private void readNdjsonFile(FhirContext theCtx, File theFile, ChunkUploader theUploader) throws IOException, InterruptedException {
+		IParser parser = theCtx.newJsonParser();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(theFile), Charsets.UTF_8));
+		try {
+			int lineNumber = 0;
+			for (String line; (line = reader.readLine()) != null; ) {
+				lineNumber++;
+				if (isBlank(line)) {
+					continue;
+				}
+				try {
+					theUploader.add(parser.parseResource(line));
+				} catch (ca.uhn.fhir.parser.DataFormatException e) {
+					throw new CommandFailureException("Failed to parse line " + lineNumber + " of " + theFile.getName() + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	@Override
+	public void run(CommandLine theCommandLine) throws Exception {
+		FhirContext ctx = getSpecVersionContext(theCommandLine);
+
+		String targetServer = theCommandLine.getOptionValue("t");
+		if (isBlank(targetServer)) {
+			throw new ParseException("No target server (-t) specified");
+		} else if (targetServer.startsWith("http") == false && targetServer.startsWith("file") == false) {
+			throw new ParseException("Invalid target server specified, must begin with 'http' or 'file'");
+		}
+
+		String[] dataPaths = theCommandLine.getOptionValues("d");
+		if (dataPaths == null || dataPaths.length == 0) {
+			throw new ParseException("No data file provided");
+		}
+		List<File> files = findInputFiles(dataPaths);
+
+		int batchSize = parsePositiveInt(theCommandLine, "s", DEFAULT_BATCH_SIZE);
+		int threads = parsePositiveInt(theCommandLine, "n", DEFAULT_THREADS);
+		int retries = parsePositiveInt(theCommandLine, "r", DEFAULT_RETRIES);
+
+		// Every in-flight transaction needs its own pooled connection
+		ctx.getRestfulClientFactory().setPoolMaxTotal(threads);
+		ctx.getRestfulClientFactory().setPoolMaxPerRoute(threads);
+		IGenericClient client = super.newClient(ctx, targetServer);
+
+		String bearerToken = theCommandLine.getOptionValue("b");
+		if (isNotBlank(bearerToken)) {
+			client.registerInterceptor(new BearerTokenAuthInterceptor(bearerToken));
+		}
+		if (theCommandLine.hasOption('v')) {
+			client.registerInterceptor(new LoggingInterceptor(true));
+		}
+
+		ourLog.info("Uploading {} files using transactions of {} resources with {} in flight", files.size(), batchSize, threads);
+
+		ChunkUploader uploader = new ChunkUploader(client, batchSize, threads, retries, RETRY_BASE_DELAY_MILLIS);
+		try {
+			for (File next : files) {
+				ourLog.info("Reading {} ({})", next.getName(), FileUtils.byteCountToDisplaySize(next.length()));
+				if ("ndjson".equalsIgnoreCase(FilenameUtils.getExtension(next.getName()))) {
+					readNdjsonFile(ctx, next, uploader);
+				} else {
+					readBundleFile(ctx, next, uploader);
+				}
+			}
+			uploader.finish();
+		} finally {
+			uploader.shutdown();
+		}
+
+		uploader.logProgress();
+		if (uploader.getFailedCount() > 0) {
+			throw new CommandFailureException(uploader.getFailedCount() + " resources failed to upload");
+		}
+		ourLog.info("Upload complete!");
+	}
+
+	/**
+	 * Groups resources into transactions and sends them on a fixed pool of threads. Adding
+	 * a resource blocks when every thread is busy and one transaction is already waiting for
+	 * each thread, so that the reader never gets far ahead of the server.
+	 */
+	static class ChunkUploader {
+		private final int myBatchSize;
+		private final IGenericClient myClient;
+		private List<IBaseResource> myCurrentChunk = new ArrayList<IBaseResource>();
+		private final ExecutorService myExecutor;
+		private final AtomicLong myFailedCount = new AtomicLong();
+		private final Semaphore myInFlight;
+		private final int myMaxRetries;
+		private final ScheduledExecutorService myProgressExecutor;
+		private final long myRetryBaseDelayMillis;
+		private final AtomicLong myRetryCount = new AtomicLong();
+		private final StopWatch myStopWatch = new StopWatch();
+		private final AtomicLong myUploadedCount = new AtomicLong();
+
+		ChunkUploader(IGenericClient theClient, int theBatchSize, int theThreads, int theMaxRetries, long theRetryBaseDelayMillis) {
+			myClient = theClient;
+			myBatchSize = theBatchSize;
+			myMaxRetries = theMaxRetries;
+			myRetryBaseDelayMillis = theRetryBaseDelayMillis;
+			myInFlight = new Semaphore(theThreads * 2);
+			myExecutor = Executors.newFixedThreadPool(theThreads);
+			myProgressExecutor = Executors.newSingleThreadScheduledExecutor();
+			myProgressExecutor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					logProgress();
+				}
+			}, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		void add(IBaseResource theResource) throws InterruptedException {
+			if (!theResource.getIdElement().isEmpty()) {
+				theResource.setId(theResource.getIdElement().toUnqualifiedVersionless());
+			}
+			myCurrentChunk.add(theResource);
+			if (myCurrentChunk.size() >= myBatchSize) {
+				submitCurrentChunk();
+			}
+		}
+
+		/**
+		 * Sends a <code>transaction</code> or <code>batch</code> Bundle unchanged in a request of
+		 * its own, regardless of the batch size
+		 */
+		void addBundle(IBaseBundle theBundle, int theEntryCount) throws InterruptedException {
+			submit(theBundle, null, theEntryCount);
+		}
+
+		/**
+		 * Sends any remaining resources and waits for all transactions to complete
+		 */
+		void finish() throws InterruptedException {
+			submitCurrentChunk();
+			myExecutor.shutdown();
+			while (!myExecutor.awaitTermination(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				// keep waiting, progress is logged separately
+			}
+		}
+
+		long getFailedCount() {
+			return myFailedCount.get();
+		}
+
+		long getRetryCount() {
+			return myRetryCount.get();
+		}
+
+		long getUploadedCount() {
+			return myUploadedCount.get();
+		}
+
+		private boolean isRetryable(BaseServerResponseException theException) {
+			int status = theException.getStatusCode();
+			return theException instanceof FhirClientConnectionException || status == 429 || status >= 500 || status == 0;
+		}
+
+		void logProgress() {
+			long uploaded = myUploadedCount.get();
+			ourLog.info("Uploaded {} resources in {} ({} resources/sec) - {} failed, {} retries",
+				new Object[] {uploaded, myStopWatch.toString(), (long) myStopWatch.getThroughput((int) uploaded, TimeUnit.SECONDS), myFailedCount.get(), myRetryCount.get()});
+		}
+
+		void shutdown() {
+			myProgressExecutor.shutdownNow();
+			myExecutor.shutdownNow();
+		}
+
+		private void submitCurrentChunk() throws InterruptedException {
+			if (myCurrentChunk.isEmpty()) {
+				return;
+			}
+
+			List<IBaseResource> chunk = myCurrentChunk;
+			myCurrentChunk = new ArrayList<IBaseResource>();
+			submit(null, chunk, chunk.size());
+		}
+
+		/**
+		 * Sends either a bundle or a list of resources, once a slot is free
+		 */
+		private void submit(final IBaseBundle theBundle, final List<IBaseResource> theResources, final int theCount) throws InterruptedException {
+			myInFlight.acquire();
+			try {
+				myExecutor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							upload(theBundle, theResources, theCount);
+						} finally {
+							myInFlight.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				myInFlight.release();
+				throw e;
+			}
+		}
+
+		private void upload(IBaseBundle theBundle, List<IBaseResource> theResources, int theCount) {
+			for (int attempt = 0; ; attempt++) {
+				try {
+					if (theBundle != null) {
+						myClient.transaction().withBundle(theBundle).execute();
+					} else {
+						myClient.transaction().withResources(theResources).execute();
+					}
+					myUploadedCount.addAndGet(theCount);
+					return;
+				} catch (BaseServerResponseException e) {
+					if (!isRetryable(e) || attempt >= myMaxRetries) {
+						ourLog.error("Failed to upload transaction of {} resources: {}", theCount, e.getMessage());
+						myFailedCount.addAndGet(theCount);
+						return;
+					}
+
+					long delay = getRetryDelayMillis(myRetryBaseDelayMillis, attempt);
+					ourLog.warn("Failed to upload transaction of {} resources ({}), retrying in {}ms", new Object[] {theCount, e.getMessage(), delay});
+					myRetryCount.incrementAndGet();
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e1) {
+						Thread.currentThread().interrupt();
+						myFailedCount.addAndGet(theCount);
+						return;
+					}
+				} catch (RuntimeException e) {
+					// e.g. a resource which can't be encoded - retrying won't help
+					ourLog.error("Failed to upload transaction of " + theCount + " resources", e);
+					myFailedCount.addAndGet(theCount);
+					return;
+				}
+			}
+		}
+
+	}
+
+}
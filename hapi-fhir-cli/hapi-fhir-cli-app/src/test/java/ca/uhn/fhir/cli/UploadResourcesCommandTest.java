@@ -0,0 +1,214 @@
+package ca.uhn.fhir.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Reference;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.gclient.ITransaction;
+import ca.uhn.fhir.rest.gclient.ITransactionTyped;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+
+public class UploadResourcesCommandTest {
+
+	private static FhirContext ourCtx = FhirContext.forDstu3();
+
+	@Rule
+	public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+	private List<IBaseBundle> myBundles;
+	private List<Integer> myChunkSizes;
+	private IGenericClient myClient;
+	private ITransactionTyped<List<IBaseResource>> myTransactionTyped;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void before() {
+		myBundles = new ArrayList<IBaseBundle>();
+		myChunkSizes = new ArrayList<Integer>();
+		myClient = mock(IGenericClient.class);
+		ITransaction transaction = mock(ITransaction.class);
+		myTransactionTyped = mock(ITransactionTyped.class);
+		final ITransactionTyped<IBaseBundle> bundleTransactionTyped = mock(ITransactionTyped.class);
+		when(myClient.transaction()).thenReturn(transaction);
+		when(transaction.withBundle(any(IBaseBundle.class))).thenAnswer(new Answer<ITransactionTyped<IBaseBundle>>() {
+			@Override
+			public ITransactionTyped<IBaseBundle> answer(InvocationOnMock theInvocation) {
+				myBundles.add((IBaseBundle) theInvocation.getArguments()[0]);
+				return bundleTransactionTyped;
+			}
+		});
+		when(transaction.withResources(anyListOf(IBaseResource.class))).thenAnswer(new Answer<ITransactionTyped<List<IBaseResource>>>() {
+			@Override
+			public ITransactionTyped<List<IBaseResource>> answer(InvocationOnMock theInvocation) {
+				myChunkSizes.add(((List<?>) theInvocation.getArguments()[0]).size());
+				return myTransactionTyped;
+			}
+		});
+	}
+
+	/**
+	 * Uses a single thread so that the chunks are sent in order
+	 */
+	private UploadResourcesCommand.ChunkUploader upload(int theCount, int theBatchSize, int theMaxRetries) throws InterruptedException {
+		UploadResourcesCommand.ChunkUploader uploader = new UploadResourcesCommand.ChunkUploader(myClient, theBatchSize, 1, theMaxRetries, 1);
+		try {
+			for (int i = 0; i < theCount; i++) {
+				Patient patient = new Patient();
+				patient.setId("Patient/P" + i);
+				uploader.add(patient);
+			}
+			uploader.finish();
+		} finally {
+			uploader.shutdown();
+		}
+		return uploader;
+	}
+
+	private Bundle createBundleWithPlaceholderReference(BundleType theType) {
+		Bundle bundle = new Bundle();
+		bundle.setType(theType);
+
+		Patient patient = new Patient();
+		patient.addName().setFamily("FAMILY");
+		bundle.addEntry().setFullUrl("urn:uuid:5a2ba3a8-1ae6-4d0c-8a0b-4ce3b3e8b0a1").setResource(patient).getRequest().setMethod(HTTPVerb.POST).setUrl("Patient");
+
+		Observation observation = new Observation();
+		observation.setSubject(new Reference("urn:uuid:5a2ba3a8-1ae6-4d0c-8a0b-4ce3b3e8b0a1"));
+		bundle.addEntry().setFullUrl("urn:uuid:0e8f3c57-8d7e-4a5b-a3f1-27f1f5f5d1c4").setResource(observation).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+
+		return bundle;
+	}
+
+	private UploadResourcesCommand.ChunkUploader uploadBundleFile(Bundle theBundle, int theBatchSize) throws IOException, InterruptedException {
+		File file = myTemporaryFolder.newFile("bundle.json");
+		FileUtils.writeStringToFile(file, ourCtx.newJsonParser().encodeResourceToString(theBundle), "UTF-8");
+
+		UploadResourcesCommand.ChunkUploader uploader = new UploadResourcesCommand.ChunkUploader(myClient, theBatchSize, 1, 0, 1);
+		try {
+			new UploadResourcesCommand().readBundleFile(ourCtx, file, uploader);
+			uploader.finish();
+		} finally {
+			uploader.shutdown();
+		}
+		return uploader;
+	}
+
+	/**
+	 * The Observation refers to the Patient by its urn:uuid: fullUrl, so the two entries
+	 * have to reach the server in the same transaction even though the batch size is 1
+	 */
+	@Test
+	public void testTransactionBundleIsSentIntact() throws IOException, InterruptedException {
+		UploadResourcesCommand.ChunkUploader uploader = uploadBundleFile(createBundleWithPlaceholderReference(BundleType.TRANSACTION), 1);
+
+		assertEquals("[]", myChunkSizes.toString());
+		assertEquals(1, myBundles.size());
+		Bundle sent = (Bundle) myBundles.get(0);
+		assertEquals(BundleType.TRANSACTION, sent.getType());
+		assertEquals(2, sent.getEntry().size());
+		assertEquals("urn:uuid:5a2ba3a8-1ae6-4d0c-8a0b-4ce3b3e8b0a1", sent.getEntry().get(0).getFullUrl());
+		assertEquals(HTTPVerb.POST, sent.getEntry().get(0).getRequest().getMethod());
+		assertEquals("Patient", sent.getEntry().get(0).getRequest().getUrl());
+		assertEquals("urn:uuid:5a2ba3a8-1ae6-4d0c-8a0b-4ce3b3e8b0a1", ((Observation) sent.getEntry().get(1).getResource()).getSubject().getReference());
+		assertEquals(2, uploader.getUploadedCount());
+		assertEquals(0, uploader.getFailedCount());
+	}
+
+	@Test
+	public void testCollectionBundleIsChunked() throws IOException, InterruptedException {
+		UploadResourcesCommand.ChunkUploader uploader = uploadBundleFile(createBundleWithPlaceholderReference(BundleType.COLLECTION), 1);
+
+		assertEquals("[1, 1]", myChunkSizes.toString());
+		assertEquals(0, myBundles.size());
+		assertEquals(2, uploader.getUploadedCount());
+	}
+
+	@Test
+	public void testChunking() throws InterruptedException {
+		UploadResourcesCommand.ChunkUploader uploader = upload(250, 100, 3);
+
+		assertEquals("[100, 100, 50]", myChunkSizes.toString());
+		assertEquals(250, uploader.getUploadedCount());
+		assertEquals(0, uploader.getFailedCount());
+		assertEquals(0, uploader.getRetryCount());
+	}
+
+	@Test
+	public void testRetryThenSucceed() throws InterruptedException {
+		when(myTransactionTyped.execute())
+			.thenThrow(new InternalErrorException("FAILED"))
+			.thenThrow(new FhirClientConnectionException("FAILED"))
+			.thenReturn(null);
+
+		UploadResourcesCommand.ChunkUploader uploader = upload(10, 10, 3);
+
+		assertEquals("[10, 10, 10]", myChunkSizes.toString());
+		assertEquals(10, uploader.getUploadedCount());
+		assertEquals(0, uploader.getFailedCount());
+		assertEquals(2, uploader.getRetryCount());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws InterruptedException {
+		when(myTransactionTyped.execute()).thenThrow(new InternalErrorException("FAILED"));
+
+		UploadResourcesCommand.ChunkUploader uploader = upload(15, 10, 2);
+
+		// Each of the two chunks is attempted once and then retried twice
+		assertEquals(6, myChunkSizes.size());
+		assertEquals(0, uploader.getUploadedCount());
+		assertEquals(15, uploader.getFailedCount());
+		assertEquals(4, uploader.getRetryCount());
+	}
+
+	@Test
+	public void testNonRetryableFailuresAreCounted() throws InterruptedException {
+		when(myTransactionTyped.execute())
+			.thenThrow(new InvalidRequestException("FAILED"))
+			.thenThrow(new IllegalStateException("FAILED"))
+			.thenReturn(null);
+
+		UploadResourcesCommand.ChunkUploader uploader = upload(25, 10, 3);
+
+		assertEquals("[10, 10, 5]", myChunkSizes.toString());
+		assertEquals(5, uploader.getUploadedCount());
+		assertEquals(20, uploader.getFailedCount());
+		assertEquals(0, uploader.getRetryCount());
+	}
+
+	@Test
+	public void testRetryDelayIsCapped() {
+		assertEquals(1000, UploadResourcesCommand.getRetryDelayMillis(1000, 0));
+		assertEquals(2000, UploadResourcesCommand.getRetryDelayMillis(1000, 1));
+		assertEquals(8000, UploadResourcesCommand.getRetryDelayMillis(1000, 3));
+		assertEquals(UploadResourcesCommand.MAXIMUM_RETRY_DELAY_MILLIS, UploadResourcesCommand.getRetryDelayMillis(1000, 63));
+		assertEquals(UploadResourcesCommand.MAXIMUM_RETRY_DELAY_MILLIS, UploadResourcesCommand.getRetryDelayMillis(1000, Integer.MAX_VALUE));
+	}
+
+}
@@ -25,20 +25,23 @@ import java.util.Map;
  */
 
 import ca.uhn.fhir.rest.api.RequestTypeEnum;
-import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IAsyncHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IHttpResponseCallback;
 import ca.uhn.fhir.util.StopWatch;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Call.Factory;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okhttp3.Response;
 
 /**
  * Adapter for building an OkHttp-specific request.
  *
  * @author Matthew Clarke | matthew.clarke@orionhealth.com | Orion Health
  */
-public class OkHttpRestfulRequest implements IHttpRequest {
+public class OkHttpRestfulRequest implements IAsyncHttpRequest {
 
     private final Request.Builder myRequestBuilder;
     private Factory myClient;
@@ -72,6 +75,28 @@ public class OkHttpRestfulRequest implements IHttpRequest {
 		 return new OkHttpRestfulResponse(call.execute(), responseStopWatch);
     }
 
+    /**
+     * Enqueues the call with the OkHttp dispatcher, so no thread is blocked while waiting
+     * for the response. The callback is notified on a dispatcher thread.
+     */
+    @Override
+    public void executeAsync(final IHttpResponseCallback theCallback) {
+		 final StopWatch responseStopWatch = new StopWatch();
+		 myRequestBuilder.method(getHttpVerbName(), myRequestBody);
+		 Call call = myClient.newCall(myRequestBuilder.build());
+		 call.enqueue(new Callback() {
+			 @Override
+			 public void onFailure(Call theCall, IOException theException) {
+				 theCallback.onFailure(theException);
+			 }
+
+			 @Override
+			 public void onResponse(Call theCall, Response theResponse) {
+				 theCallback.onResponse(new OkHttpRestfulResponse(theResponse, responseStopWatch));
+			 }
+		 });
+    }
+
     @Override
     public Map<String, List<String>> getAllHeaders() {
         return myRequestBuilder.build().headers().toMultimap();
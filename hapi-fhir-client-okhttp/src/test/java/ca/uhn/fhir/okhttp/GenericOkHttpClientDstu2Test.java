@@ -5,6 +5,8 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -20,6 +22,7 @@ import org.junit.*;
 import org.junit.Test;
 
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.Include;
@@ -38,6 +41,8 @@ import ca.uhn.fhir.rest.client.exceptions.InvalidResponseException;
 import ca.uhn.fhir.rest.client.impl.RestfulClientFactory;
 import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
 import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.AsyncClientUtil;
 
 public class GenericOkHttpClientDstu2Test {
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(GenericOkHttpClientDstu2Test.class);
@@ -1155,6 +1160,56 @@ public class GenericOkHttpClientDstu2Test {
 		assertEquals("FAM", response.getName().get(0).getFamily().get(0).getValue());
 	}
 
+	@Test
+	public void testReadFluentAsync() throws Exception {
+		Patient patient = new Patient();
+		patient.addName().addFamily("FAM");
+		final String respString = ourCtx.newXmlParser().encodeResourceToString(patient);
+
+		ourResponseStatus = Constants.STATUS_HTTP_200_OK;
+		ourResponseContentType = Constants.CT_FHIR_XML + "; charset=UTF-8";
+		ourResponseBody = respString;
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://localhost:" + ourPort + "/fhir");
+		final List<String> responseThreads = Collections.synchronizedList(new ArrayList<String>());
+		client.registerInterceptor(new IClientInterceptor() {
+			@Override
+			public void interceptRequest(IHttpRequest theRequest) {
+				// nothing
+			}
+
+			@Override
+			public void interceptResponse(IHttpResponse theResponse) {
+				responseThreads.add(Thread.currentThread().getName());
+			}
+		});
+
+		ListenableFuture<Patient> future = AsyncClientUtil.executeAsync(client.read().resource(Patient.class).withId("123"));
+		Patient response = future.get(10, TimeUnit.SECONDS);
+
+		assertEquals("http://localhost:" + ourPort + "/fhir/Patient/123", ourRequestUri);
+		assertEquals("FAM", response.getName().get(0).getFamily().get(0).getValue());
+		assertEquals(1, responseThreads.size());
+		assertThat(responseThreads.get(0), startsWith("hapi-fhir-client-async-"));
+	}
+
+	@Test
+	public void testReadFluentAsyncNotFound() throws Exception {
+		ourResponseStatus = Constants.STATUS_HTTP_404_NOT_FOUND;
+		ourResponseContentType = Constants.CT_TEXT + "; charset=UTF-8";
+		ourResponseBody = "Not here";
+
+		IGenericClient client = ourCtx.newRestfulGenericClient("http://localhost:" + ourPort + "/fhir");
+
+		try {
+			AsyncClientUtil.executeAsync(client.read().resource(Patient.class).withId("123")).get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals(ResourceNotFoundException.class, e.getCause().getClass());
+			assertEquals("HTTP 404 Not Found: Not here", e.getCause().getMessage());
+		}
+	}
+
 	@Test
 	public void testReadUpdatedHeaderDoesntOverwriteResourceValue() throws Exception {
 
@@ -25,7 +25,6 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,9 +32,13 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import ca.uhn.fhir.rest.api.CacheControlDirective;
 import ca.uhn.fhir.util.XmlDetectionUtil;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -55,10 +58,12 @@ import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.client.api.IAsyncHttpRequest;
 import ca.uhn.fhir.rest.client.api.IClientInterceptor;
 import ca.uhn.fhir.rest.client.api.IHttpClient;
 import ca.uhn.fhir.rest.client.api.IHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IHttpResponseCallback;
 import ca.uhn.fhir.rest.client.api.IRestfulClient;
 import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
 import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
@@ -82,6 +87,12 @@ public abstract class BaseClient implements IRestfulClient {
 	 */
 	public static final String HAPI_CLIENT_KEEPRESPONSES = "hapi.client.keepresponses";
 
+	/**
+	 * The maximum number of characters of a response body which will be kept for logging or
+	 * for {@link BaseServerResponseException#getResponseBody()}
+	 */
+	static final int MAX_CAPTURED_BODY_LENGTH = 1024 * 1024;
+
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BaseClient.class);
 
 	private final IHttpClient myClient;
@@ -117,6 +128,16 @@ public abstract class BaseClient implements IRestfulClient {
 
 	}
 
+	/**
+	 * Returns the executor which asynchronous invocations are run on
+	 */
+	ExecutorService getAsyncExecutor() {
+		if (myFactory == null) {
+			throw new IllegalStateException("This client was not created by a client factory, so it can not execute requests asynchronously");
+		}
+		return myFactory.getAsyncExecutor();
+	}
+
 	protected Map<String, List<String>> createExtraParams() {
 		HashMap<String, List<String>> retVal = new LinkedHashMap<String, List<String>>();
 
@@ -215,168 +236,299 @@ public abstract class BaseClient implements IRestfulClient {
 		IHttpRequest httpRequest = null;
 		IHttpResponse response = null;
 		try {
-			Map<String, List<String>> params = createExtraParams();
-
-			if (clientInvocation instanceof HttpGetClientInvocation) {
-				if (theEncoding == EncodingEnum.XML) {
-					params.put(Constants.PARAM_FORMAT, Collections.singletonList("xml"));
-				} else if (theEncoding == EncodingEnum.JSON) {
-					params.put(Constants.PARAM_FORMAT, Collections.singletonList("json"));
-				}
+			httpRequest = createHttpRequest(clientInvocation, theEncoding, thePrettyPrint, theLogRequestAndResponse, theSummaryMode, theSubsetElements, theCacheControlDirective);
+			response = httpRequest.execute();
+			return handleResponse(theContext, binding, response, theLogRequestAndResponse);
+		} catch (Exception e) {
+			throw toClientException(httpRequest, e);
+		} finally {
+			if (response != null) {
+				response.close();
 			}
+		}
+	}
 
-			if (theSummaryMode != null) {
-				params.put(Constants.PARAM_SUMMARY, Collections.singletonList(theSummaryMode.getCode()));
-			} else if (mySummary != null) {
-				params.put(Constants.PARAM_SUMMARY, Collections.singletonList(mySummary.getCode()));
+	/**
+	 * Builds the HTTP request for an invocation and runs the request interceptors on it
+	 */
+	private IHttpRequest createHttpRequest(BaseHttpClientInvocation clientInvocation, EncodingEnum theEncoding, Boolean thePrettyPrint, boolean theLogRequestAndResponse,
+														SummaryEnum theSummaryMode, Set<String> theSubsetElements, CacheControlDirective theCacheControlDirective) throws IOException {
+		Map<String, List<String>> params = createExtraParams();
+
+		if (clientInvocation instanceof HttpGetClientInvocation) {
+			if (theEncoding == EncodingEnum.XML) {
+				params.put(Constants.PARAM_FORMAT, Collections.singletonList("xml"));
+			} else if (theEncoding == EncodingEnum.JSON) {
+				params.put(Constants.PARAM_FORMAT, Collections.singletonList("json"));
 			}
+		}
 
-			if (thePrettyPrint == Boolean.TRUE) {
-				params.put(Constants.PARAM_PRETTY, Collections.singletonList(Constants.PARAM_PRETTY_VALUE_TRUE));
-			}
+		if (theSummaryMode != null) {
+			params.put(Constants.PARAM_SUMMARY, Collections.singletonList(theSummaryMode.getCode()));
+		} else if (mySummary != null) {
+			params.put(Constants.PARAM_SUMMARY, Collections.singletonList(mySummary.getCode()));
+		}
 
-			if (theSubsetElements != null && theSubsetElements.isEmpty() == false) {
-				params.put(Constants.PARAM_ELEMENTS, Collections.singletonList(StringUtils.join(theSubsetElements, ',')));
+		if (thePrettyPrint == Boolean.TRUE) {
+			params.put(Constants.PARAM_PRETTY, Collections.singletonList(Constants.PARAM_PRETTY_VALUE_TRUE));
+		}
+
+		if (theSubsetElements != null && theSubsetElements.isEmpty() == false) {
+			params.put(Constants.PARAM_ELEMENTS, Collections.singletonList(StringUtils.join(theSubsetElements, ',')));
+		}
+
+		EncodingEnum encoding = getEncoding();
+		if (theEncoding != null) {
+			encoding = theEncoding;
+		}
+
+		IHttpRequest httpRequest = clientInvocation.asHttpRequest(myUrlBase, params, encoding, thePrettyPrint);
+
+		if (theCacheControlDirective != null) {
+			StringBuilder b = new StringBuilder();
+			addToCacheControlHeader(b, Constants.CACHE_CONTROL_NO_CACHE, theCacheControlDirective.isNoCache());
+			addToCacheControlHeader(b, Constants.CACHE_CONTROL_NO_STORE, theCacheControlDirective.isNoStore());
+			if (theCacheControlDirective.getMaxResults() != null) {
+				addToCacheControlHeader(b, Constants.CACHE_CONTROL_MAX_RESULTS+"="+ Integer.toString(theCacheControlDirective.getMaxResults().intValue()), true);
+			}
+			if (b.length() > 0) {
+				httpRequest.addHeader(Constants.HEADER_CACHE_CONTROL, b.toString());
 			}
+		}
 
-			EncodingEnum encoding = getEncoding();
-			if (theEncoding != null) {
-				encoding = theEncoding;
+		if (theLogRequestAndResponse) {
+			ourLog.info("Client invoking: {}", httpRequest);
+			String body = httpRequest.getRequestBodyFromStream();
+			if (body != null) {
+				ourLog.info("Client request body: {}", body);
 			}
+		}
+
+		for (IClientInterceptor nextInterceptor : myInterceptors) {
+			nextInterceptor.interceptRequest(httpRequest);
+		}
 
-			httpRequest = clientInvocation.asHttpRequest(myUrlBase, params, encoding, thePrettyPrint);
+		return httpRequest;
+	}
 
-			if (theCacheControlDirective != null) {
-				StringBuilder b = new StringBuilder();
-				addToCacheControlHeader(b, Constants.CACHE_CONTROL_NO_CACHE, theCacheControlDirective.isNoCache());
-				addToCacheControlHeader(b, Constants.CACHE_CONTROL_NO_STORE, theCacheControlDirective.isNoStore());
-				if (theCacheControlDirective.getMaxResults() != null) {
-					addToCacheControlHeader(b, Constants.CACHE_CONTROL_MAX_RESULTS+"="+ Integer.toString(theCacheControlDirective.getMaxResults().intValue()), true);
-				}
-				if (b.length() > 0) {
-					httpRequest.addHeader(Constants.HEADER_CACHE_CONTROL, b.toString());
-				}
+	/**
+	 * Converts a failure while performing a request or processing its response into the
+	 * exception which is thrown to the caller
+	 */
+	private RuntimeException toClientException(IHttpRequest theHttpRequest, Throwable theError) {
+		String verb = theHttpRequest != null ? theHttpRequest.getHttpVerbName() : "UNKNOWN";
+		String uri = theHttpRequest != null ? theHttpRequest.getUri() : "UNKNOWN";
+		if (theError instanceof DataFormatException || theError instanceof IOException) {
+			String msg = getFhirContext().getLocalizer().getMessage(BaseClient.class, "failedToParseResponse", verb, uri, theError.toString());
+			return new FhirClientConnectionException(msg, theError);
+		} else if (theError instanceof IllegalStateException) {
+			return new FhirClientConnectionException(theError);
+		} else if (theError instanceof RuntimeException) {
+			return (RuntimeException) theError;
+		}
+		return new FhirClientConnectionException(theError);
+	}
+
+	private <T> T handleResponse(FhirContext theContext, IClientResponseHandler<T> binding, IHttpResponse response, boolean theLogRequestAndResponse) throws IOException {
+		for (IClientInterceptor nextInterceptor : myInterceptors) {
+			nextInterceptor.interceptResponse(response);
+		}
+
+		String mimeType;
+		if (Constants.STATUS_HTTP_204_NO_CONTENT == response.getStatus()) {
+			mimeType = null;
+		} else {
+			mimeType = response.getMimeType();
+		}
+
+		Map<String, List<String>> headers = response.getAllHeaders();
+
+		if (response.getStatus() < 200 || response.getStatus() > 299) {
+			EncodingEnum enc = null;
+			if (!Constants.CT_TEXT.equals(mimeType)) {
+				enc = EncodingEnum.forContentType(mimeType);
 			}
 
-			if (theLogRequestAndResponse) {
-				ourLog.info("Client invoking: {}", httpRequest);
-				String body = httpRequest.getRequestBodyFromStream();
-				if (body != null) {
-					ourLog.info("Client request body: {}", body);
+			// Parse any OperationOutcome straight from the response, keeping a bounded copy of the body
+			String body = null;
+			IBaseOperationOutcome oo = null;
+			CapturingReader reader = null;
+			try {
+				reader = new CapturingReader(response.createReader(), MAX_CAPTURED_BODY_LENGTH);
+				if (enc != null) {
+					try {
+						// TODO: handle if something other than OO comes back
+						oo = (IBaseOperationOutcome) enc.newParser(theContext).parseResource(reader);
+					} catch (Exception e) {
+						ourLog.debug("Failed to process OperationOutcome response");
+					}
 				}
+				body = reader.drainAndGetCaptured();
+			} catch (Exception e) {
+				ourLog.debug("Failed to read input stream", e);
+			} finally {
+				IOUtils.closeQuietly(reader);
 			}
 
-			for (IClientInterceptor nextInterceptor : myInterceptors) {
-				nextInterceptor.interceptRequest(httpRequest);
+			String message = "HTTP " + response.getStatus() + " " + response.getStatusInfo();
+			if (Constants.CT_TEXT.equals(mimeType)) {
+				message = message + ": " + body;
+			} else if (oo != null) {
+				try {
+					String details = OperationOutcomeUtil.getFirstIssueDetails(getFhirContext(), oo);
+					if (isNotBlank(details)) {
+						message = message + ": " + details;
+					}
+				} catch (Exception e) {
+					ourLog.debug("Failed to process OperationOutcome response");
+				}
 			}
 
-			response = httpRequest.execute();
+			keepResponseAndLogIt(theLogRequestAndResponse, response, body);
 
-			for (IClientInterceptor nextInterceptor : myInterceptors) {
-				nextInterceptor.interceptResponse(response);
-			}
+			BaseServerResponseException exception = BaseServerResponseException.newInstance(response.getStatus(), message);
+			exception.setOperationOutcome(oo);
 
-			String mimeType;
-			if (Constants.STATUS_HTTP_204_NO_CONTENT == response.getStatus()) {
-				mimeType = null;
-			} else {
-				mimeType = response.getMimeType();
+			if (body != null) {
+				exception.setResponseBody(body);
 			}
 
-			Map<String, List<String>> headers = response.getAllHeaders();
-
-			if (response.getStatus() < 200 || response.getStatus() > 299) {
-				String body = null;
-				Reader reader = null;
+			throw exception;
+		}
+		if (binding instanceof IClientResponseHandlerHandlesBinary) {
+			IClientResponseHandlerHandlesBinary<T> handlesBinary = (IClientResponseHandlerHandlesBinary<T>) binding;
+			if (handlesBinary.isBinary()) {
+				InputStream reader = response.readEntity();
 				try {
-					reader = response.createReader();
-					body = IOUtils.toString(reader);
-				} catch (Exception e) {
-					ourLog.debug("Failed to read input stream", e);
+					return handlesBinary.invokeClient(mimeType, reader, response.getStatus(), headers);
 				} finally {
 					IOUtils.closeQuietly(reader);
 				}
+			}
+		}
 
-				String message = "HTTP " + response.getStatus() + " " + response.getStatusInfo();
-				IBaseOperationOutcome oo = null;
-				if (Constants.CT_TEXT.equals(mimeType)) {
-					message = message + ": " + body;
-				} else {
-					EncodingEnum enc = EncodingEnum.forContentType(mimeType);
-					if (enc != null) {
-						IParser p = enc.newParser(theContext);
-						try {
-							// TODO: handle if something other than OO comes back
-							oo = (IBaseOperationOutcome) p.parseResource(body);
-							String details = OperationOutcomeUtil.getFirstIssueDetails(getFhirContext(), oo);
-							if (isNotBlank(details)) {
-								message = message + ": " + details;
-							}
-						} catch (Exception e) {
-							ourLog.debug("Failed to process OperationOutcome response");
-						}
-					}
-				}
+		// Parse straight from the response, only keeping a copy of the body if it will be logged
+		Reader reader = response.createReader();
+		CapturingReader capturingReader = null;
+		if (ourLog.isTraceEnabled() || myKeepResponses || theLogRequestAndResponse) {
+			capturingReader = new CapturingReader(reader, myKeepResponses ? Integer.MAX_VALUE : MAX_CAPTURED_BODY_LENGTH);
+			reader = capturingReader;
+		}
 
-				keepResponseAndLogIt(theLogRequestAndResponse, response, body);
+		try {
+			return binding.invokeClient(mimeType, reader, response.getStatus(), headers);
+		} finally {
+			if (capturingReader != null) {
+				keepResponseAndLogIt(theLogRequestAndResponse, response, capturingReader.drainAndGetCaptured());
+			}
+			IOUtils.closeQuietly(reader);
+		}
+	}
 
-				BaseServerResponseException exception = BaseServerResponseException.newInstance(response.getStatus(), message);
-				exception.setOperationOutcome(oo);
+	/**
+	 * Performs an invocation without blocking the calling thread. The request is built and
+	 * passed through the request interceptors on the calling thread, then handed to
+	 * {@link IAsyncHttpRequest#executeAsync(IHttpResponseCallback)} if the transport supports
+	 * it, or executed on the {@link #getAsyncExecutor() async executor} if not.
+	 * Once the response arrives it is processed by <code>binding</code> on the
+	 * {@link #getAsyncExecutor() async executor}, which completes the returned future.
+	 * If the server's conformance statement has yet to be checked, that check is also
+	 * done on the async executor before the request is sent.
+	 */
+	<T> ListenableFuture<T> invokeClientAsync(final FhirContext theContext, final IClientResponseHandler<T> binding, BaseHttpClientInvocation clientInvocation, EncodingEnum theEncoding,
+															Boolean thePrettyPrint, final boolean theLogRequestAndResponse, SummaryEnum theSummaryMode, Set<String> theSubsetElements, CacheControlDirective theCacheControlDirective) {
+		final SettableFuture<T> retVal = SettableFuture.create();
 
-				if (body != null) {
-					exception.setResponseBody(body);
-				}
+		IHttpRequest request = null;
+		try {
+			request = createHttpRequest(clientInvocation, theEncoding, thePrettyPrint, theLogRequestAndResponse, theSummaryMode, theSubsetElements, theCacheControlDirective);
+		} catch (Exception e) {
+			retVal.setException(toClientException(request, e));
+			return retVal;
+		}
 
-				throw exception;
+		final IHttpRequest httpRequest = request;
+		final ExecutorService executor = getAsyncExecutor();
+		final IHttpResponseCallback callback = new IHttpResponseCallback() {
+			@Override
+			public void onFailure(Throwable theError) {
+				retVal.setException(toClientException(httpRequest, theError));
 			}
-			if (binding instanceof IClientResponseHandlerHandlesBinary) {
-				IClientResponseHandlerHandlesBinary<T> handlesBinary = (IClientResponseHandlerHandlesBinary<T>) binding;
-				if (handlesBinary.isBinary()) {
-					InputStream reader = response.readEntity();
-					try {
-						return handlesBinary.invokeClient(mimeType, reader, response.getStatus(), headers);
-					} finally {
-						IOUtils.closeQuietly(reader);
-					}
-				}
-			}
-
-			Reader reader = response.createReader();
 
-			if (ourLog.isTraceEnabled() || myKeepResponses || theLogRequestAndResponse) {
-				String responseString = IOUtils.toString(reader);
-				keepResponseAndLogIt(theLogRequestAndResponse, response, responseString);
-				reader = new StringReader(responseString);
+			@Override
+			public void onResponse(final IHttpResponse theResponse) {
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								retVal.set(handleResponse(theContext, binding, theResponse, theLogRequestAndResponse));
+							} catch (Throwable t) {
+								retVal.setException(toClientException(httpRequest, t));
+							} finally {
+								theResponse.close();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					theResponse.close();
+					retVal.setException(e);
+				}
 			}
+		};
 
+		if (!myDontValidateConformance && myFactory.isServerBaseValidationPending(myUrlBase)) {
+			// Fetching the server's conformance statement blocks, so it is done on the async executor
 			try {
-				return binding.invokeClient(mimeType, reader, response.getStatus(), headers);
-			} finally {
-				IOUtils.closeQuietly(reader);
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							myFactory.validateServerBaseIfConfiguredToDoSo(myUrlBase, myClient, BaseClient.this);
+						} catch (Exception e) {
+							retVal.setException(toClientException(null, e));
+							return;
+						}
+						executeAsync(httpRequest, callback, executor, retVal);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				retVal.setException(e);
 			}
+		} else {
+			executeAsync(httpRequest, callback, executor, retVal);
+		}
 
-		} catch (DataFormatException e) {
-			String msg;
-			if (httpRequest != null) {
-				msg = getFhirContext().getLocalizer().getMessage(BaseClient.class, "failedToParseResponse", httpRequest.getHttpVerbName(), httpRequest.getUri(), e.toString());
-			} else {
-				msg = getFhirContext().getLocalizer().getMessage(BaseClient.class, "failedToParseResponse", "UNKNOWN", "UNKNOWN", e.toString());
+		return retVal;
+	}
+
+	/**
+	 * Hands the request to its transport if that supports non-blocking I/O, and otherwise
+	 * executes it on the async executor. It is never executed on the calling thread.
+	 */
+	private void executeAsync(final IHttpRequest theHttpRequest, final IHttpResponseCallback theCallback, ExecutorService theExecutor, SettableFuture<?> theFuture) {
+		try {
+			if (theHttpRequest instanceof IAsyncHttpRequest) {
+				((IAsyncHttpRequest) theHttpRequest).executeAsync(theCallback);
+				return;
 			}
-			throw new FhirClientConnectionException(msg, e);
-		} catch (IllegalStateException e) {
-			throw new FhirClientConnectionException(e);
-		} catch (IOException e) {
-			String msg;
-			msg = getFhirContext().getLocalizer().getMessage(BaseClient.class, "failedToParseResponse", httpRequest.getHttpVerbName(), httpRequest.getUri(), e.toString());
-			throw new FhirClientConnectionException(msg, e);
+			theExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					IHttpResponse response;
+					try {
+						response = theHttpRequest.execute();
+					} catch (Throwable t) {
+						theCallback.onFailure(t);
+						return;
+					}
+					theCallback.onResponse(response);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			theFuture.setException(e);
 		} catch (RuntimeException e) {
-			throw e;
-		} catch (Exception e) {
-			throw new FhirClientConnectionException(e);
-		} finally {
-			if (response != null) {
-				response.close();
-			}
+			theFuture.setException(toClientException(theHttpRequest, e));
 		}
 	}
 
@@ -0,0 +1,130 @@
+package ca.uhn.fhir.rest.client.impl;
+
+/*
+ * #%L
+ * HAPI FHIR - Client Framework
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader which copies the characters passing through it into a buffer of bounded size, so
+ * that a response body can be logged without holding all of it in memory while it is parsed
+ */
+class CapturingReader extends FilterReader {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(CapturingReader.class);
+
+	private final StringBuilder myCaptured = new StringBuilder();
+	private final int myMaxLength;
+	private boolean myTruncated;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theReader The reader to wrap
+	 * @param theMaxLength The maximum number of characters to capture
+	 */
+	CapturingReader(Reader theReader, int theMaxLength) {
+		super(theReader);
+		myMaxLength = theMaxLength;
+	}
+
+	private void capture(char[] theBuffer, int theOffset, int theLength) {
+		int remaining = myMaxLength - myCaptured.length();
+		if (theLength > remaining) {
+			myTruncated = true;
+		}
+		if (remaining > 0) {
+			myCaptured.append(theBuffer, theOffset, Math.min(theLength, remaining));
+		}
+	}
+
+	/**
+	 * Reads whatever the consumer of this reader left unread (stopping once nothing more can
+	 * be captured), and returns everything captured. If the content was longer than the
+	 * maximum length, the returned text ends with a note saying so.
+	 */
+	String drainAndGetCaptured() {
+		try {
+			char[] buffer = new char[4096];
+			while (!myTruncated && read(buffer, 0, buffer.length) != -1) {
+				// keep reading
+			}
+		} catch (IOException e) {
+			ourLog.debug("Failed to read remainder of response", e);
+		}
+
+		if (myTruncated) {
+			return myCaptured + "\n... (truncated after " + myMaxLength + " characters)";
+		}
+		return myCaptured.toString();
+	}
+
+	@Override
+	public void mark(int theReadAheadLimit) throws IOException {
+		throw new IOException("mark() not supported");
+	}
+
+	@Override
+	public boolean markSupported() {
+		// Re-reading after a reset would capture the same characters twice
+		return false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int retVal = super.read();
+		if (retVal != -1) {
+			capture(new char[] {(char) retVal}, 0, 1);
+		}
+		return retVal;
+	}
+
+	@Override
+	public int read(char[] theBuffer, int theOffset, int theLength) throws IOException {
+		int retVal = super.read(theBuffer, theOffset, theLength);
+		if (retVal > 0) {
+			capture(theBuffer, theOffset, retVal);
+		}
+		return retVal;
+	}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("reset() not supported");
+	}
+
+	@Override
+	public long skip(long theCount) throws IOException {
+		// Skipped characters are read so that they are captured too
+		char[] buffer = new char[(int) Math.min(theCount, 4096)];
+		long retVal = 0;
+		while (retVal < theCount) {
+			int count = read(buffer, 0, (int) Math.min(buffer.length, theCount - retVal));
+			if (count == -1) {
+				break;
+			}
+			retVal += count;
+		}
+		return retVal;
+	}
+
+}
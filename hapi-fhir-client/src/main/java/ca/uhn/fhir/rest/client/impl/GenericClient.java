@@ -27,6 +27,10 @@ import java.io.Reader;
 import java.util.*;
 import java.util.Map.Entry;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -88,6 +92,24 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 	private <T extends IBaseResource> T doReadOrVRead(final Class<T> theType, IIdType theId, boolean theVRead, ICallable<T> theNotModifiedHandler, String theIfVersionMatches, Boolean thePrettyPrint,
 			SummaryEnum theSummary, EncodingEnum theEncoding, Set<String> theSubsetElements) {
+		PreparedInvocation<T> prepared = prepareReadOrVRead(theType, theId, theVRead, theNotModifiedHandler, theIfVersionMatches, theSummary);
+		if (isKeepResponses()) {
+			myLastRequest = prepared.myInvocation.asHttpRequest(getServerBase(), createExtraParams(), getEncoding(), isPrettyPrint());
+		}
+
+		if (theNotModifiedHandler == null) {
+			return prepared.toResult(invokeClient(myContext, prepared.myHandler, prepared.myInvocation, theEncoding, thePrettyPrint, myLogRequestAndResponse, theSummary, theSubsetElements, null));
+		}
+		try {
+			return prepared.toResult(invokeClient(myContext, prepared.myHandler, prepared.myInvocation, theEncoding, thePrettyPrint, myLogRequestAndResponse, theSummary, theSubsetElements, null));
+		} catch (NotModifiedException e) {
+			return theNotModifiedHandler.call();
+		}
+
+	}
+
+	private <T extends IBaseResource> PreparedInvocation<T> prepareReadOrVRead(final Class<T> theType, IIdType theId, boolean theVRead, ICallable<T> theNotModifiedHandler, String theIfVersionMatches,
+			SummaryEnum theSummary) {
 		String resName = toResourceName(theType);
 		IIdType id = theId;
 		if (!id.hasBaseUrl()) {
@@ -108,10 +130,6 @@ public class GenericClient extends BaseClient implements IGenericClient {
 				invocation = ReadMethodBinding.createReadInvocation(getFhirContext(), id, resName);
 			}
 		}
-		if (isKeepResponses()) {
-			myLastRequest = invocation.asHttpRequest(getServerBase(), createExtraParams(), getEncoding(), isPrettyPrint());
-		}
-
 		if (theIfVersionMatches != null) {
 			invocation.addHeader(Constants.HEADER_IF_NONE_MATCH, '"' + theIfVersionMatches + '"');
 		}
@@ -119,15 +137,9 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		boolean allowHtmlResponse = (theSummary == SummaryEnum.TEXT) || (theSummary == null && getSummary() == SummaryEnum.TEXT);
 		ResourceResponseHandler<T> binding = new ResourceResponseHandler<T>(theType, (Class<? extends IBaseResource>) null, id, allowHtmlResponse);
 
-		if (theNotModifiedHandler == null) {
-			return invokeClient(myContext, binding, invocation, theEncoding, thePrettyPrint, myLogRequestAndResponse, theSummary, theSubsetElements, null);
-		}
-		try {
-			return invokeClient(myContext, binding, invocation, theEncoding, thePrettyPrint, myLogRequestAndResponse, theSummary, theSubsetElements, null);
-		} catch (NotModifiedException e) {
-			return theNotModifiedHandler.call();
-		}
-
+		PreparedInvocation<T> retVal = new PreparedInvocation<T>(createExtraParams(), binding, invocation);
+		retVal.myNotModifiedHandler = theNotModifiedHandler;
+		return retVal;
 	}
 
 	// public IResource read(UriDt url) {
@@ -365,7 +377,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		return b.toString();
 	}
 
-	private abstract class BaseClientExecutable<T extends IClientExecutable<?, Y>, Y> implements IClientExecutable<T, Y> {
+	private abstract class BaseClientExecutable<T extends IClientExecutable<?, Y>, Y> implements IClientExecutable<T, Y>, IAsyncClientExecutable<Y> {
 
 		protected EncodingEnum myParamEncoding;
 		private List<Class<? extends IBaseResource>> myPreferResponseTypes;
@@ -421,6 +433,31 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			return (T) this;
 		}
 
+		@Override
+		public Y execute() {
+			return invoke(prepare());
+		}
+
+		@Override
+		public ListenableFuture<Y> executeAsync() {
+			PreparedInvocation<Y> prepared;
+			try {
+				prepared = prepare();
+			} catch (RuntimeException e) {
+				return Futures.immediateFailedFuture(e);
+			}
+
+			ListenableFuture<?> response = invokeClientAsync(myContext, prepared.myHandler, prepared.myInvocation, myParamEncoding, myPrettyPrint, isLogRequestAndResponse(), mySummaryMode, mySubsetElements,
+					myCacheControlDirective);
+			return prepared.toFutureResult(response);
+		}
+
+		/**
+		 * Builds the request performed by this executable, along with the handler for its
+		 * response. This is called once for each execution, whether synchronous or not.
+		 */
+		protected abstract PreparedInvocation<Y> prepare();
+
 		protected EncodingEnum getParamEncoding() {
 			return myParamEncoding;
 		}
@@ -440,13 +477,25 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			return mySubsetElements;
 		}
 
-		protected <Z> Z invoke(Map<String, List<String>> theParams, IClientResponseHandler<Z> theHandler, BaseHttpClientInvocation theInvocation) {
+		protected Y invoke(PreparedInvocation<Y> thePrepared) {
 			if (isKeepResponses()) {
-				myLastRequest = theInvocation.asHttpRequest(getServerBase(), theParams, getEncoding(), myPrettyPrint);
+				myLastRequest = thePrepared.myInvocation.asHttpRequest(getServerBase(), thePrepared.myParams, getEncoding(), myPrettyPrint);
+			}
+
+			Object resp;
+			try {
+				resp = invokeClient(myContext, thePrepared.myHandler, thePrepared.myInvocation, myParamEncoding, myPrettyPrint, isLogRequestAndResponse(), mySummaryMode, mySubsetElements, myCacheControlDirective);
+			} catch (NotModifiedException e) {
+				if (thePrepared.myNotModifiedHandler == null) {
+					throw e;
+				}
+				return thePrepared.myNotModifiedHandler.call();
 			}
+			return thePrepared.toResult(resp);
+		}
 
-			Z resp = invokeClient(myContext, theHandler, theInvocation, myParamEncoding, myPrettyPrint, myQueryLogRequestAndResponse || myLogRequestAndResponse, mySummaryMode, mySubsetElements, myCacheControlDirective);
-			return resp;
+		private boolean isLogRequestAndResponse() {
+			return myQueryLogRequestAndResponse || myLogRequestAndResponse;
 		}
 
 		protected IBaseResource parseResourceBody(String theResourceBody) {
@@ -555,7 +604,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 
 		@Override
-		public MethodOutcome execute() {
+		protected PreparedInvocation<MethodOutcome> prepare() {
 			if (myResource == null) {
 				myResource = parseResourceBody(myResourceBody);
 			}
@@ -579,7 +628,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			OutcomeResponseHandler binding = new OutcomeResponseHandler(myPrefer);
 
 			Map<String, List<String>> params = new HashMap<String, List<String>>();
-			return invoke(params, binding, invocation);
+			return new PreparedInvocation<MethodOutcome>(params, binding, invocation);
 
 		}
 
@@ -613,7 +662,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		private String mySearchUrl;
 
 		@Override
-		public IBaseOperationOutcome execute() {
+		protected PreparedInvocation<IBaseOperationOutcome> prepare() {
 			HttpDeleteClientInvocation invocation;
 			if (myId != null) {
 				invocation = DeleteMethodBinding.createDeleteInvocation(getFhirContext(), myId);
@@ -624,7 +673,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			}
 			OperationOutcomeResponseHandler binding = new OperationOutcomeResponseHandler();
 			Map<String, List<String>> params = new HashMap<String, List<String>>();
-			return invoke(params, binding, invocation);
+			return new PreparedInvocation<IBaseOperationOutcome>(params, binding, invocation);
 		}
 
 		@Override
@@ -695,11 +744,11 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		private RuntimeResourceDefinition myType;
 
 		@Override
-		public Object execute() {
+		protected PreparedInvocation prepare() {
 			ResourceResponseHandler binding = new ResourceResponseHandler(myType.getImplementingClass());
 			FhirContext fhirContext = getFhirContext();
 			HttpGetClientInvocation invocation = MethodUtil.createConformanceInvocation(fhirContext);
-			return super.invoke(null, binding, invocation);
+			return new PreparedInvocation(null, binding, invocation);
 		}
 
 		@Override
@@ -726,13 +775,13 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 
 		@Override
-		public Object execute() {
+		protected PreparedInvocation<Object> prepare() {
 			IClientResponseHandler binding;
 			binding = new ResourceResponseHandler(myBundleType, getPreferResponseTypes());
 			HttpSimpleGetClientInvocation invocation = new HttpSimpleGetClientInvocation(myContext, myUrl);
 
 			Map<String, List<String>> params = null;
-			return invoke(params, binding, invocation);
+			return new PreparedInvocation<Object>(params, binding, invocation);
 		}
 
 	}
@@ -762,7 +811,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 		@SuppressWarnings("unchecked")
 		@Override
-		public Object execute() {
+		protected PreparedInvocation prepare() {
 			String resourceName;
 			String id;
 			if (myType != null) {
@@ -781,7 +830,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			IClientResponseHandler handler;
 			handler = new ResourceResponseHandler(myReturnType, getPreferResponseTypes(myType));
 
-			return invoke(null, handler, invocation);
+			return new PreparedInvocation(null, handler, invocation);
 		}
 
 		@Override
@@ -844,6 +893,16 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			return this;
 		}
 
+		@Override
+		public IPagingResourceIterator iterate(IBaseBundle theBundle) {
+			return iterate(theBundle, DEFAULT_READ_AHEAD_PAGES);
+		}
+
+		@Override
+		public IPagingResourceIterator iterate(IBaseBundle theBundle, int theReadAheadPages) {
+			return new PrefetchingResourceIterator(GenericClient.this, theBundle, theReadAheadPages);
+		}
+
 		@Override
 		public <T extends IBaseBundle> IGetPageTyped<T> next(T theBundle) {
 			return nextOrPrevious("next", theBundle);
@@ -907,7 +966,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 		@SuppressWarnings("unchecked")
 		@Override
-		public Object execute() {
+		protected PreparedInvocation prepare() {
 
 			BaseHttpClientInvocation invocation = null;
 
@@ -939,7 +998,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 			IClientResponseHandler handler;
 			handler = new MetaParametersResponseHandler(myMetaType);
-			return invoke(null, handler, invocation);
+			return new PreparedInvocation(null, handler, invocation);
 		}
 
 		@Override
@@ -1110,7 +1169,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 		@SuppressWarnings("unchecked")
 		@Override
-		public Object execute() {
+		protected PreparedInvocation prepare() {
 			if (myOperationName != null && myOperationName.equals(Constants.EXTOP_PROCESS_MESSAGE)) {
 				Map<String, List<String>> urlParams = new LinkedHashMap<String, List<String>>();
 				// Set Url parameter Async and Response-Url
@@ -1127,8 +1186,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 				ResourceResponseHandler handler = new ResourceResponseHandler();
 				handler.setPreferResponseTypes(getPreferResponseTypes(myType));
 
-				Object retVal = invoke(null, handler, invocation);
-				return retVal;
+				return new PreparedInvocation(null, handler, invocation);
 			}
 
 			String resourceName;
@@ -1149,16 +1207,25 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			if (myReturnResourceType != null) {
 				ResourceResponseHandler handler;
 				handler = new ResourceResponseHandler(myReturnResourceType);
-				Object retVal = invoke(null, handler, invocation);
-				return retVal;
+				return new PreparedInvocation(null, handler, invocation);
 			}
 			ResourceResponseHandler handler;
 			handler = new ResourceResponseHandler();
 			handler.setPreferResponseTypes(getPreferResponseTypes(myType));
 
-			Object retVal = invoke(null, handler, invocation);
-			if (myContext.getResourceDefinition((IBaseResource) retVal).getName().equals("Parameters")) {
-				return retVal;
+			PreparedInvocation retVal = new PreparedInvocation(null, handler, invocation);
+			retVal.myResultFunction = new Function<Object, Object>() {
+				@Override
+				public Object apply(Object theResponse) {
+					return wrapInParametersIfNeeded((IBaseResource) theResponse);
+				}
+			};
+			return retVal;
+		}
+
+		private IBaseResource wrapInParametersIfNeeded(IBaseResource theResponse) {
+			if (myContext.getResourceDefinition(theResponse).getName().equals("Parameters")) {
+				return theResponse;
 			}
 			RuntimeResourceDefinition def = myContext.getResourceDefinition("Parameters");
 			IBaseResource parameters = def.newInstance();
@@ -1169,7 +1236,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			paramChild.getMutator().addValue(parameters, parameter);
 
 			BaseRuntimeChildDefinition resourceElem = paramChildElem.getChildByName("resource");
-			resourceElem.getMutator().addValue(parameter, (IBase) retVal);
+			resourceElem.getMutator().addValue(parameter, theResponse);
 
 			return parameters;
 		}
@@ -1396,7 +1463,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 
 		@Override
-		public MethodOutcome execute() {
+		protected PreparedInvocation<MethodOutcome> prepare() {
 
 			if (myPatchType == null) {
 				throw new InvalidRequestException("No patch type supplied, cannot invoke server");
@@ -1422,7 +1489,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			OutcomeResponseHandler binding = new OutcomeResponseHandler(myPrefer);
 
 			Map<String, List<String>> params = new HashMap<String, List<String>>();
-			return invoke(params, binding, invocation);
+			return new PreparedInvocation<MethodOutcome>(params, binding, invocation);
 
 		}
 
@@ -1476,6 +1543,53 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 	}
 
+	/**
+	 * A request built by one of the fluent executables, ready to be performed, along with
+	 * the handler for its response
+	 */
+	private static class PreparedInvocation<Y> {
+
+		private final IClientResponseHandler<?> myHandler;
+		private final BaseHttpClientInvocation myInvocation;
+		private ICallable<Y> myNotModifiedHandler;
+		private final Map<String, List<String>> myParams;
+		private Function<Object, Y> myResultFunction;
+
+		PreparedInvocation(Map<String, List<String>> theParams, IClientResponseHandler<?> theHandler, BaseHttpClientInvocation theInvocation) {
+			myParams = theParams;
+			myHandler = theHandler;
+			myInvocation = theInvocation;
+		}
+
+		@SuppressWarnings("unchecked")
+		Y toResult(Object theResponse) {
+			if (myResultFunction != null) {
+				return myResultFunction.apply(theResponse);
+			}
+			return (Y) theResponse;
+		}
+
+		ListenableFuture<Y> toFutureResult(ListenableFuture<?> theResponse) {
+			ListenableFuture<Y> retVal = Futures.transform(theResponse, new Function<Object, Y>() {
+				@Override
+				public Y apply(Object theInput) {
+					return toResult(theInput);
+				}
+			}, MoreExecutors.directExecutor());
+
+			if (myNotModifiedHandler != null) {
+				retVal = Futures.catching(retVal, NotModifiedException.class, new Function<NotModifiedException, Y>() {
+					@Override
+					public Y apply(NotModifiedException theInput) {
+						return myNotModifiedHandler.call();
+					}
+				}, MoreExecutors.directExecutor());
+			}
+			return retVal;
+		}
+
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private class ReadInternal extends BaseClientExecutable implements IRead, IReadTyped, IReadExecutable {
 		private IIdType myId;
@@ -1484,11 +1598,8 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		private RuntimeResourceDefinition myType;
 
 		@Override
-		public Object execute() {// AAA
-			if (myId.hasVersionIdPart()) {
-				return doReadOrVRead(myType.getImplementingClass(), myId, true, myNotModifiedHandler, myIfVersionMatches, myPrettyPrint, mySummaryMode, myParamEncoding, getSubsetElements());
-			}
-			return doReadOrVRead(myType.getImplementingClass(), myId, false, myNotModifiedHandler, myIfVersionMatches, myPrettyPrint, mySummaryMode, myParamEncoding, getSubsetElements());
+		protected PreparedInvocation prepare() {
+			return prepareReadOrVRead(myType.getImplementingClass(), myId, myId.hasVersionIdPart(), myNotModifiedHandler, myIfVersionMatches, mySummaryMode);
 		}
 
 		@Override
@@ -1686,7 +1797,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 
 		@Override
-		public OUTPUT execute() {
+		protected PreparedInvocation<OUTPUT> prepare() {
 
 			Map<String, List<String>> params = getParamMap();
 
@@ -1773,7 +1884,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 				invocation = SearchMethodBinding.createSearchInvocation(myContext, myResourceName, params, resourceId, myCompartmentName, mySearchStyle);
 			}
 
-			return (OUTPUT) invoke(params, binding, invocation);
+			return new PreparedInvocation<OUTPUT>(params, binding, invocation);
 
 		}
 
@@ -1988,16 +2099,16 @@ public class GenericClient extends BaseClient implements IGenericClient {
 
 		@SuppressWarnings({ "unchecked", "rawtypes" })
 		@Override
-		public T execute() {
+		protected PreparedInvocation<T> prepare() {
 			Map<String, List<String>> params = new HashMap<String, List<String>>();
 			if (myResources != null) {
 				ResourceListResponseHandler binding = new ResourceListResponseHandler();
 				BaseHttpClientInvocation invocation = TransactionMethodBinding.createTransactionInvocation(myResources, myContext);
-				return (T) invoke(params, binding, invocation);
+				return new PreparedInvocation<T>(params, binding, invocation);
 			} else if (myBaseBundle != null) {
 				ResourceResponseHandler binding = new ResourceResponseHandler(myBaseBundle.getClass(), getPreferResponseTypes());
 				BaseHttpClientInvocation invocation = TransactionMethodBinding.createTransactionInvocation(myBaseBundle, myContext);
-				return (T) invoke(params, binding, invocation);
+				return new PreparedInvocation<T>(params, binding, invocation);
 				// } else if (myRawBundle != null) {
 			} else {
 				StringResponseHandler binding = new StringResponseHandler();
@@ -2011,7 +2122,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 					}
 				}
 				BaseHttpClientInvocation invocation = TransactionMethodBinding.createTransactionInvocation(myRawBundle, myContext);
-				return (T) invoke(params, binding, invocation);
+				return new PreparedInvocation<T>(params, binding, invocation);
 			}
 		}
 
@@ -2062,7 +2173,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		}
 
 		@Override
-		public MethodOutcome execute() {
+		protected PreparedInvocation<MethodOutcome> prepare() {
 			if (myResource == null) {
 				myResource = parseResourceBody(myResourceBody);
 			}
@@ -2093,7 +2204,7 @@ public class GenericClient extends BaseClient implements IGenericClient {
 			OutcomeResponseHandler binding = new OutcomeResponseHandler(myPrefer);
 
 			Map<String, List<String>> params = new HashMap<String, List<String>>();
-			return invoke(params, binding, invocation);
+			return new PreparedInvocation<MethodOutcome>(params, binding, invocation);
 
 		}
 
@@ -2147,12 +2258,18 @@ public class GenericClient extends BaseClient implements IGenericClient {
 		private IBaseResource myResource;
 
 		@Override
-		public MethodOutcome execute() {
+		protected PreparedInvocation<MethodOutcome> prepare() {
 			BaseHttpClientInvocation invocation = ValidateMethodBindingDstu2Plus.createValidateInvocation(myContext, myResource);
 			ResourceResponseHandler<BaseOperationOutcome> handler = new ResourceResponseHandler<BaseOperationOutcome>(null, null);
-			IBaseOperationOutcome outcome = invoke(null, handler, invocation);
-			MethodOutcome retVal = new MethodOutcome();
-			retVal.setOperationOutcome(outcome);
+			PreparedInvocation<MethodOutcome> retVal = new PreparedInvocation<MethodOutcome>(null, handler, invocation);
+			retVal.myResultFunction = new Function<Object, MethodOutcome>() {
+				@Override
+				public MethodOutcome apply(Object theResponse) {
+					MethodOutcome outcome = new MethodOutcome();
+					outcome.setOperationOutcome((IBaseOperationOutcome) theResponse);
+					return outcome;
+				}
+			};
 			return retVal;
 		}
 
@@ -0,0 +1,232 @@
+package ca.uhn.fhir.rest.client.impl;
+
+/*
+ * #%L
+ * HAPI FHIR - Client Framework
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.lang3.Validate;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.gclient.IPagingResourceIterator;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.util.AsyncClientUtil;
+import ca.uhn.fhir.util.BundleUtil;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Iterates over a set of search results, loading each following page with
+ * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync()} as soon as the previous one
+ * has arrived and there is room for it. Because the URL
+ * of each page is only known once the page before it has been parsed, at most one request is
+ * in progress at a time, and no executor thread is ever left waiting for the caller.
+ */
+class PrefetchingResourceIterator implements IPagingResourceIterator {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(PrefetchingResourceIterator.class);
+
+	private final Class<? extends IBaseBundle> myBundleType;
+	private final GenericClient myClient;
+	private boolean myClosed;
+	private final FhirContext myContext;
+	private List<IBaseResource> myCurrentPage;
+	private int myCurrentPageIndex;
+	private boolean myFetching;
+	private String myNextUrl;
+	/** Pages which have been loaded but not yet reached by the caller, or the failure which stopped loading */
+	private final LinkedList<Object> myPages = new LinkedList<Object>();
+	private int myPagesLoaded;
+	private final int myReadAheadPages;
+
+	PrefetchingResourceIterator(GenericClient theClient, IBaseBundle theBundle, int theReadAheadPages) {
+		Validate.notNull(theBundle, "theBundle must not be null");
+		Validate.isTrue(theReadAheadPages > 0, "theReadAheadPages must be at least 1");
+		myClient = theClient;
+		myContext = theClient.getFhirContext();
+		myBundleType = theBundle.getClass();
+		myReadAheadPages = theReadAheadPages;
+		myCurrentPage = BundleUtil.toListOfResources(myContext, theBundle);
+		myNextUrl = BundleUtil.getLinkUrlOfType(myContext, theBundle, "next");
+		startFetchIfNeeded();
+	}
+
+	@Override
+	public synchronized void close() {
+		myClosed = true;
+		myNextUrl = null;
+		myPages.clear();
+		myCurrentPage = Collections.emptyList();
+		notifyAll();
+	}
+
+	@Override
+	public synchronized int getPagesLoaded() {
+		return myPagesLoaded;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (myCurrentPageIndex >= myCurrentPage.size()) {
+			if (!advancePage()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public IBaseResource next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		IBaseResource retVal = myCurrentPage.get(myCurrentPageIndex);
+		myCurrentPage.set(myCurrentPageIndex, null);
+		myCurrentPageIndex++;
+		return retVal;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Replaces the current page with the next loaded one, waiting for it to arrive if needed
+	 *
+	 * @return Returns <code>false</code> if there are no more pages
+	 */
+	private boolean advancePage() {
+		Object next;
+		synchronized (this) {
+			while (myPages.isEmpty()) {
+				if (myClosed || (!myFetching && myNextUrl == null)) {
+					return false;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InternalErrorException("Interrupted while waiting for the next page of results", e);
+				}
+			}
+			next = myPages.removeFirst();
+		}
+
+		startFetchIfNeeded();
+
+		if (next instanceof RuntimeException) {
+			throw (RuntimeException) next;
+		} else if (next instanceof Error) {
+			throw (Error) next;
+		} else if (next instanceof Throwable) {
+			throw new InternalErrorException("Failed to load the next page of results", (Throwable) next);
+		}
+
+		myCurrentPage = BundleUtil.toListOfResources(myContext, (IBaseBundle) next);
+		myCurrentPageIndex = 0;
+		return true;
+	}
+
+	/**
+	 * Decides whether another page should be requested now, and if so marks a request as being in progress
+	 *
+	 * @return Returns the URL to load, or <code>null</code> if nothing should be loaded
+	 */
+	private synchronized String claimNextFetch() {
+		if (myClosed || myFetching || myNextUrl == null || myPages.size() >= myReadAheadPages) {
+			return null;
+		}
+		myFetching = true;
+		return myNextUrl;
+	}
+
+	private synchronized void pageFailed(Throwable theError) {
+		myFetching = false;
+		myNextUrl = null;
+		if (!myClosed) {
+			myPages.add(theError);
+		}
+		notifyAll();
+	}
+
+	private synchronized void pageLoaded(IBaseBundle theBundle) {
+		myFetching = false;
+		if (!myClosed) {
+			myPagesLoaded++;
+			myPages.add(theBundle);
+			myNextUrl = BundleUtil.getLinkUrlOfType(myContext, theBundle, "next");
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Requests the next page if there is room for it. This must not be called while holding
+	 * this iterator's monitor, since the request may be issued (and even completed) on the
+	 * calling thread.
+	 */
+	private void startFetchIfNeeded() {
+		String url;
+		while ((url = claimNextFetch()) != null) {
+			ourLog.debug("Loading next page of results: {}", url);
+			ListenableFuture<? extends IBaseBundle> future;
+			try {
+				future = AsyncClientUtil.executeAsync(myClient.loadPage().byUrl(url).andReturnBundle(myBundleType));
+			} catch (Throwable t) {
+				pageFailed(t);
+				return;
+			}
+
+			if (!future.isDone()) {
+				// Any failure at all must clear myFetching, or the caller would wait forever
+				Futures.addCallback(future, new FutureCallback<IBaseBundle>() {
+					@Override
+					public void onFailure(Throwable theError) {
+						pageFailed(theError);
+					}
+
+					@Override
+					public void onSuccess(IBaseBundle theResult) {
+						pageLoaded(theResult);
+						startFetchIfNeeded();
+					}
+				}, MoreExecutors.directExecutor());
+				return;
+			}
+
+			// Already complete, so record the page here and loop instead of recursing through a callback
+			try {
+				pageLoaded(Futures.getDone(future));
+			} catch (ExecutionException e) {
+				pageFailed(e.getCause());
+				return;
+			} catch (Throwable t) {
+				pageFailed(t);
+				return;
+			}
+		}
+	}
+
+}
@@ -21,9 +21,11 @@ package ca.uhn.fhir.rest.client.impl;
  */
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 
@@ -40,6 +42,16 @@ import ca.uhn.fhir.util.FhirTerser;
  * Base class for a REST client factory implementation
  */
 public abstract class RestfulClientFactory implements IRestfulClientFactory {
+	/**
+	 * Default value for {@link #getAsyncPoolSize()}
+	 */
+	public static final int DEFAULT_ASYNC_POOL_SIZE = DEFAULT_POOL_MAX;
+
+	/**
+	 * Default value for {@link #getAsyncQueueSize()}
+	 */
+	public static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(RestfulClientFactory.class);
 
 	private Set<String> myValidatedServerBaseUrls = Collections.synchronizedSet(new HashSet<String>());
@@ -53,6 +65,9 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 	private String myProxyPassword;
 	private int myPoolMaxTotal = DEFAULT_POOL_MAX;
 	private int myPoolMaxPerRoute = DEFAULT_POOL_MAX_PER_ROUTE;
+	private int myAsyncPoolSize = DEFAULT_ASYNC_POOL_SIZE;
+	private int myAsyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+	private ThreadPoolExecutor myAsyncExecutor;
 
 	/**
 	 * Constructor
@@ -70,6 +85,61 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 		myContext = theFhirContext;
 	}
 
+	/**
+	 * Returns the executor used by requests started with
+	 * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync()} on any client created by
+	 * this factory. Responses are parsed on it, and requests whose transport does not implement
+	 * {@link ca.uhn.fhir.rest.client.api.IAsyncHttpRequest} are also executed on it. When all of its
+	 * threads are busy, work is queued up to {@link #getAsyncQueueSize()} tasks. Beyond that, work is
+	 * rejected and the future returned by <code>executeAsync()</code> fails with a
+	 * {@link java.util.concurrent.RejectedExecutionException}, so no request is ever performed on the
+	 * calling thread. The executor is created the first time it is needed, and its threads are daemon
+	 * threads which exit when idle.
+	 *
+	 * @since 3.3.0
+	 */
+	public synchronized ExecutorService getAsyncExecutor() {
+		if (myAsyncExecutor == null) {
+			ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("hapi-fhir-client-async-%d")
+				.daemon(true)
+				.build();
+			// Work beyond the queue is rejected (failing the request's future) rather than run by the submitting thread
+			myAsyncExecutor = new ThreadPoolExecutor(myAsyncPoolSize, myAsyncPoolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(myAsyncQueueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+			myAsyncExecutor.allowCoreThreadTimeOut(true);
+		}
+		return myAsyncExecutor;
+	}
+
+	/**
+	 * Gets the maximum number of requests started with
+	 * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync()} which may be executing
+	 * or parsing on the {@link #getAsyncExecutor() async executor} at the same time, across all
+	 * clients created by this factory.
+	 * <p>
+	 * The default value for this setting is defined by {@link #DEFAULT_ASYNC_POOL_SIZE}
+	 * </p>
+	 *
+	 * @since 3.3.0
+	 */
+	public int getAsyncPoolSize() {
+		return myAsyncPoolSize;
+	}
+
+	/**
+	 * Gets the maximum number of tasks which may wait on the {@link #getAsyncExecutor() async executor}
+	 * when all of its threads are busy. Requests submitted beyond this fail rather than being
+	 * performed on the calling thread.
+	 * <p>
+	 * The default value for this setting is defined by {@link #DEFAULT_ASYNC_QUEUE_SIZE}
+	 * </p>
+	 *
+	 * @since 3.3.0
+	 */
+	public int getAsyncQueueSize() {
+		return myAsyncQueueSize;
+	}
+
 	@Override
 	public int getConnectionRequestTimeout() {
 		return myConnectionRequestTimeout;
@@ -185,6 +255,54 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 		return serverBase;
 	}
 
+	/**
+	 * Sets the maximum number of requests started with
+	 * {@link ca.uhn.fhir.rest.gclient.IAsyncClientExecutable#executeAsync()} which may be executing
+	 * or parsing on the {@link #getAsyncExecutor() async executor} at the same time, across all
+	 * clients created by this factory. With a blocking transport this should generally not be
+	 * larger than {@link #getPoolMaxTotal()}, since each executing request holds a connection.
+	 * <p>
+	 * The default value for this setting is defined by {@link #DEFAULT_ASYNC_POOL_SIZE}
+	 * </p>
+	 *
+	 * @since 3.3.0
+	 */
+	public synchronized void setAsyncPoolSize(int theAsyncPoolSize) {
+		Validate.isTrue(theAsyncPoolSize > 0, "theAsyncPoolSize must be positive");
+		myAsyncPoolSize = theAsyncPoolSize;
+		if (myAsyncExecutor != null) {
+			// The core size may never exceed the maximum, so the order matters
+			if (theAsyncPoolSize > myAsyncExecutor.getMaximumPoolSize()) {
+				myAsyncExecutor.setMaximumPoolSize(theAsyncPoolSize);
+				myAsyncExecutor.setCorePoolSize(theAsyncPoolSize);
+			} else {
+				myAsyncExecutor.setCorePoolSize(theAsyncPoolSize);
+				myAsyncExecutor.setMaximumPoolSize(theAsyncPoolSize);
+			}
+		}
+	}
+
+	/**
+	 * Sets the maximum number of tasks which may wait on the {@link #getAsyncExecutor() async executor}
+	 * when all of its threads are busy. Requests submitted beyond this fail rather than being
+	 * performed on the calling thread. If the executor has already been created, it is replaced, and
+	 * work already submitted to the old one is allowed to finish.
+	 * <p>
+	 * The default value for this setting is defined by {@link #DEFAULT_ASYNC_QUEUE_SIZE}
+	 * </p>
+	 *
+	 * @since 3.3.0
+	 */
+	public synchronized void setAsyncQueueSize(int theAsyncQueueSize) {
+		Validate.isTrue(theAsyncQueueSize > 0, "theAsyncQueueSize must be positive");
+		myAsyncQueueSize = theAsyncQueueSize;
+		if (myAsyncExecutor != null) {
+			// A queue's capacity can't be changed, so the next request creates a new executor
+			myAsyncExecutor.shutdown();
+			myAsyncExecutor = null;
+		}
+	}
+
 	@Override
 	public synchronized void setConnectionRequestTimeout(int theConnectionRequestTimeout) {
 		myConnectionRequestTimeout = theConnectionRequestTimeout;
@@ -268,6 +386,14 @@ public abstract class RestfulClientFactory implements IRestfulClientFactory {
 
 	}
 
+	/**
+	 * Returns <code>true</code> if {@link #validateServerBaseIfConfiguredToDoSo(String, IHttpClient, IRestfulClient)}
+	 * would contact the server for the given base
+	 */
+	boolean isServerBaseValidationPending(String theServerBase) {
+		return getServerValidationMode() == ServerValidationModeEnum.ONCE && !myValidatedServerBaseUrls.contains(normalizeBaseUrlForMap(theServerBase));
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void validateServerBase(String theServerBase, IHttpClient theHttpClient, IRestfulClient theClient) {
@@ -0,0 +1,37 @@
+package ca.uhn.fhir.rest.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class CapturingReaderTest {
+
+	@Test
+	public void testCapturesEverythingReadAndDrainsRemainder() throws IOException {
+		CapturingReader reader = new CapturingReader(new StringReader("0123456789"), 100);
+
+		assertEquals('0', reader.read());
+		char[] buffer = new char[3];
+		assertEquals(3, reader.read(buffer, 0, 3));
+		assertEquals(2, reader.skip(2));
+		assertFalse(reader.markSupported());
+
+		assertEquals("0123456789", reader.drainAndGetCaptured());
+	}
+
+	@Test
+	public void testCaptureIsBounded() throws IOException {
+		CapturingReader reader = new CapturingReader(new StringReader("0123456789"), 4);
+
+		char[] buffer = new char[6];
+		assertEquals(6, reader.read(buffer, 0, 6));
+		assertEquals("012345", new String(buffer));
+
+		assertEquals("0123\n... (truncated after 4 characters)", reader.drainAndGetCaptured());
+	}
+
+}
@@ -21,12 +21,14 @@ package ca.uhn.fhir.jaxrs.client;
  */
 
 import ca.uhn.fhir.rest.api.RequestTypeEnum;
-import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IAsyncHttpRequest;
 import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IHttpResponseCallback;
 import ca.uhn.fhir.util.StopWatch;
 
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.core.Response;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -39,7 +41,7 @@ import java.util.Map;
  *
  * @author Peter Van Houte | peter.vanhoute@agfa.com | Agfa Healthcare
  */
-public class JaxRsHttpRequest implements IHttpRequest {
+public class JaxRsHttpRequest implements IAsyncHttpRequest {
 
 	private final Map<String, List<String>> myHeaders = new HashMap<String, List<String>>();
 	private Invocation.Builder myRequest;
@@ -69,6 +71,31 @@ public class JaxRsHttpRequest implements IHttpRequest {
 		return new JaxRsHttpResponse(response, responseStopWatch);
 	}
 
+	/**
+	 * Uses the asynchronous invoker of the JAX-RS client, so the callback is notified on
+	 * a thread belonging to the JAX-RS implementation
+	 */
+	@Override
+	public void executeAsync(final IHttpResponseCallback theCallback) {
+		final StopWatch responseStopWatch = new StopWatch();
+		InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+			@Override
+			public void completed(Response theResponse) {
+				theCallback.onResponse(new JaxRsHttpResponse(theResponse, responseStopWatch));
+			}
+
+			@Override
+			public void failed(Throwable theThrowable) {
+				theCallback.onFailure(theThrowable);
+			}
+		};
+		if (getEntity() != null) {
+			getRequest().async().method(getRequestType().name(), getEntity(), callback);
+		} else {
+			getRequest().async().method(getRequestType().name(), callback);
+		}
+	}
+
 	@Override
 	public Map<String, List<String>> getAllHeaders() {
 		return this.myHeaders;
@@ -20,10 +20,17 @@ package ca.uhn.fhir.jpa.config;
  * #L%
  */
 
+import ca.uhn.fhir.jpa.dao.DecodedResourceCacheSvcImpl;
+import ca.uhn.fhir.jpa.dao.ForcedIdCacheSvcImpl;
+import ca.uhn.fhir.jpa.dao.IDecodedResourceCacheSvc;
+import ca.uhn.fhir.jpa.dao.IForcedIdCacheSvc;
+import ca.uhn.fhir.jpa.dao.IIncludePidCacheSvc;
+import ca.uhn.fhir.jpa.dao.IncludePidCacheSvcImpl;
 import ca.uhn.fhir.jpa.search.*;
 import ca.uhn.fhir.jpa.sp.ISearchParamPresenceSvc;
 import ca.uhn.fhir.jpa.sp.SearchParamPresenceSvcImpl;
 import ca.uhn.fhir.jpa.subscription.email.SubscriptionEmailInterceptor;
+import ca.uhn.fhir.jpa.subscription.resthook.JpaRestHookDeliveryStore;
 import ca.uhn.fhir.jpa.subscription.resthook.SubscriptionRestHookInterceptor;
 import ca.uhn.fhir.jpa.subscription.websocket.SubscriptionWebsocketInterceptor;
 import org.springframework.beans.factory.annotation.Autowire;
@@ -67,6 +74,21 @@ public class BaseConfig implements SchedulingConfigurer {
 		return retVal;
 	}
 
+	@Bean
+	public IDecodedResourceCacheSvc decodedResourceCacheSvc() {
+		return new DecodedResourceCacheSvcImpl();
+	}
+
+	@Bean
+	public IForcedIdCacheSvc forcedIdCacheSvc() {
+		return new ForcedIdCacheSvcImpl();
+	}
+
+	@Bean
+	public IIncludePidCacheSvc includePidCacheSvc() {
+		return new IncludePidCacheSvcImpl();
+	}
+
 	@Bean()
 	public ScheduledExecutorFactoryBean scheduledExecutorService() {
 		ScheduledExecutorFactoryBean b = new ScheduledExecutorFactoryBean();
@@ -84,6 +106,11 @@ public class BaseConfig implements SchedulingConfigurer {
 		return new SearchParamPresenceSvcImpl();
 	}
 
+	@Bean
+	public ISearchUpdateNotifierSvc searchUpdateNotifierSvc() {
+		return new SearchUpdateNotifierSvcImpl();
+	}
+
 	@Bean(autowire = Autowire.BY_TYPE)
 	public IStaleSearchDeletingSvc staleSearchDeletingSvc() {
 		return new StaleSearchDeletingSvcImpl();
@@ -100,10 +127,18 @@ public class BaseConfig implements SchedulingConfigurer {
 		return new SubscriptionEmailInterceptor();
 	}
 
+	@Bean
+	public JpaRestHookDeliveryStore restHookDeliveryStore() {
+		return new JpaRestHookDeliveryStore();
+	}
+
 	@Bean
 	@Lazy
 	public SubscriptionRestHookInterceptor subscriptionRestHookInterceptor() {
-		return new SubscriptionRestHookInterceptor();
+		SubscriptionRestHookInterceptor retVal = new SubscriptionRestHookInterceptor();
+		retVal.setDeadLetterStore(restHookDeliveryStore());
+		retVal.setPendingDeliveryStore(restHookDeliveryStore());
+		return retVal;
 	}
 
 	@Bean
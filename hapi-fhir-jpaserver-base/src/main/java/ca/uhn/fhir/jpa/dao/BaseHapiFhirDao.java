@@ -92,6 +92,12 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 	public static final long INDEX_STATUS_INDEXED = 1L;
 	public static final long INDEX_STATUS_INDEXING_FAILED = 2L;
+	/**
+	 * Index status of a terminology concept which has been stored by a terminology load whose
+	 * relationships have not all been stored yet. These concepts are left alone by indexing
+	 * until the load releases them.
+	 */
+	public static final long INDEX_STATUS_AWAITING_LINKS = -1L;
 	public static final String NS_JPA_PROFILE = "https://github.com/jamesagnew/hapi-fhir/ns/jpa/profile";
 	public static final String OO_SEVERITY_ERROR = "error";
 	public static final String OO_SEVERITY_INFO = "information";
@@ -137,6 +143,12 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	protected EntityManager myEntityManager;
 	@Autowired
 	protected IForcedIdDao myForcedIdDao;
+	@Autowired
+	protected IForcedIdCacheSvc myForcedIdCacheSvc;
+	@Autowired
+	private IDecodedResourceCacheSvc myDecodedResourceCacheSvc;
+	@Autowired
+	private IIncludePidCacheSvc myIncludePidCacheSvc;
 	@Autowired(required = false)
 	protected IFulltextSearchSvc myFulltextSearchSvc;
 	@Autowired()
@@ -873,7 +885,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	public SearchBuilder newSearchBuilder() {
 		SearchBuilder builder = new SearchBuilder(getContext(), myEntityManager, myFulltextSearchSvc, this, myResourceIndexedSearchParamUriDao,
 			myForcedIdDao,
-			myTerminologySvc, mySerarchParamRegistry);
+			myTerminologySvc, mySerarchParamRegistry, myDecodedResourceCacheSvc, myIncludePidCacheSvc);
 		return builder;
 	}
 
@@ -1053,7 +1065,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	}
 
 	@SuppressWarnings("unchecked")
-	private <R extends IBaseResource> R populateResourceMetadataHapi(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation, IResource res) {
+	private <R extends IBaseResource> R populateResourceMetadataHapi(Class<R> theResourceType, BaseHasResource theEntity, Collection<? extends BaseTag> theTagList, boolean theForHistoryOperation, IResource res) {
 		R retVal = (R) res;
 		if (theEntity.getDeleted() != null) {
 			res = (IResource) myContext.getResourceDefinition(theResourceType).newInstance();
@@ -1082,7 +1094,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		ResourceMetadataKeyEnum.UPDATED.put(res, theEntity.getUpdated());
 		IDao.RESOURCE_PID.put(res, theEntity.getId());
 
-		Collection<? extends BaseTag> tags = theEntity.getTags();
+		Collection<? extends BaseTag> tags = theTagList;
 		if (theEntity.isHasTags()) {
 			TagList tagList = new TagList();
 			List<IBaseCoding> securityLabels = new ArrayList<>();
@@ -1119,7 +1131,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	}
 
 	@SuppressWarnings("unchecked")
-	private <R extends IBaseResource> R populateResourceMetadataRi(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation, IAnyResource res) {
+	private <R extends IBaseResource> R populateResourceMetadataRi(Class<R> theResourceType, BaseHasResource theEntity, Collection<? extends BaseTag> theTagList, boolean theForHistoryOperation, IAnyResource res) {
 		R retVal = (R) res;
 		if (theEntity.getDeleted() != null) {
 			res = (IAnyResource) myContext.getResourceDefinition(theResourceType).newInstance();
@@ -1152,7 +1164,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		res.getMeta().setLastUpdated(theEntity.getUpdatedDate());
 		IDao.RESOURCE_PID.put(res, theEntity.getId());
 
-		Collection<? extends BaseTag> tags = theEntity.getTags();
+		Collection<? extends BaseTag> tags = theTagList;
 
 		if (theEntity.isHasTags()) {
 			for (BaseTag next : tags) {
@@ -1267,23 +1279,87 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return toResource(resourceType, theEntity, theForHistoryOperation);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation) {
+		return toResource(theResourceType, theEntity, null, null, theForHistoryOperation);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, ResourceHistoryTable theHistory, Collection<? extends BaseTag> theTagList, boolean theForHistoryOperation) {
+
+		Collection<? extends BaseTag> tagList = theTagList;
+		if (tagList == null) {
+			tagList = theEntity.getTags();
+		}
 
-		ResourceHistoryTable history;
+		/*
+		 * Use the appropriate custom type if one is specified in the context
+		 */
+		Class<R> resourceType = theResourceType;
+		if (myContext.hasDefaultTypeForProfile()) {
+			for (BaseTag nextTag : tagList) {
+				if (nextTag.getTag().getTagType() == TagTypeEnum.PROFILE) {
+					String profile = nextTag.getTag().getCode();
+					if (isNotBlank(profile)) {
+						Class<? extends IBaseResource> newType = myContext.getDefaultTypeForProfile(profile);
+						if (newType != null && theResourceType.isAssignableFrom(newType)) {
+							ourLog.debug("Using custom type {} for profile: {}", newType.getName(), profile);
+							resourceType = (Class<R>) newType;
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		Long resourcePid;
 		if (theEntity instanceof ResourceHistoryTable) {
-			history = (ResourceHistoryTable) theEntity;
+			resourcePid = ((ResourceHistoryTable) theEntity).getResourceId();
 		} else {
-			history = myResourceHistoryTableDao.findForIdAndVersion(theEntity.getId(), theEntity.getVersion());
+			resourcePid = theEntity.getId();
 		}
 
-		if (history == null) {
-			return null;
+		R retVal = myDecodedResourceCacheSvc.get(resourcePid, theEntity.getVersion(), resourceType);
+		if (retVal == null) {
+
+			ResourceHistoryTable history;
+			if (theEntity instanceof ResourceHistoryTable) {
+				history = (ResourceHistoryTable) theEntity;
+			} else if (theHistory != null) {
+				history = theHistory;
+			} else {
+				history = myResourceHistoryTableDao.findForIdAndVersion(theEntity.getId(), theEntity.getVersion());
+			}
+
+			if (history == null) {
+				return null;
+			}
+
+			retVal = decodeResource(resourceType, theEntity, history);
+			if (history.getEncoding() != ResourceEncodingEnum.DEL) {
+				myDecodedResourceCacheSvc.put(resourcePid, theEntity.getVersion(), retVal);
+			}
 		}
 
-		byte[] resourceBytes = history.getResource();
-		ResourceEncodingEnum resourceEncoding = history.getEncoding();
+		if (retVal instanceof IResource) {
+			IResource res = (IResource) retVal;
+			retVal = populateResourceMetadataHapi(resourceType, theEntity, tagList, theForHistoryOperation, res);
+		} else {
+			IAnyResource res = (IAnyResource) retVal;
+			retVal = populateResourceMetadataRi(resourceType, theEntity, tagList, theForHistoryOperation, res);
+		}
+
+
+		return retVal;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <R extends IBaseResource> R decodeResource(Class<R> theResourceType, BaseHasResource theEntity, ResourceHistoryTable theHistory) {
+		long start = System.nanoTime();
+
+		byte[] resourceBytes = theHistory.getResource();
+		ResourceEncodingEnum resourceEncoding = theHistory.getEncoding();
 
 		String resourceText = null;
 		switch (resourceEncoding) {
@@ -1301,37 +1377,17 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 				break;
 		}
 
-		/*
-		 * Use the appropriate custom type if one is specified in the context
-		 */
-		Class<R> resourceType = theResourceType;
-		if (myContext.hasDefaultTypeForProfile()) {
-			for (BaseTag nextTag : theEntity.getTags()) {
-				if (nextTag.getTag().getTagType() == TagTypeEnum.PROFILE) {
-					String profile = nextTag.getTag().getCode();
-					if (isNotBlank(profile)) {
-						Class<? extends IBaseResource> newType = myContext.getDefaultTypeForProfile(profile);
-						if (newType != null && theResourceType.isAssignableFrom(newType)) {
-							ourLog.debug("Using custom type {} for profile: {}", newType.getName(), profile);
-							resourceType = (Class<R>) newType;
-							break;
-						}
-					}
-				}
-			}
-		}
-
 		R retVal;
 		if (resourceEncoding != ResourceEncodingEnum.DEL) {
 			IParser parser = resourceEncoding.newParser(getContext(theEntity.getFhirVersion()));
 			parser.setParserErrorHandler(new LenientErrorHandler(false).setErrorOnInvalidValue(false));
 
 			try {
-				retVal = parser.parseResource(resourceType, resourceText);
+				retVal = parser.parseResource(theResourceType, resourceText);
 			} catch (Exception e) {
 				StringBuilder b = new StringBuilder();
 				b.append("Failed to parse database resource[");
-				b.append(resourceType);
+				b.append(theResourceType);
 				b.append("/");
 				b.append(theEntity.getIdDt().getIdPart());
 				b.append(" (pid ");
@@ -1351,15 +1407,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 		}
 
-		if (retVal instanceof IResource) {
-			IResource res = (IResource) retVal;
-			retVal = populateResourceMetadataHapi(resourceType, theEntity, theForHistoryOperation, res);
-		} else {
-			IAnyResource res = (IAnyResource) retVal;
-			retVal = populateResourceMetadataRi(resourceType, theEntity, theForHistoryOperation, res);
-		}
-
-
+		myDecodedResourceCacheSvc.recordDecode(System.nanoTime() - start);
 		return retVal;
 	}
 
@@ -1372,17 +1420,50 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 	}
 
 	Long translateForcedIdToPid(String theResourceName, String theResourceId) {
-		return translateForcedIdToPids(new IdDt(theResourceName, theResourceId), myForcedIdDao).get(0);
+		return translateForcedIdToPids(new IdDt(theResourceName, theResourceId)).get(0);
 	}
 
 	protected List<Long> translateForcedIdToPids(IIdType theId) {
-		return translateForcedIdToPids(theId, myForcedIdDao);
+		Validate.isTrue(theId.hasIdPart());
+
+		if (isValidPid(theId)) {
+			return Collections.singletonList(theId.getIdPartAsLong());
+		} else {
+			List<ForcedId> forcedId;
+			if (theId.hasResourceType()) {
+				Long cached = myForcedIdCacheSvc.getPid(theId.getResourceType(), theId.getIdPart());
+				if (cached != null) {
+					return Collections.singletonList(cached);
+				}
+				forcedId = myForcedIdDao.findByTypeAndForcedId(theId.getResourceType(), theId.getIdPart());
+			} else {
+				forcedId = myForcedIdDao.findByForcedId(theId.getIdPart());
+			}
+
+			if (forcedId.isEmpty() == false) {
+				List<Long> retVal = new ArrayList<>(forcedId.size());
+				for (ForcedId next : forcedId) {
+					retVal.add(next.getResourcePid());
+				}
+				if (theId.hasResourceType() && retVal.size() == 1) {
+					myForcedIdCacheSvc.putPid(theId.getResourceType(), theId.getIdPart(), retVal.get(0));
+				}
+				return retVal;
+			} else {
+				throw new ResourceNotFoundException(theId);
+			}
+		}
 	}
 
 	private String translatePidIdToForcedId(String theResourceType, Long theId) {
-		ForcedId forcedId = myForcedIdDao.findByResourcePid(theId);
-		if (forcedId != null) {
-			return forcedId.getResourceType() + '/' + forcedId.getForcedId();
+		String forcedId = myForcedIdCacheSvc.getForcedId(theId);
+		if (forcedId == null) {
+			ForcedId forcedIdEntity = myForcedIdDao.findByResourcePid(theId);
+			forcedId = forcedIdEntity != null ? forcedIdEntity.getForcedId() : null;
+			myForcedIdCacheSvc.putForcedId(theId, forcedId);
+		}
+		if (isNotBlank(forcedId)) {
+			return theResourceType + '/' + forcedId;
 		} else {
 			return theResourceType + '/' + theId.toString();
 		}
@@ -1477,6 +1558,10 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 			links = Collections.emptySet();
 			compositeStringUniques = Collections.emptySet();
 
+			if (theEntity.getForcedId() != null) {
+				myForcedIdCacheSvc.invalidate(theEntity.getResourceType(), theEntity.getForcedId().getForcedId(), theEntity.getId());
+			}
+
 			theEntity.setDeleted(theDeletedTimestampOrNull);
 			theEntity.setUpdated(theDeletedTimestampOrNull);
 			theEntity.setNarrativeTextParsedIntoWords(null);
@@ -1655,6 +1740,8 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 
 			if (theEntity.getForcedId() != null) {
 				myEntityManager.persist(theEntity.getForcedId());
+				myForcedIdCacheSvc.putPid(theEntity.getResourceType(), theEntity.getForcedId().getForcedId(), theEntity.getId());
+				myForcedIdCacheSvc.putForcedId(theEntity.getId(), theEntity.getForcedId().getForcedId());
 			}
 
 			postPersist(theEntity, (T) theResource);
@@ -1676,6 +1763,7 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 //			}
 			historyEntry.setEncoding(changed.getEncoding());
 			historyEntry.setResource(changed.getResource());
+			myDecodedResourceCacheSvc.invalidate(theEntity.getId(), theEntity.getVersion());
 
 			ourLog.debug("Saving history entry {}", historyEntry.getIdDt());
 			myResourceHistoryTableDao.save(historyEntry);
@@ -1712,92 +1800,128 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		 */
 		if (thePerformIndexing) {
 
-			for (ResourceIndexedSearchParamString next : removeCommon(existingStringParams, stringParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsString().remove(next);
-			}
-			for (ResourceIndexedSearchParamString next : removeCommon(stringParams, existingStringParams)) {
-				myEntityManager.persist(next);
+			/*
+			 * The rows below are removed and persisted one table at a time, so
+			 * with a JDBC batch size set, Hibernate will flush each table's
+			 * changes as a single batch. The session's own batch size is put
+			 * back once the index rows have been flushed.
+			 */
+			Session session = null;
+			Integer previousJdbcBatchSize = null;
+			if (getConfig().getIndexingJdbcBatchSize() != null) {
+				session = myEntityManager.unwrap(Session.class);
+				previousJdbcBatchSize = session.getJdbcBatchSize();
+				session.setJdbcBatchSize(getConfig().getIndexingJdbcBatchSize());
 			}
+			try {
 
-			for (ResourceIndexedSearchParamToken next : removeCommon(existingTokenParams, tokenParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsToken().remove(next);
-			}
-			for (ResourceIndexedSearchParamToken next : removeCommon(tokenParams, existingTokenParams)) {
-				myEntityManager.persist(next);
-			}
+				/*
+				 * Index rows written before the hash columns were added have no
+				 * hashes, so populate them on the rows being kept. This only results
+				 * in an UPDATE for rows whose hashes actually change.
+				 */
+				for (ResourceIndexedSearchParamString next : existingStringParams) {
+					next.calculateHashes();
+				}
+				for (ResourceIndexedSearchParamToken next : existingTokenParams) {
+					next.calculateHashes();
+				}
 
-			for (ResourceIndexedSearchParamNumber next : removeCommon(existingNumberParams, numberParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsNumber().remove(next);
-			}
-			for (ResourceIndexedSearchParamNumber next : removeCommon(numberParams, existingNumberParams)) {
-				myEntityManager.persist(next);
-			}
+				for (ResourceIndexedSearchParamString next : removeCommon(existingStringParams, stringParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsString().remove(next);
+				}
+				for (ResourceIndexedSearchParamString next : removeCommon(stringParams, existingStringParams)) {
+					myEntityManager.persist(next);
+				}
 
-			for (ResourceIndexedSearchParamQuantity next : removeCommon(existingQuantityParams, quantityParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsQuantity().remove(next);
-			}
-			for (ResourceIndexedSearchParamQuantity next : removeCommon(quantityParams, existingQuantityParams)) {
-				myEntityManager.persist(next);
-			}
+				for (ResourceIndexedSearchParamToken next : removeCommon(existingTokenParams, tokenParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsToken().remove(next);
+				}
+				for (ResourceIndexedSearchParamToken next : removeCommon(tokenParams, existingTokenParams)) {
+					myEntityManager.persist(next);
+				}
 
-			// Store date SP's
-			for (ResourceIndexedSearchParamDate next : removeCommon(existingDateParams, dateParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsDate().remove(next);
-			}
-			for (ResourceIndexedSearchParamDate next : removeCommon(dateParams, existingDateParams)) {
-				myEntityManager.persist(next);
-			}
+				for (ResourceIndexedSearchParamNumber next : removeCommon(existingNumberParams, numberParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsNumber().remove(next);
+				}
+				for (ResourceIndexedSearchParamNumber next : removeCommon(numberParams, existingNumberParams)) {
+					myEntityManager.persist(next);
+				}
 
-			// Store URI SP's
-			for (ResourceIndexedSearchParamUri next : removeCommon(existingUriParams, uriParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsUri().remove(next);
-			}
-			for (ResourceIndexedSearchParamUri next : removeCommon(uriParams, existingUriParams)) {
-				myEntityManager.persist(next);
-			}
+				for (ResourceIndexedSearchParamQuantity next : removeCommon(existingQuantityParams, quantityParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsQuantity().remove(next);
+				}
+				for (ResourceIndexedSearchParamQuantity next : removeCommon(quantityParams, existingQuantityParams)) {
+					myEntityManager.persist(next);
+				}
 
-			// Store Coords SP's
-			for (ResourceIndexedSearchParamCoords next : removeCommon(existingCoordsParams, coordsParams)) {
-				myEntityManager.remove(next);
-				theEntity.getParamsCoords().remove(next);
-			}
-			for (ResourceIndexedSearchParamCoords next : removeCommon(coordsParams, existingCoordsParams)) {
-				myEntityManager.persist(next);
-			}
+				// Store date SP's
+				for (ResourceIndexedSearchParamDate next : removeCommon(existingDateParams, dateParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsDate().remove(next);
+				}
+				for (ResourceIndexedSearchParamDate next : removeCommon(dateParams, existingDateParams)) {
+					myEntityManager.persist(next);
+				}
 
-			// Store resource links
-			for (ResourceLink next : removeCommon(existingResourceLinks, links)) {
-				myEntityManager.remove(next);
-				theEntity.getResourceLinks().remove(next);
-			}
-			for (ResourceLink next : removeCommon(links, existingResourceLinks)) {
-				myEntityManager.persist(next);
-			}
-			// make sure links are indexed
-			theEntity.setResourceLinks(links);
+				// Store URI SP's
+				for (ResourceIndexedSearchParamUri next : removeCommon(existingUriParams, uriParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsUri().remove(next);
+				}
+				for (ResourceIndexedSearchParamUri next : removeCommon(uriParams, existingUriParams)) {
+					myEntityManager.persist(next);
+				}
+
+				// Store Coords SP's
+				for (ResourceIndexedSearchParamCoords next : removeCommon(existingCoordsParams, coordsParams)) {
+					myEntityManager.remove(next);
+					theEntity.getParamsCoords().remove(next);
+				}
+				for (ResourceIndexedSearchParamCoords next : removeCommon(coordsParams, existingCoordsParams)) {
+					myEntityManager.persist(next);
+				}
 
-			// Store composite string uniques
-			if (getConfig().isUniqueIndexesEnabled()) {
-				for (ResourceIndexedCompositeStringUnique next : removeCommon(existingCompositeStringUniques, compositeStringUniques)) {
-					ourLog.debug("Removing unique index: {}", next);
+				// Store resource links
+				for (ResourceLink next : removeCommon(existingResourceLinks, links)) {
 					myEntityManager.remove(next);
-					theEntity.getParamsCompositeStringUnique().remove(next);
+					theEntity.getResourceLinks().remove(next);
 				}
-				for (ResourceIndexedCompositeStringUnique next : removeCommon(compositeStringUniques, existingCompositeStringUniques)) {
-					if (myConfig.isUniqueIndexesCheckedBeforeSave()) {
-						ResourceIndexedCompositeStringUnique existing = myResourceIndexedCompositeStringUniqueDao.findByQueryString(next.getIndexString());
-						if (existing != null) {
-							throw new PreconditionFailedException("Can not create resource of type " + theEntity.getResourceType() + " as it would create a duplicate index matching query: " + next.getIndexString() + " (existing index belongs to " + existing.getResource().getIdDt().toUnqualifiedVersionless().getValue() + ")");
+				for (ResourceLink next : removeCommon(links, existingResourceLinks)) {
+					myEntityManager.persist(next);
+				}
+				// make sure links are indexed
+				theEntity.setResourceLinks(links);
+
+				// Store composite string uniques
+				if (getConfig().isUniqueIndexesEnabled()) {
+					for (ResourceIndexedCompositeStringUnique next : removeCommon(existingCompositeStringUniques, compositeStringUniques)) {
+						ourLog.debug("Removing unique index: {}", next);
+						myEntityManager.remove(next);
+						theEntity.getParamsCompositeStringUnique().remove(next);
+					}
+					for (ResourceIndexedCompositeStringUnique next : removeCommon(compositeStringUniques, existingCompositeStringUniques)) {
+						if (myConfig.isUniqueIndexesCheckedBeforeSave()) {
+							ResourceIndexedCompositeStringUnique existing = myResourceIndexedCompositeStringUniqueDao.findByQueryString(next.getIndexString());
+							if (existing != null) {
+								throw new PreconditionFailedException("Can not create resource of type " + theEntity.getResourceType() + " as it would create a duplicate index matching query: " + next.getIndexString() + " (existing index belongs to " + existing.getResource().getIdDt().toUnqualifiedVersionless().getValue() + ")");
+							}
 						}
+						ourLog.debug("Persisting unique index: {}", next);
+						myEntityManager.persist(next);
 					}
-					ourLog.debug("Persisting unique index: {}", next);
-					myEntityManager.persist(next);
+				}
+
+				if (session != null) {
+					myEntityManager.flush();
+				}
+			} finally {
+				if (session != null) {
+					session.setJdbcBatchSize(previousJdbcBatchSize);
 				}
 			}
 
@@ -2149,35 +2273,6 @@ public abstract class BaseHapiFhirDao<T extends IBaseResource> implements IDao {
 		return retVal;
 	}
 
-	protected static Long translateForcedIdToPid(String theResourceName, String theResourceId, IForcedIdDao theForcedIdDao) {
-		return translateForcedIdToPids(new IdDt(theResourceName, theResourceId), theForcedIdDao).get(0);
-	}
-
-	static List<Long> translateForcedIdToPids(IIdType theId, IForcedIdDao theForcedIdDao) {
-		Validate.isTrue(theId.hasIdPart());
-
-		if (isValidPid(theId)) {
-			return Collections.singletonList(theId.getIdPartAsLong());
-		} else {
-			List<ForcedId> forcedId;
-			if (theId.hasResourceType()) {
-				forcedId = theForcedIdDao.findByTypeAndForcedId(theId.getResourceType(), theId.getIdPart());
-			} else {
-				forcedId = theForcedIdDao.findByForcedId(theId.getIdPart());
-			}
-
-			if (forcedId.isEmpty() == false) {
-				List<Long> retVal = new ArrayList<>(forcedId.size());
-				for (ForcedId next : forcedId) {
-					retVal.add(next.getResourcePid());
-				}
-				return retVal;
-			} else {
-				throw new ResourceNotFoundException(theId);
-			}
-		}
-	}
-
 	public static SearchParameterMap translateMatchUrl(IDao theCallingDao, FhirContext theContext, String theMatchUrl, RuntimeResourceDefinition resourceDef) {
 		SearchParameterMap paramMap = new SearchParameterMap();
 		List<NameValuePair> parameters = translateMatchUrl(theMatchUrl);
@@ -5,12 +5,20 @@ import ca.uhn.fhir.jpa.dao.data.IResourceTableDao;
 import ca.uhn.fhir.jpa.dao.data.ITermConceptDao;
 import ca.uhn.fhir.jpa.entity.ForcedId;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
+import ca.uhn.fhir.jpa.provider.ServletSubRequestDetails;
 import ca.uhn.fhir.jpa.util.ReindexFailureException;
 import ca.uhn.fhir.util.StopWatch;
+import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor.ActionRequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.hibernate.exception.ConstraintViolationException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -21,16 +29,16 @@ import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
 import javax.persistence.Query;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
-import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -57,12 +65,22 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 
 public abstract class BaseHapiFhirSystemDao<T, MT> extends BaseHapiFhirDao<IBaseResource> implements IFhirSystemDao<T, MT> {
 
+	/**
+	 * The number of times a batch entry is attempted, see {@link #isRetryableBatchEntryFailure(Throwable)}
+	 */
+	protected static final int MAX_BATCH_ENTRY_ATTEMPTS = 2;
+	/**
+	 * The maximum number of resource PIDs loaded by a single reindexing query
+	 */
+	private static final int MAX_REINDEX_QUERY_SIZE = 2000;
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BaseHapiFhirSystemDao.class);
 
 	@Autowired
 	private IForcedIdDao myForcedIdDao;
 
 	private ReentrantLock myReindexLock = new ReentrantLock(false);
+	private final AtomicLong myReindexedResourceCount = new AtomicLong();
+	private final AtomicLong myReindexingMillis = new AtomicLong();
 
 	@Autowired
 	private ITermConceptDao myTermConceptDao;
@@ -72,6 +90,8 @@ public abstract class BaseHapiFhirSystemDao<T, MT> extends BaseHapiFhirDao<IBase
 	private PlatformTransactionManager myTxManager;
 	@Autowired
 	private IResourceTableDao myResourceTableDao;
+	private ThreadPoolExecutor myBatchExecutor;
+	private ThreadPoolExecutor myReindexExecutor;
 
 	private int doPerformReindexingPass(final Integer theCount) {
 		/*
@@ -86,31 +106,186 @@ public abstract class BaseHapiFhirSystemDao<T, MT> extends BaseHapiFhirDao<IBase
 		return doPerformReindexingPassForResources(theCount, txTemplate);
 	}
 
-	@SuppressWarnings("ConstantConditions")
-	private int doPerformReindexingPassForResources(final Integer theCount, TransactionTemplate txTemplate) {
-		return txTemplate.execute(new TransactionCallback<Integer>() {
-			@SuppressWarnings("unchecked")
-			@Override
-			public Integer doInTransaction(@Nonnull TransactionStatus theStatus) {
+	private int doPerformReindexingPassForResources(final Integer theCount, final TransactionTemplate txTemplate) {
+		int maxResult = 500;
+		if (theCount != null) {
+			maxResult = theCount;
+		}
+		maxResult = Math.max(maxResult, 10);
 
-				int maxResult = 500;
-				if (theCount != null) {
-					maxResult = Math.min(theCount, 2000);
-				}
-				maxResult = Math.max(maxResult, 10);
+		/*
+		 * Resources are picked up in PID order and their index status is updated as
+		 * each range is committed, so an interrupted pass simply resumes with the
+		 * remaining unindexed resources next time. Large passes are loaded in windows
+		 * of PIDs so that no single query returns more than MAX_REINDEX_QUERY_SIZE rows.
+		 */
+		StopWatch sw = new StopWatch();
+		int count = 0;
+		int threadCount = 1;
+		Long lastPid = null;
+		while (count < maxResult) {
+			List<Long> resources = findUnindexedResourcePids(lastPid, Math.min(maxResult - count, MAX_REINDEX_QUERY_SIZE), txTemplate);
+			if (resources.isEmpty()) {
+				break;
+			}
 
-				TypedQuery<Long> q = myEntityManager.createQuery("SELECT t.myId FROM ResourceTable t WHERE t.myIndexStatus IS NULL", Long.class);
+			List<List<Long>> ranges = Lists.partition(resources, getConfig().getReindexBatchSize());
+			threadCount = Math.max(threadCount, Math.min(getConfig().getReindexThreadCount(), ranges.size()));
+			count += doReindexRanges(ranges, txTemplate);
+			lastPid = resources.get(resources.size() - 1);
+		}
 
-				ourLog.debug("Beginning indexing query with maximum {}", maxResult);
-				q.setMaxResults(maxResult);
-				Collection<Long> resources = q.getResultList();
+		if (count == 0) {
+			ourLog.debug("Indexed 0 resources");
+			return 0;
+		}
+
+		long delay = sw.getMillis();
+		myReindexedResourceCount.addAndGet(count);
+		myReindexingMillis.addAndGet(delay);
+		ourLog.info("Indexed {} resources in {}ms using {} thread(s) - Avg {}ms / resource", new Object[]{count, delay, threadCount, sw.getMillisPerOperation(count)});
+
+		return count;
+	}
 
-				int count = 0;
-				long start = System.currentTimeMillis();
+	private int doReindexRanges(List<List<Long>> theRanges, final TransactionTemplate txTemplate) {
+		int threadCount = Math.min(getConfig().getReindexThreadCount(), theRanges.size());
 
-				for (Long nextId : resources) {
-					ResourceTable resourceTable = myResourceTableDao.findOne(nextId);
+		int count = 0;
+		if (threadCount <= 1) {
+			for (List<Long> nextRange : theRanges) {
+				count += doReindexRange(nextRange, txTemplate);
+			}
+			return count;
+		}
+
+		ExecutorService executor = getReindexExecutor();
+		List<Future<Integer>> futures = new ArrayList<>();
+		try {
+			for (final List<Long> nextRange : theRanges) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return doReindexRange(nextRange, txTemplate);
+					}
+				}));
+			}
+			for (Future<Integer> nextFuture : futures) {
+				count += nextFuture.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ReindexFailureException) {
+				throw (ReindexFailureException) e.getCause();
+			}
+			throw new InternalErrorException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException(e);
+		} finally {
+			/*
+			 * Ranges which haven't started yet are dropped, but ranges which are already
+			 * running are left to commit (interrupting them would roll back work that is
+			 * almost done) and we wait for them so that the pass still holds the reindex
+			 * lock until they finish
+			 */
+			for (Future<Integer> nextFuture : futures) {
+				nextFuture.cancel(false);
+			}
+			awaitQuietly(futures);
+		}
+
+		return count;
+	}
 
+	private List<Long> findUnindexedResourcePids(final Long theAfterPid, final int theMaxResults, TransactionTemplate txTemplate) {
+		return txTemplate.execute(new TransactionCallback<List<Long>>() {
+			@Override
+			public List<Long> doInTransaction(@Nonnull TransactionStatus theStatus) {
+				TypedQuery<Long> q;
+				if (theAfterPid == null) {
+					q = myEntityManager.createQuery("SELECT t.myId FROM ResourceTable t WHERE t.myIndexStatus IS NULL ORDER BY t.myId", Long.class);
+				} else {
+					q = myEntityManager.createQuery("SELECT t.myId FROM ResourceTable t WHERE t.myIndexStatus IS NULL AND t.myId > :after_pid ORDER BY t.myId", Long.class);
+					q.setParameter("after_pid", theAfterPid);
+				}
+				ourLog.debug("Beginning indexing query with maximum {}", theMaxResults);
+				q.setMaxResults(theMaxResults);
+				return q.getResultList();
+			}
+		});
+	}
+
+	private static void awaitQuietly(List<Future<Integer>> theFutures) {
+		boolean interrupted = false;
+		for (Future<Integer> nextFuture : theFutures) {
+			if (nextFuture.isCancelled()) {
+				continue;
+			}
+			while (true) {
+				try {
+					nextFuture.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					// Already reported, or reported by the range that failed first
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reindexes a range of resources, retrying it if it fails because a range being
+	 * reindexed in parallel committed a shared row first (see
+	 * {@link #isRetryableBatchEntryFailure(Throwable)}). If the range still fails, its
+	 * resources are reindexed one at a time, so that a resource is only marked as
+	 * failed by a {@link ReindexFailureException} once it has failed on its own.
+	 */
+	private int doReindexRange(final List<Long> theResourcePids, TransactionTemplate txTemplate) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return doReindexRangeInTransaction(theResourcePids, txTemplate);
+			} catch (ReindexFailureException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				if (!isRetryableBatchEntryFailure(e)) {
+					throw e;
+				}
+				if (attempt < MAX_BATCH_ENTRY_ATTEMPTS) {
+					ourLog.info("Reindexing {} resource(s) failed on attempt {} with a retryable error, retrying: {}", new Object[]{theResourcePids.size(), attempt, e.toString()});
+					continue;
+				}
+				if (theResourcePids.size() == 1) {
+					ourLog.error("Failed to index resource with PID {} after {} attempts: {}", new Object[]{theResourcePids.get(0), attempt, e.toString(), e});
+					throw new ReindexFailureException(theResourcePids.get(0));
+				}
+				ourLog.info("Reindexing {} resources failed after {} attempts, reindexing them individually: {}", new Object[]{theResourcePids.size(), attempt, e.toString()});
+				break;
+			}
+		}
+
+		int count = 0;
+		for (Long nextPid : theResourcePids) {
+			count += doReindexRange(Collections.singletonList(nextPid), txTemplate);
+		}
+		return count;
+	}
+
+	/**
+	 * Reindexes a range of resources in a single transaction, loading the
+	 * resource rows for the whole range in a single query
+	 */
+	private int doReindexRangeInTransaction(final List<Long> theResourcePids, TransactionTemplate txTemplate) {
+		return txTemplate.execute(new TransactionCallback<Integer>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Integer doInTransaction(@Nonnull TransactionStatus theStatus) {
+				List<ResourceTable> resourceTables = myResourceTableDao.findAll(theResourcePids);
+				for (ResourceTable resourceTable : resourceTables) {
 					try {
 						/*
 						 * This part is because from HAPI 1.5 - 1.6 we changed the format of forced ID to be "type/id" instead of just "id"
@@ -130,26 +305,15 @@ public abstract class BaseHapiFhirSystemDao<T, MT> extends BaseHapiFhirDao<IBase
 
 						dao.reindex(resource, resourceTable);
 					} catch (Exception e) {
+						if (isRetryableBatchEntryFailure(e)) {
+							// Roll back the whole range and let doReindexRange retry it
+							throw e instanceof RuntimeException ? (RuntimeException) e : new InternalErrorException(e);
+						}
 						ourLog.error("Failed to index resource {}: {}", new Object[]{resourceTable.getIdDt(), e.toString(), e});
 						throw new ReindexFailureException(resourceTable.getId());
 					}
-					count++;
-
-					if (count >= maxResult) {
-						break;
-					}
-				}
-
-				long delay = System.currentTimeMillis() - start;
-				long avg;
-				if (count > 0) {
-					avg = (delay / count);
-					ourLog.info("Indexed {} resources in {}ms - Avg {}ms / resource", new Object[]{count, delay, avg});
-				} else {
-					ourLog.debug("Indexed 0 resources in {}ms", delay);
 				}
-
-				return count;
+				return resourceTables.size();
 			}
 		});
 	}
@@ -174,6 +338,13 @@ public abstract class BaseHapiFhirSystemDao<T, MT> extends BaseHapiFhirDao<IBase
 		return retVal;
 	}
 
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	@Override
+	public ReindexingStatus getReindexingStatus() {
+		Long remaining = myEntityManager.createQuery("SELECT COUNT(t) FROM ResourceTable t WHERE t.myIndexStatus IS NULL", Long.class).getSingleResult();
+		return new ReindexingStatus(myReindexedResourceCount.get(), myReindexingMillis.get(), remaining);
+	}
+
 	@Override
 	public IBundleProvider history(Date theSince, Date theUntil, RequestDetails theRequestDetails) {
 		if (theRequestDetails != null) {
@@ -276,4 +447,166 @@ public abstract class BaseHapiFhirSystemDao<T, MT> extends BaseHapiFhirDao<IBase
 		}
 	}
 
+	/**
+	 * Creates a copy of the request details for a single batch entry which is
+	 * being processed on a worker thread, so that the sub-request flags and user
+	 * data set while processing one entry are not visible to the others
+	 */
+	private ServletSubRequestDetails newBatchEntryRequestDetails(ServletRequestDetails theRequestDetails) {
+		ServletSubRequestDetails retVal = new ServletSubRequestDetails();
+		retVal.setServer(theRequestDetails.getServer());
+		retVal.setServletRequest(theRequestDetails.getServletRequest());
+		retVal.setServletResponse(theRequestDetails.getServletResponse());
+		retVal.setRequestType(theRequestDetails.getRequestType());
+		retVal.setFhirServerBase(theRequestDetails.getFhirServerBase());
+		retVal.setCompleteUrl(theRequestDetails.getCompleteUrl());
+		retVal.setTenantId(theRequestDetails.getTenantId());
+		retVal.setRespondGzip(theRequestDetails.isRespondGzip());
+		retVal.getUserData().putAll(theRequestDetails.getUserData());
+
+		Set<String> headerNames = new HashSet<>();
+		headerNames.add(Constants.HEADER_PREFER);
+		if (theRequestDetails.getServletRequest() != null) {
+			Enumeration<String> names = theRequestDetails.getServletRequest().getHeaderNames();
+			while (names != null && names.hasMoreElements()) {
+				headerNames.add(names.nextElement());
+			}
+		}
+		for (String nextName : headerNames) {
+			List<String> values = theRequestDetails.getHeaders(nextName);
+			if (values != null) {
+				for (String nextValue : values) {
+					retVal.addHeader(nextName, nextValue);
+				}
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Returns the executor used to process batch entries. It is shared by all batch requests
+	 * handled by this DAO and has {@link DaoConfig#getBatchThreadCount()} threads and no queue,
+	 * so once all of the threads are busy, further entries are processed on the calling thread.
+	 */
+	private synchronized ThreadPoolExecutor getBatchExecutor() {
+		int threadCount = getConfig().getBatchThreadCount();
+		if (myBatchExecutor == null) {
+			ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("batch-%d")
+				.daemon(true)
+				.build();
+			myBatchExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+		} else if (myBatchExecutor.getMaximumPoolSize() < threadCount) {
+			myBatchExecutor.setMaximumPoolSize(threadCount);
+			myBatchExecutor.setCorePoolSize(threadCount);
+		} else if (myBatchExecutor.getMaximumPoolSize() > threadCount) {
+			myBatchExecutor.setCorePoolSize(threadCount);
+			myBatchExecutor.setMaximumPoolSize(threadCount);
+		}
+		return myBatchExecutor;
+	}
+
+	/**
+	 * Returns the executor used to reindex ranges of resources in parallel. It is created
+	 * the first time it is needed and resized if {@link DaoConfig#getReindexThreadCount()} changes.
+	 */
+	private synchronized ThreadPoolExecutor getReindexExecutor() {
+		int threadCount = getConfig().getReindexThreadCount();
+		if (myReindexExecutor == null) {
+			ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("reindex-%d")
+				.daemon(true)
+				.build();
+			myReindexExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		} else if (myReindexExecutor.getMaximumPoolSize() < threadCount) {
+			myReindexExecutor.setMaximumPoolSize(threadCount);
+			myReindexExecutor.setCorePoolSize(threadCount);
+		} else if (myReindexExecutor.getMaximumPoolSize() > threadCount) {
+			myReindexExecutor.setCorePoolSize(threadCount);
+			myReindexExecutor.setMaximumPoolSize(threadCount);
+		}
+		return myReindexExecutor;
+	}
+
+	/**
+	 * Returns <code>true</code> if a batch entry which failed with the given exception should be
+	 * attempted again. This is the case for unique constraint violations: when entries are processed
+	 * in parallel, two entries may both try to create the same shared row (e.g. the
+	 * <code>HFJ_SEARCH_PARM</code> row for a search parameter that has never been indexed before)
+	 * and only one of them can commit. The row is visible to the retry, which then succeeds.
+	 * Ranges of resources which are reindexed in parallel can race in the same way.
+	 */
+	protected static boolean isRetryableBatchEntryFailure(Throwable theFailure) {
+		return ExceptionUtils.indexOfType(theFailure, ConstraintViolationException.class) != -1;
+	}
+
+	/**
+	 * Processes the entries of a <code>batch</code> Bundle using the number of threads
+	 * configured in {@link DaoConfig#getBatchThreadCount()}. The processor is responsible
+	 * for running each entry in its own database transaction and for converting any failure
+	 * into a response entry. The returned list is in the same order as the given entries.
+	 */
+	protected <E> List<E> processBatchEntries(final ServletRequestDetails theRequestDetails, List<E> theEntries, final IBatchEntryProcessor<E> theProcessor) {
+		List<E> retVal = new ArrayList<>(theEntries.size());
+
+		int threadCount = Math.min(getConfig().getBatchThreadCount(), theEntries.size());
+		if (threadCount <= 1) {
+			for (E nextEntry : theEntries) {
+				retVal.add(theProcessor.processEntry(theRequestDetails, nextEntry));
+			}
+			return retVal;
+		}
+
+		ExecutorService executor = getBatchExecutor();
+		List<Future<E>> futures = new ArrayList<>(theEntries.size());
+		try {
+			for (final E nextEntry : theEntries) {
+				final ServletRequestDetails entryRequestDetails = theRequestDetails != null ? newBatchEntryRequestDetails(theRequestDetails) : null;
+				futures.add(executor.submit(new Callable<E>() {
+					@Override
+					public E call() {
+						return theProcessor.processEntry(entryRequestDetails, nextEntry);
+					}
+				}));
+			}
+			for (Future<E> nextFuture : futures) {
+				retVal.add(nextFuture.get());
+			}
+		} catch (ExecutionException e) {
+			throw new InternalErrorException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException(e);
+		} finally {
+			// The executor is shared, so only the entries of this batch are cancelled
+			for (Future<E> nextFuture : futures) {
+				nextFuture.cancel(true);
+			}
+		}
+
+		return retVal;
+	}
+
+	@PreDestroy
+	public synchronized void shutdownExecutors() {
+		if (myBatchExecutor != null) {
+			myBatchExecutor.shutdownNow();
+			myBatchExecutor = null;
+		}
+		if (myReindexExecutor != null) {
+			myReindexExecutor.shutdownNow();
+			myReindexExecutor = null;
+		}
+	}
+
+	protected interface IBatchEntryProcessor<E> {
+
+		/**
+		 * Processes a single batch entry and returns the corresponding response entry
+		 */
+		E processEntry(ServletRequestDetails theRequestDetails, E theEntry);
+
+	}
+
 }
@@ -70,6 +70,7 @@ public class DaoConfig {
 	 * update setter javadoc if default changes
 	 */
 	private int myDeferIndexingForCodesystemsOfSize = 2000;
+	private int myDecodedResourceCacheSize = 0;
 	private boolean myDeleteStaleSearches = true;
 	private boolean myEnforceReferentialIntegrityOnDelete = true;
 	private boolean myUniqueIndexesEnabled = true;
@@ -84,7 +85,15 @@ public class DaoConfig {
 	 * update setter javadoc if default changes
 	 */
 	private Integer myFetchSizeDefaultMaximum = null;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myForcedIdCacheSize = 10000;
 	private int myHardTagListLimit = 1000;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myIncludePidCacheSize = 100000;
 	/**
 	 * update setter javadoc if default changes
 	 */
@@ -110,6 +119,36 @@ public class DaoConfig {
 	private Integer myCountSearchResultsUpTo = null;
 	private IdStrategyEnum myResourceServerIdStrategy = IdStrategyEnum.SEQUENTIAL_NUMERIC;
 	private boolean myMarkResourcesForReindexingUponSearchParameterChange;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myReindexThreadCount = 1;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myReindexBatchSize = 100;
+	private Integer myIndexingJdbcBatchSize;
+	private boolean myUseHashIndexesForSearch;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int myBatchThreadCount = 1;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private Integer mySearchResultChunkSize;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private Integer mySearchThreadCount;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private int mySearchQueueCapacity = 1000;
+	/**
+	 * update setter javadoc if default changes
+	 */
+	private Integer myMaximumConcurrentSearchesPerResourceType;
 
 	/**
 	 * Constructor
@@ -135,6 +174,43 @@ public class DaoConfig {
 		myTreatReferencesAsLogical.add(theTreatReferencesAsLogical);
 	}
 
+	/**
+	 * Sets the number of threads that will be used to process the entries
+	 * of a <code>batch</code> Bundle in parallel. Each entry is still processed
+	 * in its own database transaction, and the entries in the response Bundle
+	 * are always returned in the same order as the entries in the request.
+	 * <p>
+	 * The threads are shared by all batch requests. When all of them are
+	 * busy, further entries are processed on the thread handling the request.
+	 * </p>
+	 * <p>
+	 * The default value for this setting is 1, meaning that batch entries
+	 * are processed one after another on the calling thread.
+	 * </p>
+	 */
+	public int getBatchThreadCount() {
+		return myBatchThreadCount;
+	}
+
+	/**
+	 * Sets the number of threads that will be used to process the entries
+	 * of a <code>batch</code> Bundle in parallel. Each entry is still processed
+	 * in its own database transaction, and the entries in the response Bundle
+	 * are always returned in the same order as the entries in the request.
+	 * <p>
+	 * The threads are shared by all batch requests. When all of them are
+	 * busy, further entries are processed on the thread handling the request.
+	 * </p>
+	 * <p>
+	 * The default value for this setting is 1, meaning that batch entries
+	 * are processed one after another on the calling thread.
+	 * </p>
+	 */
+	public void setBatchThreadCount(int theBatchThreadCount) {
+		Validate.isTrue(theBatchThreadCount > 0, "theBatchThreadCount must be greater than 0");
+		myBatchThreadCount = theBatchThreadCount;
+	}
+
 	/**
 	 * Specifies the highest number that a client is permitted to use in a
 	 * <code>Cache-Control: nostore, max-results=NNN</code>
@@ -205,6 +281,40 @@ public class DaoConfig {
 		myCountSearchResultsUpTo = theCountSearchResultsUpTo;
 	}
 
+	/**
+	 * Specifies the maximum number of decoded resource bodies to keep in memory. When
+	 * enabled, a resource version which has already been decompressed and parsed (for example
+	 * a Practitioner that is <code>_include</code>d on every page of search results) is
+	 * copied from this cache instead of being decoded again.
+	 * <p>
+	 * Each entry holds a complete parsed resource, so the memory required depends on the
+	 * size of the resources being stored.
+	 * </p>
+	 * <p>
+	 * Set to <code>0</code> to disable the cache. Defaults to 0.
+	 * </p>
+	 */
+	public int getDecodedResourceCacheSize() {
+		return myDecodedResourceCacheSize;
+	}
+
+	/**
+	 * Specifies the maximum number of decoded resource bodies to keep in memory. When
+	 * enabled, a resource version which has already been decompressed and parsed (for example
+	 * a Practitioner that is <code>_include</code>d on every page of search results) is
+	 * copied from this cache instead of being decoded again.
+	 * <p>
+	 * Each entry holds a complete parsed resource, so the memory required depends on the
+	 * size of the resources being stored.
+	 * </p>
+	 * <p>
+	 * Set to <code>0</code> to disable the cache. Defaults to 0.
+	 * </p>
+	 */
+	public void setDecodedResourceCacheSize(int theDecodedResourceCacheSize) {
+		myDecodedResourceCacheSize = theDecodedResourceCacheSize;
+	}
+
 	/**
 	 * When a code system is added that contains more than this number of codes,
 	 * the code system will be indexed later in an incremental process in order to
@@ -328,6 +438,42 @@ public class DaoConfig {
 		myFetchSizeDefaultMaximum = theFetchSizeDefaultMaximum;
 	}
 
+	/**
+	 * Specifies the maximum number of entries held in the cache which maps client assigned
+	 * resource IDs (e.g. <code>Patient/abc</code>) to their database PIDs and back. This
+	 * cache avoids a database lookup every time a client assigned ID is read or used in
+	 * a reference.
+	 * <p>
+	 * The cache is local to each server instance, so it should be disabled if several
+	 * servers share a database and resources with client assigned IDs are ever removed
+	 * from the database by some means other than this server.
+	 * </p>
+	 * <p>
+	 * Set to <code>0</code> to disable the cache. Defaults to 10000.
+	 * </p>
+	 */
+	public int getForcedIdCacheSize() {
+		return myForcedIdCacheSize;
+	}
+
+	/**
+	 * Specifies the maximum number of entries held in the cache which maps client assigned
+	 * resource IDs (e.g. <code>Patient/abc</code>) to their database PIDs and back. This
+	 * cache avoids a database lookup every time a client assigned ID is read or used in
+	 * a reference.
+	 * <p>
+	 * The cache is local to each server instance, so it should be disabled if several
+	 * servers share a database and resources with client assigned IDs are ever removed
+	 * from the database by some means other than this server.
+	 * </p>
+	 * <p>
+	 * Set to <code>0</code> to disable the cache. Defaults to 10000.
+	 * </p>
+	 */
+	public void setForcedIdCacheSize(int theForcedIdCacheSize) {
+		myForcedIdCacheSize = theForcedIdCacheSize;
+	}
+
 	/**
 	 * Gets the maximum number of results to return in a GetTags query (DSTU1 only)
 	 */
@@ -342,6 +488,77 @@ public class DaoConfig {
 		myHardTagListLimit = theHardTagListLimit;
 	}
 
+	/**
+	 * Specifies the maximum number of PIDs reached through <code>_include</code> and
+	 * <code>_revinclude</code> which are remembered across all searches. When a page of
+	 * a search is loaded again, or a <code>:recurse</code> include reaches a resource which
+	 * was already expanded, the remembered PIDs are used instead of querying the
+	 * resource links again.
+	 * <p>
+	 * Each resolved include also counts as one PID. When the limit is exceeded, the
+	 * entries of whole searches are discarded. Entries for a search are also discarded
+	 * after it has not been used for {@link #getExpireSearchResultsAfterMillis()}.
+	 * </p>
+	 * <p>
+	 * Set to <code>0</code> to disable the cache. Defaults to 100000.
+	 * </p>
+	 */
+	public int getIncludePidCacheSize() {
+		return myIncludePidCacheSize;
+	}
+
+	/**
+	 * Specifies the maximum number of PIDs reached through <code>_include</code> and
+	 * <code>_revinclude</code> which are remembered across all searches. When a page of
+	 * a search is loaded again, or a <code>:recurse</code> include reaches a resource which
+	 * was already expanded, the remembered PIDs are used instead of querying the
+	 * resource links again.
+	 * <p>
+	 * Each resolved include also counts as one PID. When the limit is exceeded, the
+	 * entries of whole searches are discarded. Entries for a search are also discarded
+	 * after it has not been used for {@link #getExpireSearchResultsAfterMillis()}.
+	 * </p>
+	 * <p>
+	 * Set to <code>0</code> to disable the cache. Defaults to 100000.
+	 * </p>
+	 */
+	public void setIncludePidCacheSize(int theIncludePidCacheSize) {
+		myIncludePidCacheSize = theIncludePidCacheSize;
+	}
+
+	/**
+	 * If set to a non-null value (default is <code>null</code>), the Hibernate session used to
+	 * write a resource will group the INSERT and DELETE statements for its index rows
+	 * (strings, tokens, dates, links, etc.) into JDBC batches of up to this size, overriding
+	 * the <code>hibernate.jdbc.batch_size</code> setting of the session factory for
+	 * that session.
+	 * <p>
+	 * Index rows use pooled sequence generators, so their IDs are allocated in blocks
+	 * and do not prevent batching. The index rows are flushed as soon as they have been
+	 * written, after which the session's previous batch size is restored.
+	 * </p>
+	 */
+	public Integer getIndexingJdbcBatchSize() {
+		return myIndexingJdbcBatchSize;
+	}
+
+	/**
+	 * If set to a non-null value (default is <code>null</code>), the Hibernate session used to
+	 * write a resource will group the INSERT and DELETE statements for its index rows
+	 * (strings, tokens, dates, links, etc.) into JDBC batches of up to this size, overriding
+	 * the <code>hibernate.jdbc.batch_size</code> setting of the session factory for
+	 * that session.
+	 * <p>
+	 * Index rows use pooled sequence generators, so their IDs are allocated in blocks
+	 * and do not prevent batching. The index rows are flushed as soon as they have been
+	 * written, after which the session's previous batch size is restored.
+	 * </p>
+	 */
+	public void setIndexingJdbcBatchSize(Integer theIndexingJdbcBatchSize) {
+		Validate.isTrue(theIndexingJdbcBatchSize == null || theIndexingJdbcBatchSize > 0, "theIndexingJdbcBatchSize must be null or greater than 0");
+		myIndexingJdbcBatchSize = theIndexingJdbcBatchSize;
+	}
+
 	/**
 	 * If set to {@link IndexEnabledEnum#DISABLED} (default is {@link IndexEnabledEnum#DISABLED})
 	 * the server will not create search indexes for search parameters with no values in resources.
@@ -449,6 +666,39 @@ public class DaoConfig {
 		myMaximumSearchResultCountInTransaction = theMaximumSearchResultCountInTransaction;
 	}
 
+	/**
+	 * If set to a non {@literal null} value (default is {@literal null}), no more than this
+	 * many paged searches for any single resource type may be loading (or waiting to be loaded)
+	 * at the same time. Additional searches for that resource type are rejected with an
+	 * HTTP 429 (Too Many Requests) response until one of the running searches completes.
+	 * <p>
+	 * Searches which are loaded synchronously (e.g. using <code>_count</code> with a
+	 * <code>Cache-Control: no-store</code> header, or searches performed by the server
+	 * itself using {@link ca.uhn.fhir.jpa.dao.SearchParameterMap#setLoadSynchronous(boolean)})
+	 * run on the calling thread and are not subject to this limit.
+	 * </p>
+	 */
+	public Integer getMaximumConcurrentSearchesPerResourceType() {
+		return myMaximumConcurrentSearchesPerResourceType;
+	}
+
+	/**
+	 * If set to a non {@literal null} value (default is {@literal null}), no more than this
+	 * many paged searches for any single resource type may be loading (or waiting to be loaded)
+	 * at the same time. Additional searches for that resource type are rejected with an
+	 * HTTP 429 (Too Many Requests) response until one of the running searches completes.
+	 * <p>
+	 * Searches which are loaded synchronously (e.g. using <code>_count</code> with a
+	 * <code>Cache-Control: no-store</code> header, or searches performed by the server
+	 * itself using {@link ca.uhn.fhir.jpa.dao.SearchParameterMap#setLoadSynchronous(boolean)})
+	 * run on the calling thread and are not subject to this limit.
+	 * </p>
+	 */
+	public void setMaximumConcurrentSearchesPerResourceType(Integer theMaximumConcurrentSearchesPerResourceType) {
+		Validate.isTrue(theMaximumConcurrentSearchesPerResourceType == null || theMaximumConcurrentSearchesPerResourceType > 0, "theMaximumConcurrentSearchesPerResourceType must be null or greater than 0");
+		myMaximumConcurrentSearchesPerResourceType = theMaximumConcurrentSearchesPerResourceType;
+	}
+
 	public ResourceEncodingEnum getResourceEncoding() {
 		return myResourceEncoding;
 	}
@@ -457,6 +707,60 @@ public class DaoConfig {
 		myResourceEncoding = theResourceEncoding;
 	}
 
+	/**
+	 * During a reindexing pass, the resources requiring reindexing are split into
+	 * ranges of this many resources. Each range is loaded in a single query and
+	 * reindexed in its own (short) database transaction.
+	 * <p>
+	 * The default value for this setting is 100.
+	 * </p>
+	 */
+	public int getReindexBatchSize() {
+		return myReindexBatchSize;
+	}
+
+	/**
+	 * During a reindexing pass, the resources requiring reindexing are split into
+	 * ranges of this many resources. Each range is loaded in a single query and
+	 * reindexed in its own (short) database transaction.
+	 * <p>
+	 * The default value for this setting is 100.
+	 * </p>
+	 */
+	public void setReindexBatchSize(int theReindexBatchSize) {
+		Validate.isTrue(theReindexBatchSize > 0, "theReindexBatchSize must be greater than 0");
+		myReindexBatchSize = theReindexBatchSize;
+	}
+
+	/**
+	 * Sets the number of threads that will be used to reindex resources
+	 * in parallel during a reindexing pass (e.g. after a search parameter has
+	 * been added or changed). Each thread works on its own range of resources
+	 * (see {@link #setReindexBatchSize(int)}).
+	 * <p>
+	 * The default value for this setting is 1, meaning that reindexing
+	 * happens on the calling thread.
+	 * </p>
+	 */
+	public int getReindexThreadCount() {
+		return myReindexThreadCount;
+	}
+
+	/**
+	 * Sets the number of threads that will be used to reindex resources
+	 * in parallel during a reindexing pass (e.g. after a search parameter has
+	 * been added or changed). Each thread works on its own range of resources
+	 * (see {@link #setReindexBatchSize(int)}).
+	 * <p>
+	 * The default value for this setting is 1, meaning that reindexing
+	 * happens on the calling thread.
+	 * </p>
+	 */
+	public void setReindexThreadCount(int theReindexThreadCount) {
+		Validate.isTrue(theReindexThreadCount > 0, "theReindexThreadCount must be greater than 0");
+		myReindexThreadCount = theReindexThreadCount;
+	}
+
 	/**
 	 * If set, an individual resource will not be allowed to have more than the
 	 * given number of tags, profiles, and security labels (the limit is for the combined
@@ -546,6 +850,101 @@ public class DaoConfig {
 		myReuseCachedSearchResultsForMillis = theReuseCachedSearchResultsForMillis;
 	}
 
+	/**
+	 * If set to a non {@literal null} value (default is {@literal null}), the resource PIDs
+	 * matched by a paged search are stored in compressed chunks of this many PIDs
+	 * per database row instead of in one <code>HFJ_SEARCH_RESULT</code> row per match.
+	 * This greatly reduces the number of rows that are written when a large search
+	 * is performed and deleted again when the search expires. A value in the thousands
+	 * (e.g. 5000) is a good starting point.
+	 * <p>
+	 * Changing this setting only affects searches performed after the change. Searches
+	 * which are already stored continue to be read using the storage format they
+	 * were written with.
+	 * </p>
+	 */
+	public Integer getSearchResultChunkSize() {
+		return mySearchResultChunkSize;
+	}
+
+	/**
+	 * If set to a non {@literal null} value (default is {@literal null}), the resource PIDs
+	 * matched by a paged search are stored in compressed chunks of this many PIDs
+	 * per database row instead of in one <code>HFJ_SEARCH_RESULT</code> row per match.
+	 * This greatly reduces the number of rows that are written when a large search
+	 * is performed and deleted again when the search expires. A value in the thousands
+	 * (e.g. 5000) is a good starting point.
+	 * <p>
+	 * Changing this setting only affects searches performed after the change. Searches
+	 * which are already stored continue to be read using the storage format they
+	 * were written with.
+	 * </p>
+	 */
+	public void setSearchResultChunkSize(Integer theSearchResultChunkSize) {
+		Validate.isTrue(theSearchResultChunkSize == null || theSearchResultChunkSize > 0, "theSearchResultChunkSize must be null or greater than 0");
+		mySearchResultChunkSize = theSearchResultChunkSize;
+	}
+
+	/**
+	 * Sets the number of paged searches which may be waiting for a search thread when
+	 * the number of search threads is limited (see {@link #setSearchThreadCount(Integer)}).
+	 * Searches which arrive when the queue is full are rejected with an HTTP 503
+	 * (Service Unavailable) response. A value of 0 means that searches are rejected
+	 * as soon as all search threads are busy.
+	 * <p>
+	 * The default value for this setting is 1000.
+	 * </p>
+	 */
+	public int getSearchQueueCapacity() {
+		return mySearchQueueCapacity;
+	}
+
+	/**
+	 * Sets the number of paged searches which may be waiting for a search thread when
+	 * the number of search threads is limited (see {@link #setSearchThreadCount(Integer)}).
+	 * Searches which arrive when the queue is full are rejected with an HTTP 503
+	 * (Service Unavailable) response. A value of 0 means that searches are rejected
+	 * as soon as all search threads are busy.
+	 * <p>
+	 * The default value for this setting is 1000.
+	 * </p>
+	 */
+	public void setSearchQueueCapacity(int theSearchQueueCapacity) {
+		Validate.isTrue(theSearchQueueCapacity >= 0, "theSearchQueueCapacity must not be negative");
+		mySearchQueueCapacity = theSearchQueueCapacity;
+	}
+
+	/**
+	 * If set to a non {@literal null} value (default is {@literal null}), paged searches
+	 * are loaded by a pool of at most this many threads. Searches which arrive while all
+	 * threads are busy wait in a queue (see {@link #setSearchQueueCapacity(int)}). Each
+	 * loading search holds a database connection, so this should be set lower than the
+	 * size of the connection pool.
+	 * <p>
+	 * If this is {@literal null}, a new thread is started for every search that needs
+	 * one. Searches which are loaded synchronously always run on the calling thread.
+	 * </p>
+	 */
+	public Integer getSearchThreadCount() {
+		return mySearchThreadCount;
+	}
+
+	/**
+	 * If set to a non {@literal null} value (default is {@literal null}), paged searches
+	 * are loaded by a pool of at most this many threads. Searches which arrive while all
+	 * threads are busy wait in a queue (see {@link #setSearchQueueCapacity(int)}). Each
+	 * loading search holds a database connection, so this should be set lower than the
+	 * size of the connection pool.
+	 * <p>
+	 * If this is {@literal null}, a new thread is started for every search that needs
+	 * one. Searches which are loaded synchronously always run on the calling thread.
+	 * </p>
+	 */
+	public void setSearchThreadCount(Integer theSearchThreadCount) {
+		Validate.isTrue(theSearchThreadCount == null || theSearchThreadCount > 0, "theSearchThreadCount must be null or greater than 0");
+		mySearchThreadCount = theSearchThreadCount;
+	}
+
 	/**
 	 * This setting may be used to advise the server that any references found in
 	 * resources that have any of the base URLs given here will be replaced with
@@ -940,6 +1339,40 @@ public class DaoConfig {
 		mySchedulingDisabled = theSchedulingDisabled;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), token and string searches
+	 * match index rows using the precomputed 64 bit hash columns (e.g. <code>HASH_SYS_AND_VALUE</code>)
+	 * instead of comparing the resource type, parameter name, system and value columns. The
+	 * hash indexes are much smaller than the equivalent composite text indexes.
+	 * <p>
+	 * Hashes are stored for all index rows written by this version of HAPI FHIR. Index rows
+	 * written by earlier versions have no hashes, so before this setting is enabled on an
+	 * existing database, all resources must be reindexed (e.g. using the
+	 * <code>$mark-all-resources-for-reindexing</code> operation), which populates the
+	 * missing hashes.
+	 * </p>
+	 */
+	public boolean isUseHashIndexesForSearch() {
+		return myUseHashIndexesForSearch;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), token and string searches
+	 * match index rows using the precomputed 64 bit hash columns (e.g. <code>HASH_SYS_AND_VALUE</code>)
+	 * instead of comparing the resource type, parameter name, system and value columns. The
+	 * hash indexes are much smaller than the equivalent composite text indexes.
+	 * <p>
+	 * Hashes are stored for all index rows written by this version of HAPI FHIR. Index rows
+	 * written by earlier versions have no hashes, so before this setting is enabled on an
+	 * existing database, all resources must be reindexed (e.g. using the
+	 * <code>$mark-all-resources-for-reindexing</code> operation), which populates the
+	 * missing hashes.
+	 * </p>
+	 */
+	public void setUseHashIndexesForSearch(boolean theUseHashIndexesForSearch) {
+		myUseHashIndexesForSearch = theUseHashIndexesForSearch;
+	}
+
 	/**
 	 * If set to {@literal true} (default is true), if a client performs an update which does not actually
 	 * result in any chance to a given resource (e.g. an update where the resource body matches the
@@ -0,0 +1,213 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.util.ReconfigurableCache;
+import com.google.common.cache.Cache;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+public class DecodedResourceCacheSvcImpl implements IDecodedResourceCacheSvc {
+
+	private final AtomicLong myDecodeCount = new AtomicLong();
+	private final AtomicLong myDecodeNanos = new AtomicLong();
+	private final AtomicLong myHitCount = new AtomicLong();
+	private final AtomicLong myMissCount = new AtomicLong();
+	private final ReconfigurableCache<Pair<Long, Long>, IBaseResource> myCache = new ReconfigurableCache<Pair<Long, Long>, IBaseResource>("decoded resource cache") {
+		@Override
+		protected long getMaximumSize() {
+			return myDaoConfig.getDecodedResourceCacheSize();
+		}
+	};
+	@Autowired
+	private FhirContext myContext;
+	@Autowired
+	private DaoConfig myDaoConfig;
+
+	@Override
+	public void clear() {
+		myCache.invalidateAll();
+		myDecodeCount.set(0);
+		myDecodeNanos.set(0);
+		myHitCount.set(0);
+		myMissCount.set(0);
+	}
+
+	@Override
+	public boolean contains(Long theResourcePid, long theVersion) {
+		Cache<Pair<Long, Long>, IBaseResource> cache = myCache.getCache();
+		if (cache == null) {
+			return false;
+		}
+		Pair<Long, Long> key = Pair.of(theResourcePid, theVersion);
+		Map<Pair<Long, Long>, IBaseResource> pending = myCache.getPendingEntries(false);
+		if (pending != null && pending.containsKey(key)) {
+			return true;
+		}
+		return cache.getIfPresent(key) != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R extends IBaseResource> R get(Long theResourcePid, long theVersion, Class<R> theResourceType) {
+		Cache<Pair<Long, Long>, IBaseResource> cache = myCache.getCache();
+		if (cache == null) {
+			return null;
+		}
+
+		Pair<Long, Long> key = Pair.of(theResourcePid, theVersion);
+		IBaseResource cached = null;
+		Map<Pair<Long, Long>, IBaseResource> pending = myCache.getPendingEntries(false);
+		if (pending != null) {
+			cached = pending.get(key);
+		}
+		if (cached == null) {
+			cached = cache.getIfPresent(key);
+		}
+		if (cached == null || !cached.getClass().equals(theResourceType)) {
+			myMissCount.incrementAndGet();
+			return null;
+		}
+
+		myHitCount.incrementAndGet();
+		return (R) copy(cached);
+	}
+
+	@Override
+	public long getDecodeCount() {
+		return myDecodeCount.get();
+	}
+
+	@Override
+	public long getDecodeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(myDecodeNanos.get());
+	}
+
+	@Override
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	@Override
+	public void put(Long theResourcePid, long theVersion, IBaseResource theResource) {
+		Cache<Pair<Long, Long>, IBaseResource> cache = myCache.getCache();
+		if (cache == null) {
+			return;
+		}
+
+		IBaseResource copy = copy(theResource);
+		if (copy == null || !copy.getClass().equals(theResource.getClass())) {
+			return;
+		}
+
+		Pair<Long, Long> key = Pair.of(theResourcePid, theVersion);
+		Map<Pair<Long, Long>, IBaseResource> pending = myCache.getPendingEntries(true);
+		if (pending != null) {
+			pending.put(key, copy);
+		} else {
+			cache.put(key, copy);
+		}
+	}
+
+	@Override
+	public void invalidate(Long theResourcePid, long theVersion) {
+		Cache<Pair<Long, Long>, IBaseResource> cache = myCache.getCache();
+		if (cache == null) {
+			return;
+		}
+		Pair<Long, Long> key = Pair.of(theResourcePid, theVersion);
+		cache.invalidate(key);
+		Map<Pair<Long, Long>, IBaseResource> pending = myCache.getPendingEntries(false);
+		if (pending != null) {
+			pending.remove(key);
+		}
+	}
+
+	@Override
+	public void recordDecode(long theNanos) {
+		myDecodeCount.incrementAndGet();
+		myDecodeNanos.addAndGet(theNanos);
+	}
+
+	/**
+	 * Only the RI structures provide a deep copy, so resources from the
+	 * HAPI DSTU2 structures are never cached
+	 */
+	private IBaseResource copy(IBaseResource theResource) {
+		IBaseResource retVal;
+		List<? extends IBaseResource> contained;
+		if (theResource instanceof org.hl7.fhir.r4.model.Resource) {
+			retVal = ((org.hl7.fhir.r4.model.Resource) theResource).copy();
+			contained = retVal instanceof org.hl7.fhir.r4.model.DomainResource ? ((org.hl7.fhir.r4.model.DomainResource) retVal).getContained() : null;
+		} else if (theResource instanceof org.hl7.fhir.dstu3.model.Resource) {
+			retVal = ((org.hl7.fhir.dstu3.model.Resource) theResource).copy();
+			contained = retVal instanceof org.hl7.fhir.dstu3.model.DomainResource ? ((org.hl7.fhir.dstu3.model.DomainResource) retVal).getContained() : null;
+		} else {
+			return null;
+		}
+
+		if (contained != null && !contained.isEmpty()) {
+			relinkContainedResources(retVal, contained);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Copying a resource doesn't copy {@link IBaseReference#getResource()}, so local
+	 * references in the copy are pointed back at the copy's own contained resources
+	 */
+	private void relinkContainedResources(IBaseResource theResource, List<? extends IBaseResource> theContained) {
+		Map<String, IBaseResource> idToContained = new HashMap<>();
+		for (IBaseResource next : theContained) {
+			String id = next.getIdElement().getValue();
+			if (isNotBlank(id)) {
+				idToContained.put(id.startsWith("#") ? id : "#" + id, next);
+			}
+		}
+
+		for (IBaseReference next : myContext.newTerser().getAllPopulatedChildElementsOfType(theResource, IBaseReference.class)) {
+			String reference = next.getReferenceElement().getValue();
+			if (next.getResource() == null && reference != null && reference.startsWith("#")) {
+				IBaseResource target = idToContained.get(reference);
+				if (target != null) {
+					next.setResource(target);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.util.ReconfigurableCache;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.StringUtils.defaultString;
+
+public class ForcedIdCacheSvcImpl implements IForcedIdCacheSvc {
+
+	private final AtomicLong myHitCount = new AtomicLong();
+	private final AtomicLong myMissCount = new AtomicLong();
+	@Autowired
+	private DaoConfig myDaoConfig;
+	private final ReconfigurableCache<Pair<String, String>, Long> myForcedIdToPid = new ReconfigurableCache<Pair<String, String>, Long>("forced ID to PID cache") {
+		@Override
+		protected long getMaximumSize() {
+			return myDaoConfig.getForcedIdCacheSize();
+		}
+	};
+	private final ReconfigurableCache<Long, String> myPidToForcedId = new ReconfigurableCache<Long, String>("PID to forced ID cache") {
+		@Override
+		protected long getMaximumSize() {
+			return myDaoConfig.getForcedIdCacheSize();
+		}
+	};
+
+	@Override
+	public void clear() {
+		myForcedIdToPid.invalidateAll();
+		myPidToForcedId.invalidateAll();
+		myHitCount.set(0);
+		myMissCount.set(0);
+	}
+
+	@Override
+	public String getForcedId(Long thePid) {
+		Cache<Long, String> pidToForcedId = myPidToForcedId.getCache();
+		if (pidToForcedId == null) {
+			return null;
+		}
+		String retVal = pidToForcedId.getIfPresent(thePid);
+		countLookup(retVal != null);
+		return retVal;
+	}
+
+	@Override
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	@Override
+	public Long getPid(String theResourceType, String theForcedId) {
+		Cache<Pair<String, String>, Long> forcedIdToPid = myForcedIdToPid.getCache();
+		if (forcedIdToPid == null) {
+			return null;
+		}
+		Pair<String, String> key = Pair.of(theResourceType, theForcedId);
+
+		Long retVal = null;
+		Map<Pair<String, String>, Long> pending = myForcedIdToPid.getPendingEntries(false);
+		if (pending != null) {
+			retVal = pending.get(key);
+		}
+		if (retVal == null) {
+			retVal = forcedIdToPid.getIfPresent(key);
+		}
+
+		countLookup(retVal != null);
+		return retVal;
+	}
+
+	private void countLookup(boolean theHit) {
+		if (theHit) {
+			myHitCount.incrementAndGet();
+		} else {
+			myMissCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void invalidate(String theResourceType, String theForcedId, Long thePid) {
+		Cache<Pair<String, String>, Long> forcedIdToPid = myForcedIdToPid.getCache();
+		Cache<Long, String> pidToForcedId = myPidToForcedId.getCache();
+		if (forcedIdToPid == null || pidToForcedId == null) {
+			return;
+		}
+		if (theForcedId != null) {
+			Pair<String, String> key = Pair.of(theResourceType, theForcedId);
+			forcedIdToPid.invalidate(key);
+			Map<Pair<String, String>, Long> pending = myForcedIdToPid.getPendingEntries(false);
+			if (pending != null) {
+				pending.remove(key);
+			}
+		}
+		if (thePid != null) {
+			pidToForcedId.invalidate(thePid);
+		}
+	}
+
+	@Override
+	public void putForcedId(Long thePid, String theForcedId) {
+		Cache<Long, String> pidToForcedId = myPidToForcedId.getCache();
+		if (pidToForcedId == null) {
+			return;
+		}
+		/*
+		 * PIDs are never reused, so this mapping can't become wrong even
+		 * if the current transaction is rolled back
+		 */
+		pidToForcedId.put(thePid, defaultString(theForcedId));
+	}
+
+	@Override
+	public void putPid(String theResourceType, String theForcedId, Long thePid) {
+		Cache<Pair<String, String>, Long> forcedIdToPid = myForcedIdToPid.getCache();
+		if (forcedIdToPid == null) {
+			return;
+		}
+		Pair<String, String> key = Pair.of(theResourceType, theForcedId);
+		Map<Pair<String, String>, Long> pending = myForcedIdToPid.getPendingEntries(true);
+		if (pending != null) {
+			pending.put(key, thePid);
+		} else {
+			forcedIdToPid.put(key, thePid);
+		}
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+}
@@ -4,6 +4,8 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.jpa.entity.BaseHasResource;
+import ca.uhn.fhir.jpa.entity.BaseTag;
+import ca.uhn.fhir.jpa.entity.ResourceHistoryTable;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
 import ca.uhn.fhir.jpa.search.PersistedJpaBundleProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -58,4 +60,13 @@ public interface IDao {
 
 	<R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, boolean theForHistoryOperation);
 
+	/**
+	 * Same as {@link #toResource(Class, BaseHasResource, boolean)}, but uses history and tag data
+	 * which the caller has already loaded (e.g. in a single query for a whole page of results)
+	 *
+	 * @param theHistory The history row holding the current version of the resource, or <code>null</code> if it should be loaded
+	 * @param theTagList The tags belonging to the resource, or <code>null</code> if they should be loaded
+	 */
+	<R extends IBaseResource> R toResource(Class<R> theResourceType, BaseHasResource theEntity, ResourceHistoryTable theHistory, Collection<? extends BaseTag> theTagList, boolean theForHistoryOperation);
+
 }
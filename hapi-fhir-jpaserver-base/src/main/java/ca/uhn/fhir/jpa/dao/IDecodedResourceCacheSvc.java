@@ -0,0 +1,97 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Cache of resource bodies which have already been decompressed and parsed, keyed by
+ * resource PID and version.
+ * <p>
+ * A committed version of a resource never changes, but a version that is still being
+ * written may be rewritten or rolled back. Entries added while a transaction is
+ * active are therefore only visible to that transaction until it commits, and
+ * {@link #invalidate(Long, long)} must be called whenever a version is written.
+ * </p>
+ * <p>
+ * Resources are copied on the way in and on the way out, so callers may freely
+ * modify the instances they get back.
+ * </p>
+ *
+ * @see DaoConfig#setDecodedResourceCacheSize(int)
+ */
+public interface IDecodedResourceCacheSvc {
+
+	/**
+	 * Returns <code>true</code> if the given version of a resource is in the cache. Unlike
+	 * {@link #get(Long, long, Class)} this does not copy the resource or affect the hit
+	 * and miss counts.
+	 */
+	boolean contains(Long theResourcePid, long theVersion);
+
+	/**
+	 * Returns a copy of the cached resource, or <code>null</code> if the given version
+	 * of the resource is not in the cache or was cached as a different type
+	 */
+	<R extends IBaseResource> R get(Long theResourcePid, long theVersion, Class<R> theResourceType);
+
+	/**
+	 * Adds a copy of the given freshly decoded resource to the cache. Resources which
+	 * can not be copied are not cached.
+	 */
+	void put(Long theResourcePid, long theVersion, IBaseResource theResource);
+
+	/**
+	 * Removes the given version of a resource from the cache
+	 */
+	void invalidate(Long theResourcePid, long theVersion);
+
+	/**
+	 * Records the time taken to decode a single resource from the database
+	 */
+	void recordDecode(long theNanos);
+
+	/**
+	 * Removes all entries from the cache and resets the metrics
+	 */
+	void clear();
+
+	/**
+	 * Returns the number of lookups which were answered by the cache
+	 */
+	long getHitCount();
+
+	/**
+	 * Returns the number of lookups which were not answered by the cache
+	 */
+	long getMissCount();
+
+	/**
+	 * Returns the number of resource bodies decoded from the database
+	 */
+	long getDecodeCount();
+
+	/**
+	 * Returns the total time spent decoding resource bodies from the database, in milliseconds
+	 */
+	long getDecodeMillis();
+
+}
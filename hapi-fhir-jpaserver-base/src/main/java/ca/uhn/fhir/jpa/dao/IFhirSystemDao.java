@@ -39,6 +39,12 @@ public interface IFhirSystemDao<T, MT> extends IDao {
 
 	Map<String, Long> getResourceCounts();
 
+	/**
+	 * Returns the progress of resource reindexing (throughput so far and
+	 * the number of resources still requiring reindexing)
+	 */
+	ReindexingStatus getReindexingStatus();
+
 	IBundleProvider history(Date theDate, Date theUntil, RequestDetails theRequestDetails);
 
 	/**
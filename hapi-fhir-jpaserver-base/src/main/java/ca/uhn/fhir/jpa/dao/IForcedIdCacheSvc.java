@@ -0,0 +1,83 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Cache for the mapping between client assigned resource IDs (see {@link ca.uhn.fhir.jpa.entity.ForcedId})
+ * and resource PIDs, in both directions. This avoids a database round trip every time a
+ * reference such as <code>Patient/abc</code> is resolved.
+ * <p>
+ * Entries added while a transaction is active are only visible to that transaction until it
+ * commits, so a rolled back create can never leave behind a mapping to a PID that does
+ * not exist.
+ * </p>
+ *
+ * @see DaoConfig#setForcedIdCacheSize(int)
+ */
+public interface IForcedIdCacheSvc {
+
+	/**
+	 * Returns the cached PID for the given resource type and client assigned ID, or <code>null</code>
+	 * if the mapping is not in the cache
+	 */
+	Long getPid(String theResourceType, String theForcedId);
+
+	/**
+	 * Adds a mapping from a resource type and client assigned ID to a PID
+	 */
+	void putPid(String theResourceType, String theForcedId, Long thePid);
+
+	/**
+	 * Returns the cached client assigned ID for the given PID, an empty string if the
+	 * resource is known to have no client assigned ID, or <code>null</code> if the PID is not
+	 * in the cache
+	 */
+	String getForcedId(Long thePid);
+
+	/**
+	 * Adds a mapping from a PID to its client assigned ID
+	 *
+	 * @param theForcedId The client assigned ID, or <code>null</code> if the resource does not have one
+	 */
+	void putForcedId(Long thePid, String theForcedId);
+
+	/**
+	 * Removes any mapping for the given resource from the cache. This should be called
+	 * whenever a forced ID is removed or changed.
+	 */
+	void invalidate(String theResourceType, String theForcedId, Long thePid);
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	void clear();
+
+	/**
+	 * Returns the number of lookups which were answered by the cache
+	 */
+	long getHitCount();
+
+	/**
+	 * Returns the number of lookups which were not answered by the cache
+	 */
+	long getMissCount();
+
+}
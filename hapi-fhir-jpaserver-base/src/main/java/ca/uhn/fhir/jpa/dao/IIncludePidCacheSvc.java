@@ -0,0 +1,79 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Set;
+
+/**
+ * Memoizes the PIDs which are reached by following an <code>_include</code> or
+ * <code>_revinclude</code> from an individual resource, scoped to a single search UUID.
+ * This means that fetching the same page of a search again, or reaching a resource which
+ * has already been expanded during an earlier <code>:recurse</code> round, does not
+ * query the resource links again.
+ * <p>
+ * Entries are discarded once a search has not been used for
+ * {@link DaoConfig#getExpireSearchResultsAfterMillis()}, or when the search itself
+ * is deleted. Whole searches are also evicted when the total number of cached PIDs
+ * exceeds {@link DaoConfig#getIncludePidCacheSize()}.
+ * </p>
+ *
+ * @see DaoConfig#setIncludePidCacheSize(int)
+ */
+public interface IIncludePidCacheSvc {
+
+	/**
+	 * Returns the PIDs which were previously resolved for the given include starting at
+	 * the given resource, or <code>null</code> if they are not in the cache
+	 *
+	 * @param theSearchUuid The search UUID
+	 * @param theIncludeKey A key identifying the include or revinclude (including its direction)
+	 * @param thePid        The PID the include was resolved from
+	 */
+	Set<Long> get(String theSearchUuid, String theIncludeKey, Long thePid);
+
+	/**
+	 * Stores the PIDs which were resolved for the given include starting at the given
+	 * resource. An empty set should be stored if nothing was found.
+	 */
+	void put(String theSearchUuid, String theIncludeKey, Long thePid, Set<Long> theIncludedPids);
+
+	/**
+	 * Removes all entries for the given search from the cache. This is called when
+	 * the search is deleted.
+	 */
+	void invalidate(String theSearchUuid);
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	void clear();
+
+	/**
+	 * Returns the number of lookups which were answered by the cache
+	 */
+	long getHitCount();
+
+	/**
+	 * Returns the number of lookups which were not answered by the cache
+	 */
+	long getMissCount();
+
+}
@@ -42,7 +42,11 @@ public interface ISearchBuilder {
 	void loadResourcesByPid(Collection<Long> theIncludePids, List<IBaseResource> theResourceListToPopulate, Set<Long> theRevIncludedPids, boolean theForHistoryOperation, EntityManager theEntityManager,
 			FhirContext theContext, IDao theDao);
 
+	/**
+	 * @param theSearchUuid The UUID of the search the includes are being loaded for. If not <code>null</code>, the resolved
+	 *                      PIDs are memoized for the search (see {@link IIncludePidCacheSvc}).
+	 */
 	Set<Long> loadReverseIncludes(IDao theCallingDao, FhirContext theContext, EntityManager theEntityManager, Collection<Long> theMatches, Set<Include> theRevIncludes, boolean theReverseMode,
-			DateRangeParam theLastUpdated);
+			DateRangeParam theLastUpdated, String theSearchUuid);
 
 }
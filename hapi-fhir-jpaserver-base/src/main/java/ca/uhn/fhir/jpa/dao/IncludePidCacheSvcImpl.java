@@ -0,0 +1,161 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.util.ReconfigurableCache;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IncludePidCacheSvcImpl implements IIncludePidCacheSvc {
+
+	private final AtomicLong myHitCount = new AtomicLong();
+	private final AtomicLong myMissCount = new AtomicLong();
+	@Autowired
+	private DaoConfig myDaoConfig;
+	private final ReconfigurableCache<String, SearchIncludes> mySearchToIncludes = new ReconfigurableCache<String, SearchIncludes>("include PID cache") {
+		@Override
+		protected long getExpireAfterAccessMillis() {
+			return myDaoConfig.getExpireSearchResultsAfterMillis();
+		}
+
+		@Override
+		protected long getMaximumSize() {
+			return myDaoConfig.getIncludePidCacheSize();
+		}
+
+		@Override
+		protected Weigher<String, SearchIncludes> getWeigher() {
+			return new Weigher<String, SearchIncludes>() {
+				@Override
+				public int weigh(String theSearchUuid, SearchIncludes theIncludes) {
+					return theIncludes.myWeight.get();
+				}
+			};
+		}
+	};
+
+	@Override
+	public void clear() {
+		mySearchToIncludes.invalidateAll();
+		myHitCount.set(0);
+		myMissCount.set(0);
+	}
+
+	@Override
+	public Set<Long> get(String theSearchUuid, String theIncludeKey, Long thePid) {
+		Cache<String, SearchIncludes> cache = mySearchToIncludes.getCache();
+		if (cache == null) {
+			return null;
+		}
+		Set<Long> retVal = null;
+		SearchIncludes includes = cache.getIfPresent(theSearchUuid);
+		if (includes != null) {
+			retVal = includes.myIncludes.get(Pair.of(theIncludeKey, thePid));
+		}
+		if (retVal != null) {
+			myHitCount.incrementAndGet();
+		} else {
+			myMissCount.incrementAndGet();
+		}
+		return retVal;
+	}
+
+	@Override
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	@Override
+	public void invalidate(String theSearchUuid) {
+		Cache<String, SearchIncludes> cache = mySearchToIncludes.getCache();
+		if (cache == null) {
+			return;
+		}
+		cache.invalidate(theSearchUuid);
+	}
+
+	@Override
+	public void put(String theSearchUuid, String theIncludeKey, Long thePid, Set<Long> theIncludedPids) {
+		Cache<String, SearchIncludes> cache = mySearchToIncludes.getCache();
+		if (cache == null) {
+			return;
+		}
+		SearchIncludes includes = cache.getIfPresent(theSearchUuid);
+		if (includes == null) {
+			SearchIncludes newIncludes = new SearchIncludes();
+			includes = cache.asMap().putIfAbsent(theSearchUuid, newIncludes);
+			if (includes == null) {
+				includes = newIncludes;
+			}
+		}
+
+		Set<Long> value;
+		if (theIncludedPids.isEmpty()) {
+			value = Collections.emptySet();
+		} else {
+			value = Collections.unmodifiableSet(new HashSet<>(theIncludedPids));
+		}
+		Set<Long> previous = includes.myIncludes.put(Pair.of(theIncludeKey, thePid), value);
+		if (previous == null) {
+			includes.myWeight.addAndGet(1 + value.size());
+		} else {
+			includes.myWeight.addAndGet(value.size() - previous.size());
+		}
+
+		/*
+		 * The cache only weighs an entry when it is stored, so store the search again
+		 * now that it has grown. This is a no-op if the search has been evicted or
+		 * invalidated in the meantime.
+		 */
+		cache.asMap().replace(theSearchUuid, includes, includes);
+	}
+
+	@VisibleForTesting
+	void setDaoConfigForUnitTest(DaoConfig theDaoConfig) {
+		myDaoConfig = theDaoConfig;
+	}
+
+	/**
+	 * The includes which have been resolved for a single search. The weight of a search
+	 * is the number of PIDs it holds, plus one for each include it has resolved.
+	 */
+	private static class SearchIncludes {
+		private final ConcurrentMap<Pair<String, Long>, Set<Long>> myIncludes = new ConcurrentHashMap<>();
+		private final AtomicInteger myWeight = new AtomicInteger();
+	}
+
+}
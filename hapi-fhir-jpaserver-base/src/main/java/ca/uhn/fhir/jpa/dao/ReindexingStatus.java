@@ -0,0 +1,83 @@
+package ca.uhn.fhir.jpa.dao;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Snapshot of the progress of resource reindexing, as returned by
+ * {@link IFhirSystemDao#getReindexingStatus()}
+ */
+public class ReindexingStatus {
+
+	private final long myResourcesIndexed;
+	private final long myMillisSpentIndexing;
+	private final long myResourcesRemaining;
+
+	public ReindexingStatus(long theResourcesIndexed, long theMillisSpentIndexing, long theResourcesRemaining) {
+		myResourcesIndexed = theResourcesIndexed;
+		myMillisSpentIndexing = theMillisSpentIndexing;
+		myResourcesRemaining = theResourcesRemaining;
+	}
+
+	/**
+	 * Returns the estimated time (in milliseconds) until all resources currently requiring
+	 * reindexing have been reindexed, based on the throughput observed so far, or
+	 * <code>null</code> if no throughput has been observed yet
+	 */
+	public Long getEstimatedMillisRemaining() {
+		double perSecond = getResourcesPerSecond();
+		if (perSecond <= 0) {
+			return null;
+		}
+		return (long) ((myResourcesRemaining / perSecond) * 1000);
+	}
+
+	/**
+	 * Returns the total time spent reindexing resources since the server was started
+	 */
+	public long getMillisSpentIndexing() {
+		return myMillisSpentIndexing;
+	}
+
+	/**
+	 * Returns the number of resources reindexed since the server was started
+	 */
+	public long getResourcesIndexed() {
+		return myResourcesIndexed;
+	}
+
+	/**
+	 * Returns the average reindexing throughput (resources per second) observed so far
+	 */
+	public double getResourcesPerSecond() {
+		if (myMillisSpentIndexing <= 0) {
+			return 0;
+		}
+		return (myResourcesIndexed * 1000.0) / myMillisSpentIndexing;
+	}
+
+	/**
+	 * Returns the number of resources currently marked as requiring reindexing
+	 */
+	public long getResourcesRemaining() {
+		return myResourcesRemaining;
+	}
+
+}
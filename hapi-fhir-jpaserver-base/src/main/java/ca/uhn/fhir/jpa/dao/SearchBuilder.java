@@ -81,6 +81,11 @@ import static org.apache.commons.lang3.StringUtils.*;
  */
 public class SearchBuilder implements ISearchBuilder {
 
+	/**
+	 * Some databases (notably Oracle) can't handle more than ~1000 values in a single
+	 * <code>IN</code> clause, so longer PID lists are split into chunks of this size
+	 */
+	static final int MAXIMUM_IN_LIST_SIZE = 800;
 	private static final List<Long> EMPTY_LONG_LIST = Collections.unmodifiableList(new ArrayList<Long>());
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(SearchBuilder.class);
 	private static Long NO_MORE = -1L;
@@ -103,13 +108,16 @@ public class SearchBuilder implements ISearchBuilder {
 	private ISearchParamRegistry mySearchParamRegistry;
 	private String mySearchUuid;
 	private IHapiTerminologySvc myTerminologySvc;
+	private IDecodedResourceCacheSvc myDecodedResourceCacheSvc;
+	private IIncludePidCacheSvc myIncludePidCacheSvc;
 
 	/**
 	 * Constructor
 	 */
 	public SearchBuilder(FhirContext theFhirContext, EntityManager theEntityManager, IFulltextSearchSvc theFulltextSearchSvc,
 								BaseHapiFhirDao<?> theDao,
-								IResourceIndexedSearchParamUriDao theResourceIndexedSearchParamUriDao, IForcedIdDao theForcedIdDao, IHapiTerminologySvc theTerminologySvc, ISearchParamRegistry theSearchParamRegistry) {
+								IResourceIndexedSearchParamUriDao theResourceIndexedSearchParamUriDao, IForcedIdDao theForcedIdDao, IHapiTerminologySvc theTerminologySvc, ISearchParamRegistry theSearchParamRegistry,
+								IDecodedResourceCacheSvc theDecodedResourceCacheSvc, IIncludePidCacheSvc theIncludePidCacheSvc) {
 		myContext = theFhirContext;
 		myEntityManager = theEntityManager;
 		myFulltextSearchSvc = theFulltextSearchSvc;
@@ -118,6 +126,8 @@ public class SearchBuilder implements ISearchBuilder {
 		myForcedIdDao = theForcedIdDao;
 		myTerminologySvc = theTerminologySvc;
 		mySearchParamRegistry = theSearchParamRegistry;
+		myDecodedResourceCacheSvc = theDecodedResourceCacheSvc;
+		myIncludePidCacheSvc = theIncludePidCacheSvc;
 	}
 
 	private void addPredicateComposite(String theResourceName, RuntimeSearchParam theParamDef, List<? extends IQueryParameterType> theNextAnd) {
@@ -847,6 +857,15 @@ public class SearchBuilder implements ISearchBuilder {
 		return outerPredicate;
 	}
 
+	/**
+	 * Matches index rows for the given resource type and parameter name using the
+	 * <code>HASH_IDENTITY</code> column (see {@link DaoConfig#setUseHashIndexesForSearch(boolean)})
+	 */
+	private Predicate createHashIdentityPredicate(String theResourceName, String theParamName, CriteriaBuilder theBuilder, From<?, ?> theFrom) {
+		long hashIdentity = BaseResourceIndexedSearchParam.calculateHashIdentity(theResourceName, theParamName);
+		return theBuilder.equal(theFrom.get("myHashIdentity"), hashIdentity);
+	}
+
 	private Predicate createCompositeParamPart(String theResourceName, Root<ResourceTable> theRoot, RuntimeSearchParam theParam, IQueryParameterType leftValue) {
 		Predicate retVal = null;
 		switch (theParam.getParamType()) {
@@ -1102,10 +1121,20 @@ public class SearchBuilder implements ISearchBuilder {
 				+ ResourceIndexedSearchParamString.MAX_LENGTH + "): " + rawSearchTerm);
 		}
 
+		if (myCallingDao.getConfig().isUseHashIndexesForSearch()) {
+			if (theParameter instanceof StringParam && ((StringParam) theParameter).isExact()) {
+				long hashExact = ResourceIndexedSearchParamString.calculateHashExact(theResourceName, theParamName, rawSearchTerm);
+				return theBuilder.equal(theFrom.get("myHashExact"), hashExact);
+			}
+		}
+
 		String likeExpression = BaseHapiFhirDao.normalizeString(rawSearchTerm);
 		likeExpression = createLeftMatchLikeExpression(likeExpression);
 
 		Predicate singleCode = theBuilder.like(theFrom.get("myValueNormalized").as(String.class), likeExpression);
+		if (myCallingDao.getConfig().isUseHashIndexesForSearch()) {
+			return theBuilder.and(createHashIdentityPredicate(theResourceName, theParamName, theBuilder, theFrom), singleCode);
+		}
 		if (theParameter instanceof StringParam && ((StringParam) theParameter).isExact()) {
 			Predicate exactCode = theBuilder.equal(theFrom.get("myValueExact"), rawSearchTerm);
 			singleCode = theBuilder.and(singleCode, exactCode);
@@ -1186,6 +1215,14 @@ public class SearchBuilder implements ISearchBuilder {
 				Predicate codePredicate = theBuilder.isNull(theFrom.get("myMissing"));
 				singleCodePredicates.add(codePredicate);
 
+			} else if (myCallingDao.getConfig().isUseHashIndexesForSearch()) {
+
+				In<Long> hashPredicate = theBuilder.in(theFrom.<Long>get("myHashSystemAndValue"));
+				for (VersionIndependentConcept nextCode : codes) {
+					hashPredicate.value(ResourceIndexedSearchParamToken.calculateHashSystemAndValue(theResourceName, theParamName, nextCode.getSystem(), nextCode.getCode()));
+				}
+				return hashPredicate;
+
 			} else {
 				List<Predicate> orPredicates = new ArrayList<Predicate>();
 				Map<String, List<VersionIndependentConcept>> map = new HashMap<String, List<VersionIndependentConcept>>();
@@ -1218,6 +1255,16 @@ public class SearchBuilder implements ISearchBuilder {
 			 * Ok, this is a normal query
 			 */
 
+			if (myCallingDao.getConfig().isUseHashIndexesForSearch() && StringUtils.isNotBlank(code)) {
+				if (system == null) {
+					long hashValue = ResourceIndexedSearchParamToken.calculateHashValue(theResourceName, theParamName, code);
+					return theBuilder.equal(theFrom.get("myHashValue"), hashValue);
+				}
+				// A system of "" is hashed the same way as a missing system, so only rows with no system match
+				long hashSystemAndValue = ResourceIndexedSearchParamToken.calculateHashSystemAndValue(theResourceName, theParamName, system, code);
+				return theBuilder.equal(theFrom.get("myHashSystemAndValue"), hashSystemAndValue);
+			}
+
 			if (StringUtils.isNotBlank(system)) {
 				singleCodePredicates.add(theBuilder.equal(theFrom.get("mySystem"), system));
 			} else if (system == null) {
@@ -1241,6 +1288,9 @@ public class SearchBuilder implements ISearchBuilder {
 		}
 
 		Predicate singleCode = theBuilder.and(toArray(singleCodePredicates));
+		if (myCallingDao.getConfig().isUseHashIndexesForSearch()) {
+			return theBuilder.and(createHashIdentityPredicate(theResourceName, theParamName, theBuilder, theFrom), singleCode);
+		}
 		return combineParamIndexPredicateWithParamNamePredicate(theResourceName, theParamName, theFrom, singleCode);
 	}
 
@@ -1346,7 +1396,7 @@ public class SearchBuilder implements ISearchBuilder {
 
 			if (myParams.get(BaseResource.SP_RES_ID) != null) {
 				StringParam idParm = (StringParam) myParams.get(BaseResource.SP_RES_ID).get(0).get(0);
-				Long pid = BaseHapiFhirDao.translateForcedIdToPid(myResourceName, idParm.getValue(), myForcedIdDao);
+				Long pid = myCallingDao.translateForcedIdToPid(myResourceName, idParm.getValue());
 				if (myAlsoIncludePids == null) {
 					myAlsoIncludePids = new ArrayList<>(1);
 				}
@@ -1580,9 +1630,55 @@ public class SearchBuilder implements ISearchBuilder {
 
 		List<ResourceTable> resultList = q.getResultList();
 
+		/*
+		 * Load the current history rows (except for any versions that are already
+		 * in the decoded resource cache) and the tags for the whole page up front,
+		 * instead of letting toResource fetch them one resource at a time
+		 */
+		List<Long> historyPids = new ArrayList<>(resultList.size());
+		List<Long> tagPids = new ArrayList<>();
+		for (ResourceTable next : resultList) {
+			if (!myDecodedResourceCacheSvc.contains(next.getId(), next.getVersion())) {
+				historyPids.add(next.getId());
+			}
+			if (next.isHasTags()) {
+				tagPids.add(next.getId());
+			}
+		}
+
+		Map<Long, ResourceHistoryTable> pidToHistory = new HashMap<>();
+		if (!historyPids.isEmpty()) {
+			TypedQuery<ResourceHistoryTable> historyQuery = entityManager.createQuery(
+				"SELECT h FROM ResourceHistoryTable h, ResourceTable r " +
+					"WHERE r.myId IN :pids AND h.myResourceId = r.myId AND h.myResourceVersion = r.myVersion", ResourceHistoryTable.class);
+			historyQuery.setParameter("pids", historyPids);
+			for (ResourceHistoryTable next : historyQuery.getResultList()) {
+				pidToHistory.put(next.getResourceId(), next);
+			}
+		}
+
+		Map<Long, List<ResourceTag>> pidToTags = new HashMap<>();
+		if (!tagPids.isEmpty()) {
+			TypedQuery<ResourceTag> tagQuery = entityManager.createQuery(
+				"SELECT t FROM ResourceTag t JOIN FETCH t.myTag WHERE t.myResourceId IN :pids", ResourceTag.class);
+			tagQuery.setParameter("pids", tagPids);
+			for (ResourceTag next : tagQuery.getResultList()) {
+				List<ResourceTag> tags = pidToTags.get(next.getResourceId());
+				if (tags == null) {
+					tags = new ArrayList<>();
+					pidToTags.put(next.getResourceId(), tags);
+				}
+				tags.add(next);
+			}
+		}
+
 		for (ResourceTable next : resultList) {
 			Class<? extends IBaseResource> resourceType = context.getResourceDefinition(next.getResourceType()).getImplementingClass();
-			IBaseResource resource = theDao.toResource(resourceType, next, theForHistoryOperation);
+			List<ResourceTag> tags = pidToTags.get(next.getId());
+			if (tags == null) {
+				tags = Collections.emptyList();
+			}
+			IBaseResource resource = theDao.toResource(resourceType, next, pidToHistory.get(next.getId()), tags, theForHistoryOperation);
 			if (resource == null) {
 				ourLog.warn("Unable to find resource {}/{}/_history/{} in database", next.getResourceType(), next.getIdDt().getIdPart(), next.getVersion());
 				continue;
@@ -1635,7 +1731,7 @@ public class SearchBuilder implements ISearchBuilder {
 		 * if it's lots of IDs. I suppose maybe we should be doing this as a join anyhow
 		 * but this should work too. Sigh.
 		 */
-		int maxLoad = 800;
+		int maxLoad = MAXIMUM_IN_LIST_SIZE;
 		List<Long> pids = new ArrayList<>(theIncludePids);
 		for (int i = 0; i < pids.size(); i += maxLoad) {
 			int to = i + maxLoad;
@@ -1646,6 +1742,65 @@ public class SearchBuilder implements ISearchBuilder {
 
 	}
 
+	/**
+	 * Resolves the PIDs reached by following a single include (or revinclude) from each of
+	 * the given PIDs. Only the two PID columns of the matching links are fetched, the PID
+	 * list is split into chunks of {@link #MAXIMUM_IN_LIST_SIZE}, and if a search UUID is
+	 * supplied the results are memoized for that search so that they are not queried again.
+	 */
+	private Set<Long> loadIncludePids(EntityManager theEntityManager, String theSearchUuid, String theIncludeKey, String theSql, Map<String, Object> theParameters,
+												 Collection<Long> theMatches) {
+		Set<Long> retVal = new HashSet<>();
+
+		List<Long> uncachedMatches = new ArrayList<>();
+		for (Long next : theMatches) {
+			Set<Long> cached = null;
+			if (theSearchUuid != null) {
+				cached = myIncludePidCacheSvc.get(theSearchUuid, theIncludeKey, next);
+			}
+			if (cached != null) {
+				retVal.addAll(cached);
+			} else {
+				uncachedMatches.add(next);
+			}
+		}
+
+		Map<Long, Set<Long>> resolved = new HashMap<>();
+		for (List<Long> nextChunk : Lists.partition(uncachedMatches, MAXIMUM_IN_LIST_SIZE)) {
+			TypedQuery<Object[]> q = theEntityManager.createQuery(theSql, Object[].class);
+			for (Entry<String, Object> nextParameter : theParameters.entrySet()) {
+				q.setParameter(nextParameter.getKey(), nextParameter.getValue());
+			}
+			q.setParameter("target_pids", nextChunk);
+			for (Object[] nextRow : q.getResultList()) {
+				Long matchedPid = (Long) nextRow[0];
+				Long foundPid = (Long) nextRow[1];
+				if (foundPid == null) {
+					continue;
+				}
+				retVal.add(foundPid);
+				Set<Long> foundPids = resolved.get(matchedPid);
+				if (foundPids == null) {
+					foundPids = new HashSet<>();
+					resolved.put(matchedPid, foundPids);
+				}
+				foundPids.add(foundPid);
+			}
+		}
+
+		if (theSearchUuid != null) {
+			for (Long next : uncachedMatches) {
+				Set<Long> foundPids = resolved.get(next);
+				if (foundPids == null) {
+					foundPids = Collections.emptySet();
+				}
+				myIncludePidCacheSvc.put(theSearchUuid, theIncludeKey, next, foundPids);
+			}
+		}
+
+		return retVal;
+	}
+
 	/**
 	 * THIS SHOULD RETURN HASHSET and not jsut Set because we add to it later (so it can't be Collections.emptySet())
 	 *
@@ -1653,7 +1808,7 @@ public class SearchBuilder implements ISearchBuilder {
 	 */
 	@Override
 	public HashSet<Long> loadReverseIncludes(IDao theCallingDao, FhirContext theContext, EntityManager theEntityManager, Collection<Long> theMatches, Set<Include> theRevIncludes,
-														  boolean theReverseMode, DateRangeParam theLastUpdated) {
+														  boolean theReverseMode, DateRangeParam theLastUpdated, String theSearchUuid) {
 		if (theMatches.size() == 0) {
 			return new HashSet<Long>();
 		}
@@ -1661,11 +1816,14 @@ public class SearchBuilder implements ISearchBuilder {
 			return new HashSet<Long>();
 		}
 		String searchFieldName = theReverseMode ? "myTargetResourcePid" : "mySourceResourcePid";
+		String findFieldName = theReverseMode ? "mySourceResourcePid" : "myTargetResourcePid";
+		String selectClause = "SELECT r." + searchFieldName + ", r." + findFieldName + " FROM ResourceLink r WHERE ";
 
 		Collection<Long> nextRoundMatches = theMatches;
 		HashSet<Long> allAdded = new HashSet<>();
 		HashSet<Long> original = new HashSet<>(theMatches);
 		ArrayList<Include> includes = new ArrayList<>(theRevIncludes);
+		Map<String, Set<Long>> expandedPidsByInclude = new HashMap<>();
 
 		int roundCounts = 0;
 		StopWatch w = new StopWatch();
@@ -1683,20 +1841,32 @@ public class SearchBuilder implements ISearchBuilder {
 					iter.remove();
 				}
 
+				/*
+				 * A PID which was already expanded for this include in an earlier
+				 * round has had everything it links to added already
+				 */
+				String includeKey = (theReverseMode ? "_revinclude=" : "_include=") + nextInclude.getValue();
+				Set<Long> expandedPids = expandedPidsByInclude.get(includeKey);
+				if (expandedPids == null) {
+					expandedPids = new HashSet<>();
+					expandedPidsByInclude.put(includeKey, expandedPids);
+				}
+				List<Long> pidsToExpand = new ArrayList<>();
+				for (Long next : nextRoundMatches) {
+					if (expandedPids.add(next)) {
+						pidsToExpand.add(next);
+					}
+				}
+				if (pidsToExpand.isEmpty()) {
+					continue;
+				}
+
+				Map<String, Object> parameters = new HashMap<>();
+
 				boolean matchAll = "*".equals(nextInclude.getValue());
 				if (matchAll) {
-					String sql;
-					sql = "SELECT r FROM ResourceLink r WHERE r." + searchFieldName + " IN (:target_pids)";
-					TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
-					q.setParameter("target_pids", nextRoundMatches);
-					List<ResourceLink> results = q.getResultList();
-					for (ResourceLink resourceLink : results) {
-						if (theReverseMode) {
-							pidsToInclude.add(resourceLink.getSourceResourcePid());
-						} else {
-							pidsToInclude.add(resourceLink.getTargetResourcePid());
-						}
-					}
+					String sql = selectClause + "r." + searchFieldName + " IN (:target_pids)";
+					pidsToInclude.addAll(loadIncludePids(theEntityManager, theSearchUuid, includeKey, sql, parameters, pidsToExpand));
 				} else {
 
 					List<String> paths;
@@ -1723,41 +1893,25 @@ public class SearchBuilder implements ISearchBuilder {
 					}
 
 					paths = param.getPathsSplit();
+					if (paths.isEmpty()) {
+						continue;
+					}
 
+					/*
+					 * All of the paths for the parameter are resolved in a single query
+					 */
 					String targetResourceType = defaultString(nextInclude.getParamTargetType(), null);
-					for (String nextPath : paths) {
-						String sql;
-						boolean haveTargetTypesDefinedByParam = param != null && param.getTargets() != null && param.getTargets().isEmpty() == false;
-						if (targetResourceType != null) {
-							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids) AND r.myTargetResourceType = :target_resource_type";
-						} else if (haveTargetTypesDefinedByParam) {
-							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids) AND r.myTargetResourceType in (:target_resource_types)";
-						} else {
-							sql = "SELECT r FROM ResourceLink r WHERE r.mySourcePath = :src_path AND r." + searchFieldName + " IN (:target_pids)";
-						}
-						TypedQuery<ResourceLink> q = theEntityManager.createQuery(sql, ResourceLink.class);
-						q.setParameter("src_path", nextPath);
-						q.setParameter("target_pids", nextRoundMatches);
-						if (targetResourceType != null) {
-							q.setParameter("target_resource_type", targetResourceType);
-						} else if (haveTargetTypesDefinedByParam) {
-							q.setParameter("target_resource_types", param.getTargets());
-						}
-						List<ResourceLink> results = q.getResultList();
-						for (ResourceLink resourceLink : results) {
-							if (theReverseMode) {
-								Long pid = resourceLink.getSourceResourcePid();
-								if (pid != null) {
-									pidsToInclude.add(pid);
-								}
-							} else {
-								Long pid = resourceLink.getTargetResourcePid();
-								if (pid != null) {
-									pidsToInclude.add(pid);
-								}
-							}
-						}
+					boolean haveTargetTypesDefinedByParam = param.getTargets() != null && param.getTargets().isEmpty() == false;
+					String sql = selectClause + "r.mySourcePath IN (:src_paths) AND r." + searchFieldName + " IN (:target_pids)";
+					parameters.put("src_paths", paths);
+					if (targetResourceType != null) {
+						sql = sql + " AND r.myTargetResourceType = :target_resource_type";
+						parameters.put("target_resource_type", targetResourceType);
+					} else if (haveTargetTypesDefinedByParam) {
+						sql = sql + " AND r.myTargetResourceType in (:target_resource_types)";
+						parameters.put("target_resource_types", param.getTargets());
 					}
+					pidsToInclude.addAll(loadIncludePids(theEntityManager, theSearchUuid, includeKey, sql, parameters, pidsToExpand));
 				}
 			}
 
@@ -2019,18 +2173,21 @@ public class SearchBuilder implements ISearchBuilder {
 		if (thePids.isEmpty()) {
 			return Collections.emptyList();
 		}
-		CriteriaBuilder builder = theEntityManager.getCriteriaBuilder();
-		CriteriaQuery<Long> cq = builder.createQuery(Long.class);
-		Root<ResourceTable> from = cq.from(ResourceTable.class);
-		cq.select(from.get("myId").as(Long.class));
+		List<Long> resultList = new ArrayList<>();
+		for (List<Long> nextChunk : Lists.partition(new ArrayList<>(thePids), MAXIMUM_IN_LIST_SIZE)) {
+			CriteriaBuilder builder = theEntityManager.getCriteriaBuilder();
+			CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+			Root<ResourceTable> from = cq.from(ResourceTable.class);
+			cq.select(from.get("myId").as(Long.class));
 
-		List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(theLastUpdated, builder, from);
-		lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(thePids));
+			List<Predicate> lastUpdatedPredicates = createLastUpdatedPredicates(theLastUpdated, builder, from);
+			lastUpdatedPredicates.add(from.get("myId").as(Long.class).in(nextChunk));
 
-		cq.where(SearchBuilder.toArray(lastUpdatedPredicates));
-		TypedQuery<Long> query = theEntityManager.createQuery(cq);
+			cq.where(SearchBuilder.toArray(lastUpdatedPredicates));
+			TypedQuery<Long> query = theEntityManager.createQuery(cq);
 
-		List<Long> resultList = query.getResultList();
+			resultList.addAll(query.getResultList());
+		}
 		return resultList;
 	}
 
@@ -2100,7 +2257,7 @@ public class SearchBuilder implements ISearchBuilder {
 					myCurrentOffset = end;
 					Collection<Long> pidsToScan = myCurrentPids.subList(start, end);
 					Set<Include> includes = Collections.singleton(new Include("*", true));
-					Set<Long> newPids = loadReverseIncludes(myCallingDao, myContext, myEntityManager, pidsToScan, includes, false, myParams.getLastUpdated());
+					Set<Long> newPids = loadReverseIncludes(myCallingDao, myContext, myEntityManager, pidsToScan, includes, false, myParams.getLastUpdated(), mySearchUuid);
 					myCurrentIterator = newPids.iterator();
 				}
 
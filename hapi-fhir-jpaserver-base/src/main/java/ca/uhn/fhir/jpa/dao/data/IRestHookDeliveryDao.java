@@ -0,0 +1,46 @@
+package ca.uhn.fhir.jpa.dao.data;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.entity.RestHookDelivery;
+import ca.uhn.fhir.jpa.entity.RestHookDeliveryStatusEnum;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Date;
+
+public interface IRestHookDeliveryDao extends JpaRepository<RestHookDelivery, Long> {
+
+	@Query("SELECT COUNT(d) FROM RestHookDelivery d WHERE d.myStatus = :status")
+	long countByStatus(@Param("status") RestHookDeliveryStatusEnum theStatus);
+
+	@Modifying
+	@Query("DELETE FROM RestHookDelivery d WHERE d.myStatus = :status AND d.myCreated < :cutoff")
+	int deleteByStatusCreatedBefore(@Param("status") RestHookDeliveryStatusEnum theStatus, @Param("cutoff") Date theCutoff);
+
+	@Query("SELECT d FROM RestHookDelivery d WHERE d.myStatus = :status ORDER BY d.myCreated ASC, d.myId ASC")
+	Slice<RestHookDelivery> findByStatus(@Param("status") RestHookDeliveryStatusEnum theStatus, Pageable thePage);
+
+}
@@ -0,0 +1,40 @@
+package ca.uhn.fhir.jpa.dao.data;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import ca.uhn.fhir.jpa.entity.SearchResultChunk;
+
+public interface ISearchResultChunkDao extends JpaRepository<SearchResultChunk, Long> {
+
+	@Query(value="SELECT c FROM SearchResultChunk c WHERE c.mySearchPid = :search AND c.myChunkIndex >= :first AND c.myChunkIndex <= :last ORDER BY c.myChunkIndex ASC")
+	List<SearchResultChunk> findChunks(@Param("search") Long theSearchPid, @Param("first") int theFirstChunkIndex, @Param("last") int theLastChunkIndex);
+
+	@Modifying
+	@Query(value="DELETE FROM SearchResultChunk c WHERE c.mySearchPid = :search")
+	void deleteForSearch(@Param("search") Long theSearchPid);
+}
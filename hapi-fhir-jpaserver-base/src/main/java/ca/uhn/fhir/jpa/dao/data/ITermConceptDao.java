@@ -1,5 +1,6 @@
 package ca.uhn.fhir.jpa.dao.data;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
@@ -30,6 +31,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
 import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
 import ca.uhn.fhir.jpa.entity.TermConcept;
 
@@ -38,6 +40,9 @@ public interface ITermConceptDao extends JpaRepository<TermConcept, Long> {
 	@Query("SELECT c FROM TermConcept c WHERE c.myCodeSystem = :code_system AND c.myCode = :code")
 	TermConcept findByCodeSystemAndCode(@Param("code_system") TermCodeSystemVersion theCodeSystem, @Param("code") String theCode);
 
+	@Query("SELECT c.myId FROM TermConcept c WHERE c.myId IN (:pids)")
+	List<Long> findExistingPids(@Param("pids") Collection<Long> thePids);
+
 	@Query("SELECT c FROM TermConcept c WHERE c.myCodeSystem = :code_system")
 	List<TermConcept> findByCodeSystemVersion(@Param("code_system") TermCodeSystemVersion theCodeSystem);
 
@@ -45,11 +50,22 @@ public interface ITermConceptDao extends JpaRepository<TermConcept, Long> {
 	@Modifying
 	void deleteByCodeSystemVersion(@Param("cs_pid") Long thePid);
 
-	@Query("UPDATE TermConcept t SET t.myIndexStatus = null")
+	/**
+	 * Concepts belonging to a terminology load which is still in progress are left alone,
+	 * see {@link BaseHapiFhirDao#INDEX_STATUS_AWAITING_LINKS}
+	 */
+	@Query("UPDATE TermConcept t SET t.myIndexStatus = null WHERE t.myIndexStatus IS NULL OR t.myIndexStatus <> " + BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS)
 	@Modifying
 	int markAllForReindexing();
 
+	@Query("UPDATE TermConcept t SET t.myIndexStatus = null WHERE t.myCodeSystem.myId = :cs_pid AND t.myIndexStatus = " + BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS)
+	@Modifying
+	int markAwaitingLinksForReindexing(@Param("cs_pid") Long theCodeSystemVersionPid);
+
 	@Query("SELECT t FROM TermConcept t WHERE t.myIndexStatus = null")
 	Page<TermConcept> findResourcesRequiringReindexing(Pageable thePageRequest);
 
+	@Query("SELECT t.myId FROM TermConcept t WHERE t.myCodeSystem.myId = :cs_pid AND t.myIndexStatus = null")
+	List<Long> findPidsRequiringReindexing(@Param("cs_pid") Long theCodeSystemVersionPid, Pageable thePageRequest);
+
 }
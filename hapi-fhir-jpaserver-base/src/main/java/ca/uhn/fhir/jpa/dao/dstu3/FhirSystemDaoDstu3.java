@@ -80,67 +80,72 @@ public class FhirSystemDaoDstu3 extends BaseHapiFhirSystemDao<Bundle, Meta> {
 		ourLog.info("Beginning batch with {} resources", theRequest.getEntry().size());
 		long start = System.currentTimeMillis();
 
-		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
-		txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-
 		Bundle resp = new Bundle();
 		resp.setType(BundleType.BATCHRESPONSE);
 
 		/*
-		 * For batch, we handle each entry as a mini-transaction in its own database transaction so that if one fails, it doesn't prevent others
+		 * For batch, we handle each entry as a mini-transaction in its own database transaction so that if one fails, it doesn't prevent others.
+		 * Entries may be processed in parallel (see DaoConfig#setBatchThreadCount(int)) but the response entries are always in request order.
 		 */
+		List<BundleEntryComponent> responseEntries = processBatchEntries((ServletRequestDetails) theRequestDetails, theRequest.getEntry(), new IBatchEntryProcessor<BundleEntryComponent>() {
+			@Override
+			public BundleEntryComponent processEntry(ServletRequestDetails theEntryRequestDetails, BundleEntryComponent theEntry) {
+				return batchEntry(theEntryRequestDetails, theEntry, 1);
+			}
+		});
+		for (BundleEntryComponent nextResponseEntry : responseEntries) {
+			resp.addEntry(nextResponseEntry);
+		}
 
-		for (final BundleEntryComponent nextRequestEntry : theRequest.getEntry()) {
+		long delay = System.currentTimeMillis() - start;
+		ourLog.info("Batch completed in {}ms", new Object[] {delay});
 
-			BaseServerResponseExceptionHolder caughtEx = new BaseServerResponseExceptionHolder(); 
-			
-			TransactionCallback<Bundle> callback = new TransactionCallback<Bundle>() {
-				@Override
-				public Bundle doInTransaction(TransactionStatus theStatus) {
-					Bundle subRequestBundle = new Bundle();
-					subRequestBundle.setType(BundleType.TRANSACTION);
-					subRequestBundle.addEntry(nextRequestEntry);
+		return resp;
+	}
 
-					Bundle subResponseBundle = transaction((ServletRequestDetails) theRequestDetails, subRequestBundle, "Batch sub-request");
-					return subResponseBundle;
-				}
-			};
+	private BundleEntryComponent batchEntry(ServletRequestDetails theRequestDetails, BundleEntryComponent theRequestEntry, int theAttempt) {
+		BaseServerResponseExceptionHolder caughtEx = new BaseServerResponseExceptionHolder();
 
-			try {
-				Bundle nextResponseBundle = callback.doInTransaction(null);
+		try {
+			Bundle subRequestBundle = new Bundle();
+			subRequestBundle.setType(BundleType.TRANSACTION);
+			subRequestBundle.addEntry(theRequestEntry);
 
-				BundleEntryComponent subResponseEntry = nextResponseBundle.getEntry().get(0);
-				resp.addEntry(subResponseEntry);
+			/*
+			 * The public transaction method never runs inside an existing transaction, so the
+			 * sub-transaction below always commits or rolls back on its own
+			 */
+			Bundle nextResponseBundle = transaction(theRequestDetails, subRequestBundle, "Batch sub-request");
 
-				/*
-				 * If the individual entry didn't have a resource in its response, bring the sub-transaction's OperationOutcome across so the client can see it
-				 */
-				if (subResponseEntry.getResource() == null) {
-					subResponseEntry.setResource(nextResponseBundle.getEntry().get(0).getResource());
-				}
+			BundleEntryComponent subResponseEntry = nextResponseBundle.getEntry().get(0);
 
-			} catch (BaseServerResponseException e) {
-				caughtEx.setException(e);
-			} catch (Throwable t) {
-				ourLog.error("Failure during BATCH sub transaction processing", t);
-				caughtEx.setException(new InternalErrorException(t));
+			/*
+			 * If the individual entry didn't have a resource in its response, bring the sub-transaction's OperationOutcome across so the client can see it
+			 */
+			if (subResponseEntry.getResource() == null) {
+				subResponseEntry.setResource(nextResponseBundle.getEntry().get(0).getResource());
 			}
 
-			if (caughtEx.getException() != null) {
-				BundleEntryComponent nextEntry = resp.addEntry();
-
-				populateEntryWithOperationOutcome(caughtEx.getException(), nextEntry);
-
-				BundleEntryResponseComponent nextEntryResp = nextEntry.getResponse();
-				nextEntryResp.setStatus(toStatusString(caughtEx.getException().getStatusCode()));
+			return subResponseEntry;
+		} catch (BaseServerResponseException e) {
+			caughtEx.setException(e);
+		} catch (Throwable t) {
+			if (theAttempt < MAX_BATCH_ENTRY_ATTEMPTS && isRetryableBatchEntryFailure(t)) {
+				ourLog.info("BATCH sub transaction failed on a constraint violation, retrying: {}", t.toString());
+				return batchEntry(theRequestDetails, theRequestEntry, theAttempt + 1);
 			}
-
+			ourLog.error("Failure during BATCH sub transaction processing", t);
+			caughtEx.setException(new InternalErrorException(t));
 		}
 
-		long delay = System.currentTimeMillis() - start;
-		ourLog.info("Batch completed in {}ms", new Object[] { delay });
+		BundleEntryComponent nextEntry = new BundleEntryComponent();
 
-		return resp;
+		populateEntryWithOperationOutcome(caughtEx.getException(), nextEntry);
+
+		BundleEntryResponseComponent nextEntryResp = nextEntry.getResponse();
+		nextEntryResp.setStatus(toStatusString(caughtEx.getException().getStatusCode()));
+
+		return nextEntry;
 	}
 
 	private Bundle doTransaction(final ServletRequestDetails theRequestDetails, final Bundle theRequest, final String theActionName) {
@@ -29,9 +29,12 @@ import org.hl7.fhir.instance.model.api.*;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.hapi.validation.FhirInstanceValidator;
 import org.hl7.fhir.r4.model.OperationOutcome.OperationOutcomeIssueComponent;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.context.RuntimeSearchParam;
@@ -51,6 +54,7 @@ import ca.uhn.fhir.validation.*;
 public class FhirResourceDaoR4<T extends IAnyResource> extends BaseHapiFhirResourceDao<T> {
 
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoR4.class);
+	private static final Set<String> ourValidationCacheResourceTypes = new HashSet<String>(Arrays.asList("CodeSystem", "ConceptMap", "Questionnaire", "StructureDefinition", "ValueSet"));
 
 	@Autowired()
 	@Qualifier("myInstanceValidatorR4")
@@ -71,6 +75,37 @@ public class FhirResourceDaoR4<T extends IAnyResource> extends BaseHapiFhirResou
 	}
 
 
+	/**
+	 * The instance validator caches conformance resources, so it is cleared whenever one of
+	 * them is written. It is cleared again once the transaction completes so that nothing
+	 * read by another thread in the meantime outlives the change.
+	 */
+	private void invalidateValidationCaches() {
+		if (!(myInstanceValidator instanceof FhirInstanceValidator)) {
+			return;
+		}
+		final FhirInstanceValidator validator = (FhirInstanceValidator) myInstanceValidator;
+		validator.invalidateCaches();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					validator.invalidateCaches();
+				}
+			});
+		}
+	}
+
+	@Override
+	protected ResourceTable updateEntity(IBaseResource theResource, ResourceTable theEntity, Date theDeletedTimestampOrNull, boolean thePerformIndexing,
+													 boolean theUpdateVersion, Date theUpdateTime, boolean theForceUpdate, boolean theCreateNewHistoryEntry) {
+		ResourceTable retVal = super.updateEntity(theResource, theEntity, theDeletedTimestampOrNull, thePerformIndexing, theUpdateVersion, theUpdateTime, theForceUpdate, theCreateNewHistoryEntry);
+		if (ourValidationCacheResourceTypes.contains(retVal.getResourceType())) {
+			invalidateValidationCaches();
+		}
+		return retVal;
+	}
+
 	@Override
 	public MethodOutcome validate(T theResource, IIdType theId, String theRawResource, EncodingEnum theEncoding, ValidationModeEnum theMode, String theProfile, RequestDetails theRequestDetails) {
 		ActionRequestDetails requestDetails = new ActionRequestDetails(theRequestDetails, theResource, null, theId);
@@ -24,6 +24,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.measure.unit.NonSI;
 import javax.measure.unit.Unit;
@@ -38,6 +39,7 @@ import org.hl7.fhir.r4.model.Enumeration;
 import org.hl7.fhir.r4.model.Location.LocationPositionComponent;
 import org.hl7.fhir.r4.model.Patient.PatientCommunicationComponent;
 import org.hl7.fhir.r4.utils.FHIRPathEngine;
+import org.hl7.fhir.r4.model.ExpressionNode;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -57,6 +59,19 @@ public class SearchParamExtractorR4 extends BaseSearchParamExtractor implements
 	@Autowired
 	private org.hl7.fhir.r4.hapi.ctx.IValidationSupport myValidationSupport;
 
+	/**
+	 * Parsed FHIRPath expressions, keyed by the (single) path they were parsed from. Search
+	 * parameter paths come from a small, slowly changing set so this is not bounded.
+	 */
+	private final ConcurrentHashMap<String, ExpressionNode> myParsedFhirPathCache = new ConcurrentHashMap<>();
+	/**
+	 * FHIRPathEngine keeps per-evaluation state (e.g. its log) so each thread gets its own
+	 * engine. The engine remembers the worker context it was created with so that it is
+	 * replaced if {@link #myWorkerContext} changes.
+	 */
+	private final ThreadLocal<Pair<IWorkerContext, FHIRPathEngine>> myFhirPathEngine = new ThreadLocal<>();
+	private volatile IWorkerContext myWorkerContext;
+
 	/**
 	 * Constructor
 	 */
@@ -680,14 +695,14 @@ public class SearchParamExtractorR4 extends BaseSearchParamExtractor implements
 	 */
 	@Override
 	protected List<Object> extractValues(String thePaths, IBaseResource theResource) {
-		IWorkerContext worker = new org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext(getContext(), myValidationSupport);
-		FHIRPathEngine fp = new FHIRPathEngine(worker);
+		FHIRPathEngine fp = getFhirPathEngine();
 
 		List<Object> values = new ArrayList<Object>();
 		try {
 			String[] nextPathsSplit = SPLIT.split(thePaths);
 			for (String nextPath : nextPathsSplit) {
-				List<Base> allValues = fp.evaluate((Base) theResource, nextPath);
+				ExpressionNode parsed = parseFhirPath(fp, nextPath);
+				List<Base> allValues = fp.evaluate((Base) theResource, parsed);
 				if (allValues.isEmpty() == false) {
 					values.addAll(allValues);
 				}
@@ -725,9 +740,38 @@ public class SearchParamExtractorR4 extends BaseSearchParamExtractor implements
 		return retVal;
 	}
 
+	/**
+	 * The worker context is expensive to create so it is shared by all threads. The
+	 * engine is not thread safe, so each thread reuses its own instance.
+	 */
+	private FHIRPathEngine getFhirPathEngine() {
+		IWorkerContext worker = myWorkerContext;
+		if (worker == null) {
+			worker = new org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext(getContext(), myValidationSupport);
+			myWorkerContext = worker;
+		}
+
+		Pair<IWorkerContext, FHIRPathEngine> engine = myFhirPathEngine.get();
+		if (engine == null || engine.getLeft() != worker) {
+			engine = Pair.of(worker, new FHIRPathEngine(worker));
+			myFhirPathEngine.set(engine);
+		}
+		return engine.getRight();
+	}
+
+	private ExpressionNode parseFhirPath(FHIRPathEngine theEngine, String thePath) throws FHIRException {
+		ExpressionNode retVal = myParsedFhirPathCache.get(thePath);
+		if (retVal == null) {
+			retVal = theEngine.parse(thePath);
+			myParsedFhirPathCache.putIfAbsent(thePath, retVal);
+		}
+		return retVal;
+	}
+
 	@VisibleForTesting
 	void setValidationSupportForTesting(org.hl7.fhir.r4.hapi.ctx.IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		myWorkerContext = null;
 	}
 
 	private static <T extends Enum<?>> String extractSystem(Enumeration<T> theBoundCode) {
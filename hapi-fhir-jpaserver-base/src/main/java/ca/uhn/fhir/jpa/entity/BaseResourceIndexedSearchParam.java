@@ -21,6 +21,10 @@ package ca.uhn.fhir.jpa.entity;
  */
 
 import ca.uhn.fhir.model.api.IQueryParameterType;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.hibernate.search.annotations.ContainedIn;
 import org.hibernate.search.annotations.Field;
 
@@ -33,6 +37,13 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 
 	static final int MAX_SP_NAME = 100;
 
+	/**
+	 * Don't change the hash function or the delimiter, as doing so invalidates
+	 * all of the hashes already stored in the database
+	 */
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128(0);
+	private static final byte[] DELIMITER_BYTES = "|".getBytes(Charsets.UTF_8);
+
 	private static final long serialVersionUID = 1L;
 
 	// TODO: make this nullable=false and a primitive (written may 2017)
@@ -107,4 +118,28 @@ public abstract class BaseResourceIndexedSearchParam implements Serializable {
 	}
 
 	public abstract IQueryParameterType toQueryParameterType();
+
+	/**
+	 * Calculates the hash of the resource type and parameter name, which identifies
+	 * the search parameter an index row belongs to
+	 */
+	public static long calculateHashIdentity(String theResourceType, String theParamName) {
+		return hash(theResourceType, theParamName);
+	}
+
+	/**
+	 * Calculates a 64 bit hash of the given values. Each value is followed
+	 * by a delimiter so that (e.g.) <code>["AB", "C"]</code> and <code>["A", "BC"]</code>
+	 * produce different hashes.
+	 */
+	static long hash(String... theValues) {
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		for (String next : theValues) {
+			if (next != null) {
+				hasher.putBytes(next.getBytes(Charsets.UTF_8));
+			}
+			hasher.putBytes(DELIMITER_BYTES);
+		}
+		return hasher.hash().asLong();
+	}
 }
@@ -38,7 +38,9 @@ import javax.persistence.Index;
 @Table(name = "HFJ_SPIDX_STRING", indexes = {
 	@Index(name = "IDX_SP_STRING", columnList = "RES_TYPE,SP_NAME,SP_VALUE_NORMALIZED"),
 	@Index(name = "IDX_SP_STRING_UPDATED", columnList = "SP_UPDATED"),
-	@Index(name = "IDX_SP_STRING_RESID", columnList = "RES_ID")
+	@Index(name = "IDX_SP_STRING_RESID", columnList = "RES_ID"),
+	@Index(name = "IDX_SP_STRING_HASH_NRM", columnList = "HASH_IDENTITY,SP_VALUE_NORMALIZED"),
+	@Index(name = "IDX_SP_STRING_HASH_EXCT", columnList = "HASH_EXACT")
 })
 @Indexed()
 //@AnalyzerDefs({
@@ -117,6 +119,18 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 	@Column(name = "SP_VALUE_NORMALIZED", length = MAX_LENGTH, nullable = true)
 	private String myValueNormalized;
 
+	/**
+	 * @since 3.3.0 - Hash of the resource type and param name
+	 */
+	@Column(name = "HASH_IDENTITY", nullable = true)
+	private Long myHashIdentity;
+
+	/**
+	 * @since 3.3.0 - Hash of the resource type, param name and exact value
+	 */
+	@Column(name = "HASH_EXACT", nullable = true)
+	private Long myHashExact;
+
 	public ResourceIndexedSearchParamString() {
 		super();
 	}
@@ -128,6 +142,20 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		setValueExact(theValueExact);
 	}
 
+	/**
+	 * Populates the hash columns from the current resource type, param name
+	 * and exact value. This is called automatically when the row is first
+	 * persisted, and may also be called on existing rows in order to populate
+	 * hashes which were not stored when the row was created.
+	 */
+	@PrePersist
+	public void calculateHashes() {
+		String resourceType = getResourceType();
+		String paramName = getParamName();
+		myHashIdentity = calculateHashIdentity(resourceType, paramName);
+		myHashExact = calculateHashExact(resourceType, paramName, getValueExact());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -147,6 +175,14 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		return b.isEquals();
 	}
 
+	public Long getHashExact() {
+		return myHashExact;
+	}
+
+	public Long getHashIdentity() {
+		return myHashIdentity;
+	}
+
 	@Override
 	protected Long getId() {
 		return myId;
@@ -197,4 +233,8 @@ public class ResourceIndexedSearchParamString extends BaseResourceIndexedSearchP
 		return b.build();
 	}
 
+	public static long calculateHashExact(String theResourceType, String theParamName, String theValueExact) {
+		return hash(theResourceType, theParamName, theValueExact);
+	}
+
 }
@@ -38,7 +38,10 @@ import javax.persistence.*;
 	@Index(name = "IDX_SP_TOKEN", columnList = "RES_TYPE,SP_NAME,SP_SYSTEM,SP_VALUE"),
 	@Index(name = "IDX_SP_TOKEN_UNQUAL", columnList = "RES_TYPE,SP_NAME,SP_VALUE"),
 	@Index(name = "IDX_SP_TOKEN_UPDATED", columnList = "SP_UPDATED"),
-	@Index(name = "IDX_SP_TOKEN_RESID", columnList = "RES_ID")
+	@Index(name = "IDX_SP_TOKEN_RESID", columnList = "RES_ID"),
+	@Index(name = "IDX_SP_TOKEN_HASH", columnList = "HASH_IDENTITY"),
+	@Index(name = "IDX_SP_TOKEN_HASH_SV", columnList = "HASH_SYS_AND_VALUE"),
+	@Index(name = "IDX_SP_TOKEN_HASH_V", columnList = "HASH_VALUE")
 })
 //@formatter:on
 public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchParam {
@@ -57,6 +60,21 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_SPIDX_TOKEN")
 	@Column(name = "SP_ID")
 	private Long myId;
+	/**
+	 * @since 3.3.0 - Hash of the resource type and param name
+	 */
+	@Column(name = "HASH_IDENTITY", nullable = true)
+	private Long myHashIdentity;
+	/**
+	 * @since 3.3.0 - Hash of the resource type, param name, system and value
+	 */
+	@Column(name = "HASH_SYS_AND_VALUE", nullable = true)
+	private Long myHashSystemAndValue;
+	/**
+	 * @since 3.3.0 - Hash of the resource type, param name and value
+	 */
+	@Column(name = "HASH_VALUE", nullable = true)
+	private Long myHashValue;
 
 	public ResourceIndexedSearchParamToken() {
 	}
@@ -67,6 +85,21 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		setValue(theValue);
 	}
 
+	/**
+	 * Populates the hash columns from the current resource type, param name,
+	 * system and value. This is called automatically when the row is first
+	 * persisted, and may also be called on existing rows in order to populate
+	 * hashes which were not stored when the row was created.
+	 */
+	@PrePersist
+	public void calculateHashes() {
+		String resourceType = getResourceType();
+		String paramName = getParamName();
+		myHashIdentity = calculateHashIdentity(resourceType, paramName);
+		myHashSystemAndValue = calculateHashSystemAndValue(resourceType, paramName, getSystem(), getValue());
+		myHashValue = calculateHashValue(resourceType, paramName, getValue());
+	}
+
 	@Override
 	public boolean equals(Object theObj) {
 		if (this == theObj) {
@@ -87,6 +120,18 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		return b.isEquals();
 	}
 
+	public Long getHashIdentity() {
+		return myHashIdentity;
+	}
+
+	public Long getHashSystemAndValue() {
+		return myHashSystemAndValue;
+	}
+
+	public Long getHashValue() {
+		return myHashValue;
+	}
+
 	@Override
 	protected Long getId() {
 		return myId;
@@ -132,4 +177,12 @@ public class ResourceIndexedSearchParamToken extends BaseResourceIndexedSearchPa
 		b.append("value", getValue());
 		return b.build();
 	}
+
+	public static long calculateHashSystemAndValue(String theResourceType, String theParamName, String theSystem, String theValue) {
+		return hash(theResourceType, theParamName, StringUtils.defaultIfBlank(theSystem, null), StringUtils.defaultIfBlank(theValue, null));
+	}
+
+	public static long calculateHashValue(String theResourceType, String theParamName, String theValue) {
+		return hash(theResourceType, theParamName, StringUtils.defaultIfBlank(theValue, null));
+	}
 }
@@ -0,0 +1,136 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * A rest-hook delivery which is either still pending or has been abandoned
+ *
+ * @see RestHookDeliveryStatusEnum
+ */
+@Entity
+@Table(name = "HFJ_RESTHOOK_DELIVERY", indexes = {
+	@Index(name = "IDX_RESTHOOK_DLVR_STATUS", columnList = "DELIVERY_STATUS,CREATED")
+})
+public class RestHookDelivery {
+
+	public static final int MAX_ENDPOINT_URL_LENGTH = 2000;
+	public static final int MAX_MESSAGE_LENGTH = Integer.MAX_VALUE;
+	public static final int MAX_REASON_LENGTH = 2000;
+	public static final int MAX_SUBSCRIPTION_ID_LENGTH = 200;
+
+	@Column(name = "ATTEMPTS", nullable = false)
+	private int myAttempts;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "CREATED", nullable = false, updatable = false)
+	private Date myCreated;
+
+	@Column(name = "ENDPOINT_URL", nullable = true, length = MAX_ENDPOINT_URL_LENGTH)
+	private String myEndpointUrl;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_RESTHOOK_DLVR_ID")
+	@SequenceGenerator(name = "SEQ_RESTHOOK_DLVR_ID", sequenceName = "SEQ_RESTHOOK_DLVR_ID")
+	@Column(name = "PID")
+	private Long myId;
+
+	@Lob()
+	@Basic(fetch = FetchType.LAZY)
+	@Column(name = "DELIVERY_MESSAGE", nullable = false, length = MAX_MESSAGE_LENGTH)
+	private String myMessage;
+
+	@Column(name = "REASON", nullable = true, length = MAX_REASON_LENGTH)
+	private String myReason;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "DELIVERY_STATUS", nullable = false, length = 20)
+	private RestHookDeliveryStatusEnum myStatus;
+
+	@Column(name = "SUBSCRIPTION_ID", nullable = true, length = MAX_SUBSCRIPTION_ID_LENGTH)
+	private String mySubscriptionId;
+
+	public int getAttempts() {
+		return myAttempts;
+	}
+
+	public void setAttempts(int theAttempts) {
+		myAttempts = theAttempts;
+	}
+
+	public Date getCreated() {
+		return myCreated;
+	}
+
+	public void setCreated(Date theCreated) {
+		myCreated = theCreated;
+	}
+
+	public String getEndpointUrl() {
+		return myEndpointUrl;
+	}
+
+	public void setEndpointUrl(String theEndpointUrl) {
+		myEndpointUrl = theEndpointUrl;
+	}
+
+	public Long getId() {
+		return myId;
+	}
+
+	/**
+	 * Returns the delivery message, serialized as JSON
+	 */
+	public String getMessage() {
+		return myMessage;
+	}
+
+	public void setMessage(String theMessage) {
+		myMessage = theMessage;
+	}
+
+	public String getReason() {
+		return myReason;
+	}
+
+	public void setReason(String theReason) {
+		myReason = theReason;
+	}
+
+	public RestHookDeliveryStatusEnum getStatus() {
+		return myStatus;
+	}
+
+	public void setStatus(RestHookDeliveryStatusEnum theStatus) {
+		myStatus = theStatus;
+	}
+
+	public String getSubscriptionId() {
+		return mySubscriptionId;
+	}
+
+	public void setSubscriptionId(String theSubscriptionId) {
+		mySubscriptionId = theSubscriptionId;
+	}
+
+}
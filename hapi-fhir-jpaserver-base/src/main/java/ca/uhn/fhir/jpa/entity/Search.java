@@ -94,6 +94,9 @@ public class Search implements Serializable {
 	@OneToMany(mappedBy="mySearch")
 	private Collection<SearchResult> myResults;
 
+	@Column(name="RESULTS_CHUNK_SIZE", nullable=true, updatable=false)
+	private Integer myResultsChunkSize;
+
 	// TODO: change nullable to false after 2.5
 	@NotNull
 	@Temporal(TemporalType.TIMESTAMP)
@@ -184,6 +187,16 @@ public class Search implements Serializable {
 		return myResourceType;
 	}
 
+	/**
+	 * If not <code>null</code>, the results of this search are stored as
+	 * {@link SearchResultChunk chunks} of this size. Otherwise (including for
+	 * any searches created before chunked storage existed) they are stored as
+	 * one {@link SearchResult} row per result.
+	 */
+	public Integer getResultsChunkSize() {
+		return myResultsChunkSize;
+	}
+
 	public Date getSearchLastReturned() {
 		return mySearchLastReturned;
 	}
@@ -252,6 +265,10 @@ public class Search implements Serializable {
 		myResourceType = theResourceType;
 	}
 
+	public void setResultsChunkSize(Integer theResultsChunkSize) {
+		myResultsChunkSize = theResultsChunkSize;
+	}
+
 	public void setSearchLastReturned(Date theDate) {
 		mySearchLastReturned = theDate;
 	}
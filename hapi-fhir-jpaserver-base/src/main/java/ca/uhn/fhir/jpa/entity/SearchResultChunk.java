@@ -0,0 +1,190 @@
+package ca.uhn.fhir.jpa.entity;
+
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.ForeignKey;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Stores a contiguous range of the resource PIDs matched by a {@link Search}
+ * in a single row. The PIDs are delta encoded as variable length integers and
+ * then deflated, so a chunk of several thousand PIDs typically only needs a
+ * few bytes per PID. Chunk <code>n</code> holds the results with order
+ * <code>n * chunkSize</code> (inclusive) to <code>(n + 1) * chunkSize</code>
+ * (exclusive), where the chunk size is stored on the search itself.
+ *
+ * @see Search#getResultsChunkSize()
+ */
+@Entity
+@Table(name = "HFJ_SEARCH_RESULT_CHUNK", uniqueConstraints= {
+	@UniqueConstraint(name="IDX_SEARCHRESCHUNK_IDX", columnNames= {"SEARCH_PID", "CHUNK_INDEX"})
+})
+public class SearchResultChunk implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Column(name="CHUNK_INDEX", nullable=false, updatable=false)
+	private int myChunkIndex;
+
+	@GeneratedValue(strategy = GenerationType.AUTO, generator="SEQ_SEARCH_RES_CHUNK")
+	@SequenceGenerator(name="SEQ_SEARCH_RES_CHUNK", sequenceName="SEQ_SEARCH_RES_CHUNK")
+	@Id
+	@Column(name = "PID")
+	private Long myId;
+
+	@Column(name="PID_COUNT", nullable=false)
+	private int myPidCount;
+
+	@Lob()
+	@Column(name="PIDS", nullable=false)
+	private byte[] myPids;
+
+	@ManyToOne
+	@JoinColumn(name="SEARCH_PID", referencedColumnName="PID", foreignKey=@ForeignKey(name="FK_SEARCHRESCHUNK_SEARCH"))
+	private Search mySearch;
+
+	@Column(name="SEARCH_PID", insertable=false, updatable=false, nullable=false)
+	private Long mySearchPid;
+
+	/**
+	 * Constructor
+	 */
+	public SearchResultChunk() {
+		// nothing
+	}
+
+	/**
+	 * Constructor
+	 */
+	public SearchResultChunk(Search theSearch, int theChunkIndex) {
+		mySearch = theSearch;
+		myChunkIndex = theChunkIndex;
+	}
+
+	public int getChunkIndex() {
+		return myChunkIndex;
+	}
+
+	public int getPidCount() {
+		return myPidCount;
+	}
+
+	public List<Long> getPids() {
+		return decode(myPids, myPidCount);
+	}
+
+	public void setPids(List<Long> thePids) {
+		myPids = encode(thePids);
+		myPidCount = thePids.size();
+	}
+
+	static List<Long> decode(byte[] theBytes, int theCount) {
+		byte[] raw;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(theBytes);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(theCount * 3);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new InternalErrorException("Truncated search result chunk");
+				}
+				bos.write(buffer, 0, count);
+			}
+			raw = bos.toByteArray();
+		} catch (DataFormatException e) {
+			throw new InternalErrorException(e);
+		} finally {
+			inflater.end();
+		}
+
+		List<Long> retVal = new ArrayList<>(theCount);
+		long previous = 0;
+		int index = 0;
+		while (retVal.size() < theCount) {
+			long zigZag = 0;
+			int shift = 0;
+			byte next;
+			do {
+				next = raw[index++];
+				zigZag |= (long) (next & 0x7F) << shift;
+				shift += 7;
+			} while ((next & 0x80) != 0);
+			long delta = (zigZag >>> 1) ^ -(zigZag & 1);
+			previous += delta;
+			retVal.add(previous);
+		}
+		return retVal;
+	}
+
+	static byte[] encode(List<Long> thePids) {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(thePids.size() * 3);
+		long previous = 0;
+		for (Long next : thePids) {
+			long delta = next - previous;
+			long zigZag = (delta << 1) ^ (delta >> 63);
+			while ((zigZag & ~0x7FL) != 0) {
+				raw.write((int) ((zigZag & 0x7F) | 0x80));
+				zigZag >>>= 7;
+			}
+			raw.write((int) zigZag);
+			previous = next;
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw.toByteArray());
+			deflater.finish();
+			ByteArrayOutputStream retVal = new ByteArrayOutputStream(raw.size() / 2 + 16);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				retVal.write(buffer, 0, count);
+			}
+			return retVal.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package ca.uhn.fhir.jpa.entity;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.ForeignKey;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * One row of the transitive closure of the ISA hierarchy of a code system version: the
+ * descendant concept is a (direct or indirect) child of the ancestor concept. A concept
+ * is not its own ancestor. Rows are written when a concept is stored or reindexed, so that
+ * subsumption can be tested with a single indexed lookup instead of walking
+ * {@link TermConceptParentChildLink}s.
+ */
+@Entity
+@Table(name = "TRM_CONCEPT_CLOSURE", indexes = {
+	@Index(name = "IDX_CNCPT_CLOSURE_ANC", columnList = "ANCESTOR_PID, DESCENDANT_PID"),
+	@Index(name = "IDX_CNCPT_CLOSURE_DESC", columnList = "DESCENDANT_PID, ANCESTOR_PID")
+})
+public class TermConceptClosure implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	@ManyToOne()
+	@JoinColumn(name = "ANCESTOR_PID", nullable = false, referencedColumnName = "PID", foreignKey = @ForeignKey(name = "FK_TERM_CLOSURE_ANCESTOR"))
+	private TermConcept myAncestor;
+
+	@Column(name = "ANCESTOR_PID", insertable = false, updatable = false)
+	private Long myAncestorPid;
+
+	@ManyToOne()
+	@JoinColumn(name = "CODESYSTEM_PID", nullable = false, foreignKey = @ForeignKey(name = "FK_TERM_CLOSURE_CS"))
+	private TermCodeSystemVersion myCodeSystem;
+
+	@ManyToOne()
+	@JoinColumn(name = "DESCENDANT_PID", nullable = false, referencedColumnName = "PID", foreignKey = @ForeignKey(name = "FK_TERM_CLOSURE_DESCENDANT"))
+	private TermConcept myDescendant;
+
+	@Column(name = "DESCENDANT_PID", insertable = false, updatable = false)
+	private Long myDescendantPid;
+
+	@Id()
+	@SequenceGenerator(name = "SEQ_CONCEPT_CLOSURE_PID", sequenceName = "SEQ_CONCEPT_CLOSURE_PID")
+	@GeneratedValue(strategy = GenerationType.AUTO, generator = "SEQ_CONCEPT_CLOSURE_PID")
+	@Column(name = "PID")
+	private Long myPid;
+
+	public TermConceptClosure() {
+		super();
+	}
+
+	public TermConceptClosure(TermCodeSystemVersion theCodeSystem, TermConcept theAncestor, TermConcept theDescendant) {
+		setCodeSystem(theCodeSystem);
+		setAncestor(theAncestor);
+		setDescendant(theDescendant);
+	}
+
+	public TermConcept getAncestor() {
+		return myAncestor;
+	}
+
+	public Long getAncestorPid() {
+		return myAncestorPid;
+	}
+
+	public TermCodeSystemVersion getCodeSystem() {
+		return myCodeSystem;
+	}
+
+	public TermConcept getDescendant() {
+		return myDescendant;
+	}
+
+	public Long getDescendantPid() {
+		return myDescendantPid;
+	}
+
+	public Long getId() {
+		return myPid;
+	}
+
+	public void setAncestor(TermConcept theAncestor) {
+		myAncestor = theAncestor;
+	}
+
+	public void setCodeSystem(TermCodeSystemVersion theCodeSystem) {
+		myCodeSystem = theCodeSystem;
+	}
+
+	public void setDescendant(TermConcept theDescendant) {
+		myDescendant = theDescendant;
+	}
+
+}
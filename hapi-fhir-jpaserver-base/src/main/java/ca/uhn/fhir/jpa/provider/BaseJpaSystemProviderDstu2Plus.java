@@ -24,9 +24,11 @@ import org.hl7.fhir.instance.model.api.IBaseParameters;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 
+import ca.uhn.fhir.jpa.dao.ReindexingStatus;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.util.ParametersUtil;
+import ca.uhn.fhir.util.StopWatch;
 
 public abstract class BaseJpaSystemProviderDstu2Plus<T, MT> extends BaseJpaSystemProvider<T, MT> {
 
@@ -56,7 +58,16 @@ public abstract class BaseJpaSystemProviderDstu2Plus<T, MT> extends BaseJpaSyste
 		if (count == null) {
 			string = ParametersUtil.createString(getContext(), "Index pass already proceeding");
 		} else {
-			string = ParametersUtil.createString(getContext(), "Indexed " + count + " resources");
+			ReindexingStatus status = getDao().getReindexingStatus();
+			StringBuilder b = new StringBuilder();
+			b.append("Indexed ").append(count).append(" resources");
+			b.append(" - ").append(status.getResourcesRemaining()).append(" remaining");
+			b.append(" - ").append(String.format("%.1f", status.getResourcesPerSecond())).append(" resources/sec");
+			Long estimatedMillisRemaining = status.getEstimatedMillisRemaining();
+			if (estimatedMillisRemaining != null && status.getResourcesRemaining() > 0) {
+				b.append(" - ETA ").append(StopWatch.formatMillis(estimatedMillisRemaining));
+			}
+			string = ParametersUtil.createString(getContext(), b.toString());
 		}
 		ParametersUtil.addParameterToParameters(getContext(), retVal, string, "status");
 
@@ -23,14 +23,12 @@ package ca.uhn.fhir.jpa.provider.r4;
 import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.io.IOUtils;
 import org.hl7.fhir.r4.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -40,7 +38,6 @@ import ca.uhn.fhir.jpa.term.IHapiTerminologyLoaderSvc.UploadStatistics;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
-import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 
 public class TerminologyUploaderProviderR4 extends BaseJpaProvider {
@@ -66,22 +63,21 @@ public class TerminologyUploaderProviderR4 extends BaseJpaProvider {
 		
 		startRequest(theServletRequest);
 		try {
-			List<byte[]> data = new ArrayList<byte[]>();
-			if (theLocalFile != null && theLocalFile.size() > 0) {
+			List<File> localFiles = new ArrayList<File>();
+			if (theLocalFile != null) {
 				for (StringType nextLocalFile : theLocalFile) {
 					if (isNotBlank(nextLocalFile.getValue())) {
 						ourLog.info("Reading in local file: {}", nextLocalFile.getValue());
-						try {
-							byte[] nextData = IOUtils.toByteArray(new FileInputStream(nextLocalFile.getValue()));
-							data.add(nextData);
-						} catch (IOException e) {
-							throw new InternalErrorException(e);
-						}
+						localFiles.add(new File(nextLocalFile.getValue()));
 					}
 				}
-			} else if (thePackage == null || thePackage.getData() == null || thePackage.getData().length == 0) {
-				throw new InvalidRequestException("No 'localfile' or 'package' parameter, or package had no data");
-			} else {
+			}
+
+			List<byte[]> data = null;
+			if (localFiles.isEmpty()) {
+				if (thePackage == null || thePackage.getData() == null || thePackage.getData().length == 0) {
+					throw new InvalidRequestException("No 'localfile' or 'package' parameter, or package had no data");
+				}
 				data = new ArrayList<byte[]>();
 				data.add(thePackage.getData());
 				thePackage.setData(null);
@@ -92,9 +88,17 @@ public class TerminologyUploaderProviderR4 extends BaseJpaProvider {
 
 			UploadStatistics stats;
 			if (IHapiTerminologyLoaderSvc.SCT_URL.equals(url)) {
-				stats = myTerminologyLoaderSvc.loadSnomedCt((data), theRequestDetails);
+				if (data != null) {
+					stats = myTerminologyLoaderSvc.loadSnomedCt(data, theRequestDetails);
+				} else {
+					stats = myTerminologyLoaderSvc.loadSnomedCtFiles(localFiles, theRequestDetails);
+				}
 			} else if (IHapiTerminologyLoaderSvc.LOINC_URL.equals(url)) {
-					stats = myTerminologyLoaderSvc.loadLoinc((data), theRequestDetails);
+				if (data != null) {
+					stats = myTerminologyLoaderSvc.loadLoinc(data, theRequestDetails);
+				} else {
+					stats = myTerminologyLoaderSvc.loadLoincFiles(localFiles, theRequestDetails);
+				}
 			} else {
 				throw new InvalidRequestException("Unknown URL: " + url);
 			}
@@ -23,13 +23,14 @@ package ca.uhn.fhir.jpa.search;
 import org.hibernate.search.indexes.interceptor.EntityIndexingInterceptor;
 import org.hibernate.search.indexes.interceptor.IndexingOverride;
 
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
 import ca.uhn.fhir.jpa.entity.TermConcept;
 
 public class DeferConceptIndexingInterceptor  implements EntityIndexingInterceptor<TermConcept> {
 
 	@Override
 	public IndexingOverride onAdd(TermConcept theEntity) {
-		if (theEntity.getIndexStatus() == null) {
+		if (theEntity.getIndexStatus() == null || theEntity.getIndexStatus() == BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS) {
 			return IndexingOverride.SKIP;
 		}
 				
@@ -31,8 +31,35 @@ public interface ISearchCoordinatorSvc {
 
 	void cancelAllActiveSearches();
 
+	/**
+	 * Returns the number of searches which are currently being loaded by a search thread
+	 */
+	int getActiveSearchCount();
+
+	/**
+	 * Returns the number of searches which are waiting for a search thread
+	 */
+	int getQueuedSearchCount();
+
+	/**
+	 * Returns the number of searches which have been rejected because the
+	 * search queue was full or a concurrency limit was reached
+	 */
+	long getRejectedSearchCount();
+
 	List<Long> getResources(String theUuid, int theFrom, int theTo);
 
+	/**
+	 * Returns the total time in milliseconds that searches have spent waiting for
+	 * a search thread. Divide by {@link #getStartedSearchCount()} for the average.
+	 */
+	long getSearchQueueWaitMillis();
+
+	/**
+	 * Returns the number of searches which have been started by a search thread
+	 */
+	long getStartedSearchCount();
+
 	IBundleProvider registerSearch(IDao theCallingDao, SearchParameterMap theParams, String theResourceType, CacheControlDirective theCacheControlDirective);
 
 }
@@ -0,0 +1,54 @@
+package ca.uhn.fhir.jpa.search;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Notifies threads which are waiting for more results from a search which is
+ * being loaded (possibly by another server node) that the search has been updated.
+ * <p>
+ * The default implementation ({@link SearchUpdateNotifierSvcImpl}) only delivers
+ * notifications within a single JVM. Clustered deployments can supply an
+ * implementation backed by a message bus so that waiters on other nodes are woken
+ * as soon as new results have been saved. Waiters always re-check the search after a
+ * short timeout, so a missed notification only delays a request and never stalls it.
+ * </p>
+ */
+public interface ISearchUpdateNotifierSvc {
+
+	/**
+	 * Called after results for the given search have been saved, or after
+	 * the search has completed or failed
+	 */
+	void notifySearchUpdated(String theSearchUuid);
+
+	/**
+	 * Registers a waiter for the given search. The returned latch is counted down
+	 * the next time {@link #notifySearchUpdated(String)} is called for the search.
+	 * Callers should register before checking the state of the search, and must
+	 * call {@link #unregisterWaiter(String, CountDownLatch)} when they are done.
+	 */
+	CountDownLatch registerWaiter(String theSearchUuid);
+
+	void unregisterWaiter(String theSearchUuid, CountDownLatch theLatch);
+
+}
@@ -27,6 +27,7 @@ import ca.uhn.fhir.jpa.dao.ISearchBuilder;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchIncludeDao;
+import ca.uhn.fhir.jpa.dao.data.ISearchResultChunkDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.util.StopWatch;
@@ -39,6 +40,7 @@ import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
 import ca.uhn.fhir.rest.server.method.PageMethodBinding;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
@@ -64,6 +66,8 @@ import org.springframework.transaction.support.TransactionTemplate;
 import javax.persistence.EntityManager;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	public static final int DEFAULT_SYNC_SIZE = 250;
@@ -76,9 +80,26 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	private DaoConfig myDaoConfig;
 	@Autowired
 	private EntityManager myEntityManager;
-	private ExecutorService myExecutor;
+	private ThreadPoolExecutor myExecutor;
+	private Integer myExecutorThreadCount;
+	private int myExecutorQueueCapacity;
+	private final ConcurrentHashMap<String, AtomicInteger> myResourceTypeToSearchCount = new ConcurrentHashMap<>();
+	/**
+	 * Counted by the search tasks themselves rather than taken from the executor, since
+	 * searches keep running on a previous executor after it has been replaced
+	 */
+	private final AtomicInteger myActiveSearchCount = new AtomicInteger();
+	/**
+	 * Counted the same way as {@link #myActiveSearchCount}, so that reading it never has
+	 * to touch (or reconfigure) the executors
+	 */
+	private final AtomicInteger myQueuedSearchCount = new AtomicInteger();
+	private final AtomicLong myRejectedSearchCount = new AtomicLong();
+	private final AtomicLong myStartedSearchCount = new AtomicLong();
+	private final AtomicLong mySearchQueueWaitMillis = new AtomicLong();
 	private Integer myLoadingThrottleForUnitTests = null;
 	private long myMaxMillisToWaitForRemoteResults = DateUtils.MILLIS_PER_MINUTE;
+	private long myMaxMillisBetweenRemoteChecks = 500;
 	private boolean myNeverUseLocalSearchForUnitTests;
 	@Autowired
 	private ISearchDao mySearchDao;
@@ -87,6 +108,10 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	@Autowired
 	private ISearchResultDao mySearchResultDao;
 	@Autowired
+	private ISearchResultChunkDao mySearchResultChunkDao;
+	@Autowired
+	private ISearchUpdateNotifierSvc mySearchUpdateNotifierSvc;
+	@Autowired
 	private PlatformTransactionManager myManagedTxManager;
 
 	private int mySyncSize = DEFAULT_SYNC_SIZE;
@@ -95,8 +120,79 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 	 * Constructor
 	 */
 	public SearchCoordinatorSvcImpl() {
+		myExecutor = newExecutor(null, 0);
+	}
+
+	/**
+	 * Releases the slot held by a search for its resource type
+	 * (see {@link DaoConfig#setMaximumConcurrentSearchesPerResourceType(Integer)})
+	 */
+	private void decrementSearchCount(String theResourceType) {
+		AtomicInteger count = myResourceTypeToSearchCount.get(theResourceType);
+		if (count != null) {
+			count.decrementAndGet();
+		}
+	}
+
+	@Override
+	public int getActiveSearchCount() {
+		return myActiveSearchCount.get();
+	}
+
+	/**
+	 * Returns the executor used to load searches, replacing it if the thread count or
+	 * queue capacity in the {@link DaoConfig} have changed since it was created. Searches
+	 * already submitted to the previous executor are allowed to finish.
+	 */
+	private synchronized ThreadPoolExecutor getExecutor() {
+		Integer threadCount = myDaoConfig != null ? myDaoConfig.getSearchThreadCount() : null;
+		int queueCapacity = myDaoConfig != null ? myDaoConfig.getSearchQueueCapacity() : 0;
+		if (!Objects.equals(threadCount, myExecutorThreadCount) || (threadCount != null && queueCapacity != myExecutorQueueCapacity)) {
+			ThreadPoolExecutor previous = myExecutor;
+			myExecutor = newExecutor(threadCount, queueCapacity);
+			previous.shutdown();
+		}
+		return myExecutor;
+	}
+
+	@Override
+	public int getQueuedSearchCount() {
+		return myQueuedSearchCount.get();
+	}
+
+	@Override
+	public long getRejectedSearchCount() {
+		return myRejectedSearchCount.get();
+	}
+
+	@Override
+	public long getSearchQueueWaitMillis() {
+		return mySearchQueueWaitMillis.get();
+	}
+
+	@Override
+	public long getStartedSearchCount() {
+		return myStartedSearchCount.get();
+	}
+
+	private ThreadPoolExecutor newExecutor(Integer theThreadCount, int theQueueCapacity) {
+		myExecutorThreadCount = theThreadCount;
+		myExecutorQueueCapacity = theQueueCapacity;
+
 		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("search_coord_");
-		myExecutor = Executors.newCachedThreadPool(threadFactory);
+		if (theThreadCount == null) {
+			return (ThreadPoolExecutor) Executors.newCachedThreadPool(threadFactory);
+		}
+
+		BlockingQueue<Runnable> queue;
+		if (theQueueCapacity > 0) {
+			queue = new LinkedBlockingQueue<>(theQueueCapacity);
+		} else {
+			queue = new SynchronousQueue<>();
+		}
+		ThreadPoolExecutor retVal = new ThreadPoolExecutor(theThreadCount, theThreadCount, 60L, TimeUnit.SECONDS, queue, threadFactory);
+		retVal.allowCoreThreadTimeOut(true);
+		return retVal;
 	}
 
 	@Override
@@ -133,37 +229,52 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		StopWatch sw = new StopWatch();
 		while (true) {
 
-			search = txTemplate.execute(new TransactionCallback<Search>() {
-				@Override
-				public Search doInTransaction(TransactionStatus theStatus) {
-					return mySearchDao.findByUuid(theUuid);
+			/*
+			 * Register for notification before looking at the search so that an
+			 * update which happens in between isn't missed
+			 */
+			CountDownLatch updateLatch = mySearchUpdateNotifierSvc.registerWaiter(theUuid);
+			try {
+
+				search = txTemplate.execute(new TransactionCallback<Search>() {
+					@Override
+					public Search doInTransaction(TransactionStatus theStatus) {
+						return mySearchDao.findByUuid(theUuid);
+					}
+				});
+
+				if (search == null) {
+					ourLog.info("Client requested unknown paging ID[{}]", theUuid);
+					String msg = myContext.getLocalizer().getMessage(PageMethodBinding.class, "unknownSearchId", theUuid);
+					throw new ResourceGoneException(msg);
 				}
-			});
 
-			if (search == null) {
-				ourLog.info("Client requested unknown paging ID[{}]", theUuid);
-				String msg = myContext.getLocalizer().getMessage(PageMethodBinding.class, "unknownSearchId", theUuid);
-				throw new ResourceGoneException(msg);
-			}
+				verifySearchHasntFailedOrThrowInternalErrorException(search);
+				if (search.getStatus() == SearchStatusEnum.FINISHED) {
+					ourLog.info("Search entity marked as finished");
+					break;
+				}
+				if (search.getNumFound() >= theTo) {
+					ourLog.info("Search entity has {} results so far", search.getNumFound());
+					break;
+				}
 
-			verifySearchHasntFailedOrThrowInternalErrorException(search);
-			if (search.getStatus() == SearchStatusEnum.FINISHED) {
-				ourLog.info("Search entity marked as finished");
-				break;
-			}
-			if (search.getNumFound() >= theTo) {
-				ourLog.info("Search entity has {} results so far", search.getNumFound());
-				break;
-			}
+				if (sw.getMillis() > myMaxMillisToWaitForRemoteResults) {
+					throw new InternalErrorException("Request timed out after " + sw.getMillis() + "ms");
+				}
 
-			if (sw.getMillis() > myMaxMillisToWaitForRemoteResults) {
-				throw new InternalErrorException("Request timed out after " + sw.getMillis() + "ms");
-			}
+				/*
+				 * Wake up as soon as the node which is loading the search reports progress, but
+				 * check again after a short delay anyhow in case the notification didn't reach us
+				 */
+				try {
+					updateLatch.await(myMaxMillisBetweenRemoteChecks, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					// ignore
+				}
 
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {
-				// ignore
+			} finally {
+				mySearchUpdateNotifierSvc.unregisterWaiter(theUuid, updateLatch);
 			}
 		}
 
@@ -174,6 +285,30 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 		final Search foundSearch = search;
 
+		if (foundSearch.getResultsChunkSize() != null) {
+			final int chunkSize = foundSearch.getResultsChunkSize();
+			final int from = theFrom;
+			final int to = theTo;
+			return txTemplate.execute(new TransactionCallback<List<Long>>() {
+				@Override
+				public List<Long> doInTransaction(TransactionStatus theStatus) {
+					final List<Long> resultPids = new ArrayList<Long>();
+					int firstChunk = from / chunkSize;
+					int lastChunk = (to - 1) / chunkSize;
+					for (SearchResultChunk nextChunk : mySearchResultChunkDao.findChunks(foundSearch.getId(), firstChunk, lastChunk)) {
+						int order = nextChunk.getChunkIndex() * chunkSize;
+						for (Long nextPid : nextChunk.getPids()) {
+							if (order >= from && order < to) {
+								resultPids.add(nextPid);
+							}
+							order++;
+						}
+					}
+					return resultPids;
+				}
+			});
+		}
+
 		List<Long> retVal = txTemplate.execute(new TransactionCallback<List<Long>>() {
 			@Override
 			public List<Long> doInTransaction(TransactionStatus theStatus) {
@@ -253,11 +388,13 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 					 * expected to be paged
 					 * 
 					 * On the other hand for async queries we load includes/revincludes
-					 * individually for pages as we return them to clients
+					 * individually for pages as we return them to clients. Synchronous
+					 * searches are never loaded again, so there is no point memoizing
+					 * their includes beyond this call.
 					 */
 					final Set<Long> includedPids = new HashSet<Long>();
-					includedPids.addAll(sb.loadReverseIncludes(theCallingDao, myContext, myEntityManager, pids, theParams.getRevIncludes(), true, theParams.getLastUpdated()));
-					includedPids.addAll(sb.loadReverseIncludes(theCallingDao, myContext, myEntityManager, pids, theParams.getIncludes(), false, theParams.getLastUpdated()));
+					includedPids.addAll(sb.loadReverseIncludes(theCallingDao, myContext, myEntityManager, pids, theParams.getRevIncludes(), true, theParams.getLastUpdated(), null));
+					includedPids.addAll(sb.loadReverseIncludes(theCallingDao, myContext, myEntityManager, pids, theParams.getIncludes(), false, theParams.getLastUpdated(), null));
 
 					List<IBaseResource> resources = new ArrayList<IBaseResource>();
 					sb.loadResourcesByPid(pids, resources, includedPids, false, myEntityManager, myContext, theCallingDao);
@@ -329,6 +466,7 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		search.setLastUpdated(theParams.getLastUpdated());
 		search.setResourceType(theResourceType);
 		search.setStatus(SearchStatusEnum.LOADING);
+		search.setResultsChunkSize(myDaoConfig.getSearchResultChunkSize());
 
 		search.setSearchQueryString(queryString);
 		search.setSearchQueryStringHash(queryString.hashCode());
@@ -340,9 +478,38 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 			search.getIncludes().add(new SearchInclude(search, next.getValue(), true, next.isRecurse()));
 		}
 
+		/*
+		 * Admission control: limit the number of searches for a single resource type, and
+		 * reject the search if the executor can't accept it rather than letting an unbounded
+		 * number of searches compete for database connections
+		 */
+		AtomicInteger searchCount = myResourceTypeToSearchCount.get(theResourceType);
+		if (searchCount == null) {
+			myResourceTypeToSearchCount.putIfAbsent(theResourceType, new AtomicInteger());
+			searchCount = myResourceTypeToSearchCount.get(theResourceType);
+		}
+		Integer maxSearchesForType = myDaoConfig.getMaximumConcurrentSearchesPerResourceType();
+		int activeSearchesForType = searchCount.incrementAndGet();
+		if (maxSearchesForType != null && activeSearchesForType > maxSearchesForType) {
+			searchCount.decrementAndGet();
+			myRejectedSearchCount.incrementAndGet();
+			ourLog.warn("Rejecting search for {} as {} searches for this type are already in progress", theResourceType, maxSearchesForType);
+			throw new UnclassifiedServerFailureException(429, "Too many concurrent searches for resource type " + theResourceType + ", please try again later");
+		}
+
 		SearchTask task = new SearchTask(search, theCallingDao, theParams, theResourceType, searchUuid);
 		myIdToSearchTask.put(search.getUuid(), task);
-		myExecutor.submit(task);
+		myQueuedSearchCount.incrementAndGet();
+		try {
+			getExecutor().submit(task);
+		} catch (RejectedExecutionException e) {
+			myQueuedSearchCount.decrementAndGet();
+			myIdToSearchTask.remove(search.getUuid());
+			decrementSearchCount(theResourceType);
+			myRejectedSearchCount.incrementAndGet();
+			ourLog.warn("Rejecting search for {} as the search queue is full", theResourceType);
+			throw new UnclassifiedServerFailureException(503, "The server is too busy to perform this search, please try again later");
+		}
 
 		PersistedJpaSearchFirstPageBundleProvider retVal = new PersistedJpaSearchFirstPageBundleProvider(search, theCallingDao, task, sb, myManagedTxManager);
 		populateBundleProvider(retVal);
@@ -372,6 +539,11 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		myLoadingThrottleForUnitTests = theLoadingThrottleForUnitTests;
 	}
 
+	@VisibleForTesting
+	void setMaxMillisBetweenRemoteChecksForUnitTest(long theMaxMillisBetweenRemoteChecks) {
+		myMaxMillisBetweenRemoteChecks = theMaxMillisBetweenRemoteChecks;
+	}
+
 	@VisibleForTesting
 	void setMaxMillisToWaitForRemoteResultsForUnitTest(long theMaxMillisToWaitForRemoteResults) {
 		myMaxMillisToWaitForRemoteResults = theMaxMillisToWaitForRemoteResults;
@@ -397,6 +569,16 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		mySearchResultDao = theSearchResultDao;
 	}
 
+	@VisibleForTesting
+	void setSearchResultChunkDaoForUnitTest(ISearchResultChunkDao theSearchResultChunkDao) {
+		mySearchResultChunkDao = theSearchResultChunkDao;
+	}
+
+	@VisibleForTesting
+	void setSearchUpdateNotifierSvcForUnitTest(ISearchUpdateNotifierSvc theSearchUpdateNotifierSvc) {
+		mySearchUpdateNotifierSvc = theSearchUpdateNotifierSvc;
+	}
+
 	@VisibleForTesting
 	public void setSyncSizeForUnitTests(int theSyncSize) {
 		mySyncSize = theSyncSize;
@@ -462,7 +644,9 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		private final ArrayList<Long> myUnsyncedPids = new ArrayList<Long>();
 		private boolean myAbortRequested;
 		private int myCountSaved = 0;
+		private SearchResultChunk myLastSavedChunk;
 		private String mySearchUuid;
+		private final StopWatch myQueueStopWatch = new StopWatch();
 
 		/**
 		 * Constructor
@@ -504,6 +688,11 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		 */
 		@Override
 		public Void call() throws Exception {
+			mySearchQueueWaitMillis.addAndGet(myQueueStopWatch.getMillis());
+			myQueuedSearchCount.decrementAndGet();
+			myStartedSearchCount.incrementAndGet();
+			myActiveSearchCount.incrementAndGet();
+
 			StopWatch sw = new StopWatch();
 
 			try {
@@ -558,11 +747,25 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 
 				saveSearch();
 
+			} finally {
+
+				/*
+				 * This must happen even if saving the failed search above throws, otherwise
+				 * the slot for this resource type is never released and the waiting clients
+				 * are never woken up
+				 */
+				myIdToSearchTask.remove(mySearch.getUuid());
+				decrementSearchCount(myResourceType);
+				myActiveSearchCount.decrementAndGet();
+				myInitialCollectionLatch.countDown();
+				myCompletionLatch.countDown();
+				synchronized (mySyncedPids) {
+					mySyncedPids.notifyAll();
+				}
+
 			}
 
-			myIdToSearchTask.remove(mySearch.getUuid());
-			myInitialCollectionLatch.countDown();
-			myCompletionLatch.countDown();
+			mySearchUpdateNotifierSvc.notifySearchUpdated(mySearch.getUuid());
 			return null;
 		}
 
@@ -628,23 +831,17 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 		public List<Long> getResourcePids(int theFromIndex, int theToIndex) {
 			ourLog.info("Requesting search PIDs from {}-{}", theFromIndex, theToIndex);
 
-			boolean keepWaiting;
-			do {
-				synchronized (mySyncedPids) {
-					keepWaiting = false;
-					if (mySyncedPids.size() < theToIndex && mySearch.getStatus() == SearchStatusEnum.LOADING) {
-						keepWaiting = true;
-					}
-				}
-				if (keepWaiting) {
+			synchronized (mySyncedPids) {
+				while (mySyncedPids.size() < theToIndex && mySearch.getStatus() == SearchStatusEnum.LOADING) {
 					ourLog.info("Waiting, as we only have {} results", mySyncedPids.size());
 					try {
-						Thread.sleep(500);
+						// Woken by saveUnsynced as soon as more results are available
+						mySyncedPids.wait(500);
 					} catch (InterruptedException theE) {
 						// ignore
 					}
 				}
-			} while (keepWaiting);
+			}
 
 			ourLog.info("Proceeding, as we have {} results", mySyncedPids.size());
 
@@ -695,14 +892,18 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 						doSaveSearch();
 					}
 
-					List<SearchResult> resultsToSave = Lists.newArrayList();
-					for (Long nextPid : myUnsyncedPids) {
-						SearchResult nextResult = new SearchResult(mySearch);
-						nextResult.setResourcePid(nextPid);
-						nextResult.setOrder(myCountSaved++);
-						resultsToSave.add(nextResult);
+					if (mySearch.getResultsChunkSize() != null) {
+						saveUnsyncedChunks(mySearch.getResultsChunkSize());
+					} else {
+						List<SearchResult> resultsToSave = Lists.newArrayList();
+						for (Long nextPid : myUnsyncedPids) {
+							SearchResult nextResult = new SearchResult(mySearch);
+							nextResult.setResourcePid(nextPid);
+							nextResult.setOrder(myCountSaved++);
+							resultsToSave.add(nextResult);
+						}
+						mySearchResultDao.save(resultsToSave);
 					}
-					mySearchResultDao.save(resultsToSave);
 
 					synchronized (mySyncedPids) {
 						int numSyncedThisPass = myUnsyncedPids.size();
@@ -714,6 +915,8 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 							mySearch.setTotalCount(myCountSaved);
 							mySearch.setStatus(SearchStatusEnum.FINISHED);
 						}
+
+						mySyncedPids.notifyAll();
 					}
 
 					mySearch.setNumFound(myCountSaved);
@@ -734,6 +937,50 @@ public class SearchCoordinatorSvcImpl implements ISearchCoordinatorSvc {
 				}
 			});
 
+			mySearchUpdateNotifierSvc.notifySearchUpdated(mySearch.getUuid());
+		}
+
+		/**
+		 * Appends the unsynced PIDs to the chunked result storage. The last chunk
+		 * written by the previous pass may not have been full, in which case it is
+		 * rewritten with the new PIDs appended to it.
+		 */
+		private void saveUnsyncedChunks(int theChunkSize) {
+			int chunkIndex = myCountSaved / theChunkSize;
+			List<Long> chunkPids = new ArrayList<>(theChunkSize);
+			synchronized (mySyncedPids) {
+				chunkPids.addAll(mySyncedPids.subList(chunkIndex * theChunkSize, myCountSaved));
+			}
+
+			List<SearchResultChunk> chunksToSave = Lists.newArrayList();
+			for (Long nextPid : myUnsyncedPids) {
+				chunkPids.add(nextPid);
+				myCountSaved++;
+				if (chunkPids.size() == theChunkSize) {
+					chunksToSave.add(toChunk(chunkIndex, chunkPids));
+					chunkIndex++;
+					chunkPids = new ArrayList<>(theChunkSize);
+				}
+			}
+			if (!chunkPids.isEmpty()) {
+				chunksToSave.add(toChunk(chunkIndex, chunkPids));
+			}
+
+			List<SearchResultChunk> savedChunks = mySearchResultChunkDao.save(chunksToSave);
+			if (!savedChunks.isEmpty()) {
+				myLastSavedChunk = savedChunks.get(savedChunks.size() - 1);
+			}
+		}
+
+		private SearchResultChunk toChunk(int theChunkIndex, List<Long> thePids) {
+			SearchResultChunk retVal;
+			if (myLastSavedChunk != null && myLastSavedChunk.getChunkIndex() == theChunkIndex) {
+				retVal = myLastSavedChunk;
+			} else {
+				retVal = new SearchResultChunk(mySearch, theChunkIndex);
+			}
+			retVal.setPids(thePids);
+			return retVal;
 		}
 
 	}
@@ -0,0 +1,76 @@
+package ca.uhn.fhir.jpa.search;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link ISearchUpdateNotifierSvc} which delivers notifications to waiters in the same JVM
+ */
+public class SearchUpdateNotifierSvcImpl implements ISearchUpdateNotifierSvc {
+
+	private final Map<String, List<CountDownLatch>> mySearchUuidToWaiters = new HashMap<>();
+
+	@Override
+	public void notifySearchUpdated(String theSearchUuid) {
+		List<CountDownLatch> waiters;
+		synchronized (mySearchUuidToWaiters) {
+			waiters = mySearchUuidToWaiters.remove(theSearchUuid);
+		}
+		if (waiters != null) {
+			for (CountDownLatch next : waiters) {
+				next.countDown();
+			}
+		}
+	}
+
+	@Override
+	public CountDownLatch registerWaiter(String theSearchUuid) {
+		CountDownLatch retVal = new CountDownLatch(1);
+		synchronized (mySearchUuidToWaiters) {
+			List<CountDownLatch> waiters = mySearchUuidToWaiters.get(theSearchUuid);
+			if (waiters == null) {
+				waiters = new ArrayList<>();
+				mySearchUuidToWaiters.put(theSearchUuid, waiters);
+			}
+			waiters.add(retVal);
+		}
+		return retVal;
+	}
+
+	@Override
+	public void unregisterWaiter(String theSearchUuid, CountDownLatch theLatch) {
+		synchronized (mySearchUuidToWaiters) {
+			List<CountDownLatch> waiters = mySearchUuidToWaiters.get(theSearchUuid);
+			if (waiters != null) {
+				waiters.remove(theLatch);
+				if (waiters.isEmpty()) {
+					mySearchUuidToWaiters.remove(theSearchUuid);
+				}
+			}
+		}
+	}
+
+}
@@ -21,8 +21,10 @@ package ca.uhn.fhir.jpa.search;
  */
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.IIncludePidCacheSvc;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchIncludeDao;
+import ca.uhn.fhir.jpa.dao.data.ISearchResultChunkDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.entity.Search;
 import com.google.common.annotations.VisibleForTesting;
@@ -58,12 +60,16 @@ public class StaleSearchDeletingSvcImpl implements IStaleSearchDeletingSvc {
 	@Autowired
 	private DaoConfig myDaoConfig;
 	@Autowired
+	private IIncludePidCacheSvc myIncludePidCacheSvc;
+	@Autowired
 	private ISearchDao mySearchDao;
 	@Autowired
 	private ISearchIncludeDao mySearchIncludeDao;
 	@Autowired
 	private ISearchResultDao mySearchResultDao;
 	@Autowired
+	private ISearchResultChunkDao mySearchResultChunkDao;
+	@Autowired
 	private PlatformTransactionManager myTransactionManager;
 
 	private void deleteSearch(final Long theSearchPid) {
@@ -72,7 +78,9 @@ public class StaleSearchDeletingSvcImpl implements IStaleSearchDeletingSvc {
 			ourLog.info("Deleting search {}/{} - Created[{}] -- Last returned[{}]", searchToDelete.getId(), searchToDelete.getUuid(), new InstantType(searchToDelete.getCreated()), new InstantType(searchToDelete.getSearchLastReturned()));
 			mySearchIncludeDao.deleteForSearch(searchToDelete.getId());
 			mySearchResultDao.deleteForSearch(searchToDelete.getId());
+			mySearchResultChunkDao.deleteForSearch(searchToDelete.getId());
 			mySearchDao.delete(searchToDelete);
+			myIncludePidCacheSvc.invalidate(searchToDelete.getUuid());
 		}
 	}
 
@@ -25,6 +25,8 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.jpa.config.BaseConfig;
 import ca.uhn.fhir.jpa.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.dao.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.dao.ISearchParamRegistry;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.jpa.provider.ServletSubRequestDetails;
 import ca.uhn.fhir.jpa.util.JpaConstants;
@@ -99,6 +101,11 @@ public abstract class BaseSubscriptionInterceptor<S extends IBaseResource> exten
 	@Autowired
 	@Qualifier(BaseConfig.TASK_EXECUTOR_NAME)
 	private AsyncTaskExecutor myAsyncTaskExecutor;
+	@Autowired(required = false)
+	private ISearchParamExtractor mySearchParamExtractor;
+	@Autowired(required = false)
+	private ISearchParamRegistry mySearchParamRegistry;
+	private InMemorySubscriptionMatcher myInMemorySubscriptionMatcher;
 
 	/**
 	 * Constructor
@@ -238,6 +245,15 @@ public abstract class BaseSubscriptionInterceptor<S extends IBaseResource> exten
 		myExecutorThreadCount = theExecutorThreadCount;
 	}
 
+	/**
+	 * Returns the matcher used to evaluate subscription criteria without a database
+	 * query, or <code>null</code> if no {@link ISearchParamExtractor} is available (in
+	 * which case every check is performed using a search)
+	 */
+	public InMemorySubscriptionMatcher getInMemorySubscriptionMatcher() {
+		return myInMemorySubscriptionMatcher;
+	}
+
 	public Map<String, CanonicalSubscription> getIdToSubscription() {
 		return Collections.unmodifiableMap(myIdToSubscription);
 	}
@@ -382,6 +398,14 @@ public abstract class BaseSubscriptionInterceptor<S extends IBaseResource> exten
 		myResourceDaos = theResourceDaos;
 	}
 
+	public void setSearchParamExtractor(ISearchParamExtractor theSearchParamExtractor) {
+		mySearchParamExtractor = theSearchParamExtractor;
+	}
+
+	public void setSearchParamRegistry(ISearchParamRegistry theSearchParamRegistry) {
+		mySearchParamRegistry = theSearchParamRegistry;
+	}
+
 	@VisibleForTesting
 	public void setTxManager(PlatformTransactionManager theTxManager) {
 		myTxManager = theTxManager;
@@ -464,6 +488,10 @@ public abstract class BaseSubscriptionInterceptor<S extends IBaseResource> exten
 			setDeliveryChannel(new ExecutorSubscribableChannel(myDeliveryExecutor));
 		}
 
+		if (myInMemorySubscriptionMatcher == null && mySearchParamExtractor != null && mySearchParamRegistry != null) {
+			myInMemorySubscriptionMatcher = new InMemorySubscriptionMatcher(myCtx, mySearchParamExtractor, mySearchParamRegistry);
+		}
+
 		if (mySubscriptionActivatingSubscriber == null) {
 			mySubscriptionActivatingSubscriber = new SubscriptionActivatingSubscriber(getSubscriptionDao(), getChannelType(), this, myTxManager, myAsyncTaskExecutor);
 		}
@@ -0,0 +1,369 @@
+package ca.uhn.fhir.jpa.subscription;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.dao.ISearchParamRegistry;
+import ca.uhn.fhir.jpa.dao.PathAndRef;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.entity.*;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseExtension;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Evaluates subscription criteria directly against a modified resource using the
+ * same index values that the {@link ISearchParamExtractor} computes when the
+ * resource is stored, so that the common cases do not require a database query.
+ * <p>
+ * Only a subset of search parameter types is supported (token, string, uri,
+ * plain references and <code>_id</code>, without modifiers). For anything else
+ * (chains, <code>_has</code>, dates, quantities, tags, etc.) {@link MatchResultEnum#UNSUPPORTED}
+ * is returned and the caller is expected to fall back to a database search.
+ * </p>
+ */
+public class InMemorySubscriptionMatcher {
+
+	private final FhirContext myContext;
+	private final ISearchParamExtractor mySearchParamExtractor;
+	private final ISearchParamRegistry mySearchParamRegistry;
+	private final AtomicLong myInMemoryMatchCount = new AtomicLong();
+	private final AtomicLong myFallbackCount = new AtomicLong();
+
+	/**
+	 * Constructor
+	 */
+	public InMemorySubscriptionMatcher(FhirContext theContext, ISearchParamExtractor theSearchParamExtractor, ISearchParamRegistry theSearchParamRegistry) {
+		myContext = theContext;
+		mySearchParamExtractor = theSearchParamExtractor;
+		mySearchParamRegistry = theSearchParamRegistry;
+	}
+
+	/**
+	 * Returns the number of subscription checks that could not be evaluated
+	 * in memory and had to fall back to a database search
+	 */
+	public long getFallbackCount() {
+		return myFallbackCount.get();
+	}
+
+	/**
+	 * Returns the number of subscription checks that were evaluated entirely
+	 * in memory
+	 */
+	public long getInMemoryMatchCount() {
+		return myInMemoryMatchCount.get();
+	}
+
+	/**
+	 * Tests whether the given resource matches the given (already parsed) criteria
+	 */
+	public MatchResultEnum match(SearchParameterMap theCriteria, IBaseResource theResource) {
+		return match(theCriteria, newResourceIndexes(theResource));
+	}
+
+	/**
+	 * Tests whether a resource matches the given (already parsed) criteria. When testing one
+	 * resource against many criteria, pass the same {@link ResourceIndexes} each time so that
+	 * the index values of the resource are only extracted once.
+	 */
+	public MatchResultEnum match(SearchParameterMap theCriteria, ResourceIndexes theResourceIndexes) {
+		MatchResultEnum retVal = doMatch(theCriteria, theResourceIndexes);
+		if (retVal == MatchResultEnum.UNSUPPORTED) {
+			myFallbackCount.incrementAndGet();
+		} else {
+			myInMemoryMatchCount.incrementAndGet();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Creates a holder for the index values of the given resource, which are extracted
+	 * lazily the first time a criteria needs them
+	 */
+	public ResourceIndexes newResourceIndexes(IBaseResource theResource) {
+		String resourceName = myContext.getResourceDefinition(theResource).getName();
+		ResourceTable entity = new ResourceTable();
+		entity.setResourceType(resourceName);
+		return new ResourceIndexes(resourceName, entity, theResource);
+	}
+
+	private MatchResultEnum doMatch(SearchParameterMap theCriteria, ResourceIndexes theResourceIndexes) {
+		if (theCriteria.getLastUpdated() != null || theCriteria.getEverythingMode() != null) {
+			return MatchResultEnum.UNSUPPORTED;
+		}
+
+		String resourceName = theResourceIndexes.myResourceName;
+
+		for (Map.Entry<String, List<List<? extends IQueryParameterType>>> nextEntry : theCriteria.entrySet()) {
+			String nextParamName = nextEntry.getKey();
+
+			RuntimeSearchParam nextParamDef = null;
+			if (!nextParamName.equals(IAnyResource.SP_RES_ID)) {
+				nextParamDef = mySearchParamRegistry.getActiveSearchParam(resourceName, nextParamName);
+				if (nextParamDef == null) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+			}
+
+			for (List<? extends IQueryParameterType> nextAnd : nextEntry.getValue()) {
+				boolean anyOrMatches = false;
+				for (IQueryParameterType nextOr : nextAnd) {
+					if (nextOr.getMissing() != null) {
+						return MatchResultEnum.UNSUPPORTED;
+					}
+
+					MatchResultEnum nextResult;
+					if (nextParamDef == null) {
+						nextResult = matchResourceId(nextOr, theResourceIndexes.myResource);
+					} else {
+						nextResult = matchParam(nextParamDef, nextOr, theResourceIndexes);
+					}
+
+					if (nextResult == MatchResultEnum.UNSUPPORTED) {
+						return MatchResultEnum.UNSUPPORTED;
+					}
+					if (nextResult == MatchResultEnum.MATCH) {
+						anyOrMatches = true;
+					}
+				}
+				if (!anyOrMatches) {
+					return MatchResultEnum.NO_MATCH;
+				}
+			}
+		}
+
+		return MatchResultEnum.MATCH;
+	}
+
+	private MatchResultEnum matchParam(RuntimeSearchParam theParamDef, IQueryParameterType theParam, ResourceIndexes theExtracted) {
+		String paramName = theParamDef.getName();
+		switch (theParamDef.getParamType()) {
+			case TOKEN: {
+				if (!(theParam instanceof TokenParam)) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+				TokenParam param = (TokenParam) theParam;
+				if (param.getModifier() != null || param.isText()) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+				for (BaseResourceIndexedSearchParam next : theExtracted.getTokens()) {
+					if (next instanceof ResourceIndexedSearchParamToken && paramName.equals(next.getParamName())) {
+						if (tokenMatches(param, (ResourceIndexedSearchParamToken) next)) {
+							return MatchResultEnum.MATCH;
+						}
+					}
+				}
+				return MatchResultEnum.NO_MATCH;
+			}
+			case STRING: {
+				if (!(theParam instanceof StringParam)) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+				StringParam param = (StringParam) theParam;
+				if (param.isContains() || param.getValue() == null) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+				String normalized = BaseHapiFhirDao.normalizeString(param.getValue());
+				for (ResourceIndexedSearchParamString next : theExtracted.getStrings()) {
+					if (!paramName.equals(next.getParamName())) {
+						continue;
+					}
+					if (param.isExact()) {
+						if (param.getValue().equals(next.getValueExact())) {
+							return MatchResultEnum.MATCH;
+						}
+					} else if (next.getValueNormalized() != null && next.getValueNormalized().startsWith(normalized)) {
+						return MatchResultEnum.MATCH;
+					}
+				}
+				return MatchResultEnum.NO_MATCH;
+			}
+			case URI: {
+				if (!(theParam instanceof UriParam)) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+				UriParam param = (UriParam) theParam;
+				if (param.getQualifier() != null) {
+					return MatchResultEnum.UNSUPPORTED;
+				}
+				for (ResourceIndexedSearchParamUri next : theExtracted.getUris()) {
+					if (paramName.equals(next.getParamName()) && param.getValue() != null && param.getValue().equals(next.getUri())) {
+						return MatchResultEnum.MATCH;
+					}
+				}
+				return MatchResultEnum.NO_MATCH;
+			}
+			case REFERENCE:
+				return matchReference(theParamDef, theParam, theExtracted);
+			default:
+				return MatchResultEnum.UNSUPPORTED;
+		}
+	}
+
+	private MatchResultEnum matchReference(RuntimeSearchParam theParamDef, IQueryParameterType theParam, ResourceIndexes theExtracted) {
+		if (!(theParam instanceof ReferenceParam)) {
+			return MatchResultEnum.UNSUPPORTED;
+		}
+		ReferenceParam param = (ReferenceParam) theParam;
+		if (isNotBlank(param.getChain()) || isNotBlank(param.getBaseUrl()) || isBlank(param.getIdPart())) {
+			return MatchResultEnum.UNSUPPORTED;
+		}
+
+		for (PathAndRef next : theExtracted.getReferences(theParamDef)) {
+			Object nextObject = next.getRef();
+			if (nextObject instanceof IBaseExtension<?, ?>) {
+				nextObject = ((IBaseExtension<?, ?>) nextObject).getValue();
+			}
+			if (!(nextObject instanceof IBaseReference)) {
+				return MatchResultEnum.UNSUPPORTED;
+			}
+			IIdType nextId = ((IBaseReference) nextObject).getReferenceElement();
+			if (nextId == null || nextId.isEmpty()) {
+				continue;
+			}
+			if (nextId.isLocal() || nextId.isAbsolute() || !nextId.hasResourceType()) {
+				return MatchResultEnum.UNSUPPORTED;
+			}
+			if (param.getIdPart().equals(nextId.getIdPart())) {
+				if (isBlank(param.getResourceType()) || param.getResourceType().equals(nextId.getResourceType())) {
+					return MatchResultEnum.MATCH;
+				}
+			}
+		}
+		return MatchResultEnum.NO_MATCH;
+	}
+
+	private MatchResultEnum matchResourceId(IQueryParameterType theParam, IBaseResource theResource) {
+		if (!(theParam instanceof StringParam)) {
+			return MatchResultEnum.UNSUPPORTED;
+		}
+		String value = ((StringParam) theParam).getValue();
+		if (isBlank(value)) {
+			return MatchResultEnum.UNSUPPORTED;
+		}
+		String idPart = new IdDt(value).getIdPart();
+		if (idPart != null && idPart.equals(theResource.getIdElement().getIdPart())) {
+			return MatchResultEnum.MATCH;
+		}
+		return MatchResultEnum.NO_MATCH;
+	}
+
+	private static boolean tokenMatches(TokenParam theParam, ResourceIndexedSearchParamToken theToken) {
+		String system = theParam.getSystem();
+		String code = theParam.getValue();
+
+		if (isNotBlank(system)) {
+			if (!system.equals(theToken.getSystem())) {
+				return false;
+			}
+		} else if (system != null) {
+			// If the system is "", we only match on null systems
+			if (theToken.getSystem() != null) {
+				return false;
+			}
+		}
+
+		if (isNotBlank(code)) {
+			return code.equals(theToken.getValue());
+		}
+		return true;
+	}
+
+	public enum MatchResultEnum {
+		MATCH,
+		NO_MATCH,
+		/**
+		 * The criteria can not be evaluated in memory, a database search is required
+		 */
+		UNSUPPORTED
+	}
+
+	/**
+	 * The index values of a single resource, each kind of which is extracted at most once
+	 * no matter how many criteria the resource is tested against. Instances are not thread safe.
+	 *
+	 * @see #newResourceIndexes(IBaseResource)
+	 */
+	public class ResourceIndexes {
+		private final ResourceTable myEntity;
+		private final IBaseResource myResource;
+		private final String myResourceName;
+		private final Map<String, List<PathAndRef>> myReferences = new HashMap<>();
+		private Set<BaseResourceIndexedSearchParam> myTokens;
+		private Set<ResourceIndexedSearchParamString> myStrings;
+		private Set<ResourceIndexedSearchParamUri> myUris;
+
+		private ResourceIndexes(String theResourceName, ResourceTable theEntity, IBaseResource theResource) {
+			myResourceName = theResourceName;
+			myEntity = theEntity;
+			myResource = theResource;
+		}
+
+		List<PathAndRef> getReferences(RuntimeSearchParam theParamDef) {
+			List<PathAndRef> retVal = myReferences.get(theParamDef.getName());
+			if (retVal == null) {
+				retVal = mySearchParamExtractor.extractResourceLinks(myResource, theParamDef);
+				myReferences.put(theParamDef.getName(), retVal);
+			}
+			return retVal;
+		}
+
+		Set<ResourceIndexedSearchParamString> getStrings() {
+			if (myStrings == null) {
+				myStrings = mySearchParamExtractor.extractSearchParamStrings(myEntity, myResource);
+			}
+			return myStrings;
+		}
+
+		Set<BaseResourceIndexedSearchParam> getTokens() {
+			if (myTokens == null) {
+				myTokens = mySearchParamExtractor.extractSearchParamTokens(myEntity, myResource);
+			}
+			return myTokens;
+		}
+
+		Set<ResourceIndexedSearchParamUri> getUris() {
+			if (myUris == null) {
+				myUris = mySearchParamExtractor.extractSearchParamUri(myEntity, myResource);
+			}
+			return myUris;
+		}
+	}
+
+}
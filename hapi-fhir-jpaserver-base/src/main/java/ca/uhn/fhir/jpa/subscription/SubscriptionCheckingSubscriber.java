@@ -27,6 +27,8 @@ import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.jpa.provider.ServletSubRequestDetails;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
@@ -37,10 +39,21 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class SubscriptionCheckingSubscriber extends BaseSubscriptionSubscriber {
 	private Logger ourLog = LoggerFactory.getLogger(SubscriptionCheckingSubscriber.class);
 
+	/**
+	 * Parsed criteria are only kept briefly, since the meaning of a criteria
+	 * string changes if a custom search parameter is added or modified
+	 */
+	private final Cache<String, SearchParameterMap> myParsedCriteria = CacheBuilder
+		.newBuilder()
+		.maximumSize(10000)
+		.expireAfterWrite(1, TimeUnit.MINUTES)
+		.build();
+
 	public SubscriptionCheckingSubscriber(IFhirResourceDao theSubscriptionDao, Subscription.SubscriptionChannelType theChannelType, BaseSubscriptionInterceptor theSubscriptionInterceptor) {
 		super(theSubscriptionDao, theChannelType, theSubscriptionInterceptor);
 	}
@@ -71,6 +84,17 @@ public class SubscriptionCheckingSubscriber extends BaseSubscriptionSubscriber {
 
 		List<CanonicalSubscription> subscriptions = getSubscriptionInterceptor().getSubscriptions();
 
+		/*
+		 * The payload is parsed, and its index values are extracted, at most once
+		 * no matter how many subscriptions it is tested against
+		 */
+		IBaseResource payload = msg.getNewPayload(getContext());
+		InMemorySubscriptionMatcher.ResourceIndexes payloadIndexes = null;
+		InMemorySubscriptionMatcher matcher = getSubscriptionInterceptor().getInMemorySubscriptionMatcher();
+		if (matcher != null && payload != null) {
+			payloadIndexes = matcher.newResourceIndexes(payload);
+		}
+
 		ourLog.trace("Testing {} subscriptions for applicability");
 
 		for (CanonicalSubscription nextSubscription : subscriptions) {
@@ -95,23 +119,31 @@ public class SubscriptionCheckingSubscriber extends BaseSubscriptionSubscriber {
 				continue;
 			}
 
-			// run the subscriptions query and look for matches, add the id as part of the criteria to avoid getting matches of previous resources rather than the recent resource
-			String criteria = nextCriteriaString;
-			criteria += "&_id=" + resourceType + "/" + resourceId;
-			criteria = massageCriteria(criteria);
+			InMemorySubscriptionMatcher.MatchResultEnum inMemoryResult = matchInMemory(massageCriteria(nextCriteriaString), payloadIndexes);
+			if (inMemoryResult == InMemorySubscriptionMatcher.MatchResultEnum.NO_MATCH) {
+				ourLog.trace("Subscription {} does not match resource {} (evaluated in memory)", nextSubscriptionId, id.toUnqualifiedVersionless().getValue());
+				continue;
+			}
 
-			IBundleProvider results = performSearch(criteria);
+			if (inMemoryResult == InMemorySubscriptionMatcher.MatchResultEnum.UNSUPPORTED) {
+				// run the subscriptions query and look for matches, add the id as part of the criteria to avoid getting matches of previous resources rather than the recent resource
+				String criteria = nextCriteriaString;
+				criteria += "&_id=" + resourceType + "/" + resourceId;
+				criteria = massageCriteria(criteria);
 
-			ourLog.debug("Subscription check found {} results for query: {}", results.size(), criteria);
+				IBundleProvider results = performSearch(criteria);
 
-			if (results.size() == 0) {
-				continue;
+				ourLog.debug("Subscription check found {} results for query: {}", results.size(), criteria);
+
+				if (results.size() == 0) {
+					continue;
+				}
 			}
 
 			ourLog.debug("Found match: queueing rest-hook notification for resource: {}", id.toUnqualifiedVersionless().getValue());
 
 			ResourceDeliveryMessage deliveryMsg = new ResourceDeliveryMessage();
-			deliveryMsg.setPayload(getContext(), msg.getNewPayload(getContext()));
+			deliveryMsg.setPayload(getContext(), payload);
 			deliveryMsg.setSubscription(nextSubscription);
 			deliveryMsg.setOperationType(msg.getOperationType());
 			deliveryMsg.setPayloadId(msg.getId(getContext()));
@@ -130,6 +162,28 @@ public class SubscriptionCheckingSubscriber extends BaseSubscriptionSubscriber {
 		return theCriteria;
 	}
 
+	/**
+	 * Attempt to evaluate the criteria against the resource without touching
+	 * the database. Returns {@link InMemorySubscriptionMatcher.MatchResultEnum#UNSUPPORTED}
+	 * if the caller needs to fall back to {@link #performSearch(String)}.
+	 *
+	 * @param theResourceIndexes The index values of the resource, or <code>null</code> if in-memory matching is not available
+	 */
+	protected InMemorySubscriptionMatcher.MatchResultEnum matchInMemory(String theCriteria, InMemorySubscriptionMatcher.ResourceIndexes theResourceIndexes) {
+		InMemorySubscriptionMatcher matcher = getSubscriptionInterceptor().getInMemorySubscriptionMatcher();
+		if (matcher == null || theResourceIndexes == null) {
+			return InMemorySubscriptionMatcher.MatchResultEnum.UNSUPPORTED;
+		}
+
+		SearchParameterMap criteria = myParsedCriteria.getIfPresent(theCriteria);
+		if (criteria == null) {
+			RuntimeResourceDefinition resourceDef = getSubscriptionDao().validateCriteriaAndReturnResourceDefinition(theCriteria);
+			criteria = BaseHapiFhirDao.translateMatchUrl(getSubscriptionDao(), getSubscriptionDao().getContext(), theCriteria, resourceDef);
+			myParsedCriteria.put(theCriteria, criteria);
+		}
+		return matcher.match(criteria, theResourceIndexes);
+	}
+
 	/**
 	 * Search based on a query criteria
 	 */
@@ -0,0 +1,38 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Receives rest-hook deliveries which could not be completed, so that they can be
+ * inspected and resubmitted instead of being lost.
+ *
+ * @see SubscriptionRestHookInterceptor#setDeadLetterStore(IRestHookDeadLetterStore)
+ * @see InMemoryRestHookDeadLetterStore
+ */
+public interface IRestHookDeadLetterStore {
+
+	/**
+	 * Stores a failed delivery. This method may be called from any delivery
+	 * thread and must not throw an exception.
+	 */
+	void store(RestHookDeadLetter theDeadLetter);
+
+}
@@ -0,0 +1,57 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+
+import java.util.Map;
+
+/**
+ * Records rest-hook deliveries from the time they are queued until they either complete or
+ * are passed to the {@link IRestHookDeadLetterStore}, so that deliveries which were still
+ * queued or waiting to be retried when the server stopped can be resubmitted when it starts
+ * again. Deliveries are resubmitted at least once, so an endpoint may receive a payload twice
+ * if the server stops while it is being delivered.
+ *
+ * @see SubscriptionRestHookInterceptor#setPendingDeliveryStore(IRestHookPendingDeliveryStore)
+ * @see JpaRestHookDeliveryStore
+ */
+public interface IRestHookPendingDeliveryStore {
+
+	/**
+	 * Returns every delivery which has been stored and not removed, oldest first, keyed by
+	 * the ID returned by {@link #storePending(String, String, ResourceDeliveryMessage)}
+	 */
+	Map<Long, ResourceDeliveryMessage> loadPending();
+
+	/**
+	 * Removes a delivery which has completed or has been passed to the dead-letter store
+	 */
+	void removePending(Long theId);
+
+	/**
+	 * Stores a delivery which has just been queued
+	 *
+	 * @return The ID of the stored delivery
+	 */
+	Long storePending(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage);
+
+}
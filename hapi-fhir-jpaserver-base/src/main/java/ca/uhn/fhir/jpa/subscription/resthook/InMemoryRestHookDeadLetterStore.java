@@ -0,0 +1,74 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Dead-letter store which keeps the most recent failed deliveries in memory. Once the
+ * configured capacity is reached the oldest entry is discarded for each new one.
+ */
+public class InMemoryRestHookDeadLetterStore implements IRestHookDeadLetterStore {
+
+	public static final int DEFAULT_CAPACITY = 1000;
+	private final int myCapacity;
+	private final LinkedList<RestHookDeadLetter> myDeadLetters = new LinkedList<>();
+
+	/**
+	 * Constructor which uses a capacity of {@link #DEFAULT_CAPACITY}
+	 */
+	public InMemoryRestHookDeadLetterStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public InMemoryRestHookDeadLetterStore(int theCapacity) {
+		Validate.isTrue(theCapacity > 0, "Capacity must be greater than 0");
+		myCapacity = theCapacity;
+	}
+
+	public synchronized void clear() {
+		myDeadLetters.clear();
+	}
+
+	/**
+	 * Returns a copy of the stored dead letters, oldest first
+	 */
+	public synchronized List<RestHookDeadLetter> getDeadLetters() {
+		return new ArrayList<>(myDeadLetters);
+	}
+
+	public synchronized int size() {
+		return myDeadLetters.size();
+	}
+
+	@Override
+	public synchronized void store(RestHookDeadLetter theDeadLetter) {
+		while (myDeadLetters.size() >= myCapacity) {
+			myDeadLetters.removeFirst();
+		}
+		myDeadLetters.add(theDeadLetter);
+	}
+
+}
@@ -0,0 +1,166 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.dao.data.IRestHookDeliveryDao;
+import ca.uhn.fhir.jpa.entity.RestHookDelivery;
+import ca.uhn.fhir.jpa.entity.RestHookDeliveryStatusEnum;
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+import com.google.gson.Gson;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+import static org.apache.commons.lang3.StringUtils.left;
+
+/**
+ * Stores pending and dead-lettered rest-hook deliveries in the database, so that neither
+ * are lost when the server is restarted. Dead letters are kept until they are removed with
+ * {@link #deleteDeadLettersCreatedBefore(Date)}.
+ */
+public class JpaRestHookDeliveryStore implements IRestHookDeadLetterStore, IRestHookPendingDeliveryStore {
+
+	private static final int LOAD_PAGE_SIZE = 1000;
+	@Autowired
+	private IRestHookDeliveryDao myDeliveryDao;
+	@Autowired
+	private PlatformTransactionManager myTxManager;
+
+	/**
+	 * Deletes every dead letter which was stored before the given time
+	 *
+	 * @return The number of dead letters deleted
+	 */
+	public int deleteDeadLettersCreatedBefore(final Date theCutoff) {
+		Validate.notNull(theCutoff, "Cutoff must not be null");
+		return newTxTemplate().execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus theStatus) {
+				return myDeliveryDao.deleteByStatusCreatedBefore(RestHookDeliveryStatusEnum.DEAD_LETTER, theCutoff);
+			}
+		});
+	}
+
+	public long getDeadLetterCount() {
+		return newTxTemplate().execute(new TransactionCallback<Long>() {
+			@Override
+			public Long doInTransaction(TransactionStatus theStatus) {
+				return myDeliveryDao.countByStatus(RestHookDeliveryStatusEnum.DEAD_LETTER);
+			}
+		});
+	}
+
+	/**
+	 * Returns up to the given number of dead letters, oldest first
+	 */
+	public List<RestHookDeadLetter> getDeadLetters(final int theMaxCount) {
+		Validate.isTrue(theMaxCount > 0, "Max count must be greater than 0");
+		return newTxTemplate().execute(new TransactionCallback<List<RestHookDeadLetter>>() {
+			@Override
+			public List<RestHookDeadLetter> doInTransaction(TransactionStatus theStatus) {
+				List<RestHookDeadLetter> retVal = new ArrayList<>();
+				for (RestHookDelivery next : myDeliveryDao.findByStatus(RestHookDeliveryStatusEnum.DEAD_LETTER, new PageRequest(0, theMaxCount))) {
+					ResourceDeliveryMessage message = new Gson().fromJson(next.getMessage(), ResourceDeliveryMessage.class);
+					retVal.add(new RestHookDeadLetter(next.getSubscriptionId(), next.getEndpointUrl(), message, next.getAttempts(), next.getReason(), next.getCreated()));
+				}
+				return retVal;
+			}
+		});
+	}
+
+	@Override
+	public Map<Long, ResourceDeliveryMessage> loadPending() {
+		final Map<Long, ResourceDeliveryMessage> retVal = new LinkedHashMap<>();
+		final TransactionTemplate txTemplate = newTxTemplate();
+		for (int page = 0; ; page++) {
+			final int pageIndex = page;
+			boolean hasNext = txTemplate.execute(new TransactionCallback<Boolean>() {
+				@Override
+				public Boolean doInTransaction(TransactionStatus theStatus) {
+					Slice<RestHookDelivery> deliveries = myDeliveryDao.findByStatus(RestHookDeliveryStatusEnum.PENDING, new PageRequest(pageIndex, LOAD_PAGE_SIZE));
+					for (RestHookDelivery next : deliveries) {
+						retVal.put(next.getId(), new Gson().fromJson(next.getMessage(), ResourceDeliveryMessage.class));
+					}
+					return deliveries.hasNext();
+				}
+			});
+			if (!hasNext) {
+				return retVal;
+			}
+		}
+	}
+
+	private TransactionTemplate newTxTemplate() {
+		TransactionTemplate retVal = new TransactionTemplate(myTxManager);
+		retVal.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+		return retVal;
+	}
+
+	@Override
+	public void removePending(final Long theId) {
+		newTxTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				RestHookDelivery delivery = myDeliveryDao.findOne(theId);
+				if (delivery != null && delivery.getStatus() == RestHookDeliveryStatusEnum.PENDING) {
+					myDeliveryDao.delete(delivery);
+				}
+			}
+		});
+	}
+
+	private Long save(RestHookDeliveryStatusEnum theStatus, String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, int theAttempts, String theReason, Date theCreated) {
+		final RestHookDelivery delivery = new RestHookDelivery();
+		delivery.setStatus(theStatus);
+		delivery.setSubscriptionId(left(theSubscriptionId, RestHookDelivery.MAX_SUBSCRIPTION_ID_LENGTH));
+		delivery.setEndpointUrl(left(theEndpointUrl, RestHookDelivery.MAX_ENDPOINT_URL_LENGTH));
+		delivery.setMessage(new Gson().toJson(theMessage));
+		delivery.setAttempts(theAttempts);
+		delivery.setReason(left(theReason, RestHookDelivery.MAX_REASON_LENGTH));
+		delivery.setCreated(theCreated);
+
+		return newTxTemplate().execute(new TransactionCallback<Long>() {
+			@Override
+			public Long doInTransaction(TransactionStatus theStatus) {
+				return myDeliveryDao.save(delivery).getId();
+			}
+		});
+	}
+
+	@Override
+	public void store(RestHookDeadLetter theDeadLetter) {
+		save(RestHookDeliveryStatusEnum.DEAD_LETTER, theDeadLetter.getSubscriptionId(), theDeadLetter.getEndpointUrl(), theDeadLetter.getMessage(), theDeadLetter.getAttempts(), theDeadLetter.getReason(), theDeadLetter.getTimestamp());
+	}
+
+	@Override
+	public Long storePending(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage) {
+		return save(RestHookDeliveryStatusEnum.PENDING, theSubscriptionId, theEndpointUrl, theMessage, 0, null, new Date());
+	}
+
+}
@@ -0,0 +1,89 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+
+import java.util.Date;
+
+/**
+ * A rest-hook delivery which could not be completed, either because the endpoint
+ * rejected it, because every retry failed, or because the endpoint queue was full.
+ *
+ * @see IRestHookDeadLetterStore
+ */
+public class RestHookDeadLetter {
+
+	private final int myAttempts;
+	private final String myEndpointUrl;
+	private final ResourceDeliveryMessage myMessage;
+	private final String myReason;
+	private final String mySubscriptionId;
+	private final Date myTimestamp;
+
+	public RestHookDeadLetter(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, int theAttempts, String theReason) {
+		this(theSubscriptionId, theEndpointUrl, theMessage, theAttempts, theReason, new Date());
+	}
+
+	public RestHookDeadLetter(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, int theAttempts, String theReason, Date theTimestamp) {
+		mySubscriptionId = theSubscriptionId;
+		myEndpointUrl = theEndpointUrl;
+		myMessage = theMessage;
+		myAttempts = theAttempts;
+		myReason = theReason;
+		myTimestamp = theTimestamp;
+	}
+
+	/**
+	 * Returns the number of delivery attempts which were made (may be 0 if the
+	 * delivery was never attempted)
+	 */
+	public int getAttempts() {
+		return myAttempts;
+	}
+
+	public String getEndpointUrl() {
+		return myEndpointUrl;
+	}
+
+	/**
+	 * Returns the original delivery message, which may be resubmitted to the delivery channel
+	 */
+	public ResourceDeliveryMessage getMessage() {
+		return myMessage;
+	}
+
+	public String getReason() {
+		return myReason;
+	}
+
+	public String getSubscriptionId() {
+		return mySubscriptionId;
+	}
+
+	/**
+	 * Returns the time at which the delivery was abandoned
+	 */
+	public Date getTimestamp() {
+		return myTimestamp;
+	}
+
+}
@@ -0,0 +1,422 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers rest-hook payloads through one bounded queue per endpoint URL. Each endpoint
+ * is served by at most a configurable number of concurrent deliveries, so a slow or
+ * unavailable endpoint can only occupy that many threads of the shared pool.
+ * <p>
+ * Deliveries which fail with a connection error, a 408, a 429 or a 5xx status are retried
+ * with exponential backoff. While a delivery is waiting to be retried it does not occupy a
+ * thread. Deliveries which fail with any other error, exhaust their attempts, arrive at a full
+ * queue, or are still pending at shutdown are passed to the {@link IRestHookDeadLetterStore}.
+ * </p>
+ * <p>
+ * If an {@link IRestHookPendingDeliveryStore} is supplied, each delivery is recorded there from the
+ * time it is queued until it completes or is passed to the dead-letter store. Deliveries which
+ * are still pending at shutdown are then left in that store instead of being dead-lettered, so
+ * that they can be resubmitted with {@link #resume(Long, String, String, ResourceDeliveryMessage, Callable)}
+ * when the server starts again.
+ * </p>
+ * <p>
+ * With a concurrency of 1, deliveries to an endpoint are made in the order they were
+ * queued, except that a retried delivery goes to the back of the queue.
+ * </p>
+ */
+public class RestHookDeliveryEngine {
+
+	static final long MAXIMUM_RETRY_DELAY_MILLIS = 5 * DateUtils.MILLIS_PER_MINUTE;
+	/**
+	 * A worker gives up its thread after this many deliveries so that other
+	 * endpoints waiting for the pool get a turn
+	 */
+	private static final int MAXIMUM_DELIVERIES_PER_TURN = 50;
+	private static final Logger ourLog = LoggerFactory.getLogger(RestHookDeliveryEngine.class);
+
+	private final IRestHookDeadLetterStore myDeadLetterStore;
+	private final int myEndpointQueueCapacity;
+	private final ConcurrentHashMap<String, EndpointQueue> myEndpointQueues = new ConcurrentHashMap<>();
+	private final ScheduledThreadPoolExecutor myExecutor;
+	private final int myMaxConcurrentDeliveriesPerEndpoint;
+	private final int myMaxDeliveryAttempts;
+	private final ConcurrentHashMap<String, RestHookDeliveryMetrics> mySubscriptionIdToMetrics = new ConcurrentHashMap<>();
+	private final IRestHookPendingDeliveryStore myPendingDeliveryStore;
+	private final Set<PendingDelivery> myPendingRetries = Collections.newSetFromMap(new ConcurrentHashMap<PendingDelivery, Boolean>());
+	private final long myRetryInitialDelayMillis;
+	private final AtomicInteger myActiveCount = new AtomicInteger();
+	private volatile boolean myStopped;
+
+	/**
+	 * Constructor for an engine which does not persist pending deliveries
+	 *
+	 * @see #RestHookDeliveryEngine(int, int, int, int, long, IRestHookDeadLetterStore, IRestHookPendingDeliveryStore)
+	 */
+	public RestHookDeliveryEngine(int theThreadCount, int theMaxConcurrentDeliveriesPerEndpoint, int theEndpointQueueCapacity, int theMaxDeliveryAttempts, long theRetryInitialDelayMillis,
+											IRestHookDeadLetterStore theDeadLetterStore) {
+		this(theThreadCount, theMaxConcurrentDeliveriesPerEndpoint, theEndpointQueueCapacity, theMaxDeliveryAttempts, theRetryInitialDelayMillis, theDeadLetterStore, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param theThreadCount                        The number of threads shared by all endpoints
+	 * @param theMaxConcurrentDeliveriesPerEndpoint The maximum number of deliveries to a single endpoint which may be in progress at once
+	 * @param theEndpointQueueCapacity              The maximum number of deliveries which may be waiting for a single endpoint
+	 * @param theMaxDeliveryAttempts                The maximum number of attempts for each delivery (1 means never retry)
+	 * @param theRetryInitialDelayMillis            The delay before the first retry, which doubles for each subsequent retry
+	 * @param theDeadLetterStore                    The store which receives deliveries that could not be completed
+	 * @param thePendingDeliveryStore               The store which records deliveries until they complete, or <code>null</code> if pending deliveries should not be persisted
+	 */
+	public RestHookDeliveryEngine(int theThreadCount, int theMaxConcurrentDeliveriesPerEndpoint, int theEndpointQueueCapacity, int theMaxDeliveryAttempts, long theRetryInitialDelayMillis,
+											IRestHookDeadLetterStore theDeadLetterStore, IRestHookPendingDeliveryStore thePendingDeliveryStore) {
+		Validate.isTrue(theThreadCount > 0, "Thread count must be greater than 0");
+		Validate.isTrue(theMaxConcurrentDeliveriesPerEndpoint > 0, "Concurrent deliveries per endpoint must be greater than 0");
+		Validate.isTrue(theEndpointQueueCapacity > 0, "Endpoint queue capacity must be greater than 0");
+		Validate.isTrue(theMaxDeliveryAttempts > 0, "Delivery attempts must be greater than 0");
+		Validate.isTrue(theRetryInitialDelayMillis >= 0, "Retry delay must not be negative");
+		Validate.notNull(theDeadLetterStore, "Dead-letter store must not be null");
+
+		myMaxConcurrentDeliveriesPerEndpoint = theMaxConcurrentDeliveriesPerEndpoint;
+		myEndpointQueueCapacity = theEndpointQueueCapacity;
+		myMaxDeliveryAttempts = theMaxDeliveryAttempts;
+		myRetryInitialDelayMillis = theRetryInitialDelayMillis;
+		myDeadLetterStore = theDeadLetterStore;
+		myPendingDeliveryStore = thePendingDeliveryStore;
+
+		BasicThreadFactory threadFactory = new BasicThreadFactory.Builder()
+			.namingPattern("subscription-resthook-%d")
+			.daemon(false)
+			.priority(Thread.NORM_PRIORITY)
+			.build();
+		myExecutor = new ScheduledThreadPoolExecutor(theThreadCount, threadFactory);
+		myExecutor.setRemoveOnCancelPolicy(true);
+		myExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	private void attempt(final PendingDelivery theDelivery) {
+		RestHookDeliveryMetrics metrics = getOrCreateMetrics(theDelivery.mySubscriptionId);
+		theDelivery.myAttempts++;
+		try {
+			theDelivery.myDelivery.call();
+			metrics.recordDelivered(System.currentTimeMillis() - theDelivery.myQueuedTime);
+			removePending(theDelivery);
+		} catch (Exception e) {
+			if (isRetryable(e) && theDelivery.myAttempts < myMaxDeliveryAttempts && myStopped) {
+				abandon(theDelivery);
+			} else if (isRetryable(e) && theDelivery.myAttempts < myMaxDeliveryAttempts) {
+				long delay = getRetryDelayMillis(theDelivery.myAttempts);
+				ourLog.warn("Delivery of rest-hook payload for {} to {} failed on attempt {}, retrying in {}ms: {}", theDelivery.mySubscriptionId, theDelivery.myEndpointUrl, theDelivery.myAttempts, delay, e.toString());
+				metrics.recordRetry();
+				myPendingRetries.add(theDelivery);
+				myExecutor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (myPendingRetries.remove(theDelivery)) {
+							offer(theDelivery);
+						}
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} else {
+				ourLog.error("Delivery of rest-hook payload for " + theDelivery.mySubscriptionId + " to " + theDelivery.myEndpointUrl + " failed after " + theDelivery.myAttempts + " attempt(s)", e);
+				deadLetter(theDelivery, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Handles a delivery which is still pending when the engine stops. If it has been persisted
+	 * it is left in the pending delivery store so that it can be resumed later, otherwise it is
+	 * passed to the dead-letter store.
+	 *
+	 * @return Returns <code>true</code> if the delivery was left in the pending delivery store
+	 */
+	private boolean abandon(PendingDelivery theDelivery) {
+		if (theDelivery.myPendingId != null) {
+			return true;
+		}
+		deadLetter(theDelivery, "Delivery engine was shut down before the payload could be delivered");
+		return false;
+	}
+
+	private void deadLetter(PendingDelivery theDelivery, String theReason) {
+		getOrCreateMetrics(theDelivery.mySubscriptionId).recordDeadLetter();
+		try {
+			myDeadLetterStore.store(new RestHookDeadLetter(theDelivery.mySubscriptionId, theDelivery.myEndpointUrl, theDelivery.myMessage, theDelivery.myAttempts, theReason));
+		} catch (Exception e) {
+			ourLog.error("Failed to store dead letter for subscription " + theDelivery.mySubscriptionId, e);
+		}
+		removePending(theDelivery);
+	}
+
+	/**
+	 * Passes a delivery which was never queued (e.g. because the subscription has no
+	 * endpoint) straight to the dead-letter store
+	 */
+	public void deadLetter(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, String theReason) {
+		getOrCreateMetrics(theSubscriptionId).recordQueued();
+		deadLetter(new PendingDelivery(theSubscriptionId, theEndpointUrl, theMessage, null), theReason);
+	}
+
+	/**
+	 * Queues a delivery. This method never blocks: if the queue for the endpoint
+	 * is full the delivery is passed to the dead-letter store instead.
+	 *
+	 * @param theSubscriptionId The subscription ID, used to group the metrics
+	 * @param theEndpointUrl    The endpoint URL, which determines the queue the delivery is placed in
+	 * @param theMessage        The message being delivered (stored with any dead letter)
+	 * @param theDelivery       Performs a single delivery attempt, throwing an exception if it fails
+	 */
+	public void enqueue(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, Callable<?> theDelivery) {
+		Validate.notNull(theDelivery, "Delivery must not be null");
+		getOrCreateMetrics(theSubscriptionId).recordQueued();
+		PendingDelivery delivery = new PendingDelivery(theSubscriptionId, theEndpointUrl, theMessage, theDelivery);
+		if (myPendingDeliveryStore != null && !myStopped) {
+			try {
+				delivery.myPendingId = myPendingDeliveryStore.storePending(theSubscriptionId, theEndpointUrl, theMessage);
+			} catch (Exception e) {
+				ourLog.error("Failed to store pending delivery for subscription " + theSubscriptionId + ", it will not survive a restart", e);
+			}
+		}
+		offer(delivery);
+	}
+
+	/**
+	 * Returns the number of deliveries which are queued or in progress, not
+	 * including deliveries which are waiting to be retried
+	 */
+	public int getActiveCount() {
+		return myActiveCount.get();
+	}
+
+	/**
+	 * Returns the metrics for every subscription which has had a delivery queued, keyed by subscription ID
+	 */
+	public Map<String, RestHookDeliveryMetrics> getMetrics() {
+		return Collections.unmodifiableMap(mySubscriptionIdToMetrics);
+	}
+
+	/**
+	 * Returns the metrics for the given subscription, or <code>null</code> if no deliveries have been queued for it
+	 */
+	public RestHookDeliveryMetrics getMetrics(String theSubscriptionId) {
+		return mySubscriptionIdToMetrics.get(theSubscriptionId);
+	}
+
+	private RestHookDeliveryMetrics getOrCreateMetrics(String theSubscriptionId) {
+		RestHookDeliveryMetrics retVal = mySubscriptionIdToMetrics.get(theSubscriptionId);
+		if (retVal == null) {
+			mySubscriptionIdToMetrics.putIfAbsent(theSubscriptionId, new RestHookDeliveryMetrics());
+			retVal = mySubscriptionIdToMetrics.get(theSubscriptionId);
+		}
+		return retVal;
+	}
+
+	long getRetryDelayMillis(int theAttempts) {
+		long retVal = myRetryInitialDelayMillis;
+		for (int i = 1; i < theAttempts && retVal < MAXIMUM_RETRY_DELAY_MILLIS; i++) {
+			retVal = retVal * 2;
+		}
+		return Math.min(retVal, MAXIMUM_RETRY_DELAY_MILLIS);
+	}
+
+	private void offer(PendingDelivery theDelivery) {
+		if (myStopped) {
+			abandon(theDelivery);
+			return;
+		}
+
+		EndpointQueue queue = myEndpointQueues.get(theDelivery.myEndpointUrl);
+		if (queue == null) {
+			myEndpointQueues.putIfAbsent(theDelivery.myEndpointUrl, new EndpointQueue());
+			queue = myEndpointQueues.get(theDelivery.myEndpointUrl);
+		}
+
+		myActiveCount.incrementAndGet();
+		if (!queue.myQueue.offer(theDelivery)) {
+			myActiveCount.decrementAndGet();
+			ourLog.error("Rest-hook delivery queue for {} is full ({} entries), abandoning delivery for {}", theDelivery.myEndpointUrl, myEndpointQueueCapacity, theDelivery.mySubscriptionId);
+			deadLetter(theDelivery, "Endpoint queue is full");
+			return;
+		}
+		queue.startWorkerIfNeeded();
+	}
+
+	private void removePending(PendingDelivery theDelivery) {
+		if (theDelivery.myPendingId == null) {
+			return;
+		}
+		try {
+			myPendingDeliveryStore.removePending(theDelivery.myPendingId);
+		} catch (Exception e) {
+			ourLog.error("Failed to remove pending delivery " + theDelivery.myPendingId + " for subscription " + theDelivery.mySubscriptionId + ", it may be delivered again after a restart", e);
+		}
+	}
+
+	/**
+	 * Queues a delivery which was loaded from the {@link IRestHookPendingDeliveryStore}, without
+	 * storing it again. The delivery is removed from the pending delivery store once it completes
+	 * or is passed to the dead-letter store.
+	 *
+	 * @param thePendingId The ID of the delivery in the pending delivery store
+	 * @see #enqueue(String, String, ResourceDeliveryMessage, Callable)
+	 */
+	public void resume(Long thePendingId, String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, Callable<?> theDelivery) {
+		Validate.notNull(thePendingId, "Pending ID must not be null");
+		Validate.notNull(theDelivery, "Delivery must not be null");
+		Validate.validState(myPendingDeliveryStore != null, "No pending delivery store is configured");
+		getOrCreateMetrics(theSubscriptionId).recordQueued();
+		PendingDelivery delivery = new PendingDelivery(theSubscriptionId, theEndpointUrl, theMessage, theDelivery);
+		delivery.myPendingId = thePendingId;
+		offer(delivery);
+	}
+
+	/**
+	 * Stops accepting deliveries, waits briefly for deliveries in progress to finish, and
+	 * passes anything still queued or waiting to be retried to the dead-letter store, unless
+	 * it is recorded in the pending delivery store
+	 */
+	public void shutdown() {
+		myStopped = true;
+		myExecutor.shutdown();
+		try {
+			if (!myExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+				myExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			myExecutor.shutdownNow();
+		}
+
+		List<PendingDelivery> abandoned = new ArrayList<>(myPendingRetries);
+		myPendingRetries.clear();
+		for (EndpointQueue next : myEndpointQueues.values()) {
+			myActiveCount.addAndGet(-next.myQueue.drainTo(abandoned));
+		}
+		int kept = 0;
+		for (PendingDelivery next : abandoned) {
+			if (abandon(next)) {
+				kept++;
+			}
+		}
+		if (kept > 0) {
+			ourLog.info("Left {} undelivered rest-hook payloads in the pending delivery store during shutdown", kept);
+		}
+		if (abandoned.size() > kept) {
+			ourLog.warn("Passed {} undelivered rest-hook payloads to the dead-letter store during shutdown", abandoned.size() - kept);
+		}
+	}
+
+	static boolean isRetryable(Exception theException) {
+		if (theException instanceof FhirClientConnectionException) {
+			return true;
+		}
+		if (theException instanceof BaseServerResponseException) {
+			int status = ((BaseServerResponseException) theException).getStatusCode();
+			return status == 0 || status == 408 || status == 429 || status >= 500;
+		}
+		return false;
+	}
+
+	private class EndpointQueue {
+
+		private final AtomicInteger myActiveWorkers = new AtomicInteger();
+		private final LinkedBlockingQueue<PendingDelivery> myQueue = new LinkedBlockingQueue<>(myEndpointQueueCapacity);
+		private final Runnable myWorker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < MAXIMUM_DELIVERIES_PER_TURN && !myStopped; i++) {
+						PendingDelivery next = myQueue.poll();
+						if (next == null) {
+							break;
+						}
+						try {
+							attempt(next);
+						} finally {
+							myActiveCount.decrementAndGet();
+						}
+					}
+				} finally {
+					myActiveWorkers.decrementAndGet();
+				}
+
+				/*
+				 * Something may have been queued after we stopped polling but
+				 * before we gave up our slot, or we may have stopped to give other
+				 * endpoints a turn
+				 */
+				startWorkerIfNeeded();
+			}
+		};
+
+		private void startWorkerIfNeeded() {
+			while (!myStopped && !myQueue.isEmpty()) {
+				int active = myActiveWorkers.get();
+				if (active >= myMaxConcurrentDeliveriesPerEndpoint) {
+					return;
+				}
+				if (myActiveWorkers.compareAndSet(active, active + 1)) {
+					try {
+						myExecutor.execute(myWorker);
+					} catch (RejectedExecutionException e) {
+						myActiveWorkers.decrementAndGet();
+					}
+					return;
+				}
+			}
+		}
+
+	}
+
+	private static class PendingDelivery {
+
+		private final Callable<?> myDelivery;
+		private final String myEndpointUrl;
+		private final ResourceDeliveryMessage myMessage;
+		private final long myQueuedTime = System.currentTimeMillis();
+		private final String mySubscriptionId;
+		private int myAttempts;
+		private Long myPendingId;
+
+		private PendingDelivery(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage, Callable<?> theDelivery) {
+			mySubscriptionId = theSubscriptionId;
+			myEndpointUrl = theEndpointUrl;
+			myMessage = theMessage;
+			myDelivery = theDelivery;
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+/*-
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery statistics for a single rest-hook subscription. All latencies are measured
+ * from the time the delivery was first queued until it was accepted by the endpoint, so
+ * they include time spent waiting in the endpoint queue and between retries.
+ */
+public class RestHookDeliveryMetrics {
+
+	private final AtomicInteger myBacklog = new AtomicInteger();
+	private final AtomicLong myDeadLetterCount = new AtomicLong();
+	private final AtomicLong myDeliveredCount = new AtomicLong();
+	private final AtomicLong myLastLatencyMillis = new AtomicLong();
+	private final AtomicLong myMaxLatencyMillis = new AtomicLong();
+	private final AtomicLong myRetryCount = new AtomicLong();
+	private final AtomicLong myTotalLatencyMillis = new AtomicLong();
+
+	/**
+	 * Returns the average delivery latency in milliseconds, or 0 if nothing has been delivered yet
+	 */
+	public long getAverageLatencyMillis() {
+		long delivered = myDeliveredCount.get();
+		if (delivered == 0) {
+			return 0;
+		}
+		return myTotalLatencyMillis.get() / delivered;
+	}
+
+	/**
+	 * Returns the number of deliveries which are queued, in progress, or waiting to be retried
+	 */
+	public int getBacklog() {
+		return myBacklog.get();
+	}
+
+	/**
+	 * Returns the number of deliveries which were abandoned and sent to the dead-letter store
+	 */
+	public long getDeadLetterCount() {
+		return myDeadLetterCount.get();
+	}
+
+	/**
+	 * Returns the number of deliveries which were accepted by the endpoint
+	 */
+	public long getDeliveredCount() {
+		return myDeliveredCount.get();
+	}
+
+	/**
+	 * Returns the latency in milliseconds of the most recent successful delivery
+	 */
+	public long getLastLatencyMillis() {
+		return myLastLatencyMillis.get();
+	}
+
+	/**
+	 * Returns the highest latency in milliseconds of any successful delivery
+	 */
+	public long getMaxLatencyMillis() {
+		return myMaxLatencyMillis.get();
+	}
+
+	/**
+	 * Returns the number of failed attempts which were scheduled to be retried
+	 */
+	public long getRetryCount() {
+		return myRetryCount.get();
+	}
+
+	void recordDeadLetter() {
+		myDeadLetterCount.incrementAndGet();
+		myBacklog.decrementAndGet();
+	}
+
+	void recordDelivered(long theLatencyMillis) {
+		myDeliveredCount.incrementAndGet();
+		myTotalLatencyMillis.addAndGet(theLatencyMillis);
+		myLastLatencyMillis.set(theLatencyMillis);
+		long max;
+		do {
+			max = myMaxLatencyMillis.get();
+		} while (theLatencyMillis > max && !myMaxLatencyMillis.compareAndSet(max, theLatencyMillis));
+		myBacklog.decrementAndGet();
+	}
+
+	void recordQueued() {
+		myBacklog.incrementAndGet();
+	}
+
+	void recordRetry() {
+		myRetryCount.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return "RestHookDeliveryMetrics[delivered=" + getDeliveredCount() + ", retries=" + getRetryCount() + ", deadLetters=" + getDeadLetterCount() + ", backlog=" + getBacklog()
+			+ ", avgLatencyMs=" + getAverageLatencyMillis() + ", maxLatencyMs=" + getMaxLatencyMillis() + "]";
+	}
+}
@@ -25,27 +25,47 @@ import ca.uhn.fhir.jpa.subscription.*;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.EncodingEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.client.impl.BaseClient;
 import ca.uhn.fhir.rest.client.interceptor.SimpleRequestHeaderInterceptor;
 import ca.uhn.fhir.rest.gclient.IClientExecutable;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDeliverySubscriber {
+	private static final int MAXIMUM_CACHED_CLIENTS = 1000;
 	private Logger ourLog = LoggerFactory.getLogger(SubscriptionDeliveringRestHookSubscriber.class);
-
-	public SubscriptionDeliveringRestHookSubscriber(IFhirResourceDao<?> theSubscriptionDao, Subscription.SubscriptionChannelType theChannelType, BaseSubscriptionInterceptor theSubscriptionInterceptor) {
+	private final Cache<Pair<String, List<String>>, IGenericClient> myClients = CacheBuilder
+		.newBuilder()
+		.maximumSize(MAXIMUM_CACHED_CLIENTS)
+		.expireAfterAccess(1, TimeUnit.HOURS)
+		.build();
+	private final RestHookDeliveryEngine myDeliveryEngine;
+
+	public SubscriptionDeliveringRestHookSubscriber(IFhirResourceDao<?> theSubscriptionDao, Subscription.SubscriptionChannelType theChannelType, BaseSubscriptionInterceptor theSubscriptionInterceptor,
+																	RestHookDeliveryEngine theDeliveryEngine) {
 		super(theSubscriptionDao, theChannelType, theSubscriptionInterceptor);
+		Validate.notNull(theDeliveryEngine, "Delivery engine must not be null");
+		myDeliveryEngine = theDeliveryEngine;
 	}
 
 	protected void deliverPayload(ResourceDeliveryMessage theMsg, CanonicalSubscription theSubscription, EncodingEnum thePayloadType, IGenericClient theClient) {
@@ -74,39 +94,93 @@ public class SubscriptionDeliveringRestHookSubscriber extends BaseSubscriptionDe
 		operation.execute();
 	}
 
+	/**
+	 * Returns a client for the given endpoint which sends the given headers. Clients are
+	 * cached so that they (and their registered interceptors) are reused for every
+	 * delivery to the same endpoint with the same headers.
+	 */
+	private IGenericClient getClient(final String theEndpointUrl, final List<String> theHeaders) {
+		try {
+			return myClients.get(Pair.of(theEndpointUrl, theHeaders), new Callable<IGenericClient>() {
+				@Override
+				public IGenericClient call() {
+					IGenericClient client = getContext().newRestfulGenericClient(theEndpointUrl);
+
+					// Rest-hook endpoints are not necessarily FHIR servers, so never fetch their conformance
+					if (client instanceof BaseClient) {
+						((BaseClient) client).setDontValidateConformance(true);
+					}
+
+					// Additional headers specified in the subscription
+					for (String next : theHeaders) {
+						if (isNotBlank(next)) {
+							client.registerInterceptor(new SimpleRequestHeaderInterceptor(next));
+						}
+					}
+					return client;
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new MessagingException("Failed to create rest-hook client for " + theEndpointUrl, e.getCause());
+		}
+	}
+
 	@Override
 	public void handleMessage(ResourceDeliveryMessage theMessage) throws MessagingException {
-			CanonicalSubscription subscription = theMessage.getSubscription();
+		submit(theMessage, null);
+	}
 
-			// Grab the endpoint from the subscription
-			String endpointUrl = subscription.getEndpointUrl();
+	/**
+	 * Resubmits a delivery which was loaded from the {@link IRestHookPendingDeliveryStore}
+	 *
+	 * @param thePendingId The ID of the delivery in the pending delivery store
+	 */
+	public void resumePending(Long thePendingId, ResourceDeliveryMessage theMessage) {
+		Validate.notNull(thePendingId, "Pending ID must not be null");
+		submit(theMessage, thePendingId);
+	}
 
-			// Grab the payload type (encoding mimetype) from the subscription
-			String payloadString = subscription.getPayloadString();
-			payloadString = StringUtils.defaultString(payloadString, Constants.CT_FHIR_XML_NEW);
-			if (payloadString.contains(";")) {
-				payloadString = payloadString.substring(0, payloadString.indexOf(';'));
-			}
-			payloadString = payloadString.trim();
-			EncodingEnum payloadType = EncodingEnum.forContentType(payloadString);
-			payloadType = ObjectUtils.defaultIfNull(payloadType, EncodingEnum.XML);
-
-			// Create the client request
-			getContext().getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
-			IGenericClient client = null;
-			if (isNotBlank(endpointUrl)) {
-				client = getContext().newRestfulGenericClient(endpointUrl);
-
-				// Additional headers specified in the subscription
-				List<String> headers = subscription.getHeaders();
-				for (String next : headers) {
-					if (isNotBlank(next)) {
-						client.registerInterceptor(new SimpleRequestHeaderInterceptor(next));
-					}
-				}
-			}
+	private void submit(final ResourceDeliveryMessage theMessage, Long thePendingId) {
+		final CanonicalSubscription subscription = theMessage.getSubscription();
+		IIdType subscriptionIdElement = subscription.getIdElement(getContext());
+		String subscriptionId = subscriptionIdElement != null ? subscriptionIdElement.toUnqualifiedVersionless().getValue() : "(unknown)";
+
+		// Grab the endpoint from the subscription
+		String endpointUrl = subscription.getEndpointUrl();
+		if (isBlank(endpointUrl)) {
+			ourLog.warn("Subscription {} has no endpoint, unable to deliver payload", subscriptionId);
+			myDeliveryEngine.deadLetter(subscriptionId, endpointUrl, theMessage, "Subscription has no endpoint");
+			return;
+		}
+
+		// Grab the payload type (encoding mimetype) from the subscription
+		String payloadString = subscription.getPayloadString();
+		payloadString = StringUtils.defaultString(payloadString, Constants.CT_FHIR_XML_NEW);
+		if (payloadString.contains(";")) {
+			payloadString = payloadString.substring(0, payloadString.indexOf(';'));
+		}
+		payloadString = payloadString.trim();
+		EncodingEnum payloadType = EncodingEnum.forContentType(payloadString);
+		final EncodingEnum finalPayloadType = ObjectUtils.defaultIfNull(payloadType, EncodingEnum.XML);
+
+		List<String> headers = subscription.getHeaders();
+		if (headers == null) {
+			headers = Collections.emptyList();
+		}
+		final IGenericClient client = getClient(endpointUrl, Collections.unmodifiableList(new ArrayList<>(headers)));
 
-			deliverPayload(theMessage, subscription, payloadType, client);
+		Callable<Void> delivery = new Callable<Void>() {
+			@Override
+			public Void call() {
+				deliverPayload(theMessage, subscription, finalPayloadType, client);
+				return null;
+			}
+		};
+		if (thePendingId != null) {
+			myDeliveryEngine.resume(thePendingId, subscriptionId, endpointUrl, theMessage, delivery);
+		} else {
+			myDeliveryEngine.enqueue(subscriptionId, endpointUrl, theMessage, delivery);
+		}
 	}
 
 }
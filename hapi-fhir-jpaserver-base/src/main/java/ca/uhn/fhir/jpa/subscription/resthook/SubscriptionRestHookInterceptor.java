@@ -21,21 +21,217 @@ package ca.uhn.fhir.jpa.subscription.resthook;
  */
 
 import ca.uhn.fhir.jpa.subscription.BaseSubscriptionInterceptor;
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
 
 public class SubscriptionRestHookInterceptor extends BaseSubscriptionInterceptor {
+	private static final Logger ourLog = LoggerFactory.getLogger(SubscriptionRestHookInterceptor.class);
+	private IRestHookDeadLetterStore myDeadLetterStore = new InMemoryRestHookDeadLetterStore();
+	private RestHookDeliveryEngine myDeliveryEngine;
+	private int myDeliveryThreadCount = 10;
+	private int myEndpointQueueCapacity = 1000;
+	private int myMaxConcurrentDeliveriesPerEndpoint = 1;
+	private int myMaxDeliveryAttempts = 5;
+	private IRestHookPendingDeliveryStore myPendingDeliveryStore;
+	private long myRetryInitialDelayMillis = 1000;
 	private SubscriptionDeliveringRestHookSubscriber mySubscriptionDeliverySubscriber;
 
+	@Override
+	public org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType getChannelType() {
+		return org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType.RESTHOOK;
+	}
+
+	/**
+	 * Returns the store which receives rest-hook deliveries that could not be completed
+	 */
+	public IRestHookDeadLetterStore getDeadLetterStore() {
+		return myDeadLetterStore;
+	}
+
+	/**
+	 * Sets the store which receives rest-hook deliveries that could not be completed. Defaults
+	 * to an {@link InMemoryRestHookDeadLetterStore} which keeps the most recent 1000 failures,
+	 * although the interceptor created by the JPA server's Spring configuration uses a
+	 * {@link JpaRestHookDeliveryStore}. Must be set before the interceptor is started.
+	 */
+	public void setDeadLetterStore(IRestHookDeadLetterStore theDeadLetterStore) {
+		Validate.notNull(theDeadLetterStore, "Dead-letter store must not be null");
+		myDeadLetterStore = theDeadLetterStore;
+	}
+
+	/**
+	 * Returns the delivery metrics for every subscription which has had a payload queued
+	 * for delivery, keyed by the unqualified versionless subscription ID (e.g. <code>Subscription/123</code>)
+	 */
+	public Map<String, RestHookDeliveryMetrics> getDeliveryMetrics() {
+		if (myDeliveryEngine == null) {
+			return Collections.emptyMap();
+		}
+		return myDeliveryEngine.getMetrics();
+	}
+
+	/**
+	 * Returns the delivery metrics for the given subscription (e.g. <code>Subscription/123</code>),
+	 * or <code>null</code> if no payloads have been queued for it
+	 */
+	public RestHookDeliveryMetrics getDeliveryMetrics(String theSubscriptionId) {
+		if (myDeliveryEngine == null) {
+			return null;
+		}
+		return myDeliveryEngine.getMetrics(theSubscriptionId);
+	}
+
+	public int getDeliveryThreadCount() {
+		return myDeliveryThreadCount;
+	}
+
+	/**
+	 * Sets the number of threads shared by all rest-hook endpoints for making deliveries.
+	 * Defaults to 10. Must be set before the interceptor is started.
+	 */
+	public void setDeliveryThreadCount(int theDeliveryThreadCount) {
+		Validate.isTrue(theDeliveryThreadCount > 0, "Thread count must be greater than 0");
+		myDeliveryThreadCount = theDeliveryThreadCount;
+	}
+
+	public int getEndpointQueueCapacity() {
+		return myEndpointQueueCapacity;
+	}
+
+	/**
+	 * Sets the maximum number of deliveries which may be waiting for a single endpoint. Once
+	 * this is reached, further deliveries to the endpoint are sent to the dead-letter store.
+	 * Defaults to 1000. Must be set before the interceptor is started.
+	 */
+	public void setEndpointQueueCapacity(int theEndpointQueueCapacity) {
+		Validate.isTrue(theEndpointQueueCapacity > 0, "Endpoint queue capacity must be greater than 0");
+		myEndpointQueueCapacity = theEndpointQueueCapacity;
+	}
+
+	@Override
+	public int getExecutorQueueSizeForUnitTests() {
+		int retVal = super.getExecutorQueueSizeForUnitTests();
+		if (myDeliveryEngine != null) {
+			retVal += myDeliveryEngine.getActiveCount();
+		}
+		return retVal;
+	}
+
+	public int getMaxConcurrentDeliveriesPerEndpoint() {
+		return myMaxConcurrentDeliveriesPerEndpoint;
+	}
+
+	/**
+	 * Sets the maximum number of deliveries to a single endpoint which may be in progress at
+	 * the same time. Defaults to 1, which means that payloads are delivered to each endpoint
+	 * in order (apart from retries). Must be set before the interceptor is started.
+	 */
+	public void setMaxConcurrentDeliveriesPerEndpoint(int theMaxConcurrentDeliveriesPerEndpoint) {
+		Validate.isTrue(theMaxConcurrentDeliveriesPerEndpoint > 0, "Concurrent deliveries per endpoint must be greater than 0");
+		myMaxConcurrentDeliveriesPerEndpoint = theMaxConcurrentDeliveriesPerEndpoint;
+	}
+
+	public int getMaxDeliveryAttempts() {
+		return myMaxDeliveryAttempts;
+	}
+
+	/**
+	 * Sets the maximum number of times a delivery is attempted before it is sent to the
+	 * dead-letter store. Only connection failures and 408, 429 and 5xx responses are retried.
+	 * Defaults to 5. Must be set before the interceptor is started.
+	 */
+	public void setMaxDeliveryAttempts(int theMaxDeliveryAttempts) {
+		Validate.isTrue(theMaxDeliveryAttempts > 0, "Delivery attempts must be greater than 0");
+		myMaxDeliveryAttempts = theMaxDeliveryAttempts;
+	}
+
+	/**
+	 * Returns the store which records rest-hook deliveries until they complete, or
+	 * <code>null</code> if pending deliveries are not persisted
+	 */
+	public IRestHookPendingDeliveryStore getPendingDeliveryStore() {
+		return myPendingDeliveryStore;
+	}
+
+	/**
+	 * Sets the store which records rest-hook deliveries until they complete. When this is set,
+	 * deliveries which are still queued or waiting to be retried when the interceptor stops are
+	 * kept in the store and resubmitted when it starts again, instead of being sent to the
+	 * dead-letter store. Defaults to <code>null</code>, meaning that pending deliveries are only
+	 * held in memory, although the interceptor created by the JPA server's Spring configuration
+	 * uses a {@link JpaRestHookDeliveryStore}. Must be set before the interceptor is started.
+	 *
+	 * @see JpaRestHookDeliveryStore
+	 */
+	public void setPendingDeliveryStore(IRestHookPendingDeliveryStore thePendingDeliveryStore) {
+		myPendingDeliveryStore = thePendingDeliveryStore;
+	}
+
+	public long getRetryInitialDelayMillis() {
+		return myRetryInitialDelayMillis;
+	}
+
+	/**
+	 * Sets the delay before a failed delivery is retried for the first time. The delay doubles
+	 * for each subsequent retry, up to a maximum of 5 minutes. Defaults to 1000ms. Must be set
+	 * before the interceptor is started.
+	 */
+	public void setRetryInitialDelayMillis(long theRetryInitialDelayMillis) {
+		Validate.isTrue(theRetryInitialDelayMillis >= 0, "Retry delay must not be negative");
+		myRetryInitialDelayMillis = theRetryInitialDelayMillis;
+	}
+
+	@Override
+	public void preDestroy() {
+		super.preDestroy();
+		if (myDeliveryEngine != null) {
+			myDeliveryEngine.shutdown();
+			myDeliveryEngine = null;
+			mySubscriptionDeliverySubscriber = null;
+		}
+	}
+
 	@Override
 	protected void registerDeliverySubscriber() {
 		if (mySubscriptionDeliverySubscriber == null) {
-			mySubscriptionDeliverySubscriber = new SubscriptionDeliveringRestHookSubscriber(getSubscriptionDao(), getChannelType(), this);
+			myDeliveryEngine = new RestHookDeliveryEngine(myDeliveryThreadCount, myMaxConcurrentDeliveriesPerEndpoint, myEndpointQueueCapacity, myMaxDeliveryAttempts, myRetryInitialDelayMillis, myDeadLetterStore, myPendingDeliveryStore);
+			mySubscriptionDeliverySubscriber = new SubscriptionDeliveringRestHookSubscriber(getSubscriptionDao(), getChannelType(), this, myDeliveryEngine);
+			resumePendingDeliveries();
 		}
 		getDeliveryChannel().subscribe(mySubscriptionDeliverySubscriber);
 	}
 
-	@Override
-	public org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType getChannelType() {
-		return org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType.RESTHOOK;
+	/**
+	 * Resubmits any deliveries which were still pending when the interceptor last stopped
+	 */
+	private void resumePendingDeliveries() {
+		if (myPendingDeliveryStore == null) {
+			return;
+		}
+
+		Map<Long, ResourceDeliveryMessage> pending;
+		try {
+			pending = myPendingDeliveryStore.loadPending();
+		} catch (Exception e) {
+			ourLog.error("Failed to load pending rest-hook deliveries, they will not be resubmitted", e);
+			return;
+		}
+
+		for (Map.Entry<Long, ResourceDeliveryMessage> next : pending.entrySet()) {
+			try {
+				mySubscriptionDeliverySubscriber.resumePending(next.getKey(), next.getValue());
+			} catch (Exception e) {
+				ourLog.error("Failed to resubmit pending rest-hook delivery " + next.getKey(), e);
+			}
+		}
+		if (pending.size() > 0) {
+			ourLog.info("Resubmitted {} rest-hook deliveries which were pending when the server last stopped", pending.size());
+		}
 	}
 
 	@Override
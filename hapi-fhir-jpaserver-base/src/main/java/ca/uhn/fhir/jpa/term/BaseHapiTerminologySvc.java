@@ -1,5 +1,8 @@
 package ca.uhn.fhir.jpa.term;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
 /*
  * #%L
  * HAPI FHIR JPA Server
@@ -20,12 +23,15 @@ package ca.uhn.fhir.jpa.term;
  * #L%
  */
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import javax.persistence.*;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -47,6 +53,7 @@ import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.data.*;
 import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink.RelationshipTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.util.StopWatch;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
@@ -54,6 +61,14 @@ import ca.uhn.fhir.util.ObjectUtil;
 import ca.uhn.fhir.util.ValidateUtil;
 
 public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
+	/**
+	 * Deferred concepts are saved in batches whose size is adjusted after every
+	 * batch so that a single batch commits in roughly this amount of time
+	 */
+	static final long DEFERRED_BATCH_TARGET_MILLIS = 2500;
+	static final int DEFERRED_BATCH_SIZE_MAX = 50000;
+	private static final int DEFERRED_JDBC_BATCH_SIZE = 100;
+	private static final int DEFERRED_LINK_PID_CHECK_CHUNK_SIZE = 500;
 	private static boolean ourForceSaveDeferredAlwaysForUnitTest;
 	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(BaseHapiTerminologySvc.class);
 	private static final Object PLACEHOLDER_OBJECT = new Object();
@@ -66,15 +81,18 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 	@Autowired
 	private ITermCodeSystemVersionDao myCodeSystemVersionDao;
 
+	@Autowired
+	protected ITermConceptClosureDao myConceptClosureDao;
+
 	@Autowired
 	protected ITermConceptDao myConceptDao;
 
-	private List<TermConceptParentChildLink> myConceptLinksToSaveLater = new ArrayList<TermConceptParentChildLink>();
+	private final BlockingQueue<TermConceptParentChildLink> myConceptLinksToSaveLater = new LinkedBlockingQueue<TermConceptParentChildLink>();
 
 	@Autowired
 	private ITermConceptParentChildLinkDao myConceptParentChildLinkDao;
 
-	private List<TermConcept> myConceptsToSaveLater = new ArrayList<TermConcept>();
+	private final BlockingQueue<TermConcept> myConceptsToSaveLater = new LinkedBlockingQueue<TermConcept>();
 
 	@Autowired
 	protected FhirContext myContext;
@@ -82,6 +100,12 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 	@Autowired
 	private DaoConfig myDaoConfig;
 
+	private volatile int myDeferredBatchSize;
+	private volatile long myDeferredConceptsSaved;
+	private volatile long myDeferredLastBatchItems;
+	private volatile long myDeferredLastBatchMillis;
+	private volatile long myDeferredLinksSaved;
+
 	@PersistenceContext(type = PersistenceContextType.TRANSACTION)
 	protected EntityManager myEntityManager;
 	private long myNextReindexPass;
@@ -91,6 +115,17 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 	@Autowired
 	private PlatformTransactionManager myTransactionMgr;
 
+	/**
+	 * Fails if a subsumption query which found the given number of related concepts (in
+	 * addition to the concept itself) would exceed the maximum expansion size
+	 */
+	protected void checkExpansionSize(long theRelatedConceptCount) {
+		if (theRelatedConceptCount > 0 && theRelatedConceptCount + 1 >= myDaoConfig.getMaximumExpansionSize()) {
+			String msg = myContext.getLocalizer().getMessage(BaseHapiTerminologySvc.class, "expansionTooLarge", myDaoConfig.getMaximumExpansionSize());
+			throw new InvalidRequestException(msg);
+		}
+	}
+
 	private boolean addToSet(Set<TermConcept> theSetToPopulate, TermConcept theConcept) {
 		boolean retVal = theSetToPopulate.add(theConcept);
 		if (retVal) {
@@ -112,6 +147,7 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 				retVal += ensureParentsSaved(nextParent.getParents());
 				if (nextParent.getId() == null) {
 					myConceptDao.saveAndFlush(nextParent);
+					storeClosure(nextParent, false);
 					retVal++;
 					ourLog.debug("Saved parent code {} and got id {}", nextParent.getCode(), nextParent.getId());
 				}
@@ -169,7 +205,13 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		Set<TermConcept> retVal = new HashSet<TermConcept>();
 		retVal.add(concept);
 
-		fetchParents(concept, retVal);
+		if (isAncestorClosureAvailable(concept)) {
+			List<TermConcept> ancestors = myConceptClosureDao.findAncestors(concept.getId());
+			checkExpansionSize(ancestors.size());
+			retVal.addAll(ancestors);
+		} else {
+			fetchParents(concept, retVal);
+		}
 
 		ourLog.info("Fetched {} codes above code {} in {}ms", new Object[] { retVal.size(), theCode, stopwatch.elapsed(TimeUnit.MILLISECONDS) });
 		return retVal;
@@ -213,7 +255,12 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		Set<TermConcept> retVal = new HashSet<TermConcept>();
 		retVal.add(concept);
 
-		fetchChildren(concept, retVal);
+		if (isDescendantClosureAvailable(concept.getCodeSystem())) {
+			checkExpansionSize(myConceptClosureDao.countDescendants(concept.getId()));
+			retVal.addAll(myConceptClosureDao.findDescendants(concept.getId()));
+		} else {
+			fetchChildren(concept, retVal);
+		}
 
 		ourLog.info("Fetched {} codes below code {} in {}ms", new Object[] { retVal.size(), theCode, stopwatch.elapsed(TimeUnit.MILLISECONDS) });
 		return retVal;
@@ -301,15 +348,72 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		}
 	}
 
-	private void processDeferredConcepts() {
+	/**
+	 * Adjusts the deferred batch size based on how long the last batch took to commit
+	 */
+	private void adjustDeferredBatchSize(int theBatchSize, int theItemCount, long theMillis) {
+		int newBatchSize = theBatchSize;
+		if (theMillis > DEFERRED_BATCH_TARGET_MILLIS) {
+			newBatchSize = (int) Math.max(1, (theBatchSize * DEFERRED_BATCH_TARGET_MILLIS) / theMillis);
+		} else if (theItemCount >= theBatchSize && theMillis < DEFERRED_BATCH_TARGET_MILLIS / 2) {
+			newBatchSize = Math.min(DEFERRED_BATCH_SIZE_MAX, theBatchSize * 2);
+		}
+		if (newBatchSize != theBatchSize) {
+			ourLog.debug("Adjusting deferred concept batch size from {} to {}", theBatchSize, newBatchSize);
+		}
+		myDeferredBatchSize = newBatchSize;
+	}
+
+	private Set<Long> findExistingConceptPids(Collection<TermConceptParentChildLink> theLinks) {
+		Set<Long> pids = new HashSet<Long>();
+		for (TermConceptParentChildLink next : theLinks) {
+			if (next.getChild().getId() != null) {
+				pids.add(next.getChild().getId());
+			}
+			if (next.getParent().getId() != null) {
+				pids.add(next.getParent().getId());
+			}
+		}
+
+		Set<Long> retVal = new HashSet<Long>();
+		List<Long> pidList = new ArrayList<Long>(pids);
+		for (int i = 0; i < pidList.size(); i += DEFERRED_LINK_PID_CHECK_CHUNK_SIZE) {
+			List<Long> chunk = pidList.subList(i, Math.min(pidList.size(), i + DEFERRED_LINK_PID_CHECK_CHUNK_SIZE));
+			retVal.addAll(myConceptDao.findExistingPids(chunk));
+		}
+		return retVal;
+	}
+
+	private int getDeferredBatchSize() {
+		int retVal = myDeferredBatchSize;
+		if (retVal <= 0) {
+			retVal = Math.max(1, myDaoConfig.getDeferIndexingForCodesystemsOfSize());
+			myDeferredBatchSize = retVal;
+		}
+		return retVal;
+	}
+
+	@Override
+	public DeferredStorageStatus getDeferredStorageStatus() {
+		return new DeferredStorageStatus(myConceptsToSaveLater.size(), myConceptLinksToSaveLater.size(), myDeferredConceptsSaved, myDeferredLinksSaved, getDeferredBatchSize(), myDeferredLastBatchItems, myDeferredLastBatchMillis);
+	}
+
+	/**
+	 * Saves up to one batch of deferred concepts, followed by deferred relationships
+	 * if the batch was not filled by concepts
+	 */
+	private void processDeferredConcepts(int theBatchSize) {
 		int codeCount = 0, relCount = 0;
 		StopWatch stopwatch = new StopWatch();
 
-		int count = Math.min(myDaoConfig.getDeferIndexingForCodesystemsOfSize(), myConceptsToSaveLater.size());
-		ourLog.info("Saving {} deferred concepts...", count);
-		while (codeCount < count && myConceptsToSaveLater.size() > 0) {
-			TermConcept next = myConceptsToSaveLater.remove(0);
-			codeCount += saveConcept(next);
+		myEntityManager.unwrap(Session.class).setJdbcBatchSize(DEFERRED_JDBC_BATCH_SIZE);
+
+		if (!myConceptsToSaveLater.isEmpty()) {
+			ourLog.info("Saving up to {} deferred concepts...", theBatchSize);
+			for (TermConcept next; codeCount < theBatchSize && (next = myConceptsToSaveLater.poll()) != null; ) {
+				codeCount += saveConcept(next);
+			}
+			myDeferredConceptsSaved += codeCount;
 		}
 
 		if (codeCount > 0) {
@@ -317,13 +421,15 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 					new Object[] { codeCount, myConceptsToSaveLater.size(), myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.getMillisPerOperation(codeCount) });
 		}
 
-		if (codeCount == 0) {
-			count = Math.min(myDaoConfig.getDeferIndexingForCodesystemsOfSize(), myConceptLinksToSaveLater.size());
-			ourLog.info("Saving {} deferred concept relationships...", count);
-			while (relCount < count && myConceptLinksToSaveLater.size() > 0) {
-				TermConceptParentChildLink next = myConceptLinksToSaveLater.remove(0);
+		int count = theBatchSize - codeCount;
+		if (count > 0 && !myConceptLinksToSaveLater.isEmpty()) {
+			ourLog.info("Saving up to {} deferred concept relationships...", count);
+			List<TermConceptParentChildLink> links = new ArrayList<TermConceptParentChildLink>(Math.min(count, myConceptLinksToSaveLater.size()));
+			myConceptLinksToSaveLater.drainTo(links, count);
 
-				if (myConceptDao.findOne(next.getChild().getId()) == null || myConceptDao.findOne(next.getParent().getId()) == null) {
+			Set<Long> existingPids = findExistingConceptPids(links);
+			for (TermConceptParentChildLink next : links) {
+				if (!existingPids.contains(next.getChild().getId()) || !existingPids.contains(next.getParent().getId())) {
 					ourLog.warn("Not inserting link from child {} to parent {} because it appears to have been deleted", next.getParent().getCode(), next.getChild().getCode());
 					continue;
 				}
@@ -331,11 +437,12 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 				saveConceptLink(next);
 				relCount++;
 			}
+			myDeferredLinksSaved += relCount;
 		}
 
 		if (relCount > 0) {
-			ourLog.info("Saved {} deferred relationships ({} remain) in {}ms ({}ms / code)",
-					new Object[] { relCount, myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.getMillisPerOperation(codeCount) });
+			ourLog.info("Saved {} deferred relationships ({} remain) in {}ms ({}ms / relationship)",
+					new Object[] { relCount, myConceptLinksToSaveLater.size(), stopwatch.getMillis(), stopwatch.getMillisPerOperation(relCount) });
 		}
 
 		if ((myConceptsToSaveLater.size() + myConceptLinksToSaveLater.size()) == 0) {
@@ -419,8 +526,30 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 
 	}
 
+	/**
+	 * Closure rows for a concept are written when it is stored or reindexed, so
+	 * a concept which has not yet been indexed may not have them yet
+	 */
+	private boolean isAncestorClosureAvailable(TermConcept theConcept) {
+		Long indexStatus = theConcept.getIndexStatus();
+		return indexStatus != null && indexStatus != BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS;
+	}
+
+	/**
+	 * The descendants of a concept are only all in the closure table once every concept in
+	 * the code system version has been stored and indexed, so this is not the case while
+	 * deferred storage is still pending or any of the version's concepts need reindexing
+	 */
+	protected boolean isDescendantClosureAvailable(TermCodeSystemVersion theCodeSystemVersion) {
+		if (!myConceptsToSaveLater.isEmpty() || !myConceptLinksToSaveLater.isEmpty()) {
+			return false;
+		}
+		return myConceptDao.findPidsRequiringReindexing(theCodeSystemVersion.getPid(), new PageRequest(0, 1)).isEmpty();
+	}
+
 	private int saveConcept(TermConcept theConcept) {
 		int retVal = 0;
+		boolean existing = theConcept.getId() != null;
 
 		/*
 		 * If the concept has an ID, we're reindexing, so there's no need to
@@ -434,12 +563,43 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 			retVal++;
 			theConcept.setIndexStatus(BaseHapiFhirDao.INDEX_STATUS_INDEXED);
 			myConceptDao.save(theConcept);
+			storeClosure(theConcept, existing);
 		}
 
 		ourLog.trace("Saved {} and got PID {}", theConcept.getCode(), theConcept.getId());
 		return retVal;
 	}
 
+	/**
+	 * Writes the closure rows linking a concept to each of its ancestors, using the
+	 * parent PIDs that were calculated for the concept when it was persisted or reindexed
+	 *
+	 * @param theReplaceExisting Should any existing rows for the concept be removed first
+	 */
+	private void storeClosure(TermConcept theConcept, boolean theReplaceExisting) {
+		if (theReplaceExisting) {
+			myConceptClosureDao.deleteByDescendant(theConcept.getId());
+		}
+
+		String parentPids = theConcept.getParentPidsAsString();
+		if (isBlank(parentPids) || "NONE".equals(parentPids)) {
+			return;
+		}
+
+		Set<Long> ancestorPids = new HashSet<Long>();
+		for (String next : parentPids.split(" ")) {
+			if (isNotBlank(next)) {
+				ancestorPids.add(Long.parseLong(next));
+			}
+		}
+		ancestorPids.remove(theConcept.getId());
+
+		for (Long next : ancestorPids) {
+			TermConcept ancestor = myEntityManager.getReference(TermConcept.class, next);
+			myEntityManager.persist(new TermConceptClosure(theConcept.getCodeSystem(), ancestor, theConcept));
+		}
+	}
+
 	private void saveConceptLink(TermConceptParentChildLink next) {
 		if (next.getId() == null) {
 			myConceptParentChildLinkDao.save(next);
@@ -453,19 +613,39 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		if (!myProcessDeferred) {
 			return;
 		} else if (myConceptsToSaveLater.isEmpty() && myConceptLinksToSaveLater.isEmpty()) {
+			// The next deferred code system starts again from the configured batch size
+			myDeferredBatchSize = 0;
 			processReindexing();
 			return;
 		}
 
+		final int batchSize = getDeferredBatchSize();
+		final long remainingBefore = myConceptsToSaveLater.size() + myConceptLinksToSaveLater.size();
+		StopWatch stopwatch = new StopWatch();
+
 		TransactionTemplate tt = new TransactionTemplate(myTransactionMgr);
 		tt.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
 		tt.execute(new TransactionCallbackWithoutResult() {
 			@Override
 			protected void doInTransactionWithoutResult(TransactionStatus theArg0) {
-				processDeferredConcepts();
+				processDeferredConcepts(batchSize);
 			}
 
 		});
+
+		long millis = stopwatch.getMillis();
+		int itemCount = (int) Math.max(0, remainingBefore - myConceptsToSaveLater.size() - myConceptLinksToSaveLater.size());
+		myDeferredLastBatchItems = itemCount;
+		myDeferredLastBatchMillis = millis;
+		adjustDeferredBatchSize(batchSize, itemCount, millis);
+
+		/*
+		 * If this batch emptied the queues, there is no need to wait for
+		 * the next pass before starting to index
+		 */
+		if (myConceptsToSaveLater.isEmpty() && myConceptLinksToSaveLater.isEmpty()) {
+			processReindexing();
+		}
 	}
 
 	@Override
@@ -473,35 +653,34 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		myProcessDeferred = theProcessDeferred;
 	}
 
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails) {
+		storeNewCodeSystemVersion(theSystem, theCodeSystemVersion, theRequestDetails, true);
+	}
+
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
 	public void storeNewCodeSystemVersion(Long theCodeSystemResourcePid, String theSystemUri, TermCodeSystemVersion theCodeSystemVersion) {
+		storeNewCodeSystemVersion(theCodeSystemResourcePid, theSystemUri, theCodeSystemVersion, true);
+	}
+
+	protected void storeNewCodeSystemVersion(Long theCodeSystemResourcePid, String theSystemUri, TermCodeSystemVersion theCodeSystemVersion, boolean theMakeCurrent) {
 		ourLog.info("Storing code system");
 
 		ValidateUtil.isTrueOrThrowInvalidRequest(theCodeSystemVersion.getResource() != null, "No resource supplied");
 		ValidateUtil.isNotBlankOrThrowInvalidRequest(theSystemUri, "No system URI supplied");
 
-		// Grab the existing versions so we can delete them later
-		List<TermCodeSystemVersion> existing = myCodeSystemVersionDao.findByCodeSystemResource(theCodeSystemResourcePid);
-
 		/*
 		 * For now we always delete old versions.. At some point it would be nice to allow configuration to keep old versions
+		 *
+		 * If the new version isn't being made current yet, the old versions are left alone until
+		 * it is activated, so that they keep serving lookups while the new one is loaded
 		 */
-
-		ourLog.info("Deleting old code system versions");
-		for (TermCodeSystemVersion next : existing) {
-			ourLog.info(" * Deleting code system version {}", next.getPid());
-			myConceptParentChildLinkDao.deleteByCodeSystemVersion(next.getPid());
-			myConceptDao.deleteByCodeSystemVersion(next.getPid());
+		if (theMakeCurrent) {
+			deleteOtherCodeSystemVersions(theCodeSystemResourcePid, null);
 		}
 
-		ourLog.info("Flushing...");
-
-		myConceptParentChildLinkDao.flush();
-		myConceptDao.flush();
-
-		ourLog.info("Done flushing");
-
 		/*
 		 * Do the upload
 		 */
@@ -537,10 +716,12 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 
 		TermCodeSystemVersion codeSystemVersion = myCodeSystemVersionDao.saveAndFlush(theCodeSystemVersion);
 
-		ourLog.info("Saving code system");
+		if (theMakeCurrent) {
+			ourLog.info("Saving code system");
 
-		codeSystem.setCurrentVersion(theCodeSystemVersion);
-		codeSystem = myCodeSystemDao.saveAndFlush(codeSystem);
+			codeSystem.setCurrentVersion(theCodeSystemVersion);
+			codeSystem = myCodeSystemDao.saveAndFlush(codeSystem);
+		}
 
 		ourLog.info("Setting codesystemversion on {} concepts...", totalCodeCount);
 
@@ -567,6 +748,54 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		}
 	}
 
+	@Override
+	@Transactional(propagation = Propagation.NEVER)
+	public void storeConceptBatch(final TermCodeSystemVersion theCodeSystemVersion, final List<TermConcept> theConcepts) {
+		TransactionTemplate tt = new TransactionTemplate(myTransactionMgr);
+		tt.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+		tt.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				for (TermConcept next : theConcepts) {
+					next.setCodeSystem(theCodeSystemVersion);
+					next.setIndexStatus(BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS);
+					myEntityManager.persist(next);
+				}
+				myEntityManager.flush();
+			}
+		});
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void releaseConceptBatchesForIndexing(TermCodeSystemVersion theCodeSystemVersion) {
+		int count = myConceptDao.markAwaitingLinksForReindexing(theCodeSystemVersion.getPid());
+		ourLog.info("Released {} concepts of code system version {} for indexing", count, theCodeSystemVersion.getPid());
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.NEVER)
+	public void storeConceptLinkBatch(final TermCodeSystemVersion theCodeSystemVersion, final long[] theParentPids, final long[] theChildPids) {
+		Validate.isTrue(theParentPids.length == theChildPids.length, "theParentPids and theChildPids must have the same length");
+
+		TransactionTemplate tt = new TransactionTemplate(myTransactionMgr);
+		tt.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+		tt.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				for (int i = 0; i < theParentPids.length; i++) {
+					TermConceptParentChildLink link = new TermConceptParentChildLink();
+					link.setParent(myEntityManager.getReference(TermConcept.class, theParentPids[i]));
+					link.setChild(myEntityManager.getReference(TermConcept.class, theChildPids[i]));
+					link.setCodeSystem(theCodeSystemVersion);
+					link.setRelationshipType(RelationshipTypeEnum.ISA);
+					myEntityManager.persist(link);
+				}
+				myEntityManager.flush();
+			}
+		});
+	}
+
 	@Override
 	public boolean supportsSystem(String theSystem) {
 		TermCodeSystem cs = getCodeSystem(theSystem);
@@ -618,10 +847,64 @@ public abstract class BaseHapiTerminologySvc implements IHapiTerminologySvc {
 		ourForceSaveDeferredAlwaysForUnitTest = theForceSaveDeferredAlwaysForUnitTest;
 	}
 
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void activateCodeSystemVersion(TermCodeSystemVersion theCodeSystemVersion) {
+		Long resourcePid = theCodeSystemVersion.getResource().getId();
+		TermCodeSystem codeSystem = myCodeSystemDao.findByResourcePid(resourcePid);
+		Validate.notNull(codeSystem, "No code system exists for resource %s", resourcePid);
+
+		deleteOtherCodeSystemVersions(resourcePid, theCodeSystemVersion.getPid());
+
+		ourLog.info("Making code system version {} current", theCodeSystemVersion.getPid());
+		codeSystem.setCurrentVersion(myCodeSystemVersionDao.findOne(theCodeSystemVersion.getPid()));
+		myCodeSystemDao.saveAndFlush(codeSystem);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void deleteCodeSystemVersion(TermCodeSystemVersion theCodeSystemVersion) {
+		TermCodeSystem codeSystem = myCodeSystemDao.findByResourcePid(theCodeSystemVersion.getResource().getId());
+		if (codeSystem != null && codeSystem.getCurrentVersion() != null) {
+			Validate.isTrue(!theCodeSystemVersion.getPid().equals(codeSystem.getCurrentVersion().getPid()), "Can not delete the current version of a code system");
+		}
+
+		ourLog.info(" * Deleting code system version {}", theCodeSystemVersion.getPid());
+		myConceptClosureDao.deleteByCodeSystemVersion(theCodeSystemVersion.getPid());
+		myConceptParentChildLinkDao.deleteByCodeSystemVersion(theCodeSystemVersion.getPid());
+		myConceptDao.deleteByCodeSystemVersion(theCodeSystemVersion.getPid());
+		myCodeSystemVersionDao.delete(theCodeSystemVersion.getPid());
+		myCodeSystemVersionDao.flush();
+	}
+
+	private void deleteOtherCodeSystemVersions(Long theCodeSystemResourcePid, Long theVersionPidToKeep) {
+		List<TermCodeSystemVersion> existing = myCodeSystemVersionDao.findByCodeSystemResource(theCodeSystemResourcePid);
+
+		ourLog.info("Deleting old code system versions");
+		for (TermCodeSystemVersion next : existing) {
+			if (next.getPid().equals(theVersionPidToKeep)) {
+				continue;
+			}
+			ourLog.info(" * Deleting code system version {}", next.getPid());
+			myConceptClosureDao.deleteByCodeSystemVersion(next.getPid());
+			myConceptParentChildLinkDao.deleteByCodeSystemVersion(next.getPid());
+			myConceptDao.deleteByCodeSystemVersion(next.getPid());
+		}
+
+		ourLog.info("Flushing...");
+
+		myConceptClosureDao.flush();
+		myConceptParentChildLinkDao.flush();
+		myConceptDao.flush();
+
+		ourLog.info("Done flushing");
+	}
+
 	@Override
 	public void deleteCodeSystem(TermCodeSystem theCodeSystem) {
 		ourLog.info(" * Deleting code system {}", theCodeSystem.getPid());
 		for (TermCodeSystemVersion next : myCodeSystemVersionDao.findByCodeSystemResource(theCodeSystem.getPid())) {
+			myConceptClosureDao.deleteByCodeSystemVersion(next.getPid());
 			myConceptParentChildLinkDao.deleteByCodeSystemVersion(next.getPid());
 			myConceptDao.deleteByCodeSystemVersion(next.getPid());
 		}
@@ -40,7 +40,7 @@ public class HapiTerminologySvcDstu2 extends BaseHapiTerminologySvc {
 
 
 	@Override
-	public void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails) {
+	public void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails, boolean theMakeCurrent) {
 		// nothing yet
 	}
 
@@ -191,7 +191,35 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 		 * Filters
 		 */
 
-		if (theInclude.getFilter().size() > 0) {
+		ConceptSetFilterComponent onlyFilter = theInclude.getFilter().size() == 1 ? theInclude.getFilter().get(0) : null;
+		TermConcept isaCode = null;
+		if (onlyFilter != null && isNotBlank(onlyFilter.getValue()) && isIsaFilter(onlyFilter)) {
+			isaCode = findCodeForIsaFilter(system, onlyFilter);
+		}
+
+		if (isaCode != null && isDescendantClosureAvailable(isaCode.getCodeSystem())) {
+			haveIncludeCriteria = true;
+
+			/*
+			 * A single is-a filter can be answered directly from the concept closure
+			 * table without needing a fulltext query, as long as the table has been
+			 * populated for every concept in the code system version
+			 */
+			ourLog.info(" * Filtering on codes with a parent of {}/{}/{}", isaCode.getId(), isaCode.getCode(), isaCode.getDisplay());
+
+			long count = myConceptClosureDao.countDescendants(isaCode.getId());
+			checkExpansionSize(count);
+
+			StopWatch sw = new StopWatch();
+			List<TermConcept> result = myConceptClosureDao.findDescendants(isaCode.getId());
+			ourLog.info("Expansion completed in {}ms", sw.getMillis());
+
+			for (TermConcept nextConcept : result) {
+				addCodeIfNotAlreadyAdded(system, retVal, addedCodes, nextConcept);
+			}
+
+			retVal.setTotal((int) count);
+		} else if (theInclude.getFilter().size() > 0) {
 			haveIncludeCriteria = true;
 
 			FullTextEntityManager em = org.hibernate.search.jpa.Search.getFullTextEntityManager(myEntityManager);
@@ -218,11 +246,8 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 					} else {
 						addDisplayFilterInexact(qb, bool, nextFilter);
 					}
-				} else if ((nextFilter.getProperty().equals("concept") || nextFilter.getProperty().equals("code")) && nextFilter.getOp() == FilterOperator.ISA) {
-					TermConcept code = super.findCode(system, nextFilter.getValue());
-					if (code == null) {
-						throw new InvalidRequestException("Invalid filter criteria - code does not exist: {" + system + "}" + nextFilter.getValue());
-					}
+				} else if (isIsaFilter(nextFilter)) {
+					TermConcept code = findCodeForIsaFilter(system, nextFilter);
 
 					ourLog.info(" * Filtering on codes with a parent of {}/{}/{}", code.getId(), code.getCode(), code.getDisplay());
 					bool.must(qb.keyword().onField("myParentPids").matching("" + code.getId()).createQuery());
@@ -264,6 +289,18 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 		return null;
 	}
 
+	private TermConcept findCodeForIsaFilter(String theSystem, ConceptSetFilterComponent theFilter) {
+		TermConcept retVal = super.findCode(theSystem, theFilter.getValue());
+		if (retVal == null) {
+			throw new InvalidRequestException("Invalid filter criteria - code does not exist: {" + theSystem + "}" + theFilter.getValue());
+		}
+		return retVal;
+	}
+
+	private boolean isIsaFilter(ConceptSetFilterComponent theFilter) {
+		return ("concept".equals(theFilter.getProperty()) || "code".equals(theFilter.getProperty())) && theFilter.getOp() == FilterOperator.ISA;
+	}
+
 	@Override
 	public List<VersionIndependentConcept> expandValueSet(String theValueSet) {
 		ValueSet source = new ValueSet();
@@ -316,7 +353,7 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
-	public void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails) {
+	public void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails, boolean theMakeCurrent) {
 		CodeSystem cs = new org.hl7.fhir.dstu3.model.CodeSystem();
 		cs.setUrl(theSystem);
 		cs.setContent(CodeSystemContentMode.NOTPRESENT);
@@ -337,7 +374,7 @@ public class HapiTerminologySvcDstu3 extends BaseHapiTerminologySvc implements I
 
 		theCodeSystemVersion.setResource(resource);
 		theCodeSystemVersion.setResourceVersionId(resource.getVersion());
-		super.storeNewCodeSystemVersion(codeSystemResourcePid, theSystem, theCodeSystemVersion);
+		storeNewCodeSystemVersion(codeSystemResourcePid, theSystem, theCodeSystemVersion, theMakeCurrent);
 
 	}
 
@@ -20,6 +20,7 @@ package ca.uhn.fhir.jpa.term;
  * #L%
  */
 
+import java.io.File;
 import java.util.List;
 
 import ca.uhn.fhir.rest.api.server.RequestDetails;
@@ -31,8 +32,20 @@ public interface IHapiTerminologyLoaderSvc {
 
 	UploadStatistics loadLoinc(List<byte[]> theZipBytes, RequestDetails theRequestDetails);
 
+	/**
+	 * Loads LOINC from distribution zip files on disk. Only the required entries
+	 * within each zip are read, and the files are never loaded into memory in full.
+	 */
+	UploadStatistics loadLoincFiles(List<File> theZipFiles, RequestDetails theRequestDetails);
+
 	UploadStatistics loadSnomedCt(List<byte[]> theZipBytes, RequestDetails theRequestDetails);
 
+	/**
+	 * Loads SNOMED CT from distribution zip files on disk. Only the required entries
+	 * within each zip are read, and the files are never loaded into memory in full.
+	 */
+	UploadStatistics loadSnomedCtFiles(List<File> theZipFiles, RequestDetails theRequestDetails);
+
 	public static class UploadStatistics {
 		private final int myConceptCount;
 
@@ -31,8 +31,21 @@ import ca.uhn.fhir.rest.api.server.RequestDetails;
 
 public interface IHapiTerminologySvc {
 
+	/**
+	 * Makes a code system version which was stored using
+	 * {@link #storeNewCodeSystemVersion(String, TermCodeSystemVersion, RequestDetails, boolean)}
+	 * the current version of its code system, and deletes the concepts of every other version
+	 */
+	void activateCodeSystemVersion(TermCodeSystemVersion theCodeSystemVersion);
+
 	void deleteCodeSystem(TermCodeSystem thePersCs);
 
+	/**
+	 * Deletes a code system version which is not the current version of its code system,
+	 * along with its concepts (e.g. because loading it failed)
+	 */
+	void deleteCodeSystemVersion(TermCodeSystemVersion theCodeSystemVersion);
+
 	Set<TermConcept> findCodesAbove(Long theCodeSystemResourcePid, Long theCodeSystemResourceVersionPid, String theCode);
 
 	Set<TermConcept> findCodesBelow(Long theCodeSystemResourcePid, Long theCodeSystemResourceVersionPid, String theCode);
@@ -49,8 +62,50 @@ public interface IHapiTerminologySvc {
 
 	void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails);
 
+	/**
+	 * Stores a new code system version. If <code>theMakeCurrent</code> is <code>false</code> the
+	 * existing current version (and its concepts) are left in place, so that the concepts of the
+	 * new version can be stored in separate transactions before it is made current using
+	 * {@link #activateCodeSystemVersion(TermCodeSystemVersion)}.
+	 */
+	void storeNewCodeSystemVersion(String theSystem, TermCodeSystemVersion theCodeSystemVersion, RequestDetails theRequestDetails, boolean theMakeCurrent);
+
+	/**
+	 * Stores a batch of concepts belonging to a code system version which has already been
+	 * stored using {@link #storeNewCodeSystemVersion(String, TermCodeSystemVersion, RequestDetails, boolean)}.
+	 * The batch is committed in its own transaction and each concept has its PID assigned
+	 * when this method returns. Any parent/child links on the concepts are ignored, use
+	 * {@link #storeConceptLinkBatch(TermCodeSystemVersion, long[], long[])} to store them. The
+	 * concepts are not indexed until {@link #releaseConceptBatchesForIndexing(TermCodeSystemVersion)}
+	 * is called, since their parents can't be worked out before their links have been stored.
+	 */
+	void storeConceptBatch(TermCodeSystemVersion theCodeSystemVersion, List<TermConcept> theConcepts);
+
+	/**
+	 * Makes the concepts stored for the given code system version using
+	 * {@link #storeConceptBatch(TermCodeSystemVersion, List)} available to the background
+	 * reindexing pass. Call this once all of their links have been stored.
+	 */
+	void releaseConceptBatchesForIndexing(TermCodeSystemVersion theCodeSystemVersion);
+
+	/**
+	 * Stores a batch of {@link ca.uhn.fhir.jpa.entity.TermConceptParentChildLink.RelationshipTypeEnum#ISA ISA}
+	 * links between concepts previously stored using {@link #storeConceptBatch(TermCodeSystemVersion, List)}.
+	 * The batch is committed in its own transaction.
+	 *
+	 * @param theParentPids The PID of the parent concept of each link
+	 * @param theChildPids  The PID of the child concept of each link (must be the same length as <code>theParentPids</code>)
+	 */
+	void storeConceptLinkBatch(TermCodeSystemVersion theCodeSystemVersion, long[] theParentPids, long[] theChildPids);
+
 	List<TermConcept> findCodes(String theSystem);
 
+	/**
+	 * Returns the current progress of storing concepts and relationships whose
+	 * storage has been deferred (see {@link #saveDeferred()})
+	 */
+	DeferredStorageStatus getDeferredStorageStatus();
+
 	void saveDeferred();
 
 	/**
@@ -59,4 +114,85 @@ public interface IHapiTerminologySvc {
 	 */
 	void setProcessDeferred(boolean theProcessDeferred);
 
+	/**
+	 * A point-in-time snapshot of deferred concept storage progress
+	 */
+	public static class DeferredStorageStatus {
+		private final int myBatchSize;
+		private final long myConceptsRemaining;
+		private final long myConceptsSaved;
+		private final long myLastBatchItemCount;
+		private final long myLastBatchMillis;
+		private final long myLinksRemaining;
+		private final long myLinksSaved;
+
+		public DeferredStorageStatus(long theConceptsRemaining, long theLinksRemaining, long theConceptsSaved, long theLinksSaved, int theBatchSize, long theLastBatchItemCount, long theLastBatchMillis) {
+			myConceptsRemaining = theConceptsRemaining;
+			myLinksRemaining = theLinksRemaining;
+			myConceptsSaved = theConceptsSaved;
+			myLinksSaved = theLinksSaved;
+			myBatchSize = theBatchSize;
+			myLastBatchItemCount = theLastBatchItemCount;
+			myLastBatchMillis = theLastBatchMillis;
+		}
+
+		/**
+		 * The maximum number of concepts and relationships that will be stored in the next batch
+		 */
+		public int getBatchSize() {
+			return myBatchSize;
+		}
+
+		public long getConceptsRemaining() {
+			return myConceptsRemaining;
+		}
+
+		/**
+		 * The total number of deferred concepts stored since the server started
+		 */
+		public long getConceptsSaved() {
+			return myConceptsSaved;
+		}
+
+		/**
+		 * The number of concepts and relationships stored by the most recent batch
+		 */
+		public long getLastBatchItemCount() {
+			return myLastBatchItemCount;
+		}
+
+		/**
+		 * The time taken (including commit) by the most recent batch
+		 */
+		public long getLastBatchMillis() {
+			return myLastBatchMillis;
+		}
+
+		/**
+		 * The throughput of the most recent batch, in concepts and relationships per second
+		 */
+		public double getLastBatchItemsPerSecond() {
+			if (myLastBatchMillis <= 0) {
+				return 0;
+			}
+			return (myLastBatchItemCount * 1000.0) / myLastBatchMillis;
+		}
+
+		public long getLinksRemaining() {
+			return myLinksRemaining;
+		}
+
+		/**
+		 * The total number of deferred relationships stored since the server started
+		 */
+		public long getLinksSaved() {
+			return myLinksSaved;
+		}
+
+		public boolean isComplete() {
+			return myConceptsRemaining == 0 && myLinksRemaining == 0;
+		}
+
+	}
+
 }
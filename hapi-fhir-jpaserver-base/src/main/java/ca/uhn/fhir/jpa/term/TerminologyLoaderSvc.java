@@ -23,14 +23,14 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
  */
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.csv.*;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BOMInputStream;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -38,13 +38,23 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 
 import ca.uhn.fhir.jpa.entity.*;
-import ca.uhn.fhir.jpa.entity.TermConceptParentChildLink.RelationshipTypeEnum;
-import ca.uhn.fhir.jpa.util.Counter;
+import ca.uhn.fhir.jpa.util.LongLongHashMap;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 
+/**
+ * Loads external code systems (SNOMED CT and LOINC) from their distribution zip files.
+ * <p>
+ * Each file within the distribution is read exactly once, and concepts and relationships
+ * are stored in batches (see {@link IHapiTerminologySvc#storeConceptBatch(TermCodeSystemVersion, List)})
+ * as they become known, so that only compact ID-to-index maps need to be held in memory rather than
+ * an object graph containing the entire code system. When loading from files on disk, zip entries are
+ * read directly without decompressing the rest of the archive.
+ * </p>
+ */
 public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
+	static final int DEFAULT_BATCH_SIZE = 5000;
 	private static final int LOG_INCREMENT = 100000;
 
 	public static final String LOINC_FILE = "loinc.csv";
@@ -55,59 +65,30 @@ public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
 	public static final String SCT_FILE_CONCEPT = "Terminology/sct2_Concept_Full_";
 	public static final String SCT_FILE_DESCRIPTION = "Terminology/sct2_Description_Full-en";
 	public static final String SCT_FILE_RELATIONSHIP = "Terminology/sct2_Relationship_Full";
-	@Autowired
-	private IHapiTerminologySvc myTermSvc;
+	/**
+	 * The SNOMED CT concept ID for the "Is a (attribute)" relationship type
+	 */
+	public static final String SCT_RELATIONSHIP_TYPE_ISA = "116680003";
 
-	private void dropCircularRefs(TermConcept theConcept, ArrayList<String> theChain, Map<String, TermConcept> theCode2concept, Counter theCircularCounter) {
-		
-		theChain.add(theConcept.getCode());
-		for (Iterator<TermConceptParentChildLink> childIter = theConcept.getChildren().iterator(); childIter.hasNext();) {
-			TermConceptParentChildLink next = childIter.next();
-			TermConcept nextChild = next.getChild();
-			if (theChain.contains(nextChild.getCode())) {
-
-				StringBuilder b = new StringBuilder();
-				b.append("Removing circular reference code ");
-				b.append(nextChild.getCode());
-				b.append(" from parent ");
-				b.append(next.getParent().getCode());
-				b.append(". Chain was: ");
-				for (String nextInChain : theChain) {
-					TermConcept nextCode = theCode2concept.get(nextInChain);
-					b.append(nextCode.getCode());
-					b.append('[');
-					b.append(StringUtils.substring(nextCode.getDisplay(), 0, 20).replace("[", "").replace("]", "").trim());
-					b.append("] ");
-				}
-				ourLog.info(b.toString(), theConcept.getCode());
-				childIter.remove();
-				nextChild.getParents().remove(next);
-				
-			} else {
-				dropCircularRefs(nextChild, theChain, theCode2concept, theCircularCounter);
-			}
-		}
-		theChain.remove(theChain.size() - 1);
+	private int myBatchSize = DEFAULT_BATCH_SIZE;
 
-	}
+	@Autowired
+	private IHapiTerminologySvc myTermSvc;
 
-	private void extractFiles(List<byte[]> theZipBytes, List<String> theExpectedFilenameFragments) {
+	private void extractFiles(List<IZipSource> theZips, List<String> theExpectedFilenameFragments) {
 		Set<String> foundFragments = new HashSet<String>();
 
-		for (byte[] nextZipBytes : theZipBytes) {
-			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new ByteArrayInputStream(nextZipBytes)));
+		for (IZipSource nextZip : theZips) {
 			try {
-				for (ZipEntry nextEntry; (nextEntry = zis.getNextEntry()) != null;) {
+				for (String nextName : nextZip.getEntryNames()) {
 					for (String next : theExpectedFilenameFragments) {
-						if (nextEntry.getName().contains(next)) {
+						if (nextName.contains(next)) {
 							foundFragments.add(next);
 						}
 					}
 				}
 			} catch (IOException e) {
 				throw new InternalErrorException(e);
-			} finally {
-				IOUtils.closeQuietly(zis);
 			}
 		}
 
@@ -130,39 +111,24 @@ public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
 		return retVal;
 	}
 
-	private TermConcept getOrCreateConcept(TermCodeSystemVersion codeSystemVersion, Map<String, TermConcept> id2concept, String id) {
-		TermConcept concept = id2concept.get(id);
-		if (concept == null) {
-			concept = new TermConcept();
-			id2concept.put(id, concept);
-			concept.setCodeSystem(codeSystemVersion);
-		}
-		return concept;
-	}
-
-	private void iterateOverZipFile(List<byte[]> theZipBytes, String fileNamePart, IRecordHandler handler, char theDelimiter, QuoteMode theQuoteMode) {
-		boolean found = false;
+	private void iterateOverZipFile(List<IZipSource> theZips, final String fileNamePart, final IRecordHandler handler, final char theDelimiter, final QuoteMode theQuoteMode) {
+		final boolean[] found = new boolean[1];
 
-		for (byte[] nextZipBytes : theZipBytes) {
-			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new ByteArrayInputStream(nextZipBytes)));
+		for (IZipSource nextZip : theZips) {
 			try {
-				for (ZipEntry nextEntry; (nextEntry = zis.getNextEntry()) != null;) {
-					ZippedFileInputStream inputStream = new ZippedFileInputStream(zis);
+				nextZip.forEachEntry(fileNamePart, new IZipEntryHandler() {
+					@Override
+					public void handle(String theFilename, InputStream theInputStream) throws IOException {
+						ourLog.info("Processing file {}", theFilename);
+						found[0] = true;
 
-					String nextFilename = nextEntry.getName();
-					if (nextFilename.contains(fileNamePart)) {
-						ourLog.info("Processing file {}", nextFilename);
-						found = true;
-
-						Reader reader = null;
-						CSVParser parsed = null;
+						Reader reader = new InputStreamReader(new BOMInputStream(theInputStream), Charsets.UTF_8);
 						try {
-							reader = new InputStreamReader(new BOMInputStream(zis), Charsets.UTF_8);
 							CSVFormat format = CSVFormat.newFormat(theDelimiter).withFirstRecordAsHeader();
 							if (theQuoteMode != null) {
 								format = format.withQuote('"').withQuoteMode(theQuoteMode);
 							}
-							parsed = new CSVParser(reader, format);
+							CSVParser parsed = new CSVParser(reader, format);
 							Iterator<CSVRecord> iter = parsed.iterator();
 							ourLog.debug("Header map: {}", parsed.getHeaderMap());
 
@@ -174,132 +140,158 @@ public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
 								handler.accept(nextRecord);
 								count++;
 								if (count >= nextLoggedCount) {
-									ourLog.info(" * Processed {} records in {}", count, nextFilename);
+									ourLog.info(" * Processed {} records in {}", count, theFilename);
 									nextLoggedCount += logIncrement;
 								}
 							}
-
-						} catch (IOException e) {
-							throw new InternalErrorException(e);
+						} finally {
+							IOUtils.closeQuietly(reader);
 						}
 					}
-				}
+				});
 			} catch (IOException e) {
 				throw new InternalErrorException(e);
-			} finally {
-				IOUtils.closeQuietly(zis);
 			}
 		}
 
 		// This should always be true, but just in case we've introduced a bug...
-		Validate.isTrue(found);
+		Validate.isTrue(found[0]);
 	}
 
 	@Override
 	public UploadStatistics loadLoinc(List<byte[]> theZipBytes, RequestDetails theRequestDetails) {
+		return loadLoincZips(toZipSources(theZipBytes), theRequestDetails);
+	}
+
+	private UploadStatistics loadLoincZips(List<IZipSource> theZips, RequestDetails theRequestDetails) {
 		List<String> expectedFilenameFragments = Arrays.asList(LOINC_FILE, LOINC_HIERARCHY_FILE);
 
-		extractFiles(theZipBytes, expectedFilenameFragments);
+		extractFiles(theZips, expectedFilenameFragments);
 
 		ourLog.info("Beginning LOINC processing");
 
-		return processLoincFiles(theZipBytes, theRequestDetails);
+		return processLoincFiles(theZips, theRequestDetails);
+	}
+
+	@Override
+	public UploadStatistics loadLoincFiles(List<File> theZipFiles, RequestDetails theRequestDetails) {
+		return loadLoincZips(toFileZipSources(theZipFiles), theRequestDetails);
 	}
 
 	@Override
 	public UploadStatistics loadSnomedCt(List<byte[]> theZipBytes, RequestDetails theRequestDetails) {
+		return loadSnomedCtZips(toZipSources(theZipBytes), theRequestDetails);
+	}
+
+	private UploadStatistics loadSnomedCtZips(List<IZipSource> theZips, RequestDetails theRequestDetails) {
 		List<String> expectedFilenameFragments = Arrays.asList(SCT_FILE_DESCRIPTION, SCT_FILE_RELATIONSHIP, SCT_FILE_CONCEPT);
 
-		extractFiles(theZipBytes, expectedFilenameFragments);
+		extractFiles(theZips, expectedFilenameFragments);
 
 		ourLog.info("Beginning SNOMED CT processing");
 
-		return processSnomedCtFiles(theZipBytes, theRequestDetails);
+		return processSnomedCtFiles(theZips, theRequestDetails);
 	}
 
-	UploadStatistics processLoincFiles(List<byte[]> theZipBytes, RequestDetails theRequestDetails) {
-		final TermCodeSystemVersion codeSystemVersion = new TermCodeSystemVersion();
-		final Map<String, TermConcept> code2concept = new HashMap<String, TermConcept>();
-
-		IRecordHandler handler = new LoincHandler(codeSystemVersion, code2concept);
-		iterateOverZipFile(theZipBytes, LOINC_FILE, handler, ',', QuoteMode.NON_NUMERIC);
-
-		handler = new LoincHierarchyHandler(codeSystemVersion, code2concept);
-		iterateOverZipFile(theZipBytes, LOINC_HIERARCHY_FILE, handler, ',', QuoteMode.NON_NUMERIC);
-
-		theZipBytes.clear();
-		
-		for (Iterator<Entry<String, TermConcept>> iter = code2concept.entrySet().iterator(); iter.hasNext();) {
-			Entry<String, TermConcept> next = iter.next();
-			// if (isBlank(next.getKey())) {
-			// ourLog.info("Removing concept with blankc code[{}] and display [{}", next.getValue().getCode(), next.getValue().getDisplay());
-			// iter.remove();
-			// continue;
-			// }
-			TermConcept nextConcept = next.getValue();
-			if (nextConcept.getParents().isEmpty()) {
-				codeSystemVersion.getConcepts().add(nextConcept);
-			}
-		}
+	@Override
+	public UploadStatistics loadSnomedCtFiles(List<File> theZipFiles, RequestDetails theRequestDetails) {
+		return loadSnomedCtZips(toFileZipSources(theZipFiles), theRequestDetails);
+	}
 
-		ourLog.info("Have {} total concepts, {} root concepts", code2concept.size(), codeSystemVersion.getConcepts().size());
+	private UploadStatistics processLoincFiles(List<IZipSource> theZips, RequestDetails theRequestDetails) {
+		TermCodeSystemVersion codeSystemVersion = new TermCodeSystemVersion();
+		boolean activated = false;
+		try {
+			myTermSvc.storeNewCodeSystemVersion(LOINC_URL, codeSystemVersion, theRequestDetails, false);
 
-		String url = LOINC_URL;
-		storeCodeSystem(theRequestDetails, codeSystemVersion, url);
+			ConceptWriter writer = new ConceptWriter(codeSystemVersion);
+			Map<String, Integer> code2index = new HashMap<String, Integer>();
 
-		return new UploadStatistics(code2concept.size());
-	}
+			IRecordHandler handler = new LoincHandler(writer, code2index);
+			iterateOverZipFile(theZips, LOINC_FILE, handler, ',', QuoteMode.NON_NUMERIC);
 
-	private void storeCodeSystem(RequestDetails theRequestDetails, final TermCodeSystemVersion codeSystemVersion, String url) {
-		myTermSvc.setProcessDeferred(false);
-		myTermSvc.storeNewCodeSystemVersion(url, codeSystemVersion, theRequestDetails);
-		myTermSvc.setProcessDeferred(true);
+			handler = new LoincHierarchyHandler(writer, code2index);
+			iterateOverZipFile(theZips, LOINC_HIERARCHY_FILE, handler, ',', QuoteMode.NON_NUMERIC);
+
+			int conceptCount = writer.finish();
+			myTermSvc.activateCodeSystemVersion(codeSystemVersion);
+			activated = true;
+			return new UploadStatistics(conceptCount);
+		} finally {
+			if (!activated) {
+				deleteIncompleteVersion(codeSystemVersion);
+			}
+		}
 	}
 
-	UploadStatistics processSnomedCtFiles(List<byte[]> theZipBytes, RequestDetails theRequestDetails) {
-		final TermCodeSystemVersion codeSystemVersion = new TermCodeSystemVersion();
-		final Map<String, TermConcept> id2concept = new HashMap<String, TermConcept>();
-		final Map<String, TermConcept> code2concept = new HashMap<String, TermConcept>();
-		final Set<String> validConceptIds = new HashSet<String>();
+	private UploadStatistics processSnomedCtFiles(List<IZipSource> theZips, RequestDetails theRequestDetails) {
+		SctHandlerConcept conceptHandler = new SctHandlerConcept();
+		iterateOverZipFile(theZips, SCT_FILE_CONCEPT, conceptHandler, '\t', null);
 
-		IRecordHandler handler = new SctHandlerConcept(validConceptIds);
-		iterateOverZipFile(theZipBytes, SCT_FILE_CONCEPT, handler, '\t', null);
+		ourLog.info("Have {} concept IDs", conceptHandler.myConceptIdToState.size());
 
-		ourLog.info("Have {} valid concept IDs", validConceptIds.size());
+		SctHandlerDescription descriptionHandler = new SctHandlerDescription(conceptHandler.myConceptIdToState);
+		iterateOverZipFile(theZips, SCT_FILE_DESCRIPTION, descriptionHandler, '\t', null);
+		conceptHandler = null;
 
-		handler = new SctHandlerDescription(validConceptIds, code2concept, id2concept, codeSystemVersion);
-		iterateOverZipFile(theZipBytes, SCT_FILE_DESCRIPTION, handler, '\t', null);
+		ourLog.info("Have {} active concepts with descriptions", descriptionHandler.myDisplays.size());
 
-		ourLog.info("Got {} concepts, cloning map", code2concept.size());
-		final HashMap<String, TermConcept> rootConcepts = new HashMap<String, TermConcept>(code2concept);
+		TermCodeSystemVersion codeSystemVersion = new TermCodeSystemVersion();
+		boolean activated = false;
+		try {
+			myTermSvc.storeNewCodeSystemVersion(SCT_URL, codeSystemVersion, theRequestDetails, false);
 
-		handler = new SctHandlerRelationship(codeSystemVersion, rootConcepts, code2concept);
-		iterateOverZipFile(theZipBytes, SCT_FILE_RELATIONSHIP, handler, '\t', null);
+			ConceptWriter writer = new ConceptWriter(codeSystemVersion);
+			List<String> displays = descriptionHandler.myDisplays;
+			for (int i = 0; i < displays.size(); i++) {
+				writer.addConcept(Long.toString(descriptionHandler.myConceptIds[i]), displays.get(i));
+				displays.set(i, null);
+			}
+
+			SctHandlerRelationship relationshipHandler = new SctHandlerRelationship(descriptionHandler.myConceptIdToIndex);
+			iterateOverZipFile(theZips, SCT_FILE_RELATIONSHIP, relationshipHandler, '\t', null);
+			descriptionHandler = null;
 
-		theZipBytes.clear();
+			ourLog.info("Have {} ISA relationships", relationshipHandler.myCount);
 
-		ourLog.info("Looking for root codes");
-		for (Iterator<Entry<String, TermConcept>> iter = rootConcepts.entrySet().iterator(); iter.hasNext(); ) {
-			if (iter.next().getValue().getParents().isEmpty() == false) {
-				iter.remove();
+			for (int i = 0; i < relationshipHandler.myCount; i++) {
+				if ((relationshipHandler.myStates[i] & 1L) != 0 && relationshipHandler.mySources[i] != relationshipHandler.myDestinations[i]) {
+					writer.addLink(relationshipHandler.myDestinations[i], relationshipHandler.mySources[i]);
+				}
+			}
+			relationshipHandler = null;
+
+			int conceptCount = writer.finish();
+			myTermSvc.activateCodeSystemVersion(codeSystemVersion);
+			activated = true;
+			ourLog.info("Done loading SNOMED CT files - {} total codes", conceptCount);
+			return new UploadStatistics(conceptCount);
+		} finally {
+			if (!activated) {
+				deleteIncompleteVersion(codeSystemVersion);
 			}
 		}
-		
-		ourLog.info("Done loading SNOMED CT files - {} root codes, {} total codes", rootConcepts.size(), code2concept.size());
+	}
 
-		Counter circularCounter = new Counter();
-		for (TermConcept next : rootConcepts.values()) {
-			long count = circularCounter.getThenAdd();
-			float pct = ((float)count / rootConcepts.size()) * 100.0f;
-			ourLog.info(" * Scanning for circular refs - have scanned {} / {} codes ({}%)", count, rootConcepts.size(), pct);
-			dropCircularRefs(next, new ArrayList<String>(), code2concept, circularCounter);
+	/**
+	 * A version which failed part way through loading was never made current, so it
+	 * is removed along with whatever batches of concepts were already committed
+	 */
+	private void deleteIncompleteVersion(TermCodeSystemVersion theCodeSystemVersion) {
+		if (theCodeSystemVersion.getPid() == null) {
+			return;
 		}
+		ourLog.warn("Deleting incompletely loaded code system version {}", theCodeSystemVersion.getPid());
+		try {
+			myTermSvc.deleteCodeSystemVersion(theCodeSystemVersion);
+		} catch (Exception e) {
+			ourLog.error("Failed to delete incompletely loaded code system version " + theCodeSystemVersion.getPid(), e);
+		}
+	}
 
-		codeSystemVersion.getConcepts().addAll(rootConcepts.values());
-		String url = SCT_URL;
-		storeCodeSystem(theRequestDetails, codeSystemVersion, url);
-
-		return new UploadStatistics(code2concept.size());
+	@VisibleForTesting
+	void setBatchSizeForUnitTests(int theBatchSize) {
+		myBatchSize = theBatchSize;
 	}
 
 	@VisibleForTesting
@@ -307,18 +299,304 @@ public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
 		myTermSvc = theTermSvc;
 	}
 
+	private static List<IZipSource> toFileZipSources(List<File> theZipFiles) {
+		List<IZipSource> retVal = new ArrayList<IZipSource>();
+		for (File next : theZipFiles) {
+			retVal.add(new FileZipSource(next));
+		}
+		return retVal;
+	}
+
+	private static List<IZipSource> toZipSources(List<byte[]> theZipBytes) {
+		List<IZipSource> retVal = new ArrayList<IZipSource>();
+		for (byte[] next : theZipBytes) {
+			retVal.add(new ByteArrayZipSource(next));
+		}
+		return retVal;
+	}
+
+	private static int[] grow(int[] theArray, int theMinimumSize) {
+		if (theArray.length >= theMinimumSize) {
+			return theArray;
+		}
+		return Arrays.copyOf(theArray, Math.max(theMinimumSize, theArray.length * 2));
+	}
+
+	private static long[] grow(long[] theArray, int theMinimumSize) {
+		if (theArray.length >= theMinimumSize) {
+			return theArray;
+		}
+		return Arrays.copyOf(theArray, Math.max(theMinimumSize, theArray.length * 2));
+	}
+
+	/**
+	 * Packs an RF2 effectiveTime (yyyyMMdd) and active flag into a single long
+	 */
+	private static long toState(CSVRecord theRecord) {
+		long effectiveTime = Long.parseLong(theRecord.get("effectiveTime"));
+		boolean active = "1".equals(theRecord.get("active"));
+		return (effectiveTime << 1) | (active ? 1L : 0L);
+	}
+
 	private interface IRecordHandler {
 		void accept(CSVRecord theRecord);
 	}
 
-	public class LoincHandler implements IRecordHandler {
+	private interface IZipEntryHandler {
+		void handle(String theFilename, InputStream theInputStream) throws IOException;
+	}
+
+	private interface IZipSource {
 
-		private final Map<String, TermConcept> myCode2Concept;
-		private final TermCodeSystemVersion myCodeSystemVersion;
+		/**
+		 * Invokes the handler for every entry whose name contains the given fragment
+		 */
+		void forEachEntry(String theFileNamePart, IZipEntryHandler theHandler) throws IOException;
+
+		List<String> getEntryNames() throws IOException;
+
+	}
+
+	private static class ByteArrayZipSource implements IZipSource {
+		private final byte[] myBytes;
+
+		private ByteArrayZipSource(byte[] theBytes) {
+			myBytes = theBytes;
+		}
+
+		@Override
+		public void forEachEntry(String theFileNamePart, IZipEntryHandler theHandler) throws IOException {
+			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new ByteArrayInputStream(myBytes)));
+			try {
+				for (ZipEntry nextEntry; (nextEntry = zis.getNextEntry()) != null; ) {
+					if (nextEntry.getName().contains(theFileNamePart)) {
+						theHandler.handle(nextEntry.getName(), new CloseShieldInputStream(zis));
+					}
+				}
+			} finally {
+				IOUtils.closeQuietly(zis);
+			}
+		}
+
+		@Override
+		public List<String> getEntryNames() throws IOException {
+			List<String> retVal = new ArrayList<String>();
+			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new ByteArrayInputStream(myBytes)));
+			try {
+				for (ZipEntry nextEntry; (nextEntry = zis.getNextEntry()) != null; ) {
+					retVal.add(nextEntry.getName());
+				}
+			} finally {
+				IOUtils.closeQuietly(zis);
+			}
+			return retVal;
+		}
+	}
+
+	/**
+	 * Reads from a zip file on disk, using the zip's central directory so that only the
+	 * entries which are actually needed get decompressed
+	 */
+	private static class FileZipSource implements IZipSource {
+		private final File myFile;
+
+		private FileZipSource(File theFile) {
+			myFile = theFile;
+		}
+
+		@Override
+		public void forEachEntry(String theFileNamePart, IZipEntryHandler theHandler) throws IOException {
+			ZipFile zipFile = new ZipFile(myFile);
+			try {
+				for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+					ZipEntry nextEntry = entries.nextElement();
+					if (nextEntry.getName().contains(theFileNamePart)) {
+						InputStream inputStream = new BufferedInputStream(zipFile.getInputStream(nextEntry));
+						try {
+							theHandler.handle(nextEntry.getName(), inputStream);
+						} finally {
+							IOUtils.closeQuietly(inputStream);
+						}
+					}
+				}
+			} finally {
+				zipFile.close();
+			}
+		}
 
-		public LoincHandler(TermCodeSystemVersion theCodeSystemVersion, Map<String, TermConcept> theCode2concept) {
+		@Override
+		public List<String> getEntryNames() throws IOException {
+			List<String> retVal = new ArrayList<String>();
+			ZipFile zipFile = new ZipFile(myFile);
+			try {
+				for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+					retVal.add(entries.nextElement().getName());
+				}
+			} finally {
+				zipFile.close();
+			}
+			return retVal;
+		}
+	}
+
+	/**
+	 * Stores concepts in batches as they are added, and stores the links between them once
+	 * all links are known (so that circular references can be removed first). Concepts are
+	 * referred to by an index which is assigned sequentially as they are added.
+	 */
+	private class ConceptWriter {
+		private final TermCodeSystemVersion myCodeSystemVersion;
+		private int myConceptCount;
+		private long[] myConceptPids = new long[1024];
+		private int myLinkCount;
+		private int[] myLinkChildren = new int[1024];
+		private int[] myLinkParents = new int[1024];
+		private List<TermConcept> myPendingConcepts = new ArrayList<TermConcept>();
+		private int myStoredConceptCount;
+
+		private ConceptWriter(TermCodeSystemVersion theCodeSystemVersion) {
 			myCodeSystemVersion = theCodeSystemVersion;
-			myCode2Concept = theCode2concept;
+		}
+
+		int addConcept(String theCode, String theDisplay) {
+			TermConcept concept = new TermConcept();
+			concept.setCode(theCode);
+			concept.setDisplay(theDisplay);
+			myPendingConcepts.add(concept);
+			if (myPendingConcepts.size() >= myBatchSize) {
+				flushConcepts();
+			}
+			return myConceptCount++;
+		}
+
+		void addLink(int theParentIndex, int theChildIndex) {
+			myLinkParents = grow(myLinkParents, myLinkCount + 1);
+			myLinkChildren = grow(myLinkChildren, myLinkCount + 1);
+			myLinkParents[myLinkCount] = theParentIndex;
+			myLinkChildren[myLinkCount] = theChildIndex;
+			myLinkCount++;
+		}
+
+		/**
+		 * Removes any link which would create a cycle in the hierarchy, using a depth-first
+		 * walk from each concept towards its parents
+		 */
+		private void dropCircularLinks() {
+			int[] offsets = new int[myConceptCount + 1];
+			for (int i = 0; i < myLinkCount; i++) {
+				offsets[myLinkChildren[i] + 1]++;
+			}
+			for (int i = 0; i < myConceptCount; i++) {
+				offsets[i + 1] += offsets[i];
+			}
+			int[] linksByChild = new int[myLinkCount];
+			int[] cursor = Arrays.copyOf(offsets, myConceptCount);
+			for (int i = 0; i < myLinkCount; i++) {
+				linksByChild[cursor[myLinkChildren[i]]++] = i;
+			}
+
+			final byte unvisited = 0, inProgress = 1, done = 2;
+			byte[] state = new byte[myConceptCount];
+			BitSet removed = new BitSet(myLinkCount);
+			int[] stack = new int[16];
+			int[] stackPos = new int[16];
+			for (int start = 0; start < myConceptCount; start++) {
+				if (state[start] != unvisited) {
+					continue;
+				}
+				int depth = 0;
+				stack[0] = start;
+				stackPos[0] = offsets[start];
+				state[start] = inProgress;
+				while (depth >= 0) {
+					int concept = stack[depth];
+					if (stackPos[depth] < offsets[concept + 1]) {
+						int link = linksByChild[stackPos[depth]++];
+						int parent = myLinkParents[link];
+						if (state[parent] == inProgress) {
+							ourLog.info("Removing circular reference from concept PID {} to parent PID {}", myConceptPids[concept], myConceptPids[parent]);
+							removed.set(link);
+						} else if (state[parent] == unvisited) {
+							depth++;
+							stack = grow(stack, depth + 1);
+							stackPos = grow(stackPos, depth + 1);
+							stack[depth] = parent;
+							stackPos[depth] = offsets[parent];
+							state[parent] = inProgress;
+						}
+					} else {
+						state[concept] = done;
+						depth--;
+					}
+				}
+			}
+
+			if (!removed.isEmpty()) {
+				int kept = 0;
+				for (int i = 0; i < myLinkCount; i++) {
+					if (!removed.get(i)) {
+						myLinkParents[kept] = myLinkParents[i];
+						myLinkChildren[kept] = myLinkChildren[i];
+						kept++;
+					}
+				}
+				myLinkCount = kept;
+			}
+		}
+
+		/**
+		 * Stores any remaining concepts and then all links
+		 *
+		 * @return The total number of concepts
+		 */
+		int finish() {
+			flushConcepts();
+			dropCircularLinks();
+
+			ourLog.info("Storing {} relationships", myLinkCount);
+			for (int start = 0; start < myLinkCount; start += myBatchSize) {
+				int count = Math.min(myBatchSize, myLinkCount - start);
+				long[] parentPids = new long[count];
+				long[] childPids = new long[count];
+				for (int i = 0; i < count; i++) {
+					parentPids[i] = myConceptPids[myLinkParents[start + i]];
+					childPids[i] = myConceptPids[myLinkChildren[start + i]];
+				}
+				myTermSvc.storeConceptLinkBatch(myCodeSystemVersion, parentPids, childPids);
+				ourLog.info(" * Stored {} / {} relationships", start + count, myLinkCount);
+			}
+
+			// Only now can the parents of each concept be worked out when it is indexed
+			myTermSvc.releaseConceptBatchesForIndexing(myCodeSystemVersion);
+
+			return myConceptCount;
+		}
+
+		private void flushConcepts() {
+			if (myPendingConcepts.isEmpty()) {
+				return;
+			}
+
+			myTermSvc.storeConceptBatch(myCodeSystemVersion, myPendingConcepts);
+
+			myConceptPids = grow(myConceptPids, myStoredConceptCount + myPendingConcepts.size());
+			for (TermConcept next : myPendingConcepts) {
+				myConceptPids[myStoredConceptCount++] = next.getId();
+			}
+			myPendingConcepts = new ArrayList<TermConcept>();
+			ourLog.info(" * Stored {} concepts", myStoredConceptCount);
+		}
+
+	}
+
+	private class LoincHandler implements IRecordHandler {
+
+		private final Map<String, Integer> myCode2Index;
+		private final ConceptWriter myWriter;
+
+		private LoincHandler(ConceptWriter theWriter, Map<String, Integer> theCode2Index) {
+			myWriter = theWriter;
+			myCode2Index = theCode2Index;
 		}
 
 		@Override
@@ -330,24 +608,21 @@ public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
 				String consumerName = theRecord.get("CONSUMER_NAME");
 				String display = firstNonBlank(longCommonName, shortName, consumerName);
 
-				TermConcept concept = new TermConcept(myCodeSystemVersion, code);
-				concept.setDisplay(display);
-
-				Validate.isTrue(!myCode2Concept.containsKey(code));
-				myCode2Concept.put(code, concept);
+				Validate.isTrue(!myCode2Index.containsKey(code));
+				myCode2Index.put(code, myWriter.addConcept(code, display));
 			}
 		}
 
 	}
 
-	public class LoincHierarchyHandler implements IRecordHandler {
+	private class LoincHierarchyHandler implements IRecordHandler {
 
-		private Map<String, TermConcept> myCode2Concept;
-		private TermCodeSystemVersion myCodeSystemVersion;
+		private final Map<String, Integer> myCode2Index;
+		private final ConceptWriter myWriter;
 
-		public LoincHierarchyHandler(TermCodeSystemVersion theCodeSystemVersion, Map<String, TermConcept> theCode2concept) {
-			myCodeSystemVersion = theCodeSystemVersion;
-			myCode2Concept = theCode2concept;
+		private LoincHierarchyHandler(ConceptWriter theWriter, Map<String, Integer> theCode2Index) {
+			myWriter = theWriter;
+			myCode2Index = theCode2Index;
 		}
 
 		@Override
@@ -357,171 +632,128 @@ public class TerminologyLoaderSvc implements IHapiTerminologyLoaderSvc {
 			String childCodeText = theRecord.get("CODE_TEXT");
 
 			if (isNotBlank(parentCode) && isNotBlank(childCode)) {
-				TermConcept parent = getOrCreate(parentCode, "(unknown)");
-				TermConcept child = getOrCreate(childCode, childCodeText);
+				int parent = getOrCreate(parentCode, "(unknown)");
+				int child = getOrCreate(childCode, childCodeText);
 
-				parent.addChild(child, RelationshipTypeEnum.ISA);
+				myWriter.addLink(parent, child);
 			}
 		}
 
-		private TermConcept getOrCreate(String theCode, String theDisplay) {
-			TermConcept retVal = myCode2Concept.get(theCode);
+		private int getOrCreate(String theCode, String theDisplay) {
+			Integer retVal = myCode2Index.get(theCode);
 			if (retVal == null) {
-				retVal = new TermConcept();
-				retVal.setCodeSystem(myCodeSystemVersion);
-				retVal.setCode(theCode);
-				retVal.setDisplay(theDisplay);
-				myCode2Concept.put(theCode, retVal);
+				retVal = myWriter.addConcept(theCode, theDisplay);
+				myCode2Index.put(theCode, retVal);
 			}
 			return retVal;
 		}
 
 	}
 
-	private final class SctHandlerConcept implements IRecordHandler {
-
-		private Set<String> myValidConceptIds;
-		private Map<String, String> myConceptIdToMostRecentDate = new HashMap<String, String>();
+	/**
+	 * Determines the most recent state (effectiveTime and active flag) of each concept ID
+	 */
+	private static final class SctHandlerConcept implements IRecordHandler {
 
-		public SctHandlerConcept(Set<String> theValidConceptIds) {
-			myValidConceptIds = theValidConceptIds;
-		}
+		private final LongLongHashMap myConceptIdToState = new LongLongHashMap();
 
 		@Override
 		public void accept(CSVRecord theRecord) {
-			String id = theRecord.get("id");
-			String date = theRecord.get("effectiveTime");
-
-			if (!myConceptIdToMostRecentDate.containsKey(id) || myConceptIdToMostRecentDate.get(id).compareTo(date) < 0) {
-				boolean active = "1".equals(theRecord.get("active"));
-				if (active) {
-					myValidConceptIds.add(id);
-				} else {
-					myValidConceptIds.remove(id);
-				}
-				myConceptIdToMostRecentDate.put(id, date);
-			}
+			long id = Long.parseLong(theRecord.get("id"));
+			long state = toState(theRecord);
 
+			long existing = myConceptIdToState.get(id, -1L);
+			if (existing == -1L || (existing >>> 1) < (state >>> 1)) {
+				myConceptIdToState.put(id, state);
+			}
 		}
 	}
 
-	private final class SctHandlerDescription implements IRecordHandler {
-		private final Map<String, TermConcept> myCode2concept;
-		private final TermCodeSystemVersion myCodeSystemVersion;
-		private final Map<String, TermConcept> myId2concept;
-		private Set<String> myValidConceptIds;
-
-		private SctHandlerDescription(Set<String> theValidConceptIds, Map<String, TermConcept> theCode2concept, Map<String, TermConcept> theId2concept, TermCodeSystemVersion theCodeSystemVersion) {
-			myCode2concept = theCode2concept;
-			myId2concept = theId2concept;
-			myCodeSystemVersion = theCodeSystemVersion;
-			myValidConceptIds = theValidConceptIds;
+	/**
+	 * Assigns an index to each active concept that has an active description, and collects the display for it
+	 */
+	private static final class SctHandlerDescription implements IRecordHandler {
+		private final LongLongHashMap myConceptIdToIndex = new LongLongHashMap();
+		private final LongLongHashMap myConceptIdToState;
+		private long[] myConceptIds = new long[1024];
+		private final List<String> myDisplays = new ArrayList<String>();
+
+		private SctHandlerDescription(LongLongHashMap theConceptIdToState) {
+			myConceptIdToState = theConceptIdToState;
 		}
 
 		@Override
 		public void accept(CSVRecord theRecord) {
-			String id = theRecord.get("id");
 			boolean active = "1".equals(theRecord.get("active"));
 			if (!active) {
 				return;
 			}
-			String conceptId = theRecord.get("conceptId");
-			if (!myValidConceptIds.contains(conceptId)) {
+			long conceptId = Long.parseLong(theRecord.get("conceptId"));
+			if ((myConceptIdToState.get(conceptId, 0L) & 1L) == 0) {
 				return;
 			}
 
 			String term = theRecord.get("term");
 
-			TermConcept concept = getOrCreateConcept(myCodeSystemVersion, myId2concept, id);
-			concept.setCode(conceptId);
-			concept.setDisplay(term);
-			myCode2concept.put(conceptId, concept);
+			long index = myConceptIdToIndex.get(conceptId, -1L);
+			if (index == -1L) {
+				int newIndex = myDisplays.size();
+				myDisplays.add(term);
+				myConceptIds = grow(myConceptIds, newIndex + 1);
+				myConceptIds[newIndex] = conceptId;
+				myConceptIdToIndex.put(conceptId, newIndex);
+			} else {
+				myDisplays.set((int) index, term);
+			}
 		}
 	}
 
-	private final class SctHandlerRelationship implements IRecordHandler {
-		private final Map<String, TermConcept> myCode2concept;
-		private final TermCodeSystemVersion myCodeSystemVersion;
-		private final Map<String, TermConcept> myRootConcepts;
-
-		private SctHandlerRelationship(TermCodeSystemVersion theCodeSystemVersion, HashMap<String, TermConcept> theRootConcepts, Map<String, TermConcept> theCode2concept) {
-			myCodeSystemVersion = theCodeSystemVersion;
-			myRootConcepts = theRootConcepts;
-			myCode2concept = theCode2concept;
+	/**
+	 * Determines the most recent state of each "Is a" relationship between known concepts
+	 */
+	private static final class SctHandlerRelationship implements IRecordHandler {
+		private final LongLongHashMap myConceptIdToIndex;
+		private int myCount;
+		private int[] myDestinations = new int[1024];
+		private final LongLongHashMap myRelationshipIdToIndex = new LongLongHashMap();
+		private int[] mySources = new int[1024];
+		private long[] myStates = new long[1024];
+
+		private SctHandlerRelationship(LongLongHashMap theConceptIdToIndex) {
+			myConceptIdToIndex = theConceptIdToIndex;
 		}
 
 		@Override
 		public void accept(CSVRecord theRecord) {
-			Set<String> ignoredTypes = new HashSet<String>();
-			ignoredTypes.add("Method (attribute)");
-			ignoredTypes.add("Direct device (attribute)");
-			ignoredTypes.add("Has focus (attribute)");
-			ignoredTypes.add("Access instrument");
-			ignoredTypes.add("Procedure site (attribute)");
-			ignoredTypes.add("Causative agent (attribute)");
-			ignoredTypes.add("Course (attribute)");
-			ignoredTypes.add("Finding site (attribute)");
-			ignoredTypes.add("Has definitional manifestation (attribute)");
-
-			String sourceId = theRecord.get("sourceId");
-			String destinationId = theRecord.get("destinationId");
-			String typeId = theRecord.get("typeId");
-			boolean active = "1".equals(theRecord.get("active"));
-			
-			TermConcept typeConcept = myCode2concept.get(typeId);
-			TermConcept sourceConcept = myCode2concept.get(sourceId);
-			TermConcept targetConcept = myCode2concept.get(destinationId);
-			if (sourceConcept != null && targetConcept != null && typeConcept != null) {
-				if (typeConcept.getDisplay().equals("Is a (attribute)")) {
-					RelationshipTypeEnum relationshipType = RelationshipTypeEnum.ISA;
-					if (!sourceId.equals(destinationId)) {
-						if (active) {
-							TermConceptParentChildLink link = new TermConceptParentChildLink();
-							link.setChild(sourceConcept);
-							link.setParent(targetConcept);
-							link.setRelationshipType(relationshipType);
-							link.setCodeSystem(myCodeSystemVersion);
-	
-							targetConcept.addChild(sourceConcept, relationshipType);
-						} else {
-							// not active, so we're removing any existing links
-							for (TermConceptParentChildLink next : new ArrayList<TermConceptParentChildLink>(targetConcept.getChildren())) {
-								if (next.getRelationshipType() == relationshipType) {
-									if (next.getChild().getCode().equals(sourceConcept.getCode())) {
-										next.getParent().getChildren().remove(next);
-										next.getChild().getParents().remove(next);
-									}
-								}
-							}
-						}
-					}
-				} else if (ignoredTypes.contains(typeConcept.getDisplay())) {
-					// ignore
-				} else {
-					// ourLog.warn("Unknown relationship type: {}/{}", typeId, typeConcept.getDisplay());
-				}
+			if (!SCT_RELATIONSHIP_TYPE_ISA.equals(theRecord.get("typeId"))) {
+				return;
 			}
-		}
 
-	}
-
-	private static class ZippedFileInputStream extends InputStream {
-
-		private ZipInputStream is;
+			long source = myConceptIdToIndex.get(Long.parseLong(theRecord.get("sourceId")), -1L);
+			long destination = myConceptIdToIndex.get(Long.parseLong(theRecord.get("destinationId")), -1L);
+			if (source == -1L || destination == -1L) {
+				return;
+			}
 
-		public ZippedFileInputStream(ZipInputStream is) {
-			this.is = is;
-		}
+			long id = Long.parseLong(theRecord.get("id"));
+			long state = toState(theRecord);
+
+			int index = (int) myRelationshipIdToIndex.get(id, -1L);
+			if (index == -1) {
+				index = myCount++;
+				myRelationshipIdToIndex.put(id, index);
+				mySources = grow(mySources, myCount);
+				myDestinations = grow(myDestinations, myCount);
+				myStates = grow(myStates, myCount);
+			} else if ((myStates[index] >>> 1) > (state >>> 1)) {
+				return;
+			}
 
-		@Override
-		public void close() throws IOException {
-			is.closeEntry();
+			mySources[index] = (int) source;
+			myDestinations[index] = (int) destination;
+			myStates[index] = state;
 		}
 
-		@Override
-		public int read() throws IOException {
-			return is.read();
-		}
 	}
 
 }
@@ -0,0 +1,117 @@
+package ca.uhn.fhir.jpa.util;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+
+/**
+ * A compact open-addressing hash map with primitive <code>long</code> keys and values. This
+ * is intended for very large maps (e.g. millions of terminology concept IDs) where the
+ * per-entry overhead of a <code>HashMap&lt;Long, Long&gt;</code> would dominate memory use.
+ * <p>
+ * {@link Long#MIN_VALUE} is reserved and may not be used as a key. This class is not thread safe.
+ * </p>
+ */
+public class LongLongHashMap {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private long[] myKeys;
+	private int myResizeThreshold;
+	private int mySize;
+	private long[] myValues;
+
+	public LongLongHashMap() {
+		this(16);
+	}
+
+	public LongLongHashMap(int theExpectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (theExpectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int theCapacity) {
+		myKeys = new long[theCapacity];
+		Arrays.fill(myKeys, EMPTY);
+		myValues = new long[theCapacity];
+		myResizeThreshold = (int) (theCapacity * LOAD_FACTOR);
+	}
+
+	public boolean containsKey(long theKey) {
+		return myKeys[indexOf(theKey)] != EMPTY;
+	}
+
+	/**
+	 * Returns the value for the given key, or <code>theDefaultValue</code> if the key is not present
+	 */
+	public long get(long theKey, long theDefaultValue) {
+		int index = indexOf(theKey);
+		if (myKeys[index] == EMPTY) {
+			return theDefaultValue;
+		}
+		return myValues[index];
+	}
+
+	private int indexOf(long theKey) {
+		Validate.isTrue(theKey != EMPTY, "Key must not be Long.MIN_VALUE");
+		int mask = myKeys.length - 1;
+		long hash = theKey * 0x9E3779B97F4A7C15L;
+		int index = (int) (hash ^ (hash >>> 32)) & mask;
+		while (myKeys[index] != EMPTY && myKeys[index] != theKey) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	public boolean isEmpty() {
+		return mySize == 0;
+	}
+
+	public void put(long theKey, long theValue) {
+		int index = indexOf(theKey);
+		if (myKeys[index] == EMPTY) {
+			myKeys[index] = theKey;
+			mySize++;
+		}
+		myValues[index] = theValue;
+
+		if (mySize > myResizeThreshold) {
+			long[] oldKeys = myKeys;
+			long[] oldValues = myValues;
+			allocate(oldKeys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					int newIndex = indexOf(oldKeys[i]);
+					myKeys[newIndex] = oldKeys[i];
+					myValues[newIndex] = oldValues[i];
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+}
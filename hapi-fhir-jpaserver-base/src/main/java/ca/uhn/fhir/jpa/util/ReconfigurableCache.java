@@ -0,0 +1,178 @@
+package ca.uhn.fhir.jpa.util;
+
+/*
+ * #%L
+ * HAPI FHIR JPA Server
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds a Guava cache whose limits come from configuration which may be changed while the
+ * server is running (e.g. {@link ca.uhn.fhir.jpa.dao.DaoConfig}). Each call to
+ * {@link #getCache()} compares the configured limits with the ones the current cache was
+ * built with, and replaces it with a new, empty cache if they differ.
+ * <p>
+ * Entries which are only valid once the current database transaction commits can be
+ * held in {@link #getPendingEntries(boolean)} until then.
+ * </p>
+ */
+public abstract class ReconfigurableCache<K, V> {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(ReconfigurableCache.class);
+
+	private final String myName;
+	private final Object myTransactionResourceKey = new Object();
+	private volatile Cache<K, V> myCache;
+	/**
+	 * The maximum size and expiry which {@link #myCache} was built with. This is always
+	 * written after the cache, so a reader which sees the current limits also sees the cache.
+	 */
+	private volatile Pair<Long, Long> myLimits;
+
+	/**
+	 * Constructor
+	 *
+	 * @param theName A name for the cache, used only for logging
+	 */
+	protected ReconfigurableCache(String theName) {
+		myName = theName;
+	}
+
+	/**
+	 * Returns the cache matching the current configuration, or <code>null</code> if the
+	 * cache is disabled
+	 */
+	public Cache<K, V> getCache() {
+		long maximumSize = getMaximumSize();
+		if (maximumSize <= 0) {
+			return null;
+		}
+		Pair<Long, Long> limits = Pair.of(maximumSize, getExpireAfterAccessMillis());
+		if (!limits.equals(myLimits)) {
+			synchronized (this) {
+				if (!limits.equals(myLimits)) {
+					myCache = buildCache(limits.getLeft(), limits.getRight());
+					myLimits = limits;
+				}
+			}
+		}
+		return myCache;
+	}
+
+	/**
+	 * Returns the entries which have been added by the current transaction and will be
+	 * published to the cache when it commits, or <code>null</code> if no transaction is
+	 * active. The entries are discarded if the transaction is rolled back.
+	 *
+	 * @param theCreate If <code>true</code>, the entries are created if this is the first
+	 *                  call in the current transaction. Otherwise <code>null</code> is
+	 *                  returned if the transaction has no entries yet.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<K, V> getPendingEntries(boolean theCreate) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+
+		Map<K, V> retVal = (Map<K, V>) TransactionSynchronizationManager.getResource(myTransactionResourceKey);
+		if (retVal == null && theCreate) {
+			final Map<K, V> pending = new HashMap<>();
+			TransactionSynchronizationManager.bindResource(myTransactionResourceKey, pending);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int theStatus) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(myTransactionResourceKey);
+					Cache<K, V> cache = getCache();
+					if (theStatus == STATUS_COMMITTED && cache != null) {
+						cache.putAll(pending);
+					}
+				}
+
+				@Override
+				public void resume() {
+					TransactionSynchronizationManager.bindResource(myTransactionResourceKey, pending);
+				}
+
+				@Override
+				public void suspend() {
+					TransactionSynchronizationManager.unbindResource(myTransactionResourceKey);
+				}
+			});
+			retVal = pending;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the time after which an entry which has not been used expires, or
+	 * <code>0</code> if entries do not expire. The default implementation returns <code>0</code>.
+	 */
+	protected long getExpireAfterAccessMillis() {
+		return 0;
+	}
+
+	/**
+	 * Returns the configured maximum number of entries, or the maximum total weight if
+	 * {@link #getWeigher()} returns a weigher. A value of <code>0</code> or less disables the cache.
+	 */
+	protected abstract long getMaximumSize();
+
+	/**
+	 * Returns a weigher if the cache should be bounded by the total weight of its entries
+	 * rather than by their number. The default implementation returns <code>null</code>.
+	 */
+	protected Weigher<K, V> getWeigher() {
+		return null;
+	}
+
+	/**
+	 * Removes all entries from the cache, if it has been built
+	 */
+	public void invalidateAll() {
+		Cache<K, V> cache = myCache;
+		if (cache != null) {
+			cache.invalidateAll();
+		}
+	}
+
+	private Cache<K, V> buildCache(long theMaximumSize, long theExpireAfterAccessMillis) {
+		CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+		if (theExpireAfterAccessMillis > 0) {
+			builder.expireAfterAccess(theExpireAfterAccessMillis, TimeUnit.MILLISECONDS);
+		}
+
+		Weigher<K, V> weigher = getWeigher();
+		if (weigher != null) {
+			ourLog.info("Creating {} with maximum weight {}", myName, theMaximumSize);
+			return builder.maximumWeight(theMaximumSize).<K, V>weigher(weigher).build();
+		}
+		ourLog.info("Creating {} with maximum size {}", myName, theMaximumSize);
+		return builder.maximumSize(theMaximumSize).<K, V>build();
+	}
+
+}
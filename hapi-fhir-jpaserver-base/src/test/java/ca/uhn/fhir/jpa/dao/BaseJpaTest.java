@@ -241,7 +241,7 @@ public abstract class BaseJpaTest {
 		return bundleStr;
 	}
 
-	public static void purgeDatabase(final EntityManager entityManager, PlatformTransactionManager theTxManager, ISearchParamPresenceSvc theSearchParamPresenceSvc, ISearchCoordinatorSvc theSearchCoordinatorSvc, ISearchParamRegistry theSearchParamRegistry) {
+	public static void purgeDatabase(final EntityManager entityManager, PlatformTransactionManager theTxManager, ISearchParamPresenceSvc theSearchParamPresenceSvc, ISearchCoordinatorSvc theSearchCoordinatorSvc, ISearchParamRegistry theSearchParamRegistry, IForcedIdCacheSvc theForcedIdCacheSvc, IDecodedResourceCacheSvc theDecodedResourceCacheSvc) {
 
 		theSearchCoordinatorSvc.cancelAllActiveSearches();
 
@@ -271,7 +271,10 @@ public abstract class BaseJpaTest {
 				entityManager.createQuery("DELETE from " + ResourceIndexedCompositeStringUnique.class.getSimpleName() + " d").executeUpdate();
 				entityManager.createQuery("DELETE from " + ResourceLink.class.getSimpleName() + " d").executeUpdate();
 				entityManager.createQuery("DELETE from " + SearchResult.class.getSimpleName() + " d").executeUpdate();
+				entityManager.createQuery("DELETE from " + SearchResultChunk.class.getSimpleName() + " d").executeUpdate();
 				entityManager.createQuery("DELETE from " + SearchInclude.class.getSimpleName() + " d").executeUpdate();
+				entityManager.createQuery("DELETE from " + RestHookDelivery.class.getSimpleName() + " d").executeUpdate();
+				entityManager.createQuery("DELETE from " + TermConceptClosure.class.getSimpleName() + " d").executeUpdate();
 				entityManager.createQuery("DELETE from " + TermConceptParentChildLink.class.getSimpleName() + " d").executeUpdate();
 				return null;
 			}
@@ -311,6 +314,8 @@ public abstract class BaseJpaTest {
 
 		theSearchParamPresenceSvc.flushCachesForUnitTest();
 		theSearchParamRegistry.forceRefresh();
+		theForcedIdCacheSvc.clear();
+		theDecodedResourceCacheSvc.clear();
 	}
 
 	public static Set<String> toCodes(Set<TermConcept> theConcepts) {
@@ -0,0 +1,99 @@
+package ca.uhn.fhir.jpa.dao;
+
+import ca.uhn.fhir.util.TestUtil;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IncludePidCacheSvcImplTest {
+
+	private DaoConfig myDaoConfig;
+	private IncludePidCacheSvcImpl mySvc;
+
+	@Before
+	public void before() {
+		myDaoConfig = new DaoConfig();
+		myDaoConfig.setIncludePidCacheSize(100);
+		mySvc = new IncludePidCacheSvcImpl();
+		mySvc.setDaoConfigForUnitTest(myDaoConfig);
+	}
+
+	private static Set<Long> pids(int theCount) {
+		Set<Long> retVal = new HashSet<>();
+		for (long i = 0; i < theCount; i++) {
+			retVal.add(i);
+		}
+		return retVal;
+	}
+
+	@Test
+	public void testCacheDisabled() {
+		myDaoConfig.setIncludePidCacheSize(0);
+		mySvc.put("A", "KEY", 1L, pids(1));
+		assertNull(mySvc.get("A", "KEY", 1L));
+	}
+
+	@Test
+	public void testGrowingSearchIsEvicted() {
+		mySvc.put("A", "KEY", 0L, pids(10));
+		assertEquals(pids(10), mySvc.get("A", "KEY", 0L));
+
+		// Each include adds 11 to the weight of the search, which soon exceeds the maximum
+		for (long i = 1; i < 10; i++) {
+			mySvc.put("A", "KEY", i, pids(10));
+		}
+		assertNull(mySvc.get("A", "KEY", 0L));
+	}
+
+	@Test
+	public void testInvalidate() {
+		mySvc.put("A", "KEY", 1L, Collections.<Long>emptySet());
+		mySvc.put("B", "KEY", 1L, pids(1));
+		assertEquals(Collections.<Long>emptySet(), mySvc.get("A", "KEY", 1L));
+
+		mySvc.invalidate("A");
+		assertNull(mySvc.get("A", "KEY", 1L));
+		assertEquals(pids(1), mySvc.get("B", "KEY", 1L));
+		assertEquals(2, mySvc.getHitCount());
+		assertEquals(1, mySvc.getMissCount());
+	}
+
+	@Test
+	public void testTotalWeightIsBounded() {
+		for (int i = 0; i < 100; i++) {
+			mySvc.put("S" + i, "KEY", 1L, pids(10));
+		}
+
+		int present = 0;
+		for (int i = 0; i < 100; i++) {
+			if (mySvc.get("S" + i, "KEY", 1L) != null) {
+				present++;
+			}
+		}
+		// Each search weighs 11, and the maximum total weight is 100
+		assertTrue("Found " + present + " searches", present > 0 && present <= 9);
+	}
+
+	@Test
+	public void testSizeChangeRebuildsCache() {
+		mySvc.put("A", "KEY", 1L, pids(1));
+		assertNotNull(mySvc.get("A", "KEY", 1L));
+
+		myDaoConfig.setIncludePidCacheSize(200);
+		assertNull(mySvc.get("A", "KEY", 1L));
+		mySvc.put("A", "KEY", 1L, pids(1));
+		assertNotNull(mySvc.get("A", "KEY", 1L));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
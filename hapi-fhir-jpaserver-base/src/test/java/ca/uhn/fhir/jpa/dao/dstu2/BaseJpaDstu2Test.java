@@ -138,6 +138,10 @@ public abstract class BaseJpaDstu2Test extends BaseJpaTest {
 	@Autowired
 	protected ISearchParamPresenceSvc mySearchParamPresenceSvc;
 	@Autowired
+	protected IForcedIdCacheSvc myForcedIdCacheSvc;
+	@Autowired
+	protected IDecodedResourceCacheSvc myDecodedResourceCacheSvc;
+	@Autowired
 	@Qualifier("myStructureDefinitionDaoDstu2")
 	protected IFhirResourceDao<StructureDefinition> myStructureDefinitionDao;
 	@Autowired
@@ -190,7 +194,7 @@ public abstract class BaseJpaDstu2Test extends BaseJpaTest {
 	@Transactional()
 	public void beforePurgeDatabase() {
 		final EntityManager entityManager = this.myEntityManager;
-		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegistry);
+		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegistry, myForcedIdCacheSvc, myDecodedResourceCacheSvc);
 	}
 
 	@Before
@@ -187,6 +187,10 @@ public abstract class BaseJpaDstu3Test extends BaseJpaTest {
 	@Autowired
 	protected ISearchParamPresenceSvc mySearchParamPresenceSvc;
 	@Autowired
+	protected IForcedIdCacheSvc myForcedIdCacheSvc;
+	@Autowired
+	protected IDecodedResourceCacheSvc myDecodedResourceCacheSvc;
+	@Autowired
 	protected ISearchParamRegistry mySearchParamRegsitry;
 	@Autowired
 	protected IStaleSearchDeletingSvc myStaleSearchDeletingSvc;
@@ -263,7 +267,7 @@ public abstract class BaseJpaDstu3Test extends BaseJpaTest {
 	public void beforePurgeDatabase() {
 
 		final EntityManager entityManager = this.myEntityManager;
-		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegsitry);
+		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegsitry, myForcedIdCacheSvc, myDecodedResourceCacheSvc);
 	}
 
 	@Before
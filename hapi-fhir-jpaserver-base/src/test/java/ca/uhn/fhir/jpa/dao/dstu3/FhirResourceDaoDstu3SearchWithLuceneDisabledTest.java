@@ -140,6 +140,10 @@ public class FhirResourceDaoDstu3SearchWithLuceneDisabledTest extends BaseJpaTes
 	protected PlatformTransactionManager myTxManager;
 	@Autowired
 	protected ISearchParamPresenceSvc mySearchParamPresenceSvc;
+	@Autowired
+	protected IForcedIdCacheSvc myForcedIdCacheSvc;
+	@Autowired
+	protected IDecodedResourceCacheSvc myDecodedResourceCacheSvc;
 
 	@Autowired
 	@Qualifier("myJpaValidationSupportChainDstu3")
@@ -153,7 +157,7 @@ public class FhirResourceDaoDstu3SearchWithLuceneDisabledTest extends BaseJpaTes
 	@Transactional()
 	public void beforePurgeDatabase() {
 		final EntityManager entityManager = this.myEntityManager;
-		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegistry);
+		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegistry, myForcedIdCacheSvc, myDecodedResourceCacheSvc);
 	}
 
 	@Before
@@ -1,16 +1,27 @@
 package ca.uhn.fhir.jpa.dao.dstu3;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ca.uhn.fhir.jpa.search.JpaRuntimeSearchParam;
 import org.hl7.fhir.dstu3.hapi.validation.DefaultProfileValidationSupport;
 import org.hl7.fhir.dstu3.hapi.ctx.IValidationSupport;
+import org.hl7.fhir.dstu3.model.DateTimeType;
+import org.hl7.fhir.dstu3.model.DateType;
+import org.hl7.fhir.dstu3.model.Enumerations;
 import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -34,7 +45,82 @@ public class SearchParamExtractorDstu3Test {
 		Observation obs = new Observation();
 		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
 
-		ISearchParamRegistry searchParamRegistry = new ISearchParamRegistry() {
+		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, newSearchParamRegistry());
+		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
+		assertEquals(1, tokens.size());
+		ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) tokens.iterator().next();
+		assertEquals("category", token.getParamName());
+		assertEquals("SYSTEM", token.getSystem());
+		assertEquals("CODE", token.getValue());
+	}
+
+	/**
+	 * A single extractor is shared by all threads, so extractions running concurrently
+	 * must not interfere with each other
+	 */
+	@Test
+	public void testExtractConcurrentlyWithSharedExtractor() throws Exception {
+		final Patient pt = newPatient();
+		final Observation obs = newObservation();
+
+		final SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, newSearchParamRegistry());
+
+		final int expectedPatientTokens = extractor.extractSearchParamTokens(new ResourceTable(), pt).size();
+		final int expectedPatientStrings = extractor.extractSearchParamStrings(new ResourceTable(), pt).size();
+		final int expectedObservationTokens = extractor.extractSearchParamTokens(new ResourceTable(), obs).size();
+		final int expectedObservationQuantities = extractor.extractSearchParamQuantity(new ResourceTable(), obs).size();
+		assertTrue(expectedPatientTokens > 0);
+		assertTrue(expectedPatientStrings > 0);
+		assertTrue(expectedObservationTokens > 0);
+		assertTrue(expectedObservationQuantities > 0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int j = 0; j < 50; j++) {
+							assertEquals(expectedPatientTokens, extractor.extractSearchParamTokens(new ResourceTable(), pt).size());
+							assertEquals(expectedPatientStrings, extractor.extractSearchParamStrings(new ResourceTable(), pt).size());
+							assertEquals(expectedObservationTokens, extractor.extractSearchParamTokens(new ResourceTable(), obs).size());
+							assertEquals(expectedObservationQuantities, extractor.extractSearchParamQuantity(new ResourceTable(), obs).size());
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> next : futures) {
+				next.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static Patient newPatient() {
+		Patient pt = new Patient();
+		pt.addIdentifier().setSystem("http://foo").setValue("12345");
+		pt.addName().setFamily("Smith").addGiven("John");
+		pt.setBirthDateElement(new DateType("2011-01-01"));
+		pt.setGender(Enumerations.AdministrativeGender.MALE);
+		pt.getManagingOrganization().setReference("Organization/123");
+		return pt;
+	}
+
+	private static Observation newObservation() {
+		Observation obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		obs.getSubject().setReference("Patient/123");
+		obs.setEffective(new DateTimeType("2011-01-01T11:22:33Z"));
+		obs.setValue(new Quantity().setValue(123).setSystem("http://unitsofmeasure.org").setCode("mg"));
+		return obs;
+	}
+
+	private static ISearchParamRegistry newSearchParamRegistry() {
+		return new ISearchParamRegistry() {
 			@Override
 			public void forceRefresh() {
 				// nothing
@@ -81,13 +167,6 @@ public class SearchParamExtractorDstu3Test {
 			}
 		};
 
-		SearchParamExtractorDstu3 extractor = new SearchParamExtractorDstu3(ourCtx, ourValidationSupport, searchParamRegistry);
-		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
-		assertEquals(1, tokens.size());
-		ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) tokens.iterator().next();
-		assertEquals("category", token.getParamName());
-		assertEquals("SYSTEM", token.getSystem());
-		assertEquals("CODE", token.getValue());
 	}
 
 	@AfterClass
@@ -0,0 +1,145 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.util.TestUtil;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+public class FhirResourceDaoR4DecodedResourceCacheTest extends BaseJpaR4Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoR4DecodedResourceCacheTest.class);
+
+	@Before
+	public void before() {
+		myDecodedResourceCacheSvc.clear();
+	}
+
+	@After
+	public void after() {
+		myDaoConfig.setDecodedResourceCacheSize(new DaoConfig().getDecodedResourceCacheSize());
+		myDecodedResourceCacheSvc.clear();
+	}
+
+	private IIdType createPatient(String theFamily) {
+		Patient p = new Patient();
+		p.getMeta().addTag("http://tags", "tag0", null);
+		p.getMeta().addProfile("http://profile");
+		p.addName().setFamily(theFamily);
+		return myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	@Test
+	public void testSearchLoadsHistoryAndTagsForWholePage() {
+		for (int i = 0; i < 20; i++) {
+			createPatient("FAMILY" + i);
+		}
+
+		QueryCountHolder.clear();
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		IBundleProvider results = myPatientDao.search(map);
+		List<IBaseResource> resources = results.getResources(0, 20);
+		long selects = QueryCountHolder.getGrandTotal().getSelect();
+		ourLog.info("Loading 20 resources executed {} selects", selects);
+
+		assertEquals(20, resources.size());
+		assertThat(selects, lessThan(10L));
+		for (IBaseResource next : resources) {
+			Patient patient = (Patient) next;
+			assertEquals("tag0", patient.getMeta().getTagFirstRep().getCode());
+			assertEquals("http://profile", patient.getMeta().getProfile().get(0).getValue());
+			assertEquals("1", patient.getIdElement().getVersionIdPart());
+		}
+	}
+
+	@Test
+	public void testCachedResourcesAreCopies() {
+		myDaoConfig.setDecodedResourceCacheSize(100);
+
+		Patient p = new Patient();
+		p.setId("#pat");
+		p.addName().setFamily("FAMILY");
+		Patient outer = new Patient();
+		outer.getContained().add(p);
+		outer.getLinkFirstRep().getOther().setReference("#pat");
+		outer.addExtension().setUrl("http://ext").setValue(new org.hl7.fhir.r4.model.StringType("value"));
+		IIdType id = myPatientDao.create(outer, mySrd).getId().toUnqualifiedVersionless();
+
+		Patient first = myPatientDao.read(id, mySrd);
+		String firstEncoded = myFhirCtx.newJsonParser().encodeResourceToString(first);
+		long decodes = myDecodedResourceCacheSvc.getDecodeCount();
+
+		first.addName().setFamily("MODIFIED");
+		first.getContained().clear();
+
+		Patient second = myPatientDao.read(id, mySrd);
+		assertEquals(firstEncoded, myFhirCtx.newJsonParser().encodeResourceToString(second));
+		assertEquals(decodes, myDecodedResourceCacheSvc.getDecodeCount());
+		assertEquals(1, myDecodedResourceCacheSvc.getHitCount());
+
+		// Local references in the copy resolve to the copy's own contained resources
+		assertSame(second.getContained().get(0), second.getLinkFirstRep().getOther().getResource());
+		assertEquals("FAMILY", ((Patient) second.getLinkFirstRep().getOther().getResource()).getNameFirstRep().getFamily());
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		List<IBaseResource> resources = myPatientDao.search(map).getResources(0, 1);
+		assertEquals(firstEncoded, myFhirCtx.newJsonParser().encodeResourceToString(resources.get(0)));
+		assertEquals(2, myDecodedResourceCacheSvc.getHitCount());
+	}
+
+	/**
+	 * A version that was read inside a transaction which rolled back must not be
+	 * served from the cache once the same version number is written again
+	 */
+	@Test
+	public void testRolledBackVersionIsNotCached() {
+		myDaoConfig.setDecodedResourceCacheSize(100);
+
+		final IIdType id = createPatient("FAMILY");
+
+		TransactionTemplate txTemplate = new TransactionTemplate(myTxManager);
+		txTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				Patient p = new Patient();
+				p.setId(id);
+				p.addName().setFamily("ROLLEDBACK");
+				myPatientDao.update(p, mySrd);
+				assertEquals("ROLLEDBACK", myPatientDao.read(id, mySrd).getNameFirstRep().getFamily());
+				theStatus.setRollbackOnly();
+			}
+		});
+
+		Patient p = new Patient();
+		p.setId(id);
+		p.addName().setFamily("COMMITTED");
+		assertEquals("2", myPatientDao.update(p, mySrd).getId().getVersionIdPart());
+
+		Patient read = myPatientDao.read(id, mySrd);
+		assertEquals("2", read.getIdElement().getVersionIdPart());
+		assertEquals("COMMITTED", read.getNameFirstRep().getFamily());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
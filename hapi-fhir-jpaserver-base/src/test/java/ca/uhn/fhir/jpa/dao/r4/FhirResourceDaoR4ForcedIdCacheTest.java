@@ -0,0 +1,129 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.TestUtil;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class FhirResourceDaoR4ForcedIdCacheTest extends BaseJpaR4Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(FhirResourceDaoR4ForcedIdCacheTest.class);
+
+	@After
+	public void after() {
+		myDaoConfig.setForcedIdCacheSize(new DaoConfig().getForcedIdCacheSize());
+	}
+
+	private Bundle createTransactionReferencingPatient(String thePatientId, int theObservationCount) {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < theObservationCount; i++) {
+			Observation obs = new Observation();
+			obs.setStatus(Observation.ObservationStatus.FINAL);
+			obs.getSubject().setReference(thePatientId);
+			input.addEntry().setResource(obs).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Observation");
+		}
+		return input;
+	}
+
+	@Test
+	public void testTransactionReferencesResolvedFromCache() {
+		Patient p = new Patient();
+		p.setId("Patient/A");
+		p.setActive(true);
+		myPatientDao.update(p);
+
+		myDaoConfig.setForcedIdCacheSize(0);
+		QueryCountHolder.clear();
+		mySystemDao.transaction(mySrd, createTransactionReferencingPatient("Patient/A", 50));
+		long uncachedSelects = QueryCountHolder.getGrandTotal().getSelect();
+
+		myDaoConfig.setForcedIdCacheSize(new DaoConfig().getForcedIdCacheSize());
+		QueryCountHolder.clear();
+		mySystemDao.transaction(mySrd, createTransactionReferencingPatient("Patient/A", 50));
+		long cachedSelects = QueryCountHolder.getGrandTotal().getSelect();
+
+		ourLog.info("Transaction executed {} selects without the cache and {} with it", uncachedSelects, cachedSelects);
+		assertThat(cachedSelects, lessThanOrEqualTo(uncachedSelects - 49));
+		assertThat(myForcedIdCacheSvc.getHitCount(), greaterThanOrEqualTo(49L));
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(Observation.SP_SUBJECT, new ReferenceParam("Patient/A"));
+		assertEquals(100, myObservationDao.search(map).size().intValue());
+	}
+
+	@Test
+	public void testCreateIsCachedOnlyAfterCommit() {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		Patient p = new Patient();
+		p.setId("Patient/B");
+		input.addEntry().setResource(p).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/B");
+		Observation obs = new Observation();
+		obs.setId("Observation/B");
+		obs.getSubject().setReference("Patient/B");
+		obs.getPerformerFirstRep().setReference("Practitioner/DOES_NOT_EXIST");
+		input.addEntry().setResource(obs).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Observation/B");
+
+		try {
+			mySystemDao.transaction(mySrd, input);
+			fail();
+		} catch (InvalidRequestException e) {
+			// good
+		}
+
+		assertNull(myForcedIdCacheSvc.getPid("Patient", "B"));
+		try {
+			myPatientDao.read(new Patient().setId("Patient/B").getIdElement(), mySrd);
+			fail();
+		} catch (ResourceNotFoundException e) {
+			// good
+		}
+
+		obs.getPerformer().clear();
+		mySystemDao.transaction(mySrd, input);
+		Long pid = myForcedIdCacheSvc.getPid("Patient", "B");
+		assertNotNull(pid);
+		assertEquals(pid, myPatientDao.readEntity(new Patient().setId("Patient/B").getIdElement()).getId());
+	}
+
+	@Test
+	public void testDeleteInvalidatesCache() {
+		Patient p = new Patient();
+		p.setId("Patient/C");
+		p.setActive(true);
+		IIdType id = myPatientDao.update(p).getId().toUnqualifiedVersionless();
+		assertNotNull(myForcedIdCacheSvc.getPid("Patient", "C"));
+
+		myPatientDao.delete(id);
+		assertNull(myForcedIdCacheSvc.getPid("Patient", "C"));
+
+		try {
+			myPatientDao.read(id, mySrd);
+			fail();
+		} catch (ResourceGoneException e) {
+			// good
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,147 @@
+package ca.uhn.fhir.jpa.dao.r4;
+
+import ca.uhn.fhir.jpa.dao.IIncludePidCacheSvc;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.search.StaleSearchDeletingSvcImpl;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.util.TestUtil;
+import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.Organization;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.*;
+
+public class FhirResourceDaoR4IncludePidCacheTest extends BaseJpaR4Test {
+
+	@Autowired
+	private IIncludePidCacheSvc myIncludePidCacheSvc;
+
+	@Before
+	public void before() {
+		myIncludePidCacheSvc.clear();
+	}
+
+	@After
+	public void after() {
+		myIncludePidCacheSvc.clear();
+		StaleSearchDeletingSvcImpl.setNowForUnitTests(null);
+	}
+
+	private IIdType createOrganization(String theName, IIdType thePartOf) {
+		Organization org = new Organization();
+		org.setName(theName);
+		if (thePartOf != null) {
+			org.getPartOf().setReferenceElement(thePartOf);
+		}
+		return myOrganizationDao.create(org, mySrd).getId().toUnqualifiedVersionless();
+	}
+
+	@Test
+	public void testIncludesAreDiscardedWhenSearchIsDeleted() {
+		IIdType orgId = createOrganization("ORG", null);
+		Patient p = new Patient();
+		p.getManagingOrganization().setReferenceElement(orgId);
+		myPatientDao.create(p, mySrd);
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.addInclude(Patient.INCLUDE_ORGANIZATION);
+		IBundleProvider results = myPatientDao.search(map);
+		assertEquals(2, results.getResources(0, 1).size());
+		String uuid = results.getUuid();
+		assertNotNull(uuid);
+
+		myIncludePidCacheSvc.put(uuid, "KEY", 1L, Collections.singleton(2L));
+		assertEquals(Collections.singleton(2L), myIncludePidCacheSvc.get(uuid, "KEY", 1L));
+
+		StaleSearchDeletingSvcImpl.setNowForUnitTests(System.currentTimeMillis() + DateUtils.MILLIS_PER_DAY);
+		myStaleSearchDeletingSvc.pollForStaleSearchesAndDeleteThem();
+		assertNull(myIncludePidCacheSvc.get(uuid, "KEY", 1L));
+	}
+
+	@Test
+	public void testIncludesAreMemoizedForSearch() {
+		IIdType orgId = createOrganization("ORG", null);
+		for (int i = 0; i < 5; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("FAMILY" + i);
+			p.getManagingOrganization().setReferenceElement(orgId);
+			myPatientDao.create(p, mySrd);
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.addInclude(Patient.INCLUDE_ORGANIZATION);
+		IBundleProvider results = myPatientDao.search(map);
+
+		List<IIdType> ids = toUnqualifiedVersionlessIds(results.getResources(0, 5));
+		assertEquals(6, ids.size());
+		assertTrue(ids.contains(orgId));
+		long misses = myIncludePidCacheSvc.getMissCount();
+		assertEquals(0, myIncludePidCacheSvc.getHitCount());
+
+		ids = toUnqualifiedVersionlessIds(results.getResources(0, 5));
+		assertEquals(6, ids.size());
+		assertTrue(ids.contains(orgId));
+		assertEquals(misses, myIncludePidCacheSvc.getMissCount());
+		assertEquals(5, myIncludePidCacheSvc.getHitCount());
+	}
+
+	@Test
+	public void testRecursiveIncludeWithCycle() {
+		IIdType org1 = createOrganization("ORG1", null);
+		IIdType org2 = createOrganization("ORG2", org1);
+		IIdType org3 = createOrganization("ORG3", org2);
+
+		Organization org = myOrganizationDao.read(org1, mySrd);
+		org.getPartOf().setReferenceElement(org3);
+		myOrganizationDao.update(org, mySrd);
+
+		Patient p = new Patient();
+		p.getManagingOrganization().setReferenceElement(org3);
+		IIdType patientId = myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.addInclude(Patient.INCLUDE_ORGANIZATION);
+		map.addInclude(Organization.INCLUDE_PARTOF.asRecursive());
+		IBundleProvider results = myPatientDao.search(map);
+		List<IIdType> ids = toUnqualifiedVersionlessIds(results.getResources(0, 10));
+		assertThat(ids, containsInAnyOrder(patientId, org1, org2, org3));
+
+		map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.addInclude(Patient.INCLUDE_ORGANIZATION);
+		map.addInclude(Organization.INCLUDE_PARTOF.asRecursive());
+		ids = toUnqualifiedVersionlessIds(myPatientDao.search(map));
+		assertThat(ids, containsInAnyOrder(patientId, org1, org2, org3));
+	}
+
+	@Test
+	public void testRevIncludeIsMemoizedPerSourcePid() {
+		IIdType orgId = createOrganization("ORG", null);
+		Patient p = new Patient();
+		p.getManagingOrganization().setReferenceElement(orgId);
+		IIdType patientId = myPatientDao.create(p, mySrd).getId().toUnqualifiedVersionless();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.addRevInclude(Patient.INCLUDE_ORGANIZATION);
+		IBundleProvider results = myOrganizationDao.search(map);
+		assertThat(toUnqualifiedVersionlessIds(results.getResources(0, 1)), containsInAnyOrder(orgId, patientId));
+		assertThat(toUnqualifiedVersionlessIds(results.getResources(0, 1)), containsInAnyOrder(orgId, patientId));
+		assertEquals(1, myIncludePidCacheSvc.getHitCount());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
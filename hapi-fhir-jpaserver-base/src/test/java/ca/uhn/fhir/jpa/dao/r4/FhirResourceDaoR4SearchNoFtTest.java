@@ -52,6 +52,7 @@ public class FhirResourceDaoR4SearchNoFtTest extends BaseJpaR4Test {
 	public void afterResetSearchSize() {
 		myDaoConfig.setReuseCachedSearchResultsForMillis(new DaoConfig().getReuseCachedSearchResultsForMillis());
 		myDaoConfig.setFetchSizeDefaultMaximum(new DaoConfig().getFetchSizeDefaultMaximum());
+		myDaoConfig.setUseHashIndexesForSearch(new DaoConfig().isUseHashIndexesForSearch());
 	}
 
 	/**
@@ -3014,6 +3015,62 @@ public class FhirResourceDaoR4SearchNoFtTest extends BaseJpaR4Test {
 		return b.toString();
 	}
 
+	@Test
+	public void testSearchTokenAndStringUsingHashIndexes() {
+		Patient p1 = new Patient();
+		p1.addIdentifier().setSystem("http://foo").setValue("VAL1");
+		p1.addIdentifier().setValue("VAL2");
+		p1.addName().setFamily("Smithson").addGiven("Joe");
+		String id1 = myPatientDao.create(p1, mySrd).getId().toUnqualifiedVersionless().getValue();
+
+		Patient p2 = new Patient();
+		p2.addIdentifier().setSystem("http://bar").setValue("VAL1");
+		p2.addName().setFamily("Smith");
+		String id2 = myPatientDao.create(p2, mySrd).getId().toUnqualifiedVersionless().getValue();
+
+		myDaoConfig.setUseHashIndexesForSearch(true);
+
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam("http://foo", "VAL1")))), contains(id1));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam(null, "VAL1")))), containsInAnyOrder(id1, id2));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam("", "VAL2")))), contains(id1));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam("", "VAL1")))), empty());
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam("http://bar", null)))), contains(id2));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam("http://foo", "VAL2")))), empty());
+
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_FAMILY, new StringParam("smith")))), containsInAnyOrder(id1, id2));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_FAMILY, new StringParam("Smith").setExact(true)))), contains(id2));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_GIVEN, new StringParam("smith")))), empty());
+	}
+
+	@Test
+	public void testSearchUsingHashIndexesAfterReindexingPopulatesHashes() {
+		Patient p1 = new Patient();
+		p1.addIdentifier().setSystem("http://foo").setValue("VAL1");
+		p1.addName().setFamily("Smithson");
+		final String id1 = myPatientDao.create(p1, mySrd).getId().toUnqualifiedVersionless().getValue();
+
+		// Simulate rows written before the hash columns existed
+		newTxTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				myEntityManager.createNativeQuery("UPDATE HFJ_SPIDX_TOKEN SET HASH_IDENTITY = NULL, HASH_SYS_AND_VALUE = NULL, HASH_VALUE = NULL").executeUpdate();
+				myEntityManager.createNativeQuery("UPDATE HFJ_SPIDX_STRING SET HASH_IDENTITY = NULL, HASH_EXACT = NULL").executeUpdate();
+			}
+		});
+
+		myDaoConfig.setUseHashIndexesForSearch(true);
+		SearchParameterMap tokenMap = new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_IDENTIFIER, new TokenParam("http://foo", "VAL1"));
+		SearchParameterMap stringMap = new SearchParameterMap().setLoadSynchronous(true).add(Patient.SP_FAMILY, new StringParam("smith"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(tokenMap)), empty());
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(stringMap)), empty());
+
+		mySystemDao.markAllResourcesForReindexing();
+		mySystemDao.performReindexingPass(null);
+
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(tokenMap)), contains(id1));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(stringMap)), contains(id1));
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
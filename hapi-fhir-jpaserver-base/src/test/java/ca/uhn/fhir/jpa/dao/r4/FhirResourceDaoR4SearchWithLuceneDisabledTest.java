@@ -83,6 +83,10 @@ public class FhirResourceDaoR4SearchWithLuceneDisabledTest extends BaseJpaTest {
 	protected PlatformTransactionManager myTxManager;
 	@Autowired
 	protected ISearchParamPresenceSvc mySearchParamPresenceSvc;
+	@Autowired
+	protected IForcedIdCacheSvc myForcedIdCacheSvc;
+	@Autowired
+	protected IDecodedResourceCacheSvc myDecodedResourceCacheSvc;
 
 	@Autowired
 	@Qualifier("myJpaValidationSupportChainR4")
@@ -96,7 +100,7 @@ public class FhirResourceDaoR4SearchWithLuceneDisabledTest extends BaseJpaTest {
 	@Transactional()
 	public void beforePurgeDatabase() {
 		final EntityManager entityManager = this.myEntityManager;
-		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegistry);
+		purgeDatabase(entityManager, myTxManager, mySearchParamPresenceSvc, mySearchCoordinatorSvc, mySearchParamRegistry, myForcedIdCacheSvc, myDecodedResourceCacheSvc);
 	}
 
 	@Before
@@ -3,8 +3,11 @@ package ca.uhn.fhir.jpa.dao.r4;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsStringIgnoringCase;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.*;
@@ -703,6 +706,34 @@ public class FhirResourceDaoR4TerminologyTest extends BaseJpaR4Test {
 		assertThat(encoded, containsStringIgnoringCase("<code value=\"childAAB\"/>"));
 	}
 
+	@Test
+	public void testDeferredStorageStatus() {
+		myDaoConfig.setDeferIndexingForCodesystemsOfSize(1);
+		myTermSvc.setProcessDeferred(false);
+
+		createExternalCsAndLocalVs();
+
+		IHapiTerminologySvc.DeferredStorageStatus status = myTermSvc.getDeferredStorageStatus();
+		assertFalse(status.isComplete());
+		assertThat(status.getConceptsRemaining(), greaterThan(0L));
+		assertThat(status.getLinksRemaining(), greaterThan(0L));
+		long conceptsSavedBefore = status.getConceptsSaved();
+		long linksSavedBefore = status.getLinksSaved();
+
+		myTermSvc.setProcessDeferred(true);
+		for (int i = 0; i < 20 && !myTermSvc.getDeferredStorageStatus().isComplete(); i++) {
+			myTermSvc.saveDeferred();
+			status = myTermSvc.getDeferredStorageStatus();
+			ourLog.info("Deferred storage: {} concepts and {} links remain, last batch stored {} items in {}ms, next batch size {}",
+				new Object[] {status.getConceptsRemaining(), status.getLinksRemaining(), status.getLastBatchItemCount(), status.getLastBatchMillis(), status.getBatchSize()});
+		}
+
+		status = myTermSvc.getDeferredStorageStatus();
+		assertTrue(status.isComplete());
+		assertThat(status.getConceptsSaved(), greaterThan(conceptsSavedBefore));
+		assertThat(status.getLinksSaved(), greaterThan(linksSavedBefore));
+	}
+
 	@Test
 	public void testLookupSnomed() {
 		CodeSystem codeSystem = new CodeSystem();
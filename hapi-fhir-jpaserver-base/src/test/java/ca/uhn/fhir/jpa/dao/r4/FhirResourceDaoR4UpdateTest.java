@@ -9,11 +9,14 @@ import static org.mockito.Mockito.verify;
 import java.util.*;
 
 import net.ttddyy.dsproxy.QueryCountHolder;
+import org.hibernate.Session;
 import org.hl7.fhir.r4.model.*;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.junit.*;
 import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
@@ -33,6 +36,7 @@ public class FhirResourceDaoR4UpdateTest extends BaseJpaR4Test {
 	public void afterResetDao() {
 		myDaoConfig.setResourceMetaCountHardLimit(new DaoConfig().getResourceMetaCountHardLimit());
 		myDaoConfig.setIndexMissingFields(new DaoConfig().getIndexMissingFields());
+		myDaoConfig.setIndexingJdbcBatchSize(new DaoConfig().getIndexingJdbcBatchSize());
 	}
 
 	@Test
@@ -689,6 +693,70 @@ public class FhirResourceDaoR4UpdateTest extends BaseJpaR4Test {
 		assertEquals(4, QueryCountHolder.getGrandTotal().getInsert());
 	}
 
+	@Test
+	public void testUpdateWithIndexingJdbcBatchSizeRestoresSessionBatchSize() {
+		myDaoConfig.setIndexingJdbcBatchSize(50);
+
+		Integer batchSize = newTxTemplate().execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus theStatus) {
+				Session session = myEntityManager.unwrap(Session.class);
+				session.setJdbcBatchSize(7);
+
+				Patient pt = new Patient();
+				pt.addName().setFamily("FAMILY");
+				myPatientDao.create(pt);
+
+				return session.getJdbcBatchSize();
+			}
+		});
+		assertEquals(7, batchSize.intValue());
+	}
+
+	@Test
+	public void testUpdateWithIndexingJdbcBatchSize() {
+		myDaoConfig.setIndexMissingFields(DaoConfig.IndexEnabledEnum.DISABLED);
+
+		Patient pt = new Patient();
+		for (int i = 0; i < 10; i++) {
+			pt.addName().setFamily("FAMILY" + i);
+			pt.addIdentifier().setSystem("http://foo").setValue("VALUE" + i);
+		}
+		QueryCountHolder.clear();
+		myPatientDao.create(pt);
+		long unbatchedInserts = QueryCountHolder.getGrandTotal().getInsert();
+		QueryCountHolder.clear();
+
+		myDaoConfig.setIndexingJdbcBatchSize(50);
+
+		myPatientDao.create(pt);
+		long batchedInserts = QueryCountHolder.getGrandTotal().getInsert();
+		ourLog.info("Create executed {} insert statements unbatched and {} batched", unbatchedInserts, batchedInserts);
+		assertThat(batchedInserts, lessThan(unbatchedInserts / 2));
+
+		IIdType id = myPatientDao.create(pt).getId().toUnqualifiedVersionless();
+		QueryCountHolder.clear();
+
+		pt.setId(id);
+		pt.getName().clear();
+		pt.getIdentifier().clear();
+		pt.addName().setFamily("NEWFAMILY");
+		myPatientDao.update(pt);
+
+		ourLog.info("Update executed {} delete statements and {} inserts", QueryCountHolder.getGrandTotal().getDelete(), QueryCountHolder.getGrandTotal().getInsert());
+		assertThat(QueryCountHolder.getGrandTotal().getDelete(), lessThanOrEqualTo(2L));
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(Patient.SP_FAMILY, new StringParam("NEWFAMILY"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), contains(id.getValue()));
+
+		map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(Patient.SP_FAMILY, new StringParam("FAMILY1"));
+		assertThat(toUnqualifiedVersionlessIdValues(myPatientDao.search(map)), not(hasItem(id.getValue())));
+	}
+
 	@Test
 	public void testUpdateUnknownNumericIdFails() {
 		Patient p = new Patient();
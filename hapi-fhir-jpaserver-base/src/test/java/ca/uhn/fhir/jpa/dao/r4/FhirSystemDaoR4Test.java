@@ -2,6 +2,7 @@ package ca.uhn.fhir.jpa.dao.r4;
 
 import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
 import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.ReindexingStatus;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.jpa.provider.SystemProviderDstu2Test;
@@ -11,6 +12,7 @@ import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.exceptions.*;
 import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor.ActionRequestDetails;
 import ca.uhn.fhir.util.TestUtil;
@@ -34,6 +36,7 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -52,6 +55,9 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 	public void after() {
 		myDaoConfig.setAllowInlineMatchUrlReferences(false);
 		myDaoConfig.setAllowMultipleDelete(new DaoConfig().isAllowMultipleDelete());
+		myDaoConfig.setReindexThreadCount(new DaoConfig().getReindexThreadCount());
+		myDaoConfig.setReindexBatchSize(new DaoConfig().getReindexBatchSize());
+		myDaoConfig.setBatchThreadCount(new DaoConfig().getBatchThreadCount());
 	}
 
 	@Before
@@ -236,6 +242,54 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 		assertThat(oo.getIssue().get(0).getDiagnostics(), containsString("Unknown search parameter"));
 	}
 
+	@Test
+	public void testBatchMultithreaded() {
+		myDaoConfig.setBatchThreadCount(4);
+
+		/*
+		 * No Patient has been stored yet, so the entries race to create the search param
+		 * presence rows for Patient. The losers fail on a unique constraint and are retried.
+		 */
+
+		Bundle request = new Bundle();
+		request.setType(BundleType.BATCH);
+		for (int i = 0; i < 30; i++) {
+			if (i == 10) {
+				request
+					.addEntry()
+					.getRequest()
+					.setMethod(HTTPVerb.GET)
+					.setUrl("Patient/BABABABA");
+				continue;
+			}
+			Patient p = new Patient();
+			p.setId("Patient/BATCH" + i);
+			p.addName().setFamily("FAMILY" + i);
+			request
+				.addEntry()
+				.setResource(p)
+				.getRequest()
+				.setMethod(HTTPVerb.PUT)
+				.setUrl("Patient/BATCH" + i);
+		}
+
+		Bundle response = mySystemDao.transaction(mySrd, request);
+		assertEquals(30, response.getEntry().size());
+
+		for (int i = 0; i < 30; i++) {
+			BundleEntryComponent nextEntry = response.getEntry().get(i);
+			if (i == 10) {
+				assertEquals("404 Not Found", nextEntry.getResponse().getStatus());
+				OperationOutcome oo = (OperationOutcome) nextEntry.getResponse().getOutcome();
+				assertEquals("Resource Patient/BABABABA is not known", oo.getIssue().get(0).getDiagnostics());
+				continue;
+			}
+			assertEquals("201 Created", nextEntry.getResponse().getStatus());
+			assertThat(nextEntry.getResponse().getLocation(), startsWith("Patient/BATCH" + i + "/_history/1"));
+			assertEquals("FAMILY" + i, myPatientDao.read(new IdType("Patient/BATCH" + i), mySrd).getNameFirstRep().getFamily());
+		}
+	}
+
 	@Test
 	public void testCircularCreateAndDelete() {
 		Encounter enc = new Encounter();
@@ -512,6 +566,113 @@ public class FhirSystemDaoR4Test extends BaseJpaR4SystemTest {
 
 	}
 
+	@Test
+	public void testReindexingMultithreaded() {
+		myDaoConfig.setReindexThreadCount(3);
+		myDaoConfig.setReindexBatchSize(4);
+
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("family" + i);
+			ids.add(myPatientDao.create(p, mySrd).getId().getIdPartAsLong());
+		}
+
+		mySystemDao.markAllResourcesForReindexing();
+		assertEquals(20L, mySystemDao.getReindexingStatus().getResourcesRemaining());
+
+		assertEquals(Integer.valueOf(20), mySystemDao.performReindexingPass(null));
+
+		ReindexingStatus status = mySystemDao.getReindexingStatus();
+		assertEquals(0L, status.getResourcesRemaining());
+		assertThat(status.getResourcesIndexed(), greaterThanOrEqualTo(20L));
+
+		for (final Long next : ids) {
+			ResourceTable entity = new TransactionTemplate(myTxManager).execute(new TransactionCallback<ResourceTable>() {
+				@Override
+				public ResourceTable doInTransaction(TransactionStatus theStatus) {
+					return myEntityManager.find(ResourceTable.class, next);
+				}
+			});
+			assertEquals(Long.valueOf(1), entity.getIndexStatus());
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add(Patient.SP_FAMILY, new StringParam("family7"));
+		assertEquals(1, myPatientDao.search(map).size().intValue());
+	}
+
+	/**
+	 * Both threads index a search parameter that has never been indexed before, so
+	 * they race to insert the same HFJ_SEARCH_PARM row. The range that loses the race
+	 * is retried instead of marking its resource as failed.
+	 */
+	@Test
+	public void testReindexingMultithreadedWithNewSearchParameter() {
+		myDaoConfig.setReindexThreadCount(2);
+		myDaoConfig.setReindexBatchSize(1);
+
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("family" + i);
+			ids.add(myPatientDao.create(p, mySrd).getId().getIdPartAsLong());
+		}
+
+		SearchParameter sp = new SearchParameter();
+		sp.addBase("Patient");
+		sp.setCode("surname");
+		sp.setType(org.hl7.fhir.r4.model.Enumerations.SearchParamType.STRING);
+		sp.setTitle("Surname");
+		sp.setExpression("Patient.name.family");
+		sp.setXpathUsage(org.hl7.fhir.r4.model.SearchParameter.XPathUsageType.NORMAL);
+		sp.setStatus(org.hl7.fhir.r4.model.Enumerations.PublicationStatus.ACTIVE);
+		mySearchParameterDao.create(sp, mySrd);
+		mySearchParamRegsitry.forceRefresh();
+
+		mySystemDao.markAllResourcesForReindexing();
+		assertEquals(11L, mySystemDao.getReindexingStatus().getResourcesRemaining());
+
+		assertEquals(Integer.valueOf(11), mySystemDao.performReindexingPass(null));
+		assertEquals(0L, mySystemDao.getReindexingStatus().getResourcesRemaining());
+
+		for (final Long next : ids) {
+			ResourceTable entity = new TransactionTemplate(myTxManager).execute(new TransactionCallback<ResourceTable>() {
+				@Override
+				public ResourceTable doInTransaction(TransactionStatus theStatus) {
+					return myEntityManager.find(ResourceTable.class, next);
+				}
+			});
+			assertEquals(Long.valueOf(1), entity.getIndexStatus());
+		}
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.setLoadSynchronous(true);
+		map.add("surname", new StringParam("family7"));
+		assertEquals(1, myPatientDao.search(map).size().intValue());
+	}
+
+	@Test
+	public void testReindexingPassStopsAtCount() {
+		myDaoConfig.setReindexThreadCount(3);
+		myDaoConfig.setReindexBatchSize(4);
+
+		for (int i = 0; i < 20; i++) {
+			Patient p = new Patient();
+			p.addName().setFamily("family" + i);
+			myPatientDao.create(p, mySrd);
+		}
+
+		mySystemDao.markAllResourcesForReindexing();
+
+		assertEquals(Integer.valueOf(12), mySystemDao.performReindexingPass(12));
+		assertEquals(8L, mySystemDao.getReindexingStatus().getResourcesRemaining());
+		assertEquals(Integer.valueOf(8), mySystemDao.performReindexingPass(12));
+		assertEquals(0L, mySystemDao.getReindexingStatus().getResourcesRemaining());
+		assertEquals(Integer.valueOf(0), mySystemDao.performReindexingPass(12));
+	}
+
 	@Test
 	public void testSystemMetaOperation() {
 
@@ -11,15 +11,20 @@ import ca.uhn.fhir.jpa.search.JpaRuntimeSearchParam;
 import ca.uhn.fhir.util.TestUtil;
 import org.hl7.fhir.r4.hapi.ctx.DefaultProfileValidationSupport;
 import org.hl7.fhir.r4.hapi.ctx.IValidationSupport;
-import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.*;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -33,7 +38,84 @@ public class SearchParamExtractorR4Test {
 		Observation obs = new Observation();
 		obs.addCategory().addCoding().setSystem("SYSTEM").setCode("CODE");
 
-		ISearchParamRegistry searchParamRegistry = new ISearchParamRegistry() {
+		ISearchParamRegistry searchParamRegistry = newSearchParamRegistry();
+
+		SearchParamExtractorR4 extractor = new SearchParamExtractorR4(ourCtx, ourValidationSupport, searchParamRegistry);
+		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
+		assertEquals(1, tokens.size());
+		ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) tokens.iterator().next();
+		assertEquals("category", token.getParamName());
+		assertEquals("SYSTEM", token.getSystem());
+		assertEquals("CODE", token.getValue());
+	}
+
+	/**
+	 * A single extractor is shared by all threads, so extractions running concurrently
+	 * must not interfere with each other
+	 */
+	@Test
+	public void testExtractConcurrentlyWithSharedExtractor() throws Exception {
+		final Patient pt = newPatient();
+		final Observation obs = newObservation();
+
+		final SearchParamExtractorR4 extractor = new SearchParamExtractorR4(ourCtx, ourValidationSupport, newSearchParamRegistry());
+
+		final int expectedPatientTokens = extractor.extractSearchParamTokens(new ResourceTable(), pt).size();
+		final int expectedPatientStrings = extractor.extractSearchParamStrings(new ResourceTable(), pt).size();
+		final int expectedObservationTokens = extractor.extractSearchParamTokens(new ResourceTable(), obs).size();
+		final int expectedObservationQuantities = extractor.extractSearchParamQuantity(new ResourceTable(), obs).size();
+		assertTrue(expectedPatientTokens > 0);
+		assertTrue(expectedPatientStrings > 0);
+		assertTrue(expectedObservationTokens > 0);
+		assertTrue(expectedObservationQuantities > 0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int j = 0; j < 50; j++) {
+							assertEquals(expectedPatientTokens, extractor.extractSearchParamTokens(new ResourceTable(), pt).size());
+							assertEquals(expectedPatientStrings, extractor.extractSearchParamStrings(new ResourceTable(), pt).size());
+							assertEquals(expectedObservationTokens, extractor.extractSearchParamTokens(new ResourceTable(), obs).size());
+							assertEquals(expectedObservationQuantities, extractor.extractSearchParamQuantity(new ResourceTable(), obs).size());
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> next : futures) {
+				next.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static Patient newPatient() {
+		Patient pt = new Patient();
+		pt.addIdentifier().setSystem("http://foo").setValue("12345");
+		pt.addName().setFamily("Smith").addGiven("John");
+		pt.setBirthDateElement(new DateType("2011-01-01"));
+		pt.setGender(Enumerations.AdministrativeGender.MALE);
+		pt.getManagingOrganization().setReference("Organization/123");
+		return pt;
+	}
+
+	private static Observation newObservation() {
+		Observation obs = new Observation();
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		obs.getSubject().setReference("Patient/123");
+		obs.setEffective(new DateTimeType("2011-01-01T11:22:33Z"));
+		obs.setValue(new Quantity().setValue(123).setSystem("http://unitsofmeasure.org").setCode("mg"));
+		return obs;
+	}
+
+	private static ISearchParamRegistry newSearchParamRegistry() {
+		return new ISearchParamRegistry() {
 			@Override
 			public void forceRefresh() {
 				// nothing
@@ -79,14 +161,6 @@ public class SearchParamExtractorR4Test {
 				// nothing
 			}
 		};
-
-		SearchParamExtractorR4 extractor = new SearchParamExtractorR4(ourCtx, ourValidationSupport, searchParamRegistry);
-		Set<BaseResourceIndexedSearchParam> tokens = extractor.extractSearchParamTokens(new ResourceTable(), obs);
-		assertEquals(1, tokens.size());
-		ResourceIndexedSearchParamToken token = (ResourceIndexedSearchParamToken) tokens.iterator().next();
-		assertEquals("category", token.getParamName());
-		assertEquals("SYSTEM", token.getSystem());
-		assertEquals("CODE", token.getValue());
 	}
 
 	@AfterClass
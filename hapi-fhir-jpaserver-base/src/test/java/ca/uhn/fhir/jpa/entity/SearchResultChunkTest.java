@@ -0,0 +1,60 @@
+package ca.uhn.fhir.jpa.entity;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import ca.uhn.fhir.util.TestUtil;
+
+public class SearchResultChunkTest {
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@Test
+	public void testEncodeAndDecode() {
+		List<Long> pids = Arrays.asList(5L, 3L, 1000000000000L, 0L, Long.MAX_VALUE, 1L, 1L, 2L);
+
+		SearchResultChunk chunk = new SearchResultChunk(new Search(), 0);
+		chunk.setPids(pids);
+
+		assertEquals(8, chunk.getPidCount());
+		assertEquals(pids, chunk.getPids());
+	}
+
+	@Test
+	public void testEncodeEmpty() {
+		SearchResultChunk chunk = new SearchResultChunk(new Search(), 0);
+		chunk.setPids(Collections.<Long>emptyList());
+
+		assertEquals(0, chunk.getPidCount());
+		assertEquals(Collections.<Long>emptyList(), chunk.getPids());
+	}
+
+	@Test
+	public void testEncodedSizeForMostlyAscendingPids() {
+		Random random = new Random(0);
+		List<Long> pids = new ArrayList<>();
+		long next = 1000000;
+		for (int i = 0; i < 5000; i++) {
+			next += random.nextInt(20) + 1;
+			pids.add(next);
+		}
+
+		byte[] encoded = SearchResultChunk.encode(pids);
+
+		assertThat(encoded.length, lessThan(pids.size() * 2));
+		assertEquals(pids, SearchResultChunk.decode(encoded, pids.size()));
+	}
+
+}
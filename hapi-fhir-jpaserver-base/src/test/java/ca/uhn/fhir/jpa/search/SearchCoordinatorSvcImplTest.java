@@ -7,6 +7,7 @@ import ca.uhn.fhir.jpa.dao.ISearchBuilder;
 import ca.uhn.fhir.jpa.dao.SearchParameterMap;
 import ca.uhn.fhir.jpa.dao.data.ISearchDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchIncludeDao;
+import ca.uhn.fhir.jpa.dao.data.ISearchResultChunkDao;
 import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.entity.Search;
 import ca.uhn.fhir.jpa.entity.SearchResult;
@@ -18,8 +19,11 @@ import ca.uhn.fhir.rest.api.CacheControlDirective;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import ca.uhn.fhir.util.StopWatch;
 import ca.uhn.fhir.util.TestUtil;
 import com.google.common.collect.Lists;
+import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -41,6 +45,7 @@ import org.springframework.transaction.PlatformTransactionManager;
 import javax.persistence.EntityManager;
 import java.util.*;
 
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
@@ -68,7 +73,10 @@ public class SearchCoordinatorSvcImplTest {
 	private ISearchIncludeDao mySearchIncludeDao;
 	@Mock
 	private ISearchResultDao mySearchResultDao;
+	@Mock
+	private ISearchResultChunkDao mySearchResultChunkDao;
 	private SearchCoordinatorSvcImpl mySvc;
+	private SearchUpdateNotifierSvcImpl mySearchUpdateNotifierSvc = new SearchUpdateNotifierSvcImpl();
 
 	@Mock
 	private PlatformTransactionManager myTxManager;
@@ -89,6 +97,8 @@ public class SearchCoordinatorSvcImplTest {
 		mySvc.setSearchDaoForUnitTest(mySearchDao);
 		mySvc.setSearchDaoIncludeForUnitTest(mySearchIncludeDao);
 		mySvc.setSearchDaoResultForUnitTest(mySearchResultDao);
+		mySvc.setSearchResultChunkDaoForUnitTest(mySearchResultChunkDao);
+		mySvc.setSearchUpdateNotifierSvcForUnitTest(mySearchUpdateNotifierSvc);
 
 		myDaoConfig = new DaoConfig();
 		mySvc.setDaoConfigForUnitTest(myDaoConfig);
@@ -293,6 +303,175 @@ public class SearchCoordinatorSvcImplTest {
 
 	}
 
+	@Test
+	public void testAsyncSearchRejectedWhenQueueFull() {
+		myExpectedNumberOfSearchBuildersCreated = 3;
+		myDaoConfig.setSearchThreadCount(1);
+		myDaoConfig.setSearchQueueCapacity(0);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<Long> pids = createPidSequence(10, 800);
+		Iterator<Long> iter = new SlowIterator<Long>(pids.iterator(), 2);
+		when(mySearchBuider.createQuery(Mockito.same(params), any(String.class))).thenReturn(iter);
+
+		doAnswer(loadPids()).when(mySearchBuider).loadResourcesByPid(any(List.class), any(List.class), any(Set.class), anyBoolean(), any(EntityManager.class), any(FhirContext.class), same(myCallingDao));
+
+		IBundleProvider result = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertNotNull(result.getUuid());
+
+		try {
+			mySvc.registerSearch(myCallingDao, new SearchParameterMap(), "Observation", new CacheControlDirective());
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(503, e.getStatusCode());
+		}
+		assertEquals(1, mySvc.getRejectedSearchCount());
+
+		assertEquals(790, result.getResources(0, 100000).size());
+		assertEquals(1, mySvc.getStartedSearchCount());
+		assertEquals(0, mySvc.getQueuedSearchCount());
+	}
+
+	@Test
+	public void testAsyncSearchRejectedWhenResourceTypeLimitReached() throws InterruptedException {
+		myExpectedNumberOfSearchBuildersCreated = 5;
+		myDaoConfig.setMaximumConcurrentSearchesPerResourceType(1);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<Long> pids = createPidSequence(10, 800);
+		when(mySearchBuider.createQuery(Mockito.same(params), any(String.class))).thenReturn(new SlowIterator<Long>(pids.iterator(), 2), new SlowIterator<Long>(pids.iterator(), 0));
+
+		doAnswer(loadPids()).when(mySearchBuider).loadResourcesByPid(any(List.class), any(List.class), any(Set.class), anyBoolean(), any(EntityManager.class), any(FhirContext.class), same(myCallingDao));
+
+		IBundleProvider result = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertNotNull(result.getUuid());
+
+		try {
+			mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+			fail();
+		} catch (UnclassifiedServerFailureException e) {
+			assertEquals(429, e.getStatusCode());
+		}
+		assertEquals(1, mySvc.getRejectedSearchCount());
+
+		assertEquals(790, result.getResources(0, 100000).size());
+
+		// Once the first search is complete, another one for the same type is accepted
+		StopWatch sw = new StopWatch();
+		while (mySvc.getActiveSearchCount() > 0 && sw.getMillis() < 10000) {
+			Thread.sleep(10);
+		}
+		result = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertNotNull(result.getUuid());
+	}
+
+	@Test
+	public void testActiveSearchCountIncludesSearchesOnReplacedExecutor() throws InterruptedException {
+		myDaoConfig.setSearchThreadCount(1);
+		myDaoConfig.setSearchQueueCapacity(0);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<Long> pids = createPidSequence(10, 800);
+		when(mySearchBuider.createQuery(Mockito.same(params), any(String.class))).thenReturn(new SlowIterator<Long>(pids.iterator(), 2));
+		doAnswer(loadPids()).when(mySearchBuider).loadResourcesByPid(any(List.class), any(List.class), any(Set.class), anyBoolean(), any(EntityManager.class), any(FhirContext.class), same(myCallingDao));
+
+		IBundleProvider result = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertNotNull(result.getUuid());
+		StopWatch sw = new StopWatch();
+		while (mySvc.getStartedSearchCount() == 0 && sw.getMillis() < 10000) {
+			Thread.sleep(10);
+		}
+
+		// Changing the thread count replaces the executor while the search is still running on the old one
+		myDaoConfig.setSearchThreadCount(2);
+		assertEquals(0, mySvc.getQueuedSearchCount());
+		assertEquals(1, mySvc.getActiveSearchCount());
+
+		assertEquals(790, result.getResources(0, 100000).size());
+		sw = new StopWatch();
+		while (mySvc.getActiveSearchCount() > 0 && sw.getMillis() < 10000) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, mySvc.getActiveSearchCount());
+	}
+
+	@Test
+	public void testQueuedSearchCountIncludesSearchesOnReplacedExecutor() throws InterruptedException {
+		myExpectedNumberOfSearchBuildersCreated = 4;
+		myDaoConfig.setSearchThreadCount(1);
+		myDaoConfig.setSearchQueueCapacity(1);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<Long> pids = createPidSequence(10, 800);
+		when(mySearchBuider.createQuery(Mockito.same(params), any(String.class))).thenReturn(new SlowIterator<Long>(pids.iterator(), 2), new SlowIterator<Long>(pids.iterator(), 0));
+		doAnswer(loadPids()).when(mySearchBuider).loadResourcesByPid(any(List.class), any(List.class), any(Set.class), anyBoolean(), any(EntityManager.class), any(FhirContext.class), same(myCallingDao));
+
+		IBundleProvider first = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		StopWatch sw = new StopWatch();
+		while (mySvc.getStartedSearchCount() == 0 && sw.getMillis() < 10000) {
+			Thread.sleep(10);
+		}
+		IBundleProvider second = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertEquals(1, mySvc.getQueuedSearchCount());
+
+		// Reading the count doesn't replace the executor, and still includes the search queued on the old one
+		myDaoConfig.setSearchThreadCount(2);
+		assertEquals(1, mySvc.getQueuedSearchCount());
+		assertEquals(1, mySvc.getActiveSearchCount());
+
+		assertEquals(790, first.getResources(0, 100000).size());
+		assertEquals(790, second.getResources(0, 100000).size());
+		assertEquals(0, mySvc.getQueuedSearchCount());
+		assertEquals(2, mySvc.getStartedSearchCount());
+	}
+
+	@Test
+	public void testAsyncSearchSlotReleasedWhenSavingFailureFails() throws InterruptedException {
+		myExpectedNumberOfSearchBuildersCreated = 4;
+		myDaoConfig.setMaximumConcurrentSearchesPerResourceType(1);
+
+		SearchParameterMap params = new SearchParameterMap();
+		params.add("name", new StringParam("ANAME"));
+
+		List<Long> pids = createPidSequence(10, 800);
+		Iterator<Long> failing = new FailAfterNIterator<Long>(pids.iterator(), 5);
+		when(mySearchBuider.createQuery(Mockito.same(params), any(String.class))).thenReturn(failing, pids.iterator());
+		doAnswer(loadPids()).when(mySearchBuider).loadResourcesByPid(any(List.class), any(List.class), any(Set.class), anyBoolean(), any(EntityManager.class), any(FhirContext.class), same(myCallingDao));
+
+		// Recording the failure fails too
+		doAnswer(new Answer<Search>() {
+			@Override
+			public Search answer(InvocationOnMock theInvocation) {
+				Search search = (Search) theInvocation.getArguments()[0];
+				if (search.getStatus() == SearchStatusEnum.FAILED) {
+					throw new InternalErrorException("Database is down");
+				}
+				return search;
+			}
+		}).when(mySearchDao).save(any(Search.class));
+
+		IBundleProvider result = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertNotNull(result.getUuid());
+
+		StopWatch sw = new StopWatch();
+		while ((mySvc.getStartedSearchCount() == 0 || mySvc.getActiveSearchCount() > 0) && sw.getMillis() < 10000) {
+			Thread.sleep(10);
+		}
+
+		// The failed search must have released its slot
+		result = mySvc.registerSearch(myCallingDao, params, "Patient", new CacheControlDirective());
+		assertNotNull(result.getUuid());
+		assertEquals(0, mySvc.getRejectedSearchCount());
+	}
+
 	@Test
 	public void testGetPage() {
 		Pageable page = SearchCoordinatorSvcImpl.toPage(50, 73);
@@ -360,6 +539,58 @@ public class SearchCoordinatorSvcImplTest {
 		myExpectedNumberOfSearchBuildersCreated = 3;
 	}
 
+	/**
+	 * A request waiting for a search which is being loaded by another node should
+	 * be woken as soon as that node reports progress, instead of waiting for the
+	 * next check
+	 */
+	@Test
+	public void testLoadSearchResultsFromDifferentCoordinatorWokenByNotification() {
+		final String uuid = UUID.randomUUID().toString();
+
+		final Search search = new Search();
+		search.setUuid(uuid);
+		search.setSearchType(SearchTypeEnum.SEARCH);
+		search.setResourceType("Patient");
+		search.setStatus(SearchStatusEnum.LOADING);
+
+		when(mySearchDao.findByUuid(eq(uuid))).thenReturn(search);
+		when(mySearchResultDao.findWithSearchUuid(any(Search.class), any(Pageable.class))).thenAnswer(new Answer<Page<SearchResult>>() {
+			@Override
+			public Page<SearchResult> answer(InvocationOnMock theInvocation) throws Throwable {
+				Pageable page = (Pageable) theInvocation.getArguments()[1];
+				ArrayList<SearchResult> results = new ArrayList<SearchResult>();
+				for (int i = page.getOffset(); i < page.getOffset() + page.getPageSize(); i++) {
+					results.add(new SearchResult().setResourcePid(i + 10L));
+				}
+				return new PageImpl<SearchResult>(results);
+			}
+		});
+
+		mySvc.setMaxMillisBetweenRemoteChecksForUnitTest(DateUtils.MILLIS_PER_MINUTE);
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				search.setStatus(SearchStatusEnum.FINISHED);
+				mySearchUpdateNotifierSvc.notifySearchUpdated(uuid);
+			}
+		}.start();
+
+		StopWatch sw = new StopWatch();
+		List<Long> pids = mySvc.getResources(uuid, 10, 20);
+		assertEquals(10, pids.size());
+		assertEquals(20L, pids.get(0).longValue());
+		assertThat(sw.getMillis(), lessThan(30000L));
+
+		myExpectedNumberOfSearchBuildersCreated = 0;
+	}
+
 	@Test
 	public void testSynchronousSearch() {
 		SearchParameterMap params = new SearchParameterMap();
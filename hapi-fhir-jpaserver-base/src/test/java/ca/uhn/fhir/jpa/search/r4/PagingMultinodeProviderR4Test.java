@@ -2,14 +2,21 @@ package ca.uhn.fhir.jpa.search.r4;
 
 import static org.apache.commons.lang3.StringUtils.leftPad;
 import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.*;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.util.AopTestUtils;
 
 import ca.uhn.fhir.jpa.dao.DaoConfig;
+import ca.uhn.fhir.jpa.dao.data.ISearchResultChunkDao;
+import ca.uhn.fhir.jpa.dao.data.ISearchResultDao;
 import ca.uhn.fhir.jpa.provider.r4.BaseResourceProviderR4Test;
 import ca.uhn.fhir.jpa.search.SearchCoordinatorSvcImpl;
 import ca.uhn.fhir.parser.StrictErrorHandler;
@@ -18,6 +25,10 @@ import ca.uhn.fhir.util.TestUtil;
 public class PagingMultinodeProviderR4Test extends BaseResourceProviderR4Test {
 
 	private SearchCoordinatorSvcImpl mySearchCoordinatorSvcRaw;
+	@Autowired
+	private ISearchResultDao mySearchResultDao;
+	@Autowired
+	private ISearchResultChunkDao mySearchResultChunkDao;
 
 	@Override
 	@After
@@ -26,6 +37,8 @@ public class PagingMultinodeProviderR4Test extends BaseResourceProviderR4Test {
 
 		myDaoConfig.setAllowMultipleDelete(new DaoConfig().isAllowMultipleDelete());
 		myDaoConfig.setAllowExternalReferences(new DaoConfig().isAllowExternalReferences());
+		myDaoConfig.setSearchResultChunkSize(new DaoConfig().getSearchResultChunkSize());
+		myDaoConfig.setReuseCachedSearchResultsForMillis(new DaoConfig().getReuseCachedSearchResultsForMillis());
 		
 		mySearchCoordinatorSvcRaw.setLoadingThrottleForUnitTests(null);
 		mySearchCoordinatorSvcRaw.setSyncSizeForUnitTests(SearchCoordinatorSvcImpl.DEFAULT_SYNC_SIZE);
@@ -89,6 +102,86 @@ public class PagingMultinodeProviderR4Test extends BaseResourceProviderR4Test {
 		assertThat(toUnqualifiedVersionlessIdValues(found), contains("Patient/A030", "Patient/A031", "Patient/A032", "Patient/A033", "Patient/A034", "Patient/A035", "Patient/A036", "Patient/A037", "Patient/A038", "Patient/A039"));
 	}
 
+	@Test
+	public void testSearchWithChunkedResultStorage() {
+		createPatients();
+
+		mySearchCoordinatorSvcRaw.setLoadingThrottleForUnitTests(50);
+		mySearchCoordinatorSvcRaw.setSyncSizeForUnitTests(10);
+		mySearchCoordinatorSvcRaw.setNeverUseLocalSearchForUnitTests(true);
+
+		// Pages of 10 which span chunk boundaries, and chunks which are rewritten by later syncs
+		myDaoConfig.setSearchResultChunkSize(15);
+		myDaoConfig.setReuseCachedSearchResultsForMillis(null);
+		long resultRowsBefore = mySearchResultDao.count();
+		long chunkRowsBefore = mySearchResultChunkDao.count();
+
+		Bundle found = myClient
+				.search()
+				.forResource(Patient.class)
+				.sort().ascending(Patient.SP_FAMILY)
+				.count(10)
+				.returnBundle(Bundle.class)
+				.execute();
+		assertThat(toUnqualifiedVersionlessIdValues(found), contains("Patient/A000", "Patient/A001", "Patient/A002", "Patient/A003", "Patient/A004", "Patient/A005", "Patient/A006", "Patient/A007", "Patient/A008", "Patient/A009"));
+
+		for (int page = 1; page < 10; page++) {
+			found = myClient
+					.loadPage()
+					.next(found)
+					.execute();
+			List<String> expected = new ArrayList<>();
+			for (int i = page * 10; i < page * 10 + 10; i++) {
+				expected.add("Patient/A" + leftPad(Integer.toString(i), 3, '0'));
+			}
+			assertEquals(expected, toUnqualifiedVersionlessIdValues(found));
+		}
+
+		assertEquals(resultRowsBefore, mySearchResultDao.count());
+		assertEquals(chunkRowsBefore + 7, mySearchResultChunkDao.count());
+	}
+
+	/**
+	 * Searches which were stored before chunked storage was enabled must still be
+	 * readable afterwards
+	 */
+	@Test
+	public void testSearchStoredBeforeChunkedResultStorageWasEnabled() {
+		createPatients();
+
+		mySearchCoordinatorSvcRaw.setLoadingThrottleForUnitTests(50);
+		mySearchCoordinatorSvcRaw.setSyncSizeForUnitTests(10);
+		mySearchCoordinatorSvcRaw.setNeverUseLocalSearchForUnitTests(true);
+		myDaoConfig.setReuseCachedSearchResultsForMillis(null);
+
+		Bundle found = myClient
+				.search()
+				.forResource(Patient.class)
+				.sort().ascending(Patient.SP_FAMILY)
+				.count(10)
+				.returnBundle(Bundle.class)
+				.execute();
+
+		myDaoConfig.setSearchResultChunkSize(15);
+
+		found = myClient
+				.loadPage()
+				.next(found)
+				.execute();
+		assertThat(toUnqualifiedVersionlessIdValues(found), contains("Patient/A010", "Patient/A011", "Patient/A012", "Patient/A013", "Patient/A014", "Patient/A015", "Patient/A016", "Patient/A017", "Patient/A018", "Patient/A019"));
+	}
+
+	private void createPatients() {
+		for (int i = 0; i < 100; i++) {
+			Patient patient = new Patient();
+			String id = "A" + leftPad(Integer.toString(i), 3, '0');
+			patient.setId(id);
+			patient.addIdentifier().setSystem("urn:system").setValue("A" + i);
+			patient.addName().setFamily(id);
+			myPatientDao.update(patient, mySrd).getId().toUnqualifiedVersionless();
+		}
+	}
+
 	@AfterClass
 	public static void afterClassClearContext() {
 		TestUtil.clearAllStaticFieldsForUnitTest();
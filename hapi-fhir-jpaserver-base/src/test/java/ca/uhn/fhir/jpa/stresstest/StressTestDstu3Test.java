@@ -1,8 +1,10 @@
 package ca.uhn.fhir.jpa.stresstest;
 
+import ca.uhn.fhir.jpa.dao.DaoConfig;
 import ca.uhn.fhir.jpa.provider.dstu3.BaseResourceProviderDstu3Test;
 import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.server.interceptor.RequestValidatingInterceptor;
+import ca.uhn.fhir.util.StopWatch;
 import ca.uhn.fhir.util.TestUtil;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
@@ -15,7 +17,11 @@ import org.hl7.fhir.dstu3.model.Bundle.BundleType;
 import org.hl7.fhir.dstu3.model.Bundle.HTTPVerb;
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.DateTimeType;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Observation.ObservationStatus;
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Quantity;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -36,6 +42,7 @@ public class StressTestDstu3Test extends BaseResourceProviderDstu3Test {
 		super.after();
 
 		ourRestServer.unregisterInterceptor(myRequestValidatingInterceptor);
+		myDaoConfig.setIndexingJdbcBatchSize(new DaoConfig().getIndexingJdbcBatchSize());
 	}
 
 	@Before
@@ -49,6 +56,40 @@ public class StressTestDstu3Test extends BaseResourceProviderDstu3Test {
 	}
 
 
+	/**
+	 * Compares the time taken to write a transaction of resources with many
+	 * index rows when the index rows are and aren't written in JDBC batches
+	 */
+	@Test
+	public void testTransactionWithIndexingJdbcBatchSize() {
+		// Batch size of 1 means one round trip per row
+		myDaoConfig.setIndexingJdbcBatchSize(1);
+		long unbatchedMillis = executeObservationTransaction();
+
+		myDaoConfig.setIndexingJdbcBatchSize(50);
+		long batchedMillis = executeObservationTransaction();
+
+		ourLog.info("Transaction took {}ms unbatched and {}ms batched", unbatchedMillis, batchedMillis);
+	}
+
+	private long executeObservationTransaction() {
+		Bundle input = new Bundle();
+		input.setType(BundleType.TRANSACTION);
+		for (int i = 0; i < 200; i++) {
+			Observation obs = new Observation();
+			obs.setStatus(ObservationStatus.FINAL);
+			obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-" + i).setDisplay("Display " + i);
+			obs.addIdentifier().setSystem("http://test").setValue("OBS" + i);
+			obs.setEffective(new DateTimeType("2018-01-01T10:00:00Z"));
+			obs.setValue(new Quantity().setValue(i).setUnit("mg").setSystem("http://unitsofmeasure.org").setCode("mg"));
+			input.addEntry().setResource(obs).getRequest().setMethod(HTTPVerb.POST).setUrl("Observation");
+		}
+
+		StopWatch sw = new StopWatch();
+		mySystemDao.transaction(mySrd, input);
+		return sw.getMillis();
+	}
+
 	@Test
 	public void testMultithreadedSearch() throws Exception {
 		Bundle input = new Bundle();
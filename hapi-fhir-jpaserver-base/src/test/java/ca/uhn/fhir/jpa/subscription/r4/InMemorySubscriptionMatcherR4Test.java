@@ -0,0 +1,189 @@
+package ca.uhn.fhir.jpa.subscription.r4;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.dao.ISearchParamRegistry;
+import ca.uhn.fhir.jpa.dao.SearchParameterMap;
+import ca.uhn.fhir.jpa.dao.r4.SearchParamExtractorR4;
+import ca.uhn.fhir.jpa.entity.ResourceTable;
+import ca.uhn.fhir.jpa.search.JpaRuntimeSearchParam;
+import ca.uhn.fhir.jpa.subscription.InMemorySubscriptionMatcher;
+import ca.uhn.fhir.jpa.subscription.InMemorySubscriptionMatcher.MatchResultEnum;
+import ca.uhn.fhir.rest.param.*;
+import ca.uhn.fhir.util.TestUtil;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.hapi.ctx.DefaultProfileValidationSupport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class InMemorySubscriptionMatcherR4Test {
+
+	private static FhirContext ourCtx = FhirContext.forR4();
+	private static DefaultProfileValidationSupport ourValidationSupport;
+	private SearchParamExtractorR4 myExtractor;
+	private InMemorySubscriptionMatcher myMatcher;
+
+	@Before
+	public void before() {
+		ISearchParamRegistry searchParamRegistry = new ISearchParamRegistry() {
+			@Override
+			public void forceRefresh() {
+				// nothing
+			}
+
+			@Override
+			public RuntimeSearchParam getActiveSearchParam(String theResourceName, String theParamName) {
+				return getActiveSearchParams(theResourceName).get(theParamName);
+			}
+
+			@Override
+			public Map<String, Map<String, RuntimeSearchParam>> getActiveSearchParams() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Map<String, RuntimeSearchParam> getActiveSearchParams(String theResourceName) {
+				RuntimeResourceDefinition nextResDef = ourCtx.getResourceDefinition(theResourceName);
+				Map<String, RuntimeSearchParam> sps = new HashMap<>();
+				for (RuntimeSearchParam nextSp : nextResDef.getSearchParams()) {
+					sps.put(nextSp.getName(), nextSp);
+				}
+				return sps;
+			}
+
+			@Override
+			public List<JpaRuntimeSearchParam> getActiveUniqueSearchParams(String theResourceName, Set<String> theParamNames) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public List<JpaRuntimeSearchParam> getActiveUniqueSearchParams(String theResourceName) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void refreshCacheIfNecessary() {
+				// nothing
+			}
+
+			@Override
+			public void requestRefresh() {
+				// nothing
+			}
+		};
+
+		myExtractor = spy(new SearchParamExtractorR4(ourCtx, ourValidationSupport, searchParamRegistry));
+		myMatcher = new InMemorySubscriptionMatcher(ourCtx, myExtractor, searchParamRegistry);
+	}
+
+	private Observation createObservation() {
+		Observation obs = new Observation();
+		obs.setId("Observation/OBS1");
+		obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+		obs.setStatus(Observation.ObservationStatus.FINAL);
+		obs.getSubject().setReference("Patient/PT1");
+		return obs;
+	}
+
+	@Test
+	public void testMatchToken() {
+		Observation obs = createObservation();
+
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam("http://loinc.org", "1234-5")), obs));
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam(null, "1234-5")), obs));
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam("http://loinc.org", null)), obs));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam("http://loinc.org", "9999-9")), obs));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam("", "1234-5")), obs));
+
+		assertEquals(5, myMatcher.getInMemoryMatchCount());
+		assertEquals(0, myMatcher.getFallbackCount());
+	}
+
+	@Test
+	public void testIndexesExtractedOncePerResource() {
+		Observation obs = createObservation();
+		InMemorySubscriptionMatcher.ResourceIndexes indexes = myMatcher.newResourceIndexes(obs);
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam("http://loinc.org", "1234-5")), indexes));
+			assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_STATUS, new TokenParam(null, "preliminary")), indexes));
+		}
+
+		verify(myExtractor, times(1)).extractSearchParamTokens(any(ResourceTable.class), any(IBaseResource.class));
+	}
+
+	@Test
+	public void testMatchAndOr() {
+		Observation obs = createObservation();
+
+		SearchParameterMap map = new SearchParameterMap();
+		map.add(Observation.SP_CODE, new TokenOrListParam().addOr(new TokenParam(null, "AAA")).addOr(new TokenParam(null, "1234-5")));
+		map.add(Observation.SP_STATUS, new TokenParam(null, "final"));
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(map, obs));
+
+		map.add(Observation.SP_STATUS, new TokenParam(null, "preliminary"));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(map, obs));
+	}
+
+	@Test
+	public void testMatchString() {
+		Patient pt = new Patient();
+		pt.setId("Patient/PT1");
+		pt.addName().setFamily("Smith");
+
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Patient.SP_FAMILY, new StringParam("smi")), pt));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap(Patient.SP_FAMILY, new StringParam("smi").setExact(true)), pt));
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Patient.SP_FAMILY, new StringParam("Smith").setExact(true)), pt));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap(Patient.SP_FAMILY, new StringParam("jones")), pt));
+	}
+
+	@Test
+	public void testMatchReferenceAndId() {
+		Observation obs = createObservation();
+
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_SUBJECT, new ReferenceParam("Patient/PT1")), obs));
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_SUBJECT, new ReferenceParam("PT1")), obs));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap(Observation.SP_SUBJECT, new ReferenceParam("Patient/PT2")), obs));
+		assertEquals(MatchResultEnum.MATCH, myMatcher.match(new SearchParameterMap("_id", new StringParam("OBS1")), obs));
+		assertEquals(MatchResultEnum.NO_MATCH, myMatcher.match(new SearchParameterMap("_id", new StringParam("OBS2")), obs));
+	}
+
+	@Test
+	public void testUnsupportedFallsBack() {
+		Observation obs = createObservation();
+
+		assertEquals(MatchResultEnum.UNSUPPORTED, myMatcher.match(new SearchParameterMap(Observation.SP_SUBJECT, new ReferenceParam("name", "Smith")), obs));
+		assertEquals(MatchResultEnum.UNSUPPORTED, myMatcher.match(new SearchParameterMap(Observation.SP_CODE, new TokenParam(null, "1234-5").setModifier(TokenParamModifier.BELOW)), obs));
+		assertEquals(MatchResultEnum.UNSUPPORTED, myMatcher.match(new SearchParameterMap(Observation.SP_DATE, new DateParam("2011-01-01")), obs));
+
+		assertEquals(0, myMatcher.getInMemoryMatchCount());
+		assertEquals(3, myMatcher.getFallbackCount());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		ourValidationSupport = new DefaultProfileValidationSupport();
+	}
+
+}
@@ -0,0 +1,86 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+import ca.uhn.fhir.jpa.dao.r4.BaseJpaR4Test;
+import ca.uhn.fhir.jpa.subscription.CanonicalSubscription;
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.util.TestUtil;
+import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JpaRestHookDeliveryStoreR4Test extends BaseJpaR4Test {
+
+	@Autowired
+	private JpaRestHookDeliveryStore myRestHookDeliveryStore;
+
+	private ResourceDeliveryMessage createMessage() {
+		CanonicalSubscription subscription = new CanonicalSubscription();
+		subscription.setEndpointUrl("http://localhost/fhir");
+		Patient patient = new Patient();
+		patient.setId("Patient/123");
+		patient.addName().setFamily("FAMILY");
+
+		ResourceDeliveryMessage retVal = new ResourceDeliveryMessage();
+		retVal.setSubscription(subscription);
+		retVal.setPayload(myFhirCtx, patient);
+		retVal.setPayloadId(patient.getIdElement());
+		retVal.setOperationType(RestOperationTypeEnum.UPDATE);
+		return retVal;
+	}
+
+	@Test
+	public void testStoreAndDeleteDeadLetters() {
+		myRestHookDeliveryStore.store(new RestHookDeadLetter("Subscription/1", "http://localhost/fhir", createMessage(), 3, "Server down"));
+		assertEquals(1, myRestHookDeliveryStore.getDeadLetterCount());
+		assertEquals(0, myRestHookDeliveryStore.loadPending().size());
+
+		List<RestHookDeadLetter> deadLetters = myRestHookDeliveryStore.getDeadLetters(10);
+		assertEquals(1, deadLetters.size());
+		RestHookDeadLetter deadLetter = deadLetters.get(0);
+		assertEquals("Subscription/1", deadLetter.getSubscriptionId());
+		assertEquals("http://localhost/fhir", deadLetter.getEndpointUrl());
+		assertEquals(3, deadLetter.getAttempts());
+		assertEquals("Server down", deadLetter.getReason());
+		assertEquals("FAMILY", ((Patient) deadLetter.getMessage().getPayload(myFhirCtx)).getNameFirstRep().getFamily());
+
+		assertEquals(0, myRestHookDeliveryStore.deleteDeadLettersCreatedBefore(new Date(System.currentTimeMillis() - DateUtils.MILLIS_PER_HOUR)));
+		assertEquals(1, myRestHookDeliveryStore.deleteDeadLettersCreatedBefore(new Date(System.currentTimeMillis() + DateUtils.MILLIS_PER_HOUR)));
+		assertEquals(0, myRestHookDeliveryStore.getDeadLetterCount());
+	}
+
+	@Test
+	public void testStoreLoadAndRemovePending() {
+		Long id1 = myRestHookDeliveryStore.storePending("Subscription/1", "http://localhost/fhir", createMessage());
+		Long id2 = myRestHookDeliveryStore.storePending("Subscription/1", "http://localhost/fhir", createMessage());
+
+		Map<Long, ResourceDeliveryMessage> pending = myRestHookDeliveryStore.loadPending();
+		assertEquals(2, pending.size());
+		assertEquals(id1, pending.keySet().iterator().next());
+		ResourceDeliveryMessage message = pending.get(id1);
+		assertEquals(RestOperationTypeEnum.UPDATE, message.getOperationType());
+		assertEquals("Patient/123", message.getPayloadId(myFhirCtx).getValue());
+		assertEquals("http://localhost/fhir", message.getSubscription().getEndpointUrl());
+		assertEquals("FAMILY", ((Patient) message.getPayload(myFhirCtx)).getNameFirstRep().getFamily());
+
+		myRestHookDeliveryStore.removePending(id1);
+		pending = myRestHookDeliveryStore.loadPending();
+		assertEquals(1, pending.size());
+		assertTrue(pending.containsKey(id2));
+		assertEquals(0, myRestHookDeliveryStore.getDeadLetterCount());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -0,0 +1,272 @@
+package ca.uhn.fhir.jpa.subscription.resthook;
+
+import ca.uhn.fhir.jpa.subscription.ResourceDeliveryMessage;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.util.TestUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+public class RestHookDeliveryEngineTest {
+
+	private InMemoryRestHookDeadLetterStore myDeadLetterStore;
+	private RestHookDeliveryEngine myEngine;
+	private MapPendingDeliveryStore myPendingDeliveryStore;
+
+	@After
+	public void after() {
+		myEngine.shutdown();
+	}
+
+	@Before
+	public void before() {
+		myDeadLetterStore = new InMemoryRestHookDeadLetterStore();
+		myPendingDeliveryStore = new MapPendingDeliveryStore();
+		myEngine = new RestHookDeliveryEngine(4, 1, 2, 3, 10, myDeadLetterStore, myPendingDeliveryStore);
+	}
+
+	private void waitForIdle(String theSubscriptionId) throws InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			RestHookDeliveryMetrics metrics = myEngine.getMetrics(theSubscriptionId);
+			if (metrics != null && metrics.getBacklog() == 0) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+		fail("Deliveries for " + theSubscriptionId + " did not complete");
+	}
+
+	@Test
+	public void testRetryThenSucceed() throws InterruptedException {
+		final AtomicInteger attempts = new AtomicInteger();
+		myEngine.enqueue("Subscription/1", "http://a", new ResourceDeliveryMessage(), new Callable<Void>() {
+			@Override
+			public Void call() {
+				if (attempts.incrementAndGet() < 3) {
+					throw new FhirClientConnectionException("Connection refused");
+				}
+				return null;
+			}
+		});
+
+		waitForIdle("Subscription/1");
+		RestHookDeliveryMetrics metrics = myEngine.getMetrics("Subscription/1");
+		assertEquals(3, attempts.get());
+		assertEquals(1, metrics.getDeliveredCount());
+		assertEquals(2, metrics.getRetryCount());
+		assertEquals(0, metrics.getDeadLetterCount());
+		assertEquals(0, myDeadLetterStore.size());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws InterruptedException {
+		final AtomicInteger attempts = new AtomicInteger();
+		ResourceDeliveryMessage message = new ResourceDeliveryMessage();
+		myEngine.enqueue("Subscription/1", "http://a", message, new Callable<Void>() {
+			@Override
+			public Void call() {
+				attempts.incrementAndGet();
+				throw new InternalErrorException("Server down");
+			}
+		});
+
+		waitForIdle("Subscription/1");
+		assertEquals(3, attempts.get());
+		assertEquals(1, myDeadLetterStore.size());
+		RestHookDeadLetter deadLetter = myDeadLetterStore.getDeadLetters().get(0);
+		assertSame(message, deadLetter.getMessage());
+		assertEquals(3, deadLetter.getAttempts());
+		assertEquals("http://a", deadLetter.getEndpointUrl());
+		assertThat(deadLetter.getReason(), containsString("Server down"));
+	}
+
+	@Test
+	public void testClientErrorIsNotRetried() throws InterruptedException {
+		final AtomicInteger attempts = new AtomicInteger();
+		myEngine.enqueue("Subscription/1", "http://a", new ResourceDeliveryMessage(), new Callable<Void>() {
+			@Override
+			public Void call() {
+				attempts.incrementAndGet();
+				throw new InvalidRequestException("Bad payload");
+			}
+		});
+
+		waitForIdle("Subscription/1");
+		assertEquals(1, attempts.get());
+		assertEquals(1, myEngine.getMetrics("Subscription/1").getDeadLetterCount());
+		assertEquals(1, myDeadLetterStore.size());
+	}
+
+	@Test
+	public void testSlowEndpointDoesNotBlockOthers() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		myEngine.enqueue("Subscription/slow", "http://slow", new ResourceDeliveryMessage(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				started.countDown();
+				release.await();
+				return null;
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final CountDownLatch fastDelivered = new CountDownLatch(1);
+		myEngine.enqueue("Subscription/fast", "http://fast", new ResourceDeliveryMessage(), new Callable<Void>() {
+			@Override
+			public Void call() {
+				fastDelivered.countDown();
+				return null;
+			}
+		});
+		assertTrue(fastDelivered.await(5, TimeUnit.SECONDS));
+
+		// The slow endpoint has one delivery in progress and room for two more in its queue
+		Callable<Void> noop = new Callable<Void>() {
+			@Override
+			public Void call() {
+				return null;
+			}
+		};
+		myEngine.enqueue("Subscription/slow", "http://slow", new ResourceDeliveryMessage(), noop);
+		myEngine.enqueue("Subscription/slow", "http://slow", new ResourceDeliveryMessage(), noop);
+		myEngine.enqueue("Subscription/slow", "http://slow", new ResourceDeliveryMessage(), noop);
+		assertEquals(1, myDeadLetterStore.size());
+		assertEquals("Endpoint queue is full", myDeadLetterStore.getDeadLetters().get(0).getReason());
+		assertEquals(3, myEngine.getMetrics("Subscription/slow").getBacklog());
+
+		release.countDown();
+		waitForIdle("Subscription/slow");
+		assertEquals(3, myEngine.getMetrics("Subscription/slow").getDeliveredCount());
+		assertEquals(0, myEngine.getActiveCount());
+	}
+
+	@Test
+	public void testPendingDeliveryIsKeptAtShutdown() throws InterruptedException {
+		myEngine.shutdown();
+		myEngine = new RestHookDeliveryEngine(4, 1, 2, 3, 60000, myDeadLetterStore, myPendingDeliveryStore);
+
+		final CountDownLatch failed = new CountDownLatch(1);
+		ResourceDeliveryMessage message = new ResourceDeliveryMessage();
+		myEngine.enqueue("Subscription/1", "http://a", message, new Callable<Void>() {
+			@Override
+			public Void call() {
+				failed.countDown();
+				throw new FhirClientConnectionException("Connection refused");
+			}
+		});
+		assertTrue(failed.await(5, TimeUnit.SECONDS));
+		assertEquals(1, myPendingDeliveryStore.myPending.size());
+
+		myEngine.shutdown();
+		assertEquals(0, myDeadLetterStore.size());
+		assertEquals(1, myPendingDeliveryStore.myPending.size());
+		assertSame(message, myPendingDeliveryStore.loadPending().values().iterator().next());
+	}
+
+	@Test
+	public void testPendingDeliveryIsRemovedWhenDeadLettered() throws InterruptedException {
+		myEngine.enqueue("Subscription/1", "http://a", new ResourceDeliveryMessage(), new Callable<Void>() {
+			@Override
+			public Void call() {
+				throw new InvalidRequestException("Bad payload");
+			}
+		});
+
+		waitForIdle("Subscription/1");
+		assertEquals(1, myDeadLetterStore.size());
+		assertEquals(1, myPendingDeliveryStore.myStoreCount.get());
+		assertEquals(0, myPendingDeliveryStore.myPending.size());
+	}
+
+	@Test
+	public void testPendingDeliveryIsRemovedWhenDelivered() throws InterruptedException {
+		final AtomicInteger pendingDuringDelivery = new AtomicInteger();
+		myEngine.enqueue("Subscription/1", "http://a", new ResourceDeliveryMessage(), new Callable<Void>() {
+			@Override
+			public Void call() {
+				pendingDuringDelivery.set(myPendingDeliveryStore.myPending.size());
+				return null;
+			}
+		});
+
+		waitForIdle("Subscription/1");
+		assertEquals(1, pendingDuringDelivery.get());
+		assertEquals(0, myPendingDeliveryStore.myPending.size());
+	}
+
+	@Test
+	public void testResumePendingDelivery() throws InterruptedException {
+		ResourceDeliveryMessage message = new ResourceDeliveryMessage();
+		Long pendingId = myPendingDeliveryStore.storePending("Subscription/1", "http://a", message);
+
+		final AtomicInteger attempts = new AtomicInteger();
+		myEngine.resume(pendingId, "Subscription/1", "http://a", message, new Callable<Void>() {
+			@Override
+			public Void call() {
+				attempts.incrementAndGet();
+				return null;
+			}
+		});
+
+		waitForIdle("Subscription/1");
+		assertEquals(1, attempts.get());
+		assertEquals(1, myEngine.getMetrics("Subscription/1").getDeliveredCount());
+		assertEquals(1, myPendingDeliveryStore.myStoreCount.get());
+		assertEquals(0, myPendingDeliveryStore.myPending.size());
+	}
+
+	@Test
+	public void testRetryDelay() {
+		assertEquals(10, myEngine.getRetryDelayMillis(1));
+		assertEquals(20, myEngine.getRetryDelayMillis(2));
+		assertEquals(40, myEngine.getRetryDelayMillis(3));
+		assertEquals(RestHookDeliveryEngine.MAXIMUM_RETRY_DELAY_MILLIS, myEngine.getRetryDelayMillis(1000));
+	}
+
+	private static class MapPendingDeliveryStore implements IRestHookPendingDeliveryStore {
+
+		private final AtomicLong myNextId = new AtomicLong();
+		private final Map<Long, ResourceDeliveryMessage> myPending = new ConcurrentHashMap<>();
+		private final AtomicInteger myStoreCount = new AtomicInteger();
+
+		@Override
+		public Map<Long, ResourceDeliveryMessage> loadPending() {
+			return myPending;
+		}
+
+		@Override
+		public void removePending(Long theId) {
+			myPending.remove(theId);
+		}
+
+		@Override
+		public Long storePending(String theSubscriptionId, String theEndpointUrl, ResourceDeliveryMessage theMessage) {
+			myStoreCount.incrementAndGet();
+			Long retVal = myNextId.incrementAndGet();
+			myPending.put(retVal, theMessage);
+			return retVal;
+		}
+
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
@@ -15,10 +15,14 @@ import org.apache.commons.lang3.Validate;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.mockito.*;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import ca.uhn.fhir.jpa.entity.*;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.util.TestUtil;
 
@@ -33,10 +37,42 @@ public class TerminologyLoaderSvcTest {
 	@Captor
 	private ArgumentCaptor<TermCodeSystemVersion> myCsvCaptor;
 
+	private Map<Long, String> myPidToCode;
+	private List<String> myStoredLinks;
+
 	@Before
 	public void before() {
 		mySvc = new TerminologyLoaderSvc();
 		mySvc.setTermSvcForUnitTests(myTermSvc);
+
+		myPidToCode = new HashMap<Long, String>();
+		myStoredLinks = new ArrayList<String>();
+
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock theInvocation) throws Throwable {
+				@SuppressWarnings("unchecked")
+				List<TermConcept> concepts = (List<TermConcept>) theInvocation.getArguments()[1];
+				for (TermConcept next : concepts) {
+					long pid = myPidToCode.size() + 1;
+					ReflectionTestUtils.setField(next, "myId", pid);
+					myPidToCode.put(pid, next.getCode());
+				}
+				return null;
+			}
+		}).when(myTermSvc).storeConceptBatch(any(TermCodeSystemVersion.class), anyListOf(TermConcept.class));
+
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock theInvocation) throws Throwable {
+				long[] parentPids = (long[]) theInvocation.getArguments()[1];
+				long[] childPids = (long[]) theInvocation.getArguments()[2];
+				for (int i = 0; i < parentPids.length; i++) {
+					myStoredLinks.add(myPidToCode.get(parentPids[i]) + " > " + myPidToCode.get(childPids[i]));
+				}
+				return null;
+			}
+		}).when(myTermSvc).storeConceptLinkBatch(any(TermCodeSystemVersion.class), any(long[].class), any(long[].class));
 	}
 
 	@AfterClass
@@ -59,14 +95,28 @@ public class TerminologyLoaderSvcTest {
 		ourLog.info("ZIP file has {} bytes", bos2.toByteArray().length);
 
 		RequestDetails details = mock(RequestDetails.class);
-		mySvc.loadLoinc(list(bos1.toByteArray(), bos2.toByteArray()), details);
+		List<byte[]> zipBytes = list(bos1.toByteArray(), bos2.toByteArray());
+		mySvc.loadLoinc(zipBytes, details);
 
-		verify(myTermSvc, times(1)).storeNewCodeSystemVersion(mySystemCaptor.capture(), myCsvCaptor.capture(), any(RequestDetails.class));
-		
-		TermCodeSystemVersion ver = myCsvCaptor.getValue();
-		TermConcept code = ver.getConcepts().iterator().next();
-		assertEquals("10013-1", code.getCode());
-		
+		verify(myTermSvc, times(1)).storeNewCodeSystemVersion(mySystemCaptor.capture(), myCsvCaptor.capture(), any(RequestDetails.class), eq(false));
+		assertEquals(IHapiTerminologyLoaderSvc.LOINC_URL, mySystemCaptor.getValue());
+		verify(myTermSvc).activateCodeSystemVersion(myCsvCaptor.getValue());
+		verify(myTermSvc, never()).deleteCodeSystemVersion(any(TermCodeSystemVersion.class));
+
+		assertEquals("10013-1", myPidToCode.get(1L));
+		assertThat(myStoredLinks, not(empty()));
+
+		// The concepts are only released for indexing once all of the links are stored
+		InOrder inOrder = inOrder(myTermSvc);
+		inOrder.verify(myTermSvc, atLeastOnce()).storeConceptLinkBatch(eq(myCsvCaptor.getValue()), any(long[].class), any(long[].class));
+		inOrder.verify(myTermSvc).releaseConceptBatchesForIndexing(myCsvCaptor.getValue());
+		inOrder.verify(myTermSvc).activateCodeSystemVersion(myCsvCaptor.getValue());
+
+		// Deferred storage for the rest of the server is never paused
+		verify(myTermSvc, never()).setProcessDeferred(anyBoolean());
+
+		// The caller's list is left as it was
+		assertEquals(2, zipBytes.size());
 	}
 
 	@Captor
@@ -105,39 +155,82 @@ public class TerminologyLoaderSvcTest {
 		RequestDetails details = mock(RequestDetails.class);
 		mySvc.loadSnomedCt(list(bos.toByteArray()), details);
 
-		verify(myTermSvc).storeNewCodeSystemVersion(any(String.class), myCsvCaptor.capture(), any(RequestDetails.class));
+		verify(myTermSvc).storeNewCodeSystemVersion(any(String.class), myCsvCaptor.capture(), any(RequestDetails.class), eq(false));
+		verify(myTermSvc).activateCodeSystemVersion(myCsvCaptor.getValue());
+		assertSnomedCtLoaded();
+	}
 
-		TermCodeSystemVersion csv = myCsvCaptor.getValue();
-		TreeSet<String> allCodes = toCodes(csv, true);
-		ourLog.info(allCodes.toString());
+	@Test
+	public void testLoadSnomedCtFromFileWithSmallBatches() throws Exception {
+		File file = File.createTempFile("sct", ".zip");
+		file.deleteOnExit();
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+		addEntry(zos, "/sct/", "sct2_Concept_Full_INT_20160131.txt");
+		addEntry(zos, "/sct/", "sct2_Description_Full-en_INT_20160131.txt");
+		addEntry(zos, "/sct/", "sct2_Relationship_Full_INT_20160131.txt");
+		zos.close();
 
-		assertThat(allCodes, containsInRelativeOrder("116680003"));
-		assertThat(allCodes, not(containsInRelativeOrder("207527008")));
+		mySvc.setBatchSizeForUnitTests(2);
+		RequestDetails details = mock(RequestDetails.class);
+		mySvc.loadSnomedCtFiles(Collections.singletonList(file), details);
 
-		allCodes = toCodes(csv, false);
-		ourLog.info(allCodes.toString());
-		assertThat(allCodes, hasItem("126816002"));
+		verify(myTermSvc).storeNewCodeSystemVersion(any(String.class), myCsvCaptor.capture(), any(RequestDetails.class), eq(false));
+		verify(myTermSvc).activateCodeSystemVersion(myCsvCaptor.getValue());
+		verify(myTermSvc, atLeast(2)).storeConceptBatch(any(TermCodeSystemVersion.class), anyListOf(TermConcept.class));
+		assertSnomedCtLoaded();
 	}
 
-	private List<byte[]> list(byte[]... theByteArray) {
-		return new ArrayList<byte[]>(Arrays.asList(theByteArray));
+	private void assertSnomedCtLoaded() {
+		ourLog.info("Codes: {}", myPidToCode.values());
+		ourLog.info("Links: {}", myStoredLinks);
+
+		assertThat(myPidToCode.values(), hasItem("116680003"));
+		assertThat(myPidToCode.values(), hasItem("126816002"));
+		assertThat(myPidToCode.values(), not(hasItem("207527008")));
+		assertEquals(myPidToCode.size(), new HashSet<String>(myPidToCode.values()).size());
+
+		// Relationship 100025 is inactive in its latest version
+		assertThat(myStoredLinks, not(hasItem("126813005 > 126816002")));
+		// Relationship 101021 is circular in its latest version, so only one direction is kept
+		assertThat(myStoredLinks, hasItem("126813005 > 126815003"));
+		assertEquals(1, Collections.frequency(myStoredLinks, "126817006 > 126815003") + Collections.frequency(myStoredLinks, "126815003 > 126817006"));
 	}
 
-	private TreeSet<String> toCodes(TermCodeSystemVersion theCsv, boolean theAddChildren) {
-		TreeSet<String> retVal = new TreeSet<String>();
-		for (TermConcept next : theCsv.getConcepts()) {
-			toCodes(retVal, next, theAddChildren);
-		}
-		return retVal;
+	private List<byte[]> list(byte[]... theByteArray) {
+		return new ArrayList<byte[]>(Arrays.asList(theByteArray));
 	}
 
-	private void toCodes(TreeSet<String> theCodes, TermConcept theConcept, boolean theAddChildren) {
-		theCodes.add(theConcept.getCode());
-		if (theAddChildren) {
-			for (TermConceptParentChildLink next : theConcept.getChildren()) {
-				toCodes(theCodes, next.getChild(), theAddChildren);
+	@Test
+	public void testLoadSnomedCtDeletesVersionWhenBatchFails() throws Exception {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock theInvocation) throws Throwable {
+				ReflectionTestUtils.setField(theInvocation.getArguments()[1], "myId", 123L);
+				return null;
 			}
+		}).when(myTermSvc).storeNewCodeSystemVersion(any(String.class), any(TermCodeSystemVersion.class), any(RequestDetails.class), eq(false));
+		doThrow(new InternalErrorException("FAILED")).when(myTermSvc).storeConceptLinkBatch(any(TermCodeSystemVersion.class), any(long[].class), any(long[].class));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ZipOutputStream zos = new ZipOutputStream(bos);
+		addEntry(zos, "/sct/", "sct2_Concept_Full_INT_20160131.txt");
+		addEntry(zos, "/sct/", "sct2_Description_Full-en_INT_20160131.txt");
+		addEntry(zos, "/sct/", "sct2_Relationship_Full_INT_20160131.txt");
+		zos.close();
+
+		RequestDetails details = mock(RequestDetails.class);
+		try {
+			mySvc.loadSnomedCt(list(bos.toByteArray()), details);
+			fail();
+		} catch (InternalErrorException e) {
+			assertEquals("FAILED", e.getMessage());
 		}
+
+		verify(myTermSvc).storeNewCodeSystemVersion(any(String.class), myCsvCaptor.capture(), any(RequestDetails.class), eq(false));
+		verify(myTermSvc, never()).releaseConceptBatchesForIndexing(any(TermCodeSystemVersion.class));
+		verify(myTermSvc, never()).activateCodeSystemVersion(any(TermCodeSystemVersion.class));
+		verify(myTermSvc).deleteCodeSystemVersion(myCsvCaptor.getValue());
+		verify(myTermSvc, never()).setProcessDeferred(anyBoolean());
 	}
 
 	@Test
@@ -8,6 +8,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -16,7 +18,12 @@ import org.hl7.fhir.dstu3.model.CodeSystem.CodeSystemContentMode;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.junit.AfterClass;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
+import ca.uhn.fhir.jpa.dao.BaseHapiFhirDao;
+import ca.uhn.fhir.jpa.dao.data.ITermConceptClosureDao;
 import ca.uhn.fhir.jpa.dao.dstu3.BaseJpaDstu3Test;
 import ca.uhn.fhir.jpa.entity.ResourceTable;
 import ca.uhn.fhir.jpa.entity.TermCodeSystemVersion;
@@ -30,6 +37,9 @@ public class TerminologySvcImplTest extends BaseJpaDstu3Test {
 
 	private static final String CS_URL = "http://example.com/my_code_system";
 
+	@Autowired
+	private ITermConceptClosureDao myConceptClosureDao;
+
 
 	@AfterClass
 	public static void afterClassClearContext() {
@@ -150,6 +160,47 @@ public class TerminologySvcImplTest extends BaseJpaDstu3Test {
 		assertThat(codes, empty());
 	}
 
+	@Test
+	public void testClosureRebuiltOnReindex() {
+		IIdType id = createCodeSystem();
+
+		// childAA, childAB: 1 ancestor each - childAAA, childAAB: 2 ancestors each
+		assertEquals(6, myConceptClosureDao.count());
+
+		mySystemDao.markAllResourcesForReindexing();
+		myTermSvc.saveDeferred();
+
+		assertEquals(6, myConceptClosureDao.count());
+		Set<String> codes = toCodes(myTermSvc.findCodesBelow(id.getIdPartAsLong(), id.getVersionIdPartAsLong(), "ParentA"));
+		assertThat(codes, containsInAnyOrder("ParentA", "childAA", "childAAA", "childAAB", "childAB"));
+		codes = toCodes(myTermSvc.findCodesAbove(id.getIdPartAsLong(), id.getVersionIdPartAsLong(), "childAAB"));
+		assertThat(codes, containsInAnyOrder("ParentA", "childAA", "childAAB"));
+	}
+
+	@Test
+	public void testFindCodesBelowWhileDescendantNeedsReindexing() {
+		IIdType id = createCodeSystem();
+
+		// childAAB has been marked for reindexing and its closure rows aren't there yet
+		newTxTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus theStatus) {
+				TermConcept concept = myEntityManager.createQuery("SELECT c FROM TermConcept c WHERE c.myCode = 'childAAB'", TermConcept.class).getSingleResult();
+				concept.setIndexStatus(null);
+				myConceptClosureDao.deleteByDescendant(concept.getId());
+			}
+		});
+
+		// The closure table is incomplete so the links are walked instead
+		Set<String> codes = toCodes(myTermSvc.findCodesBelow(id.getIdPartAsLong(), id.getVersionIdPartAsLong(), "ParentA"));
+		assertThat(codes, containsInAnyOrder("ParentA", "childAA", "childAAA", "childAAB", "childAB"));
+
+		myTermSvc.saveDeferred();
+		assertEquals(6, myConceptClosureDao.count());
+		codes = toCodes(myTermSvc.findCodesBelow(id.getIdPartAsLong(), id.getVersionIdPartAsLong(), "ParentA"));
+		assertThat(codes, containsInAnyOrder("ParentA", "childAA", "childAAA", "childAAB", "childAB"));
+	}
+
 	@Test
 	public void testReindexTerminology() {
 		IIdType id = createCodeSystem();
@@ -193,6 +244,88 @@ public class TerminologySvcImplTest extends BaseJpaDstu3Test {
 		return id;
 	}
 	
+	@Test
+	public void testStoreVersionWithoutMakingItCurrent() {
+		String system = "http://example.com/staged_code_system";
+
+		TermCodeSystemVersion cs1 = new TermCodeSystemVersion();
+		cs1.getConcepts().add(new TermConcept(cs1, "A"));
+		myTermSvc.storeNewCodeSystemVersion(system, cs1, mySrd);
+
+		// The new version isn't visible until it is activated
+		TermCodeSystemVersion cs2 = new TermCodeSystemVersion();
+		cs2.getConcepts().add(new TermConcept(cs2, "B"));
+		myTermSvc.storeNewCodeSystemVersion(system, cs2, mySrd, false);
+		assertThat(toCodes(new HashSet<TermConcept>(myTermSvc.findCodes(system))), containsInAnyOrder("A"));
+
+		myTermSvc.activateCodeSystemVersion(cs2);
+		assertThat(toCodes(new HashSet<TermConcept>(myTermSvc.findCodes(system))), containsInAnyOrder("B"));
+		assertEquals(0, countConcepts("A"));
+
+		// A version which is abandoned part way through loading is removed
+		TermCodeSystemVersion cs3 = new TermCodeSystemVersion();
+		cs3.getConcepts().add(new TermConcept(cs3, "C"));
+		myTermSvc.storeNewCodeSystemVersion(system, cs3, mySrd, false);
+		assertEquals(1, countConcepts("C"));
+
+		myTermSvc.deleteCodeSystemVersion(cs3);
+		assertEquals(0, countConcepts("C"));
+		assertThat(toCodes(new HashSet<TermConcept>(myTermSvc.findCodes(system))), containsInAnyOrder("B"));
+
+		try {
+			myTermSvc.deleteCodeSystemVersion(cs2);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Can not delete the current version of a code system", e.getMessage());
+		}
+	}
+
+	private long countConcepts(String theCode) {
+		return myEntityManager.createQuery("SELECT COUNT(c) FROM TermConcept c WHERE c.myCode = :code", Long.class).setParameter("code", theCode).getSingleResult();
+	}
+
+	private Long getIndexStatus(String theCode) {
+		return myEntityManager.createQuery("SELECT c.myIndexStatus FROM TermConcept c WHERE c.myCode = :code", Long.class).setParameter("code", theCode).getSingleResult();
+	}
+
+	/**
+	 * A streamed terminology load stores its concepts before their links, so the reindexing
+	 * pass must leave them alone until the load releases them (without pausing deferred
+	 * storage for the rest of the server)
+	 */
+	@Test
+	public void testConceptBatchesAreNotIndexedUntilReleased() {
+		BaseHapiTerminologySvc.setForceSaveDeferredAlwaysForUnitTest(true);
+		try {
+			TermCodeSystemVersion cs = new TermCodeSystemVersion();
+			myTermSvc.storeNewCodeSystemVersion("http://example.com/batched_code_system", cs, mySrd, false);
+
+			TermConcept parent = new TermConcept();
+			parent.setCode("BATCHPARENT");
+			TermConcept child = new TermConcept();
+			child.setCode("BATCHCHILD");
+			myTermSvc.storeConceptBatch(cs, Arrays.asList(parent, child));
+
+			myTermSvc.saveDeferred();
+			assertEquals(Long.valueOf(BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS), getIndexStatus("BATCHCHILD"));
+
+			// Marking everything for reindexing doesn't release them early either
+			mySystemDao.markAllResourcesForReindexing();
+			myTermSvc.saveDeferred();
+			assertEquals(Long.valueOf(BaseHapiFhirDao.INDEX_STATUS_AWAITING_LINKS), getIndexStatus("BATCHCHILD"));
+
+			myTermSvc.storeConceptLinkBatch(cs, new long[] {parent.getId()}, new long[] {child.getId()});
+			myTermSvc.releaseConceptBatchesForIndexing(cs);
+			assertEquals(null, getIndexStatus("BATCHCHILD"));
+
+			myTermSvc.saveDeferred();
+			assertEquals(Long.valueOf(BaseHapiFhirDao.INDEX_STATUS_INDEXED), getIndexStatus("BATCHPARENT"));
+			assertEquals(Long.valueOf(BaseHapiFhirDao.INDEX_STATUS_INDEXED), getIndexStatus("BATCHCHILD"));
+		} finally {
+			BaseHapiTerminologySvc.setForceSaveDeferredAlwaysForUnitTest(false);
+		}
+	}
+
 	@Test
 	public void testFindCodesAbove() {
 		IIdType id = createCodeSystem();
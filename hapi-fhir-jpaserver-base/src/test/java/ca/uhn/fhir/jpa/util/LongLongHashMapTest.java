@@ -0,0 +1,121 @@
+package ca.uhn.fhir.jpa.util;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongLongHashMapTest {
+
+	/**
+	 * Same as the bucket calculation in {@link LongLongHashMap}, used to find keys which collide
+	 */
+	private static int bucket(long theKey, int theCapacity) {
+		long hash = theKey * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & (theCapacity - 1);
+	}
+
+	@Test
+	public void testCollidingKeys() {
+		long first = 1;
+		long second = first + 1;
+		while (bucket(second, 16) != bucket(first, 16)) {
+			second++;
+		}
+		long third = second + 1;
+		while (bucket(third, 16) != bucket(first, 16)) {
+			third++;
+		}
+
+		LongLongHashMap map = new LongLongHashMap();
+		map.put(first, 100);
+		map.put(second, 200);
+		map.put(third, 300);
+		assertEquals(3, map.size());
+		assertEquals(100, map.get(first, -1));
+		assertEquals(200, map.get(second, -1));
+		assertEquals(300, map.get(third, -1));
+
+		// Overwriting a key further along the probe sequence doesn't add an entry
+		map.put(third, 301);
+		assertEquals(3, map.size());
+		assertEquals(301, map.get(third, -1));
+	}
+
+	@Test
+	public void testKeyZeroAndNegativeKeys() {
+		LongLongHashMap map = new LongLongHashMap();
+		assertFalse(map.containsKey(0));
+
+		map.put(0, 0);
+		map.put(-1, 5);
+		map.put(Long.MAX_VALUE, 6);
+		map.put(Long.MIN_VALUE + 1, 7);
+		assertTrue(map.containsKey(0));
+		assertEquals(0, map.get(0, -1));
+		assertEquals(5, map.get(-1, -1));
+		assertEquals(6, map.get(Long.MAX_VALUE, -1));
+		assertEquals(7, map.get(Long.MIN_VALUE + 1, -1));
+		assertEquals(4, map.size());
+	}
+
+	@Test
+	public void testMissingKey() {
+		LongLongHashMap map = new LongLongHashMap();
+		assertTrue(map.isEmpty());
+		assertEquals(-1, map.get(1, -1));
+
+		map.put(1, 10);
+		assertFalse(map.containsKey(2));
+		assertEquals(-1, map.get(2, -1));
+		assertEquals(Long.MIN_VALUE, map.get(2, Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testResize() {
+		LongLongHashMap map = new LongLongHashMap(1);
+		Map<Long, Long> expected = new HashMap<>();
+		Random random = new Random(12345);
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(50000) - 25000;
+			long value = random.nextLong();
+			map.put(key, value);
+			expected.put(key, value);
+		}
+
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Long> next : expected.entrySet()) {
+			assertTrue(map.containsKey(next.getKey()));
+			assertEquals(next.getValue().longValue(), map.get(next.getKey(), 0));
+		}
+		assertFalse(map.containsKey(25000));
+	}
+
+	@Test
+	public void testSentinelKeyRejected() {
+		LongLongHashMap map = new LongLongHashMap();
+		try {
+			map.put(Long.MIN_VALUE, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Key must not be Long.MIN_VALUE", e.getMessage());
+		}
+		try {
+			map.get(Long.MIN_VALUE, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Key must not be Long.MIN_VALUE", e.getMessage());
+		}
+		assertTrue(map.isEmpty());
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		ca.uhn.fhir.util.TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
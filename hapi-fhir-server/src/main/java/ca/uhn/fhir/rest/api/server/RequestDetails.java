@@ -13,6 +13,7 @@ import org.hl7.fhir.instance.model.api.IIdType;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -52,6 +53,7 @@ public abstract class RequestDetails {
 	private String myOperation;
 	private Map<String, String[]> myParameters;
 	private byte[] myRequestContents;
+	private boolean myRequestContentsStreamed;
 	private IRequestOperationCallback myRequestOperationCallback = new RequestOperationCallback();
 	private String myRequestPath;
 	private RequestTypeEnum myRequestType;
@@ -71,6 +73,16 @@ public abstract class RequestDetails {
 
 	protected abstract byte[] getByteStreamRequestContents();
 
+	/**
+	 * Subclasses may override this method to supply a stream which reads the request body
+	 * directly from the underlying request (decompressing it if needed), without first
+	 * buffering it in memory. The default implementation returns <code>null</code>, meaning
+	 * that the body can not be streamed and must be loaded using {@link #getByteStreamRequestContents()}.
+	 */
+	protected InputStream getByteStreamRequestContentsAsStream() {
+		return null;
+	}
+
 	/**
 	 * Return the charset as defined by the header contenttype. Return null if it is not set.
 	 */
@@ -362,11 +374,33 @@ public abstract class RequestDetails {
 
 	public final byte[] loadRequestContents() {
 		if (myRequestContents == null) {
+			if (myRequestContentsStreamed) {
+				throw new IllegalStateException("The request body has already been streamed to the parser, so it can not be loaded. Call loadRequestContents() before the request is handled if the raw body is needed.");
+			}
 			myRequestContents = getByteStreamRequestContents();
 		}
 		return myRequestContents;
 	}
 
+	/**
+	 * Returns a stream over the request body. If the body has already been loaded using
+	 * {@link #loadRequestContents()} or supplied using {@link #setRequestContents(byte[])}, the
+	 * stream reads from that copy. Otherwise, if the request implementation supports it, the body
+	 * is read directly from the client connection without being buffered. In that case the body
+	 * can only be read once, and {@link #loadRequestContents()} may no longer be called for
+	 * this request.
+	 */
+	public final InputStream openRequestContentsStream() {
+		if (myRequestContents == null && !myRequestContentsStreamed) {
+			InputStream retVal = getByteStreamRequestContentsAsStream();
+			if (retVal != null) {
+				myRequestContentsStreamed = true;
+				return retVal;
+			}
+		}
+		return new ByteArrayInputStream(loadRequestContents());
+	}
+
 	public void removeParameter(String theName) {
 		Validate.notNull(theName, "theName must not be null");
 		getParameters();
@@ -99,6 +99,8 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 	/** This is configurable but by default we just use HAPI version */
 	private String myServerVersion = VersionUtil.getVersion();
 	private boolean myStarted;
+	private boolean myStreamingBundleEncoding;
+	private boolean myStreamingRequestParsing;
 	private Map<String, IResourceProvider> myTypeToProvider = new HashMap<>();
 	private boolean myUncompressIncomingContents = true;
 	private boolean myUseBrowserFriendlyContentTypes;
@@ -1151,6 +1153,72 @@ public class RestfulServer extends HttpServlet implements IRestfulServer<Servlet
 		myIgnoreServerParsedRequestParameters = theIgnoreServerParsedRequestParameters;
 	}
 
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), search result bundles returned from an
+	 * {@link IBundleProvider} are written to the response one entry at a time, with the resources for the
+	 * page being loaded from the provider in small chunks as the response is written. This keeps the
+	 * memory used by each request roughly constant regardless of the page size.
+	 * <p>
+	 * Bundles are not streamed while any registered {@link IServerInterceptor interceptor} overrides
+	 * one of the <code>outgoingResponse</code> methods (e.g. the response highlighter or authorization
+	 * interceptors), since such interceptors need to see the entries. Included resources are written
+	 * as they are loaded instead of after all of the matches. Also note that if an error occurs
+	 * while the entries are being loaded, the response will already have been partially written.
+	 * </p>
+	 */
+	public boolean isStreamingBundleEncoding() {
+		return myStreamingBundleEncoding;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), search result bundles returned from an
+	 * {@link IBundleProvider} are written to the response one entry at a time, with the resources for the
+	 * page being loaded from the provider in small chunks as the response is written. This keeps the
+	 * memory used by each request roughly constant regardless of the page size.
+	 * <p>
+	 * Bundles are not streamed while any registered {@link IServerInterceptor interceptor} overrides
+	 * one of the <code>outgoingResponse</code> methods (e.g. the response highlighter or authorization
+	 * interceptors), since such interceptors need to see the entries. Included resources are written
+	 * as they are loaded instead of after all of the matches. Also note that if an error occurs
+	 * while the entries are being loaded, the response will already have been partially written.
+	 * </p>
+	 */
+	public void setStreamingBundleEncoding(boolean theStreamingBundleEncoding) {
+		myStreamingBundleEncoding = theStreamingBundleEncoding;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), resources and transaction bundles sent
+	 * in the body of a request are parsed directly from the servlet input stream (decompressing
+	 * GZip content on the fly if {@link #isUncompressIncomingContents()} is set) instead of first being
+	 * read into a byte array. This avoids holding several copies of large request bodies in memory.
+	 * <p>
+	 * The raw body is still buffered if an interceptor calls {@link RequestDetails#loadRequestContents()}
+	 * before the request is handled (as {@link ca.uhn.fhir.rest.server.interceptor.RequestValidatingInterceptor}
+	 * does), or if the method being invoked reads the body more than once. Interceptors which need the raw body after the request
+	 * has been handled must call {@link RequestDetails#loadRequestContents()} before it is handled.
+	 * </p>
+	 */
+	public boolean isStreamingRequestParsing() {
+		return myStreamingRequestParsing;
+	}
+
+	/**
+	 * If set to <code>true</code> (default is <code>false</code>), resources and transaction bundles sent
+	 * in the body of a request are parsed directly from the servlet input stream (decompressing
+	 * GZip content on the fly if {@link #isUncompressIncomingContents()} is set) instead of first being
+	 * read into a byte array. This avoids holding several copies of large request bodies in memory.
+	 * <p>
+	 * The raw body is still buffered if an interceptor calls {@link RequestDetails#loadRequestContents()}
+	 * before the request is handled (as {@link ca.uhn.fhir.rest.server.interceptor.RequestValidatingInterceptor}
+	 * does), or if the method being invoked reads the body more than once. Interceptors which need the raw body after the request
+	 * has been handled must call {@link RequestDetails#loadRequestContents()} before it is handled.
+	 * </p>
+	 */
+	public void setStreamingRequestParsing(boolean theStreamingRequestParsing) {
+		myStreamingRequestParsing = theStreamingRequestParsing;
+	}
+
 	/**
 	 * Should the server attempt to decompress incoming request contents (default is <code>true</code>). Typically this
 	 * should be set to <code>true</code> unless the server has other configuration to
@@ -707,7 +707,12 @@ public class RestfulServerUtils {
 		} else {
 			FhirVersionEnum forVersion = theResource.getStructureFhirVersionEnum();
 			IParser parser = getNewParser(theServer.getFhirContext(), forVersion, theRequestDetails);
-			parser.encodeResourceToWriter(theResource, writer);
+			StreamingBundleWriter streamingBundleWriter = StreamingBundleWriter.getForResponse(theRequestDetails, theResource);
+			if (streamingBundleWriter != null) {
+				streamingBundleWriter.writeBundle(parser, writer);
+			} else {
+				parser.encodeResourceToWriter(theResource, writer);
+			}
 		}
 		//FIXME resource leak
 		return response.sendWriterResponse(theStatusCode, contentType, charset, writer);
@@ -0,0 +1,437 @@
+package ca.uhn.fhir.rest.server;
+
+/*
+ * #%L
+ * HAPI FHIR - Server Framework
+ * %%
+ * Copyright (C) 2014 - 2018 University Health Network
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ca.uhn.fhir.context.*;
+import ca.uhn.fhir.context.api.BundleInclusionRule;
+import ca.uhn.fhir.model.api.IResource;
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.base.resource.BaseOperationOutcome;
+import ca.uhn.fhir.model.valueset.BundleEntrySearchModeEnum;
+import ca.uhn.fhir.model.valueset.BundleTypeEnum;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.IVersionSpecificBundleFactory;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.interceptor.IServerInterceptor;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import org.hl7.fhir.instance.model.api.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes a search result Bundle to the response one entry at a time, loading the
+ * page contents from the {@link IBundleProvider} in small chunks as it goes. This
+ * means that only a handful of resources are held in memory at any given time,
+ * regardless of the page size being returned.
+ * <p>
+ * Each entry is encoded using the regular {@link IParser} (so all of the usual
+ * parser configuration, summary modes, etc. apply), with the output passed straight
+ * through to the response inside the Bundle envelope.
+ * </p>
+ * <p>
+ * Streaming is not used for searches which may include other resources, or when an
+ * interceptor which examines the response is registered, see
+ * {@link #isSupported(RestfulServer, RequestDetails, Set)}. This is because included
+ * resources follow all of the matches in the bundle, so the page could not be written
+ * one chunk at a time without changing the order of the entries.
+ * </p>
+ *
+ * @see RestfulServer#setStreamingBundleEncoding(boolean)
+ */
+public class StreamingBundleWriter {
+
+	/**
+	 * The number of resources loaded from the bundle provider at a time
+	 */
+	public static final int CHUNK_SIZE = 50;
+
+	private static final String USER_DATA_KEY = StreamingBundleWriter.class.getName();
+	private static final Map<Class<?>, Boolean> ourInterceptorTypeToExaminesResponse = new ConcurrentHashMap<>();
+
+	private final FhirContext myContext;
+	private final IBundleProvider myBundleProvider;
+	private final int myFromIndex;
+	private final int myToIndex;
+	private final BundleTypeEnum myBundleType;
+	private final String myServerBase;
+	private final BundleInclusionRule myBundleInclusionRule;
+	private final Set<Include> myIncludes;
+	private IBaseResource myEnvelope;
+
+	public StreamingBundleWriter(FhirContext theContext, IBundleProvider theBundleProvider, int theFromIndex, int theToIndex, BundleTypeEnum theBundleType, String theServerBase,
+										  BundleInclusionRule theBundleInclusionRule, Set<Include> theIncludes) {
+		myContext = theContext;
+		myBundleProvider = theBundleProvider;
+		myFromIndex = theFromIndex;
+		myToIndex = theToIndex;
+		myBundleType = theBundleType;
+		myServerBase = theServerBase;
+		myBundleInclusionRule = theBundleInclusionRule;
+		myIncludes = theIncludes;
+	}
+
+	/**
+	 * Registers this writer against the given request. The envelope is the bundle
+	 * (root properties and links, but no entries) which is returned to the
+	 * server in place of the fully populated bundle.
+	 */
+	public void register(RequestDetails theRequestDetails, IBaseResource theEnvelope) {
+		myEnvelope = theEnvelope;
+		theRequestDetails.getUserData().put(USER_DATA_KEY, this);
+	}
+
+	private void addMarkerEntry(IBaseResource theBundle, String theMarker) {
+		BaseRuntimeChildDefinition entryChild = getEntryChild();
+		BaseRuntimeElementCompositeDefinition<?> entryDef = (BaseRuntimeElementCompositeDefinition<?>) entryChild.getChildByName("entry");
+		IBase entry = entryDef.newInstance();
+		BaseRuntimeChildDefinition fullUrlChild = entryDef.getChildByName("fullUrl");
+		@SuppressWarnings("unchecked")
+		IPrimitiveType<String> fullUrl = (IPrimitiveType<String>) fullUrlChild.getChildByName("fullUrl").newInstance();
+		fullUrl.setValueAsString(theMarker);
+		fullUrlChild.getMutator().addValue(entry, fullUrl);
+		entryChild.getMutator().addValue(theBundle, entry);
+	}
+
+	/**
+	 * Returns the start (inclusive) and end (exclusive) offsets of the entry
+	 * containing the given marker, or <code>null</code> if it wasn't found
+	 */
+	private int[] findMarkerEntry(EncodingEnum theEncoding, String theEncoded, String theMarker) {
+		int idx = theEncoded.indexOf(theMarker);
+		if (idx == -1) {
+			return null;
+		}
+		int start;
+		int end;
+		if (theEncoding == EncodingEnum.JSON) {
+			start = theEncoded.lastIndexOf('{', idx);
+			end = theEncoded.indexOf('}', idx);
+			end = end != -1 ? end + 1 : -1;
+		} else {
+			start = theEncoded.lastIndexOf("<entry", idx);
+			end = theEncoded.indexOf("</entry>", idx);
+			end = end != -1 ? end + "</entry>".length() : -1;
+		}
+		if (start == -1 || end == -1) {
+			return null;
+		}
+		return new int[] {start, end};
+	}
+
+	private BaseRuntimeChildDefinition getEntryChild() {
+		RuntimeResourceDefinition bundleDef = myContext.getResourceDefinition("Bundle");
+		return bundleDef.getChildByName("entry");
+	}
+
+	private String getResourceKey(IBaseResource theResource) {
+		IIdType id = theResource.getIdElement();
+		if (!id.hasResourceType()) {
+			id = id.withResourceType(myContext.getResourceDefinition(theResource).getName());
+		}
+		return id.toUnqualifiedVersionless().getValue();
+	}
+
+	private boolean isIncluded(IBaseResource theResource) {
+		if (theResource instanceof IResource) {
+			return ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.get((IResource) theResource) == BundleEntrySearchModeEnum.INCLUDE;
+		}
+		if (theResource instanceof IAnyResource) {
+			return BundleEntrySearchModeEnum.INCLUDE.getCode().equals(ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.get((IAnyResource) theResource));
+		}
+		return false;
+	}
+
+	private List<IBaseResource> loadChunk(int theFromIndex, int theToIndex) {
+		List<IBaseResource> retVal = new ArrayList<>(myBundleProvider.getResources(theFromIndex, theToIndex));
+		RestfulServerUtils.validateResourceListNotNull(retVal);
+
+		for (Iterator<IBaseResource> iter = retVal.iterator(); iter.hasNext(); ) {
+			IBaseResource next = iter.next();
+			if (next == null) {
+				iter.remove();
+				continue;
+			}
+			if (next.getIdElement() == null || next.getIdElement().isEmpty()) {
+				if (!(next instanceof BaseOperationOutcome)) {
+					throw new InternalErrorException("Server method returned resource of type[" + next.getClass().getSimpleName() + "] with no ID specified (IResource#setId(IdDt) must be called)");
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Encodes the bundle to the given writer, loading and encoding entries as it goes
+	 */
+	public void writeBundle(IParser theParser, Writer theWriter) throws IOException {
+		EncodingEnum encoding = theParser.getEncoding();
+		BaseRuntimeChildDefinition entryChild = getEntryChild();
+		RuntimeResourceDefinition bundleDef = myContext.getResourceDefinition("Bundle");
+		String markerA = "urn:uuid:" + UUID.randomUUID().toString();
+		String markerB = "urn:uuid:" + UUID.randomUUID().toString();
+
+		/*
+		 * Work out the layout of the envelope by encoding it with two placeholder
+		 * entries: everything before the first is the prefix, everything between
+		 * them is the separator, and everything after the second is the suffix
+		 */
+		addMarkerEntry(myEnvelope, markerA);
+		addMarkerEntry(myEnvelope, markerB);
+		String envelope = theParser.encodeResourceToString(myEnvelope);
+		entryChild.getAccessor().getValues(myEnvelope).clear();
+
+		/*
+		 * Individual entries are encoded in a bundle containing only that entry, so
+		 * figure out what the boilerplate around a single entry looks like
+		 */
+		IBaseResource single = bundleDef.newInstance();
+		addMarkerEntry(single, markerA);
+		String singleEncoded = theParser.encodeResourceToString(single);
+
+		if (encoding != EncodingEnum.JSON && encoding != EncodingEnum.XML) {
+			// We only know how to splice entries for these encodings
+			IVersionSpecificBundleFactory bundleFactory = myContext.newBundleFactory();
+			bundleFactory.initializeWithBundleResource(myEnvelope);
+			bundleFactory.addRootPropertiesToBundle(null, myServerBase, null, null, null, null, myBundleType, null);
+			bundleFactory.addResourcesToBundle(loadChunk(myFromIndex, myToIndex), myBundleType, myServerBase, myBundleInclusionRule, myIncludes);
+			theParser.encodeResourceToWriter(bundleFactory.getResourceBundle(), theWriter);
+			return;
+		}
+
+		int[] envelopeA = findMarkerEntry(encoding, envelope, markerA);
+		int[] envelopeB = findMarkerEntry(encoding, envelope, markerB);
+		int[] singleA = findMarkerEntry(encoding, singleEncoded, markerA);
+		if (envelopeA == null || envelopeB == null || singleA == null) {
+			// The parser is configured to not output entries at all (e.g. _summary=count)
+			theParser.encodeResourceToWriter(myEnvelope, theWriter);
+			return;
+		}
+
+		String prefix = envelope.substring(0, envelopeA[0]);
+		String separator = envelope.substring(envelopeA[1], envelopeB[0]);
+		String suffix = envelope.substring(envelopeB[1]);
+		String singlePrefix = singleEncoded.substring(0, singleA[0]);
+		String singleSuffix = singleEncoded.substring(singleA[1]);
+
+		/*
+		 * Only the keys of the entries which have been written are kept, so that an
+		 * included resource is written once no matter how many chunks include it
+		 */
+		Set<String> writtenResourceKeys = new HashSet<>();
+		boolean empty = true;
+
+		BaseRuntimeElementCompositeDefinition<?> entryDef = (BaseRuntimeElementCompositeDefinition<?>) entryChild.getChildByName("entry");
+		BaseRuntimeChildDefinition resourceChild = entryDef.getChildByName("resource");
+		for (int from = myFromIndex; from < myToIndex; from += CHUNK_SIZE) {
+			int to = Math.min(from + CHUNK_SIZE, myToIndex);
+			List<IBaseResource> resources = loadChunk(from, to);
+
+			Set<IBaseResource> matches = Collections.newSetFromMap(new IdentityHashMap<IBaseResource, Boolean>());
+			for (IBaseResource next : resources) {
+				if (!isIncluded(next)) {
+					matches.add(next);
+				}
+			}
+
+			IVersionSpecificBundleFactory bundleFactory = myContext.newBundleFactory();
+			// Root properties are needed so that the factory knows the server base for entry fullUrls
+			bundleFactory.addRootPropertiesToBundle(null, myServerBase, null, null, null, null, myBundleType, null);
+			bundleFactory.addResourcesToBundle(resources, myBundleType, myServerBase, myBundleInclusionRule, myIncludes);
+			IBaseResource chunkBundle = bundleFactory.getResourceBundle();
+
+			for (IBase nextEntry : entryChild.getAccessor().getValues(chunkBundle)) {
+				IBaseResource resource = null;
+				for (IBase nextResource : resourceChild.getAccessor().getValues(nextEntry)) {
+					resource = (IBaseResource) nextResource;
+				}
+
+				String key = resource != null && !resource.getIdElement().isEmpty() ? getResourceKey(resource) : null;
+				if (key != null) {
+					boolean firstTime = writtenResourceKeys.add(key);
+					if (!firstTime && !matches.contains(resource)) {
+						continue;
+					}
+				}
+
+				// The prefix is held back until we know there is at least one entry
+				theWriter.append(empty ? prefix : separator);
+				empty = false;
+
+				entryChild.getMutator().setValue(single, nextEntry);
+				EntryWriter entryWriter = new EntryWriter(theWriter, singlePrefix, singleSuffix);
+				theParser.encodeResourceToWriter(single, entryWriter);
+				entryWriter.finish();
+			}
+		}
+
+		if (empty) {
+			// No entries actually found, so just write the envelope on its own
+			theParser.encodeResourceToWriter(myEnvelope, theWriter);
+			return;
+		}
+
+		theWriter.append(suffix);
+	}
+
+	/**
+	 * Returns the streaming writer registered for the given request, if the
+	 * resource being returned is the envelope it was registered with
+	 */
+	public static StreamingBundleWriter getForResponse(RequestDetails theRequestDetails, IBaseResource theResource) {
+		if (theRequestDetails == null || theResource == null) {
+			return null;
+		}
+		StreamingBundleWriter retVal = (StreamingBundleWriter) theRequestDetails.getUserData().get(USER_DATA_KEY);
+		if (retVal != null && retVal.myEnvelope == theResource) {
+			return retVal;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the bundle for the given request may be streamed. Streaming is
+	 * not used if any registered interceptor overrides one of the <code>outgoingResponse</code>
+	 * methods (e.g. {@link ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor} or
+	 * {@link ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor}), since such an
+	 * interceptor would only ever see the Bundle without its entries. It is also not used if
+	 * the search may return included resources (<code>_include</code>, <code>_revinclude</code>, or
+	 * {@link BundleInclusionRule#BASED_ON_RESOURCE_PRESENCE}).
+	 */
+	public static boolean isSupported(RestfulServer theServer, RequestDetails theRequest, Set<Include> theIncludes) {
+		if (!theServer.isStreamingBundleEncoding()) {
+			return false;
+		}
+		if (mayIncludeResources(theServer, theRequest, theIncludes)) {
+			return false;
+		}
+		for (IServerInterceptor next : theServer.getInterceptors()) {
+			if (examinesResponse(next.getClass())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean mayIncludeResources(RestfulServer theServer, RequestDetails theRequest, Set<Include> theIncludes) {
+		if (theIncludes != null && !theIncludes.isEmpty()) {
+			return true;
+		}
+		if (theServer.getBundleInclusionRule() == BundleInclusionRule.BASED_ON_RESOURCE_PRESENCE) {
+			return true;
+		}
+		if (theRequest.getParameters() != null) {
+			for (String next : theRequest.getParameters().keySet()) {
+				if (next.startsWith(Constants.PARAM_INCLUDE) || next.startsWith(Constants.PARAM_REVINCLUDE)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean examinesResponse(Class<?> theInterceptorType) {
+		Boolean retVal = ourInterceptorTypeToExaminesResponse.get(theInterceptorType);
+		if (retVal == null) {
+			retVal = false;
+			for (Class<?> next = theInterceptorType; next != null && next != InterceptorAdapter.class && next != Object.class; next = next.getSuperclass()) {
+				for (Method nextMethod : next.getDeclaredMethods()) {
+					if (nextMethod.getName().equals("outgoingResponse")) {
+						retVal = true;
+					}
+				}
+			}
+			ourInterceptorTypeToExaminesResponse.put(theInterceptorType, retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Passes the encoding of a single-entry bundle through to the response, dropping
+	 * the bundle boilerplate before and after the entry as it goes so that the entry
+	 * never has to be held in memory as a whole
+	 */
+	private static class EntryWriter extends Writer {
+
+		private final String myPrefix;
+		private final String mySuffix;
+		private final StringBuilder myTail = new StringBuilder();
+		private final Writer myTarget;
+		private int myPrefixMatched;
+
+		private EntryWriter(Writer theTarget, String thePrefix, String theSuffix) {
+			myTarget = theTarget;
+			myPrefix = thePrefix;
+			mySuffix = theSuffix;
+		}
+
+		@Override
+		public void close() {
+			// nothing - the target writer is closed by the caller
+		}
+
+		/**
+		 * Verifies that the trailing boilerplate was exactly as expected
+		 */
+		void finish() {
+			if (myPrefixMatched < myPrefix.length() || !mySuffix.contentEquals(myTail)) {
+				throw new InternalErrorException("Failed to stream bundle entry, unexpected encoding");
+			}
+		}
+
+		@Override
+		public void flush() {
+			// nothing - the target writer is flushed by the caller
+		}
+
+		@Override
+		public void write(char[] theBuffer, int theOffset, int theLength) throws IOException {
+			int offset = theOffset;
+			int length = theLength;
+			while (myPrefixMatched < myPrefix.length() && length > 0) {
+				if (theBuffer[offset] != myPrefix.charAt(myPrefixMatched)) {
+					throw new InternalErrorException("Failed to stream bundle entry, unexpected encoding");
+				}
+				myPrefixMatched++;
+				offset++;
+				length--;
+			}
+
+			// The last characters written may turn out to be the suffix, so they are held back
+			myTail.append(theBuffer, offset, length);
+			int release = myTail.length() - mySuffix.length();
+			if (release > 0) {
+				myTarget.append(myTail, 0, release);
+				myTail.delete(0, release);
+			}
+		}
+
+	}
+
+}
@@ -1,5 +1,6 @@
 package ca.uhn.fhir.rest.server.interceptor;
 
+import static org.apache.commons.lang3.StringUtils.defaultString;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.IOException;
@@ -159,6 +160,20 @@ public class LoggingInterceptor extends InterceptorAdapter {
 	}
 
 
+	/**
+	 * If the request body is going to be logged, it is loaded here so that it is still
+	 * available after the request has been handled (see {@link RestfulServer#setStreamingRequestParsing(boolean)})
+	 */
+	@Override
+	public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) {
+		if (myMessageFormat.contains("${requestBodyFhir}") || (myLogExceptions && myErrorMessageFormat.contains("${requestBodyFhir}"))) {
+			if (EncodingEnum.forContentType(defaultString(theRequest.getContentType()).split(";")[0].trim()) != null) {
+				theRequestDetails.loadRequestContents();
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public void processingCompletedNormally(ServletRequestDetails theRequestDetails) {
 		// Perform any string substitutions from the message format
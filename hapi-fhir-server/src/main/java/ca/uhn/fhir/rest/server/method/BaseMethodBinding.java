@@ -61,6 +61,7 @@ public abstract class BaseMethodBinding<T> {
 	private Method myMethod;
 	private List<IParameter> myParameters;
 	private Object myProvider;
+	private int myRequestBodyReaderCount;
 	private boolean mySupportsConditional;
 	private boolean mySupportsConditionalMultiple;
 
@@ -83,6 +84,24 @@ public abstract class BaseMethodBinding<T> {
 			}
 		}
 
+		for (IParameter next : myParameters) {
+			if (next instanceof TransactionParameter) {
+				myRequestBodyReaderCount++;
+			} else if (next instanceof ResourceParameter && ((ResourceParameter) next).getMode() != ResourceParameter.Mode.ENCODING) {
+				myRequestBodyReaderCount++;
+			}
+		}
+	}
+
+	/**
+	 * If the request body will be read more than once while invoking this method, it is
+	 * loaded into memory up front so that it is not streamed to the first reader
+	 * (see {@link RequestDetails#openRequestContentsStream()})
+	 */
+	protected void bufferRequestContentsIfReadMoreThanOnce(RequestDetails theRequest) {
+		if (getRequestBodyReaderCount() > 1) {
+			theRequest.loadRequestContents();
+		}
 	}
 
 	protected IParser createAppropriateParserForParsingResponse(String theResponseMimeType, Reader theResponseReader, int theResponseStatusCode, List<Class<? extends IBaseResource>> thePreferTypes) {
@@ -122,6 +141,7 @@ public abstract class BaseMethodBinding<T> {
 	}
 
 	protected Object[] createMethodParams(RequestDetails theRequest) {
+		bufferRequestContentsIfReadMoreThanOnce(theRequest);
 		Object[] params = new Object[getParameters().size()];
 		for (int i = 0; i < getParameters().size(); i++) {
 			IParameter param = getParameters().get(i);
@@ -133,6 +153,7 @@ public abstract class BaseMethodBinding<T> {
 	}
 
 	protected Object[] createParametersForServerRequest(RequestDetails theRequest) {
+		bufferRequestContentsIfReadMoreThanOnce(theRequest);
 		Object[] params = new Object[getParameters().size()];
 		for (int i = 0; i < getParameters().size(); i++) {
 			IParameter param = getParameters().get(i);
@@ -177,6 +198,14 @@ public abstract class BaseMethodBinding<T> {
 		return myParameters;
 	}
 
+	/**
+	 * Returns the number of times the request body is read while invoking this method. Subclasses
+	 * which read the body themselves should add to the count returned by this method.
+	 */
+	protected int getRequestBodyReaderCount() {
+		return myRequestBodyReaderCount;
+	}
+
 	public Object getProvider() {
 		return myProvider;
 	}
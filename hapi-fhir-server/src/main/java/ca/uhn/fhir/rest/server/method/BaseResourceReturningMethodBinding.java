@@ -12,8 +12,10 @@ import ca.uhn.fhir.rest.api.server.IRestfulServer;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.api.server.ResponseDetails;
 import ca.uhn.fhir.rest.server.IPagingProvider;
+import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.RestfulServerUtils;
 import ca.uhn.fhir.rest.server.RestfulServerUtils.ResponseEncoding;
+import ca.uhn.fhir.rest.server.StreamingBundleWriter;
 import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
@@ -127,13 +129,24 @@ public abstract class BaseResourceReturningMethodBinding extends BaseMethodBindi
 																			 IBundleProvider theResult, int theOffset, BundleTypeEnum theBundleType, EncodingEnum theLinkEncoding, String theSearchId) {
 		IVersionSpecificBundleFactory bundleFactory = theServer.getFhirContext().newBundleFactory();
 
+		/*
+		 * If the server is streaming bundles, the resources aren't loaded here. Instead
+		 * they are loaded in chunks as the response is written.
+		 */
+		boolean streaming = theServer instanceof RestfulServer && StreamingBundleWriter.isSupported((RestfulServer) theServer, theRequest, theIncludes);
+		int fromIndex = 0;
+		int toIndex = 0;
+
 		int numToReturn;
 		String searchId = null;
 		List<IBaseResource> resourceList;
 		Integer numTotalResults = theResult.size();
 		if (theServer.getPagingProvider() == null) {
 			numToReturn = numTotalResults;
-			if (numToReturn > 0) {
+			if (numToReturn > 0 && streaming) {
+				toIndex = numToReturn;
+				resourceList = Collections.emptyList();
+			} else if (numToReturn > 0) {
 				resourceList = theResult.getResources(0, numToReturn);
 			} else {
 				resourceList = Collections.emptyList();
@@ -152,7 +165,11 @@ public abstract class BaseResourceReturningMethodBinding extends BaseMethodBindi
 				numToReturn = Math.min(numToReturn, numTotalResults - theOffset);
 			}
 
-			if (numToReturn > 0) {
+			if (numToReturn > 0 && streaming) {
+				fromIndex = theOffset;
+				toIndex = numToReturn + theOffset;
+				resourceList = Collections.emptyList();
+			} else if (numToReturn > 0) {
 				resourceList = theResult.getResources(theOffset, numToReturn + theOffset);
 			} else {
 				resourceList = Collections.emptyList();
@@ -218,6 +235,12 @@ public abstract class BaseResourceReturningMethodBinding extends BaseMethodBindi
 		}
 
 		bundleFactory.addRootPropertiesToBundle(theResult.getUuid(), serverBase, theLinkSelf, linkPrev, linkNext, theResult.size(), theBundleType, theResult.getPublished());
+		if (toIndex > fromIndex) {
+			IBaseResource envelope = bundleFactory.getResourceBundle();
+			StreamingBundleWriter streamingWriter = new StreamingBundleWriter(theServer.getFhirContext(), theResult, fromIndex, toIndex, theBundleType, serverBase, theServer.getBundleInclusionRule(), theIncludes);
+			streamingWriter.register(theRequest, envelope);
+			return envelope;
+		}
 		bundleFactory.addResourcesToBundle(new ArrayList<>(resourceList), theBundleType, serverBase, theServer.getBundleInclusionRule(), theIncludes);
 
 		if (theServer.getPagingProvider() != null) {
@@ -220,9 +220,18 @@ public class OperationMethodBinding extends BaseResourceReturningMethodBinding {
 	}
 
 
+	/**
+	 * The body of a POST is always parsed into the operation parameters
+	 */
+	@Override
+	protected int getRequestBodyReaderCount() {
+		return super.getRequestBodyReaderCount() + 1;
+	}
+
 	@Override
 	public Object invokeServer(IRestfulServer<?> theServer, RequestDetails theRequest) throws BaseServerResponseException, IOException {
 		if (theRequest.getRequestType() == RequestTypeEnum.POST) {
+			bufferRequestContentsIfReadMoreThanOnce(theRequest);
 			IBaseResource requestContents = ResourceParameter.loadResourceFromRequest(theRequest, this, null);
 			theRequest.getUserData().put(OperationParameter.REQUEST_CONTENTS_USERDATA_KEY, requestContents);
 		}
@@ -33,13 +33,11 @@ import ca.uhn.fhir.rest.server.RestfulServerUtils;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.util.BinaryUtil;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.hl7.fhir.instance.model.api.IBaseBinary;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.lang.reflect.Method;
@@ -91,12 +89,7 @@ public class ResourceParameter implements IParameter {
 	public Object translateQueryParametersIntoServerArgument(RequestDetails theRequest, BaseMethodBinding<?> theMethodBinding) throws InternalErrorException, InvalidRequestException {
 		switch (myMode) {
 		case BODY:
-			try {
-				return IOUtils.toString(createRequestReader(theRequest));
-			} catch (IOException e) {
-				// Shouldn't happen since we're reading from a byte array
-				throw new InternalErrorException("Failed to load request", e);
-			}
+			return new String(theRequest.loadRequestContents(), determineRequestCharset(theRequest));
 		case BODY_BYTE_ARRAY:
 			return theRequest.loadRequestContents();
 		case ENCODING:
@@ -108,8 +101,14 @@ public class ResourceParameter implements IParameter {
 		// }
 	}
 
+	/**
+	 * Creates a reader over the request body. Note that if the server has streaming request parsing enabled, this
+	 * reader may read directly from the client connection, meaning that the body can only be read once.
+	 *
+	 * @see ca.uhn.fhir.rest.server.RestfulServer#setStreamingRequestParsing(boolean)
+	 */
 	public static Reader createRequestReader(RequestDetails theRequest, Charset charset) {
-		Reader requestReader = new InputStreamReader(new ByteArrayInputStream(theRequest.loadRequestContents()), charset);
+		Reader requestReader = new InputStreamReader(theRequest.openRequestContentsStream(), charset);
 		return requestReader;
 	}
 
@@ -130,7 +129,7 @@ public class ResourceParameter implements IParameter {
 		FhirContext ctx = theRequest.getServer().getFhirContext();
 
 		final Charset charset = determineRequestCharset(theRequest);
-		Reader requestReader = createRequestReader(theRequest, charset);
+		Reader requestReader = null;
 
 		RestOperationTypeEnum restOperationType = theMethodBinding != null ? theMethodBinding.getRestOperationType() : null;
 
@@ -148,25 +147,23 @@ public class ResourceParameter implements IParameter {
 				/*
 				 * If the client didn't send a content type, try to guess
 				 */
-				String body;
-				try {
-					body = IOUtils.toString(requestReader);
-				} catch (IOException e) {
-					// This shouldn't happen since we're reading from a byte array..
-					throw new InternalErrorException(e);
-				}
-				encoding = EncodingEnum.detectEncodingNoDefault(body);
+				byte[] body = theRequest.loadRequestContents();
+				encoding = EncodingEnum.detectEncodingNoDefault(new String(body, charset));
 				if (encoding == null) {
 					String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "noContentTypeInRequest", restOperationType);
 					throw new InvalidRequestException(msg);
 				}
-				requestReader = new InputStreamReader(new ByteArrayInputStream(theRequest.loadRequestContents()), charset);
+				requestReader = new InputStreamReader(new ByteArrayInputStream(body), charset);
 			} else {
 				String msg = ctx.getLocalizer().getMessage(ResourceParameter.class, "invalidContentTypeInRequest", ctValue, restOperationType);
 				throw new InvalidRequestException(msg);
 			}
 		}
 
+		if (requestReader == null) {
+			requestReader = createRequestReader(theRequest, charset);
+		}
+
 		IParser parser = encoding.newParser(ctx);
     parser.setServerBaseUrl(theRequest.getFhirServerBase());
 		T retVal;
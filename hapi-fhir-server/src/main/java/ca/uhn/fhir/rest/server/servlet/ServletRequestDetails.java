@@ -29,9 +29,9 @@ import org.apache.commons.io.IOUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.util.Collections;
@@ -57,26 +57,51 @@ public class ServletRequestDetails extends RequestDetails {
 	@Override
 	protected byte[] getByteStreamRequestContents() {
 		try {
-			InputStream inputStream = getInputStream();
-			byte[] requestContents = IOUtils.toByteArray(inputStream);
-
-			if (myServer.isUncompressIncomingContents()) {
-				String contentEncoding = myServletRequest.getHeader(Constants.HEADER_CONTENT_ENCODING);
-				if ("gzip".equals(contentEncoding)) {
-					ourLog.debug("Uncompressing (GZip) incoming content");
-					if (requestContents.length > 0) {
-						GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(requestContents));
-						requestContents = IOUtils.toByteArray(gis);
-					}
-				}
-			}
-			return requestContents;
+			return IOUtils.toByteArray(openBodyStream());
 		} catch (IOException e) {
 			ourLog.error("Could not load request resource", e);
 			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
 		}
 	}
 
+	@Override
+	protected InputStream getByteStreamRequestContentsAsStream() {
+		if (!myServer.isStreamingRequestParsing()) {
+			return null;
+		}
+		try {
+			return openBodyStream();
+		} catch (IOException e) {
+			ourLog.error("Could not load request resource", e);
+			throw new InvalidRequestException(String.format("Could not load request resource: %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Opens the servlet input stream, wrapping it so that GZip content is decompressed
+	 * as it is read (if the server is configured to do so)
+	 */
+	private InputStream openBodyStream() throws IOException {
+		InputStream inputStream = getInputStream();
+
+		if (myServer.isUncompressIncomingContents()) {
+			String contentEncoding = myServletRequest.getHeader(Constants.HEADER_CONTENT_ENCODING);
+			if ("gzip".equals(contentEncoding)) {
+				ourLog.debug("Uncompressing (GZip) incoming content");
+				// An empty body has no GZip header, so it must not be passed to GZIPInputStream
+				PushbackInputStream pushbackStream = new PushbackInputStream(inputStream);
+				int firstByte = pushbackStream.read();
+				if (firstByte == -1) {
+					return pushbackStream;
+				}
+				pushbackStream.unread(firstByte);
+				inputStream = new GZIPInputStream(pushbackStream);
+			}
+		}
+
+		return inputStream;
+	}
+
 	@Override
 	public Charset getCharset() {
 		Charset charset = null;
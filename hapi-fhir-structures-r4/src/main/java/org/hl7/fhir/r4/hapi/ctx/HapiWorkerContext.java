@@ -27,26 +27,155 @@ import org.hl7.fhir.utilities.TranslationServices;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+/**
+ * Worker context backed by an {@link IValidationSupport}. Fetched conformance resources,
+ * ValueSet expansions and code validation results are held in bounded caches, so a single
+ * instance may be shared between threads and reused across many validations. Call
+ * {@link #invalidateCaches()} when the underlying conformance resources change.
+ * <p>
+ * Only code validations which found the code, and expansions which succeeded, are cached,
+ * so that a code which is added to the terminology later is not reported as unknown.
+ * </p>
+ * <p>
+ * The validator stores parsed expressions and other working state on the StructureDefinitions
+ * it is given, so each thread is given its own copy of a StructureDefinition, which it keeps
+ * reusing until the caches are invalidated. The expansion profile is also held per thread.
+ * </p>
+ */
 public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander, ValueSetExpanderFactory {
+  public static final int DEFAULT_CACHE_SIZE = 5000;
+  private final AtomicLong myCacheHitCount = new AtomicLong();
+  private final AtomicLong myCacheMissCount = new AtomicLong();
   private final FhirContext myCtx;
-  private Map<String, Resource> myFetchedResourceCache = new HashMap<String, Resource>();
+  private final Map<String, ValueSetExpansionOutcome> myExpansionCache;
+  private final Map<String, Resource> myFetchedResourceCache;
+  private final Map<List<String>, ValidationResult> myValidationResultCache;
+  private final ThreadLocal<ExpansionProfile> myExpansionProfile = new ThreadLocal<ExpansionProfile>();
+  private final AtomicLong myCacheGeneration = new AtomicLong();
+  private final ThreadLocal<ThreadCopies> myStructureDefinitionCopies = new ThreadLocal<ThreadCopies>();
+  private final int myCacheSize;
   private IValidationSupport myValidationSupport;
-  private ExpansionProfile myExpansionProfile;
 
   public HapiWorkerContext(FhirContext theCtx, IValidationSupport theValidationSupport) {
+    this(theCtx, theValidationSupport, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param theCacheSize The maximum number of entries held in each of the resource, expansion and code validation caches
+   */
+  public HapiWorkerContext(FhirContext theCtx, IValidationSupport theValidationSupport, int theCacheSize) {
     Validate.notNull(theCtx, "theCtx must not be null");
     Validate.notNull(theValidationSupport, "theValidationSupport must not be null");
+    Validate.isTrue(theCacheSize > 0, "theCacheSize must be positive");
     myCtx = theCtx;
     myValidationSupport = theValidationSupport;
+    myCacheSize = theCacheSize;
+    myFetchedResourceCache = newCache(theCacheSize);
+    myExpansionCache = newCache(theCacheSize);
+    myValidationResultCache = newCache(theCacheSize);
+  }
+
+  /**
+   * Returns the number of lookups which were answered from a cache
+   */
+  public long getCacheHitCount() {
+    return myCacheHitCount.get();
+  }
+
+  /**
+   * Returns the number of lookups which had to be passed to the validation support
+   */
+  public long getCacheMissCount() {
+    return myCacheMissCount.get();
+  }
+
+  /**
+   * Discards all cached resources, expansions and code validation results
+   */
+  public void invalidateCaches() {
+    myCacheGeneration.incrementAndGet();
+    myFetchedResourceCache.clear();
+    myExpansionCache.clear();
+    myValidationResultCache.clear();
+  }
+
+  private <V> V getCached(Map<?, V> theCache, Object theKey) {
+    V retVal = theCache.get(theKey);
+    if (retVal != null) {
+      myCacheHitCount.incrementAndGet();
+    } else {
+      myCacheMissCount.incrementAndGet();
+    }
+    return retVal;
+  }
+
+  /**
+   * Returns the calling thread's own copy of a StructureDefinition, copying the shared
+   * instance the first time the thread asks for it
+   */
+  private StructureDefinition getThreadCopy(String theKey, StructureDefinition theShared) {
+    long generation = myCacheGeneration.get();
+    ThreadCopies copies = myStructureDefinitionCopies.get();
+    if (copies == null || copies.myGeneration != generation) {
+      copies = new ThreadCopies(generation, HapiWorkerContext.<String, StructureDefinition>newLruMap(myCacheSize));
+      myStructureDefinitionCopies.set(copies);
+    }
+    StructureDefinition retVal = copies.myCopies.get(theKey);
+    if (retVal == null) {
+      retVal = theShared.copy();
+      copies.myCopies.put(theKey, retVal);
+    }
+    return retVal;
+  }
+
+  /**
+   * Creates a thread safe map which discards its least recently used entry once it grows
+   * beyond the given size
+   */
+  private static <K, V> Map<K, V> newCache(int theMaxSize) {
+    return Collections.synchronizedMap(HapiWorkerContext.<K, V>newLruMap(theMaxSize));
+  }
+
+  private static <K, V> Map<K, V> newLruMap(final int theMaxSize) {
+    return new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> theEldest) {
+        return size() > theMaxSize;
+      }
+    };
+  }
+
+  /**
+   * ValueSets without a canonical URL (e.g. contained ones) can't be safely identified, so
+   * anything involving them is not cached
+   */
+  private static String toValueSetCacheKey(ValueSet theValueSet) {
+    if (theValueSet == null || isBlank(theValueSet.getUrl())) {
+      return null;
+    }
+    return theValueSet.getUrl() + "|" + theValueSet.getVersion();
   }
 
   @Override
   public List<StructureDefinition> allStructures() {
-    return myValidationSupport.fetchAllStructureDefinitions(myCtx);
+    List<StructureDefinition> retVal = new ArrayList<StructureDefinition>();
+    for (StructureDefinition next : myValidationSupport.fetchAllStructureDefinitions(myCtx)) {
+      if (isBlank(next.getUrl())) {
+        retVal.add(next.copy());
+      } else {
+        retVal.add(getThreadCopy("StructureDefinition|" + next.getUrl(), next));
+      }
+    }
+    return retVal;
   }
 
   @Override
@@ -54,7 +183,15 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
     if (myValidationSupport == null) {
       return null;
     } else {
-      return myValidationSupport.fetchCodeSystem(myCtx, theSystem);
+      String key = "CodeSystem|" + theSystem;
+      CodeSystem retVal = (CodeSystem) getCached(myFetchedResourceCache, key);
+      if (retVal == null) {
+        retVal = myValidationSupport.fetchCodeSystem(myCtx, theSystem);
+        if (retVal != null) {
+          myFetchedResourceCache.put(key, retVal);
+        }
+      }
+      return retVal;
     }
   }
 
@@ -158,11 +295,19 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 
   @Override
   public ValidationResult validateCode(String theSystem, String theCode, String theDisplay) {
-    CodeValidationResult result = myValidationSupport.validateCode(myCtx, theSystem, theCode, theDisplay);
-    if (result == null) {
-      return null;
+    List<String> key = Arrays.asList(theSystem, theCode, theDisplay);
+    ValidationResult retVal = getCached(myValidationResultCache, key);
+    if (retVal == null) {
+      CodeValidationResult result = myValidationSupport.validateCode(myCtx, theSystem, theCode, theDisplay);
+      if (result == null) {
+        return null;
+      }
+      retVal = new ValidationResult(result.getSeverity(), result.getMessage(), result.asConceptDefinition());
+      if (retVal.isOk()) {
+        myValidationResultCache.put(key, retVal);
+      }
     }
-    return new ValidationResult(result.getSeverity(), result.getMessage(), result.asConceptDefinition());
+    return retVal;
   }
 
   @Override
@@ -172,6 +317,23 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 
   @Override
   public ValidationResult validateCode(String theSystem, String theCode, String theDisplay, ValueSet theVs) {
+    String valueSetKey = toValueSetCacheKey(theVs);
+    if (valueSetKey == null) {
+      return doValidateCode(theSystem, theCode, theDisplay, theVs);
+    }
+
+    List<String> key = Arrays.asList(theSystem, theCode, theDisplay, valueSetKey);
+    ValidationResult retVal = getCached(myValidationResultCache, key);
+    if (retVal == null) {
+      retVal = doValidateCode(theSystem, theCode, theDisplay, theVs);
+      if (retVal.isOk()) {
+        myValidationResultCache.put(key, retVal);
+      }
+    }
+    return retVal;
+  }
+
+  private ValidationResult doValidateCode(String theSystem, String theCode, String theDisplay, ValueSet theVs) {
 
     if (theVs != null && isNotBlank(theCode)) {
       for (ConceptSetComponent next : theVs.getCompose().getInclude()) {
@@ -256,6 +418,21 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 
   @Override
   public ValueSetExpansionOutcome expand(ValueSet theSource, ExpansionProfile theProfile) {
+    String key = theProfile == null ? toValueSetCacheKey(theSource) : null;
+    if (key != null) {
+      ValueSetExpansionOutcome retVal = getCached(myExpansionCache, key);
+      if (retVal == null) {
+        retVal = doExpand(theSource, theProfile);
+        if (retVal.getError() == null) {
+          myExpansionCache.put(key, retVal);
+        }
+      }
+      return retVal;
+    }
+    return doExpand(theSource, theProfile);
+  }
+
+  private ValueSetExpansionOutcome doExpand(ValueSet theSource, ExpansionProfile theProfile) {
     ValueSetExpansionOutcome vso;
     try {
       vso = getExpander().expand(theSource, theProfile);
@@ -273,12 +450,16 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
 
   @Override
   public ExpansionProfile getExpansionProfile() {
-    return myExpansionProfile;
+    return myExpansionProfile.get();
   }
 
+  /**
+   * Sets the expansion profile used by the calling thread only, since this context may be
+   * shared by validations running on other threads
+   */
   @Override
   public void setExpansionProfile(ExpansionProfile theExpProfile) {
-    myExpansionProfile = theExpProfile;
+    myExpansionProfile.set(theExpProfile);
   }
 
   @Override
@@ -331,14 +512,20 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
     if (myValidationSupport == null) {
       return null;
     } else {
+      String key = theClass.getSimpleName() + "|" + theUri;
       @SuppressWarnings("unchecked")
-      T retVal = (T) myFetchedResourceCache.get(theUri);
+      T retVal = (T) getCached(myFetchedResourceCache, key);
       if (retVal == null) {
         retVal = myValidationSupport.fetchResource(myCtx, theClass, theUri);
         if (retVal != null) {
-          myFetchedResourceCache.put(theUri, (Resource) retVal);
+          myFetchedResourceCache.put(key, (Resource) retVal);
         }
       }
+      if (retVal instanceof StructureDefinition) {
+        @SuppressWarnings("unchecked")
+        T copy = (T) getThreadCopy(key, (StructureDefinition) retVal);
+        retVal = copy;
+      }
       return retVal;
     }
   }
@@ -377,4 +564,18 @@ public final class HapiWorkerContext implements IWorkerContext, ValueSetExpander
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * The StructureDefinition copies owned by one thread, and the cache generation
+   * they were made in
+   */
+  private static class ThreadCopies {
+    private final Map<String, StructureDefinition> myCopies;
+    private final long myGeneration;
+
+    ThreadCopies(long theGeneration, Map<String, StructureDefinition> theCopies) {
+      myGeneration = theGeneration;
+      myCopies = theCopies;
+    }
+  }
+
 }
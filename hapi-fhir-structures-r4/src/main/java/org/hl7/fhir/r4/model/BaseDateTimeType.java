@@ -261,6 +261,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	 * </p>
 	 */
 	public Long getNanos() {
+		coerceDeferredValue();
 		if (isBlank(myFractionalSeconds)) {
 			return null;
 		}
@@ -289,6 +290,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	 * @see #setPrecision(TemporalPrecisionEnum)
 	 */
 	public TemporalPrecisionEnum getPrecision() {
+		coerceDeferredValue();
 		if (myPrecision == null) {
 			return getDefaultPrecisionForDatatype();
 		}
@@ -307,6 +309,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	 * supplied.
 	 */
 	public TimeZone getTimeZone() {
+		coerceDeferredValue();
 		if (myTimeZoneZulu) {
 			return TimeZone.getTimeZone("GMT");
 		}
@@ -342,10 +345,16 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	 */
 	abstract boolean isPrecisionAllowed(TemporalPrecisionEnum thePrecision);
 
+	@Override
+	protected boolean isLazyCoercionSupported() {
+		return true;
+	}
+
 	/**
 	 * Returns true if the timezone is set to GMT-0:00 (Z)
 	 */
 	public boolean isTimeZoneZulu() {
+		coerceDeferredValue();
 		return myTimeZoneZulu;
 	}
 
@@ -502,6 +511,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 
 	private void setFieldValue(int theField, int theValue, String theFractionalSeconds, int theMinimum, int theMaximum) {
 		validateValueInRange(theValue, theMinimum, theMaximum);
+		coerceDeferredValueForUpdate();
 		Calendar cal;
 		if (getValue() == null) {
 			cal = new GregorianCalendar(0, 0, 0);
@@ -587,6 +597,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 		if (thePrecision == null) {
 			throw new NullPointerException("Precision may not be null");
 		}
+		coerceDeferredValueForUpdate();
 		myPrecision = thePrecision;
 		updateStringValue();
 	}
@@ -621,6 +632,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	}
 
 	public BaseDateTimeType setTimeZone(TimeZone theTimeZone) {
+		coerceDeferredValueForUpdate();
 		myTimeZone = theTimeZone;
 		myTimeZoneZulu = false;
 		updateStringValue();
@@ -628,6 +640,7 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	}
 
 	public BaseDateTimeType setTimeZoneZulu(boolean theTimeZoneZulu) {
+		coerceDeferredValueForUpdate();
 		myTimeZoneZulu = theTimeZoneZulu;
 		myTimeZone = null;
 		updateStringValue();
@@ -657,8 +670,11 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 	 * @throws DataFormatException
 	 */
 	public void setValue(Date theValue, TemporalPrecisionEnum thePrecision) throws DataFormatException {
+		coerceDeferredValue();
 		if (getTimeZone() == null) {
-			setTimeZone(TimeZone.getDefault());
+			// Assigned directly, since setTimeZone(TimeZone) would refuse to re-encode a lazily held invalid value
+			myTimeZone = TimeZone.getDefault();
+			myTimeZoneZulu = false;
 		}
 		myPrecision = thePrecision;
 		myFractionalSeconds = "";
@@ -680,6 +696,12 @@ public abstract class BaseDateTimeType extends PrimitiveType<Date> {
 		super.setValueAsString(theValue);
 	}
 
+	@Override
+	public void setValueAsStringLazily(String theValue) {
+		clearTimeZone();
+		super.setValueAsStringLazily(theValue);
+	}
+
 	protected void setValueAsV3String(String theV3String) {
 		if (StringUtils.isBlank(theV3String)) {
 			setValue(null);
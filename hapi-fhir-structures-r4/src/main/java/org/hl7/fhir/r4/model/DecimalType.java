@@ -114,6 +114,11 @@ public class DecimalType extends PrimitiveType<BigDecimal> implements Comparable
 		return getValue();
 	}
 
+	@Override
+	protected boolean isLazyCoercionSupported() {
+		return true;
+	}
+
 	@Override
 	protected BigDecimal parse(String theValue) {
 		return new BigDecimal(theValue);
@@ -167,7 +172,9 @@ public class DecimalType extends PrimitiveType<BigDecimal> implements Comparable
 
 	@Override
 	public DecimalType copy() {
-		return new DecimalType(getValue());
+		DecimalType retVal = new DecimalType();
+		retVal.setValueAsStringLazily(getValueAsString());
+		return retVal;
 	}
 
 	public String fhirType() {
@@ -85,6 +85,11 @@ public class IntegerType extends PrimitiveType<Integer> implements IBaseIntegerD
 	    }
 	}
 
+	@Override
+	protected boolean isLazyCoercionSupported() {
+		return true;
+	}
+
 	@Override
 	protected Integer parse(String theValue) {
 		try {
@@ -101,7 +106,9 @@ public class IntegerType extends PrimitiveType<Integer> implements IBaseIntegerD
 
 	@Override
 	public IntegerType copy() {
-		return new IntegerType(getValue());
+		IntegerType retVal = new IntegerType();
+		retVal.setValueAsStringLazily(getValueAsString());
+		return retVal;
 	}
 
 	public String fhirType() {
@@ -10,21 +10,84 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseHasExtensions;
-import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.instance.model.api.ILazyCoercionPrimitiveType;
 
 import ca.uhn.fhir.model.api.IElement;
+import ca.uhn.fhir.parser.DataFormatException;
 
-public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>, IBaseHasExtensions, IElement, Externalizable {
+public abstract class PrimitiveType<T> extends Type implements ILazyCoercionPrimitiveType<T>, IBaseHasExtensions, IElement, Externalizable {
 
 	private static final long serialVersionUID = 3L;
 
 	private T myCoercedValue;
+	private volatile boolean myCoercionDeferred;
+	private boolean myCoercionFailed;
+	private boolean myCoercionInProgress;
 	private String myStringValue;
 
 	public String asStringValue() {
 		return myStringValue;
 	}
 
+	/**
+	 * Converts a string value which was supplied using {@link #setValueAsStringLazily(String)}
+	 * into its coerced representation, if this has not already happened. Subclasses which
+	 * keep additional state derived from the string must call this before reading that state.
+	 * <p>
+	 * The coerced value (and any state set by {@link #parse(String)}) is assigned before the
+	 * deferred flag is cleared, so a thread which sees the flag cleared also sees the value.
+	 * </p>
+	 */
+	protected void coerceDeferredValue() {
+		coerceDeferredValue(false);
+	}
+
+	private void coerceDeferredValue(boolean theStrict) {
+		if (!myCoercionDeferred && !(theStrict && myCoercionFailed)) {
+			return;
+		}
+		synchronized (this) {
+			// parse(String) may call back into this method, e.g. through BaseDateTimeType#getTimeZone()
+			if (myCoercionInProgress || (!myCoercionDeferred && !(theStrict && myCoercionFailed))) {
+				return;
+			}
+			T value;
+			boolean failed = false;
+			myCoercionInProgress = true;
+			try {
+				value = parse(myStringValue);
+			} catch (DataFormatException e) {
+				if (theStrict) {
+					throw e;
+				}
+				value = null;
+				failed = true;
+			} catch (IllegalArgumentException e) {
+				if (theStrict) {
+					throw e;
+				}
+				value = null;
+				failed = true;
+			} finally {
+				myCoercionInProgress = false;
+			}
+			myCoercedValue = value;
+			myCoercionFailed = failed;
+			myCoercionDeferred = false;
+		}
+	}
+
+	/**
+	 * Like {@link #coerceDeferredValue()}, but for use before a change which re-encodes the
+	 * string from the coerced value. If the string supplied using {@link #setValueAsStringLazily(String)}
+	 * can not be converted, the exception from {@link #parse(String)} is thrown and the
+	 * original string is kept, just as {@link #setValueAsString(String)} would have failed
+	 * up front.
+	 */
+	protected void coerceDeferredValueForUpdate() {
+		coerceDeferredValue(true);
+	}
+
 	public abstract Type copy();
 
 	/**
@@ -71,6 +134,8 @@ public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>
 	}
 
 	public void fromStringValue(String theValue) {
+		myCoercionDeferred = false;
+		myCoercionFailed = false;
 		myStringValue = theValue;
 		if (theValue == null) {
 			myCoercedValue = null;
@@ -81,6 +146,7 @@ public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>
 	}
 
 	public T getValue() {
+		coerceDeferredValue();
 		return myCoercedValue;
 	}
 
@@ -102,6 +168,15 @@ public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>
 		return super.isEmpty() && StringUtils.isBlank(getValueAsString());
 	}
 
+	/**
+	 * Subclasses may override to return <code>true</code> if parsing their values is expensive
+	 * enough that {@link #setValueAsStringLazily(String)} should defer it. The default
+	 * is <code>false</code>, meaning that values are always parsed immediately.
+	 */
+	protected boolean isLazyCoercionSupported() {
+		return false;
+	}
+
 	public boolean isPrimitive() {
 		return true;
 	}
@@ -126,6 +201,8 @@ public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>
 	}
 
 	public PrimitiveType<T> setValue(T theValue) {
+		myCoercionDeferred = false;
+		myCoercionFailed = false;
 		myCoercedValue = theValue;
 		updateStringValue();
 		return this;
@@ -135,6 +212,18 @@ public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>
 		fromStringValue(theValue);
 	}
 
+	@Override
+	public void setValueAsStringLazily(String theValue) {
+		if (!isLazyCoercionSupported()) {
+			setValueAsString(theValue);
+			return;
+		}
+		myStringValue = theValue;
+		myCoercedValue = null;
+		myCoercionFailed = false;
+		myCoercionDeferred = theValue != null;
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + "[" + asStringValue() + "]";
@@ -145,6 +234,7 @@ public abstract class PrimitiveType<T> extends Type implements IPrimitiveType<T>
 	}
 
 	protected void updateStringValue() {
+		coerceDeferredValueForUpdate();
 		if (myCoercedValue == null) {
 			myStringValue = null;
 		} else {
@@ -0,0 +1,138 @@
+package ca.uhn.fhir.parser;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.StopWatch;
+import ca.uhn.fhir.util.TestUtil;
+import org.apache.commons.io.IOUtils;
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that the streaming JSON structure (see {@link ca.uhn.fhir.context.ParserOptions#setStreamingJsonParsing(boolean)})
+ * produces exactly the same resources as the default Gson tree based structure
+ */
+public class JsonParserStreamingR4Test {
+	private static final Logger ourLog = LoggerFactory.getLogger(JsonParserStreamingR4Test.class);
+	private static FhirContext ourCtx = FhirContext.forR4();
+
+	@After
+	public void after() {
+		ourCtx.getParserOptions().setStreamingJsonParsing(false);
+	}
+
+	private void assertParsesIdentically(String theJson) {
+		ourCtx.getParserOptions().setStreamingJsonParsing(false);
+		IBaseResource gsonParsed = ourCtx.newJsonParser().parseResource(theJson);
+		String gsonEncoded = ourCtx.newJsonParser().encodeResourceToString(gsonParsed);
+
+		ourCtx.getParserOptions().setStreamingJsonParsing(true);
+		IBaseResource streamingParsed = ourCtx.newJsonParser().parseResource(theJson);
+		String streamingEncoded = ourCtx.newJsonParser().encodeResourceToString(streamingParsed);
+
+		assertEquals(gsonParsed.getClass(), streamingParsed.getClass());
+		assertEquals(gsonEncoded, streamingEncoded);
+	}
+
+	@Test
+	public void testParseEdgeCases() throws FHIRException {
+		String input = "{\n" +
+			"  \"resourceType\": \"Observation\",\n" +
+			"  \"id\": \"OBS1\",\n" +
+			"  \"contained\": [ { \"resourceType\": \"Patient\", \"id\": \"p1\", \"active\": true } ],\n" +
+			"  \"status\": \"final\",\n" +
+			"  \"_status\": { \"extension\": [ { \"url\": \"http://foo\", \"valueString\": \"\\u00e9\\\"quoted\\\"\" } ] },\n" +
+			"  \"code\": { \"coding\": [ { \"system\": \"http://loinc.org\", \"code\": \"1234-5\" } ] },\n" +
+			"  \"subject\": { \"reference\": \"#p1\" },\n" +
+			"  \"valueQuantity\": { \"value\": 1.000, \"unit\": \"mg\" },\n" +
+			"  \"component\": [ { \"code\": { \"text\": \"A\" }, \"valueInteger\": 12 }, { \"code\": { \"text\": \"B\" }, \"valueBoolean\": false } ],\n" +
+			"  \"note\": [ { \"text\": \"one\" }, { \"text\": \"two\" } ],\n" +
+			"  \"category\": null\n" +
+			"}";
+		assertParsesIdentically(input);
+
+		ourCtx.getParserOptions().setStreamingJsonParsing(true);
+		Observation obs = ourCtx.newJsonParser().parseResource(Observation.class, input);
+		assertEquals("1.000", obs.getValueQuantity().getValueElement().getValueAsString());
+		assertEquals("é\"quoted\"", ((StringType) obs.getStatusElement().getExtension().get(0).getValue()).getValue());
+		assertTrue(((Patient) obs.getSubject().getResource()).getActive());
+		assertEquals(2, obs.getComponent().size());
+	}
+
+	@Test
+	public void testParseInvalidContent() {
+		ourCtx.getParserOptions().setStreamingJsonParsing(true);
+		try {
+			ourCtx.newJsonParser().parseResource("{\"resourceType\": \"Patient\", ");
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("Failed to parse JSON"));
+		}
+		try {
+			ourCtx.newJsonParser().parseResource("{\"active\": true}");
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("missing required element: 'resourceType'"));
+		}
+	}
+
+	/**
+	 * Parses every definitional resource bundled with the R4 validation resources
+	 * both ways and compares the results
+	 */
+	@Test
+	public void testParseAllBundledResources() throws IOException {
+		String[] files = {
+			"/org/hl7/fhir/r4/model/profile/profiles-types.xml",
+			"/org/hl7/fhir/r4/model/profile/profiles-others.xml",
+			"/org/hl7/fhir/r4/model/valueset/v2-tables.xml",
+			"/org/hl7/fhir/r4/model/valueset/v3-codesystems.xml"
+		};
+
+		int count = 0;
+		for (String nextFile : files) {
+			Bundle bundle;
+			try (InputStream is = JsonParserStreamingR4Test.class.getResourceAsStream(nextFile)) {
+				bundle = ourCtx.newXmlParser().parseResource(Bundle.class, IOUtils.toString(is, StandardCharsets.UTF_8));
+			}
+
+			for (Bundle.BundleEntryComponent nextEntry : bundle.getEntry()) {
+				assertParsesIdentically(ourCtx.newJsonParser().encodeResourceToString(nextEntry.getResource()));
+				count++;
+			}
+
+			String bundleJson = ourCtx.newJsonParser().encodeResourceToString(bundle);
+			assertParsesIdentically(bundleJson);
+
+			ourCtx.getParserOptions().setStreamingJsonParsing(false);
+			StopWatch sw = new StopWatch();
+			ourCtx.newJsonParser().parseResource(bundleJson);
+			long gsonMillis = sw.getMillisAndRestart();
+			ourCtx.getParserOptions().setStreamingJsonParsing(true);
+			ourCtx.newJsonParser().parseResource(bundleJson);
+			long streamingMillis = sw.getMillis();
+			ourLog.info("Parsed {} ({} chars) in {}ms with Gson tree and {}ms streaming", nextFile, bundleJson.length(), gsonMillis, streamingMillis);
+		}
+
+		ourLog.info("Compared {} resources", count);
+		assertTrue(count > 100);
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
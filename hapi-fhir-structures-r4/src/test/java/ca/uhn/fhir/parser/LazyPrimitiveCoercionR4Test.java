@@ -0,0 +1,267 @@
+package ca.uhn.fhir.parser;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import ca.uhn.fhir.util.StopWatch;
+import ca.uhn.fhir.util.TestUtil;
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r4.model.*;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for deferred primitive coercion (see {@link ca.uhn.fhir.context.ParserOptions#setStrictPrimitiveCoercion(boolean)})
+ */
+public class LazyPrimitiveCoercionR4Test {
+	private static final Logger ourLog = LoggerFactory.getLogger(LazyPrimitiveCoercionR4Test.class);
+	private static FhirContext ourCtx = FhirContext.forR4();
+
+	@After
+	public void after() {
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(true);
+	}
+
+	private Bundle createBundle(int theCount) {
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.SEARCHSET);
+		for (int i = 0; i < theCount; i++) {
+			Observation obs = new Observation();
+			obs.setId("Observation/" + i);
+			obs.getMeta().setLastUpdatedElement(new InstantType("2018-03-01T10:11:12." + (100 + (i % 900)) + "-05:00"));
+			obs.setStatus(Observation.ObservationStatus.FINAL);
+			obs.getCode().addCoding().setSystem("http://loinc.org").setCode("1234-5");
+			obs.setEffective(new DateTimeType("2018-02-0" + (1 + (i % 9)) + "T12:00:00Z"));
+			obs.setIssuedElement(new InstantType("2018-02-10T12:00:00.000+02:00"));
+			obs.setValue(new Quantity().setValue(new BigDecimal("12." + i)).setUnit("mg"));
+			obs.addComponent().setValue(new IntegerType(i));
+			obs.addReferenceRange().getLow().setValue(new BigDecimal("1.00"));
+			bundle.addEntry().setFullUrl("http://example.com/Observation/" + i).setResource(obs);
+		}
+		return bundle;
+	}
+
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	@Test
+	public void testLazyValuesCoercedOnAccess() throws FHIRException {
+		String input = "{\"resourceType\":\"Observation\"," +
+			"\"status\":\"final\"," +
+			"\"effectiveDateTime\":\"2018-02-01T12:30:00.123+05:00\"," +
+			"\"issued\":\"2018-02-01T12:30:00Z\"," +
+			"\"valueQuantity\":{\"value\":1.000}," +
+			"\"component\":[{\"valueInteger\":12}]}";
+
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(false);
+		Observation obs = ourCtx.newJsonParser().parseResource(Observation.class, input);
+		assertEquals(input, ourCtx.newJsonParser().encodeResourceToString(obs));
+
+		DateTimeType effective = obs.getEffectiveDateTimeType();
+		assertEquals(TemporalPrecisionEnum.MILLI, effective.getPrecision());
+		assertEquals(TimeZone.getTimeZone("GMT+05:00").getID(), effective.getTimeZone().getID());
+		assertEquals(123, effective.getMillis().intValue());
+		assertTrue(obs.getIssuedElement().isTimeZoneZulu());
+		assertEquals(new DateTimeType("2018-02-01T12:30:00.123+05:00").getValue(), effective.getValue());
+		assertEquals(new BigDecimal("1.000"), obs.getValueQuantity().getValue());
+		assertEquals(12, ((IntegerType) obs.getComponentFirstRep().getValue()).getValue().intValue());
+		assertEquals(input, ourCtx.newJsonParser().encodeResourceToString(obs));
+	}
+
+	@Test
+	public void testLazyValuesModifiedBeforeAccess() throws FHIRException {
+		String input = "<Observation xmlns=\"http://hl7.org/fhir\">" +
+			"<effectiveDateTime value=\"2018-02-01T12:30:00+05:00\"/>" +
+			"<issued value=\"2018-02-01T12:30:00.000Z\"/>" +
+			"</Observation>";
+
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(false);
+		Observation obs = ourCtx.newXmlParser().parseResource(Observation.class, input);
+
+		DateTimeType effective = obs.getEffectiveDateTimeType();
+		effective.setPrecision(TemporalPrecisionEnum.DAY);
+		assertEquals("2018-02-01", effective.getValueAsString());
+
+		InstantType issued = obs.getIssuedElement();
+		issued.setTimeZone(TimeZone.getTimeZone("GMT+02:00"));
+		assertEquals("2018-02-01T14:30:00.000+02:00", issued.getValueAsString());
+	}
+
+	@Test
+	public void testInvalidValues() throws FHIRException {
+		String input = "{\"resourceType\":\"Observation\"," +
+			"\"effectiveDateTime\":\"2018-02-0X\"," +
+			"\"valueQuantity\":{\"value\":\"1.0.0\"}," +
+			"\"component\":[{\"valueInteger\":\"abc\"}]}";
+
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(false);
+		IParser parser = ourCtx.newJsonParser().setParserErrorHandler(new StrictErrorHandler());
+		Observation obs = parser.parseResource(Observation.class, input);
+		assertEquals("2018-02-0X", obs.getEffectiveDateTimeType().getValueAsString());
+		assertNull(obs.getEffectiveDateTimeType().getValue());
+		assertNull(obs.getValueQuantity().getValue());
+		assertNull(((IntegerType) obs.getComponentFirstRep().getValue()).getValue());
+		String encoded = ourCtx.newXmlParser().encodeResourceToString(obs);
+		assertThat(encoded, containsString("<effectiveDateTime value=\"2018-02-0X\"/>"));
+		assertThat(encoded, containsString("<value value=\"1.0.0\"/>"));
+		assertThat(encoded, containsString("<valueInteger value=\"abc\"/>"));
+
+		// Values which can't be coerced are written to JSON as the original strings
+		encoded = ourCtx.newJsonParser().encodeResourceToString(obs);
+		assertEquals(input, encoded);
+		Observation reparsed = parser.parseResource(Observation.class, encoded);
+		assertEquals(encoded, ourCtx.newJsonParser().encodeResourceToString(reparsed));
+
+		// Copies keep the original strings too
+		assertEquals("1.0.0", obs.getValueQuantity().getValueElement().copy().getValueAsString());
+		assertEquals("abc", ((IntegerType) obs.getComponentFirstRep().getValue()).copy().getValueAsString());
+		assertEquals(input, ourCtx.newJsonParser().encodeResourceToString(obs.copy()));
+
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(true);
+		try {
+			parser.parseResource(Observation.class, input);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("2018-02-0X"));
+		}
+	}
+
+	@Test
+	public void testInvalidValuesModified() throws FHIRException {
+		String input = "{\"resourceType\":\"Observation\"," +
+			"\"effectiveDateTime\":\"2018-02-0X\"," +
+			"\"issued\":\"2018-13-01T12:30:00.000Z\"}";
+
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(false);
+		Observation obs = ourCtx.newJsonParser().parseResource(Observation.class, input);
+
+		// Changing a value which was never coerced fails the way parsing it strictly would have
+		DateTimeType effective = obs.getEffectiveDateTimeType();
+		try {
+			effective.setPrecision(TemporalPrecisionEnum.DAY);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("2018-02-0X"));
+		}
+		assertEquals("2018-02-0X", effective.getValueAsString());
+		assertNull(effective.getValue());
+
+		// ..and so does changing one which has already failed to coerce
+		InstantType issued = obs.getIssuedElement();
+		assertNull(issued.getValue());
+		try {
+			issued.setTimeZone(TimeZone.getTimeZone("GMT+02:00"));
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("2018-13-01T12:30:00.000Z"));
+		}
+		try {
+			issued.setTimeZoneZulu(true);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("2018-13-01T12:30:00.000Z"));
+		}
+		try {
+			issued.setHour(10);
+			fail();
+		} catch (DataFormatException e) {
+			assertThat(e.getMessage(), containsString("2018-13-01T12:30:00.000Z"));
+		}
+		assertEquals("2018-13-01T12:30:00.000Z", issued.getValueAsString());
+		assertEquals(input, ourCtx.newJsonParser().encodeResourceToString(obs));
+
+		// Replacing the value outright still works
+		effective.setValueAsString("2018-02-01");
+		assertEquals("2018-02-01", effective.getValueAsString());
+		issued.setValue(new InstantType("2018-02-01T12:30:00.000Z").getValue());
+		assertNotNull(issued.getValueAsString());
+	}
+
+	@Test
+	public void testLazyValuesCoercedConcurrently() throws Exception {
+		String input = ourCtx.newJsonParser().encodeResourceToString(createBundle(200));
+		ourCtx.getParserOptions().setStrictPrimitiveCoercion(false);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int pass = 0; pass < 20; pass++) {
+				final Bundle bundle = ourCtx.newJsonParser().parseResource(Bundle.class, input);
+				List<Future<Void>> futures = new ArrayList<>();
+				for (int i = 0; i < 4; i++) {
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							for (Bundle.BundleEntryComponent next : bundle.getEntry()) {
+								Observation obs = (Observation) next.getResource();
+								assertNotNull(obs.getMeta().getLastUpdated());
+								assertNotNull(obs.getEffectiveDateTimeType().getValue());
+								assertEquals(TemporalPrecisionEnum.SECOND, obs.getEffectiveDateTimeType().getPrecision());
+								assertNotNull(obs.getIssued());
+								assertNotNull(obs.getValueQuantity().getValue());
+								assertNotNull(((IntegerType) obs.getComponentFirstRep().getValue()).getValue());
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> next : futures) {
+					next.get();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseLargeBundle() {
+		String input = ourCtx.newJsonParser().encodeResourceToString(createBundle(5000));
+
+		for (int pass = 0; pass < 3; pass++) {
+			ourCtx.getParserOptions().setStrictPrimitiveCoercion(true);
+			StopWatch sw = new StopWatch();
+			long allocated = getAllocatedBytes();
+			Bundle strict = ourCtx.newJsonParser().parseResource(Bundle.class, input);
+			long strictMillis = sw.getMillisAndRestart();
+			long strictAllocated = getAllocatedBytes() - allocated;
+
+			ourCtx.getParserOptions().setStrictPrimitiveCoercion(false);
+			allocated = getAllocatedBytes();
+			Bundle lazy = ourCtx.newJsonParser().parseResource(Bundle.class, input);
+			long lazyMillis = sw.getMillis();
+			long lazyAllocated = getAllocatedBytes() - allocated;
+
+			ourLog.info("Parsed {} chars in {}ms allocating {} bytes with strict coercion and {}ms allocating {} bytes with lazy coercion", input.length(), strictMillis, strictAllocated, lazyMillis, lazyAllocated);
+
+			assertEquals(ourCtx.newJsonParser().encodeResourceToString(strict), ourCtx.newJsonParser().encodeResourceToString(lazy));
+			assertTrue(strict.equalsDeep(lazy));
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}
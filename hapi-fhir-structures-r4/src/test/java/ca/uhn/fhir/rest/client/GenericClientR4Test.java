@@ -9,13 +9,20 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.ReaderInputStream;
@@ -35,6 +42,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.phloc.commons.io.streams.StringInputStream;
 
 import ca.uhn.fhir.context.FhirContext;
@@ -48,13 +56,18 @@ import ca.uhn.fhir.parser.CustomTypeR4Test.MyCustomPatient;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.*;
 import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
 import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
 import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
 import ca.uhn.fhir.rest.client.exceptions.NonFhirResponseException;
 import ca.uhn.fhir.rest.client.impl.BaseClient;
+import ca.uhn.fhir.rest.client.impl.RestfulClientFactory;
 import ca.uhn.fhir.rest.client.interceptor.CookieInterceptor;
 import ca.uhn.fhir.rest.client.interceptor.UserInfoInterceptor;
+import ca.uhn.fhir.rest.gclient.IPagingResourceIterator;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.ParamPrefixEnum;
 import ca.uhn.fhir.rest.server.exceptions.NotImplementedOperationException;
@@ -690,6 +703,81 @@ public class GenericClientR4Test {
 
   }
 
+  @Test
+  public void testIteratePages() throws Exception {
+    final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+    when(myHttpClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<HttpResponse>() {
+      @Override
+      public HttpResponse answer(InvocationOnMock theInvocation) throws Throwable {
+        String url = ((HttpUriRequest) theInvocation.getArguments()[0]).getURI().toASCIIString();
+        urls.add(url);
+        int page = Integer.parseInt(url.substring(url.lastIndexOf('=') + 1));
+        String body = ourCtx.newJsonParser().encodeResourceToString(createPage(page, page < 3));
+
+        HttpResponse response = mock(HttpResponse.class, new ReturnsDeepStubs());
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+        when(response.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_JSON + "; charset=UTF-8"));
+        when(response.getEntity().getContent()).thenReturn(new ReaderInputStream(new StringReader(body), Charset.forName("UTF-8")));
+        return response;
+      }
+    });
+
+    IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+    IPagingResourceIterator iter = client.loadPage().iterate(createPage(0, true), 1);
+
+    // Only one page may be loaded ahead of the caller
+    long timeout = System.currentTimeMillis() + 10000;
+    while (iter.getPagesLoaded() < 1 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(200);
+    assertEquals(1, iter.getPagesLoaded());
+    assertEquals(Collections.singletonList("http://example.com/fhir?_getpages=1"), urls);
+
+    List<String> families = new ArrayList<String>();
+    while (iter.hasNext()) {
+      families.add(((Patient) iter.next()).getNameFirstRep().getFamily());
+    }
+    iter.close();
+
+    assertEquals(Arrays.asList("P0-0", "P0-1", "P1-0", "P1-1", "P2-0", "P2-1", "P3-0", "P3-1"), families);
+    assertEquals(3, iter.getPagesLoaded());
+    assertEquals(Arrays.asList("http://example.com/fhir?_getpages=1", "http://example.com/fhir?_getpages=2", "http://example.com/fhir?_getpages=3"), urls);
+  }
+
+  private Bundle createPage(int thePage, boolean theHasNext) {
+    Bundle retVal = new Bundle();
+    retVal.setType(BundleType.SEARCHSET);
+    for (int i = 0; i < 2; i++) {
+      Patient patient = new Patient();
+      patient.addName().setFamily("P" + thePage + "-" + i);
+      retVal.addEntry().setResource(patient);
+    }
+    if (theHasNext) {
+      retVal.addLink().setRelation("next").setUrl("http://example.com/fhir?_getpages=" + (thePage + 1));
+    }
+    return retVal;
+  }
+
+  @Test
+  public void testIteratePagesWhenPageLoadFailsWithError() throws Exception {
+    when(myHttpClient.execute(any(HttpUriRequest.class))).thenThrow(new NoClassDefFoundError("Missing"));
+
+    IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+    IPagingResourceIterator iter = client.loadPage().iterate(createPage(0, true), 1);
+
+    assertEquals("P0-0", ((Patient) iter.next()).getNameFirstRep().getFamily());
+    assertEquals("P0-1", ((Patient) iter.next()).getNameFirstRep().getFamily());
+    try {
+      iter.hasNext();
+      fail();
+    } catch (FhirClientConnectionException e) {
+      assertEquals(NoClassDefFoundError.class, e.getCause().getClass());
+    }
+    assertFalse(iter.hasNext());
+    iter.close();
+  }
+
   /**
    * See #150
    */
@@ -1067,6 +1155,108 @@ public class GenericClientR4Test {
     assertEquals(encoded, requestString);
   }
 
+  @Test
+  public void testReadAsync() throws Exception {
+    Patient patient = new Patient();
+    patient.addName().setFamily("FAM");
+    final String respString = ourCtx.newJsonParser().encodeResourceToString(patient);
+
+    ArgumentCaptor<HttpUriRequest> capt = ArgumentCaptor.forClass(HttpUriRequest.class);
+    when(myHttpClient.execute(capt.capture())).thenReturn(myHttpResponse);
+    when(myHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+    when(myHttpResponse.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_JSON + "; charset=UTF-8"));
+    when(myHttpResponse.getEntity().getContent()).thenAnswer(new Answer<ReaderInputStream>() {
+      @Override
+      public ReaderInputStream answer(InvocationOnMock theInvocation) throws Throwable {
+        return new ReaderInputStream(new StringReader(respString), Charset.forName("UTF-8"));
+      }
+    });
+
+    IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+    final List<String> interceptorThreads = Collections.synchronizedList(new ArrayList<String>());
+    client.registerInterceptor(new IClientInterceptor() {
+      @Override
+      public void interceptRequest(IHttpRequest theRequest) {
+        interceptorThreads.add(Thread.currentThread().getName());
+      }
+
+      @Override
+      public void interceptResponse(IHttpResponse theResponse) {
+        interceptorThreads.add(Thread.currentThread().getName());
+      }
+    });
+
+    ListenableFuture<Patient> future = AsyncClientUtil.executeAsync(client.read().resource(Patient.class).withId("123"));
+    Patient response = future.get(10, TimeUnit.SECONDS);
+
+    assertEquals("http://example.com/fhir/Patient/123", capt.getValue().getURI().toASCIIString());
+    assertEquals("FAM", response.getNameFirstRep().getFamily());
+    assertEquals(2, interceptorThreads.size());
+    // The request is prepared on the calling thread, and the response processed on the async executor
+    assertEquals(Thread.currentThread().getName(), interceptorThreads.get(0));
+    assertThat(interceptorThreads.get(1), startsWith("hapi-fhir-client-async-"));
+  }
+
+  @Test
+  public void testReadAsyncFailsWhenExecutorIsSaturated() throws Exception {
+    RestfulClientFactory factory = (RestfulClientFactory) ourCtx.getRestfulClientFactory();
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      factory.setAsyncPoolSize(1);
+      factory.setAsyncQueueSize(1);
+
+      // Occupy the only thread and the only queue slot
+      Runnable blocker = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      factory.getAsyncExecutor().execute(blocker);
+      factory.getAsyncExecutor().execute(blocker);
+
+      IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+      ListenableFuture<Patient> future = AsyncClientUtil.executeAsync(client.read().resource(Patient.class).withId("123"));
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertEquals(RejectedExecutionException.class, e.getCause().getClass());
+      }
+
+      // The request is never performed on the calling thread
+      verify(myHttpClient, never()).execute(any(HttpUriRequest.class));
+    } finally {
+      release.countDown();
+      factory.setAsyncQueueSize(RestfulClientFactory.DEFAULT_ASYNC_QUEUE_SIZE);
+      factory.setAsyncPoolSize(RestfulClientFactory.DEFAULT_ASYNC_POOL_SIZE);
+    }
+  }
+
+  @Test
+  public void testReadAsyncWithUnparseableResponse() throws Exception {
+    String msg = "{\"resourceTypeeeee\":\"Patient\"}";
+
+    ArgumentCaptor<HttpUriRequest> capt = ArgumentCaptor.forClass(HttpUriRequest.class);
+    when(myHttpClient.execute(capt.capture())).thenReturn(myHttpResponse);
+    when(myHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+    when(myHttpResponse.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_JSON + "; charset=UTF-8"));
+    when(myHttpResponse.getEntity().getContent()).thenReturn(new ReaderInputStream(new StringReader(msg), Charset.forName("UTF-8")));
+
+    IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+
+    try {
+      AsyncClientUtil.executeAsync(client.read().resource("Patient").withId("123")).get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals(FhirClientConnectionException.class, e.getCause().getClass());
+    }
+  }
+
   @Test
   public void testReadWithUnparseableResponse() throws Exception {
     String msg = "{\"resourceTypeeeee\":\"Patient\"}";
@@ -1945,6 +2135,79 @@ public class GenericClientR4Test {
 
   }
 
+  @Test
+  public void testValidateAsync() throws Exception {
+    final IParser p = ourCtx.newXmlParser();
+
+    final OperationOutcome resp0 = new OperationOutcome();
+    resp0.getText().setDivAsString("OK!");
+
+    ArgumentCaptor<HttpUriRequest> capt = ArgumentCaptor.forClass(HttpUriRequest.class);
+    when(myHttpClient.execute(capt.capture())).thenReturn(myHttpResponse);
+    when(myHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "OK"));
+    when(myHttpResponse.getAllHeaders()).thenAnswer(new Answer<Header[]>() {
+      @Override
+      public Header[] answer(InvocationOnMock theInvocation) throws Throwable {
+        return new Header[] {};
+      }
+    });
+    when(myHttpResponse.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_FHIR_XML + "; charset=UTF-8"));
+    when(myHttpResponse.getEntity().getContent()).thenAnswer(new Answer<ReaderInputStream>() {
+      @Override
+      public ReaderInputStream answer(InvocationOnMock theInvocation) throws Throwable {
+        return new ReaderInputStream(new StringReader(p.encodeResourceToString(resp0)), Charset.forName("UTF-8"));
+      }
+    });
+
+    IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+    final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    client.registerInterceptor(new IClientInterceptor() {
+      @Override
+      public void interceptRequest(IHttpRequest theRequest) {
+        requests.add(theRequest.getUri());
+      }
+
+      @Override
+      public void interceptResponse(IHttpResponse theResponse) {
+        // nothing
+      }
+    });
+
+    Patient pt = new Patient();
+    pt.setId("Patient/222");
+    pt.getText().setDivAsString("A PATIENT");
+
+    MethodOutcome outcome = AsyncClientUtil.executeAsync(client.validate().resource(pt)).get(10, TimeUnit.SECONDS);
+
+    assertNotNull(outcome.getOperationOutcome());
+    assertEquals("<div xmlns=\"http://www.w3.org/1999/xhtml\">OK!</div>", ((OperationOutcome) outcome.getOperationOutcome()).getText().getDivAsString());
+
+    // The request is only built (and passed through the interceptors) once
+    assertEquals(1, requests.size());
+    assertEquals("http://example.com/fhir/Patient/$validate", requests.get(0));
+  }
+
+  @Test
+  public void testReadAsyncIfVersionMatchesReturnNull() throws Exception {
+    ArgumentCaptor<HttpUriRequest> capt = ArgumentCaptor.forClass(HttpUriRequest.class);
+    when(myHttpClient.execute(capt.capture())).thenReturn(myHttpResponse);
+    when(myHttpResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 304, "Not Modified"));
+    when(myHttpResponse.getEntity().getContentType()).thenReturn(new BasicHeader("content-type", Constants.CT_TEXT + "; charset=UTF-8"));
+    when(myHttpResponse.getEntity().getContent()).thenAnswer(new Answer<ReaderInputStream>() {
+      @Override
+      public ReaderInputStream answer(InvocationOnMock theInvocation) throws Throwable {
+        return new ReaderInputStream(new StringReader(""), Charset.forName("UTF-8"));
+      }
+    });
+
+    IGenericClient client = ourCtx.newRestfulGenericClient("http://example.com/fhir");
+
+    Patient response = AsyncClientUtil.executeAsync(client.read().resource(Patient.class).withId("123").ifVersionMatches("2").returnNull()).get(10, TimeUnit.SECONDS);
+
+    assertNull(response);
+    assertEquals("\"2\"", capt.getValue().getFirstHeader(Constants.HEADER_IF_NONE_MATCH_LC).getValue());
+  }
+
   @Test
   public void testValidateCustomTypeFromClientRead() throws Exception {
     IParser p = ourCtx.newXmlParser();
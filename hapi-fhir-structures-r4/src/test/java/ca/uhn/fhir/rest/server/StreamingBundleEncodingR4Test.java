@@ -0,0 +1,241 @@
+package ca.uhn.fhir.rest.server;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.api.BundleInclusionRule;
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.annotation.IncludeParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.*;
+import org.junit.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.*;
+
+public class StreamingBundleEncodingR4Test {
+
+	private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(StreamingBundleEncodingR4Test.class);
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forR4();
+	private static List<String> ourLoadedRanges = Collections.synchronizedList(new ArrayList<String>());
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@Before
+	public void before() {
+		ourLoadedRanges.clear();
+	}
+
+	@After
+	public void after() {
+		ourServlet.setStreamingBundleEncoding(false);
+	}
+
+	private String executeSearch(String theQuery) throws Exception {
+		HttpGet httpGet = new HttpGet("http://localhost:" + ourPort + "/Patient?" + theQuery);
+		CloseableHttpResponse status = ourClient.execute(httpGet);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+			assertEquals(200, status.getStatusLine().getStatusCode());
+			return responseContent;
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	private void assertStreamedResponseMatches(String theQuery) throws Exception {
+		ourServlet.setStreamingBundleEncoding(false);
+		String expected = executeSearch(theQuery);
+
+		ourServlet.setStreamingBundleEncoding(true);
+		ourLoadedRanges.clear();
+		String actual = executeSearch(theQuery);
+		ourLog.info("Query {} loaded ranges {}", theQuery, ourLoadedRanges);
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testStreamedBundleMatchesNonStreamed() throws Exception {
+		assertStreamedResponseMatches("_format=json");
+		assertEquals("[0-50, 50-100, 100-120]", ourLoadedRanges.toString());
+
+		assertStreamedResponseMatches("_format=json&_pretty=true");
+		assertStreamedResponseMatches("_format=xml");
+		assertStreamedResponseMatches("_format=xml&_pretty=true");
+		assertStreamedResponseMatches("_format=json&_summary=true");
+		assertStreamedResponseMatches("_format=json&_elements=name");
+	}
+
+	@Test
+	public void testStreamedBundleSummaryCount() throws Exception {
+		assertStreamedResponseMatches("_format=json&_summary=count");
+
+		String response = executeSearch("_format=json&_summary=count");
+		assertThat(response, containsString("\"total\":120"));
+		assertThat(response, not(containsString("\"entry\"")));
+	}
+
+	/**
+	 * Included resources follow all of the matches, so searches which may include
+	 * resources are not streamed and the page is loaded in one go
+	 */
+	@Test
+	public void testStreamingDisabledForIncludes() throws Exception {
+		for (String format : new String[] {"json", "xml"}) {
+			ourLoadedRanges.clear();
+			assertStreamedResponseMatches("_format=" + format + "&_include=Patient:organization");
+			assertEquals("[0-120]", ourLoadedRanges.toString());
+
+			ourLoadedRanges.clear();
+			assertStreamedResponseMatches("_format=" + format + "&_revinclude=Observation:subject");
+			assertEquals("[0-120]", ourLoadedRanges.toString());
+		}
+
+		String response = executeSearch("_format=json&_include=Patient:organization");
+		Bundle bundle = ourCtx.newJsonParser().parseResource(Bundle.class, response);
+		assertEquals(123, bundle.getEntry().size());
+		assertEquals("Patient/119", bundle.getEntry().get(119).getResource().getIdElement().toUnqualifiedVersionless().getValue());
+		for (int i = 120; i < 123; i++) {
+			assertEquals(Bundle.SearchEntryMode.INCLUDE, bundle.getEntry().get(i).getSearch().getMode());
+		}
+
+		ourServlet.setBundleInclusionRule(BundleInclusionRule.BASED_ON_RESOURCE_PRESENCE);
+		try {
+			ourLoadedRanges.clear();
+			assertStreamedResponseMatches("_format=json");
+			assertEquals("[0-120]", ourLoadedRanges.toString());
+		} finally {
+			ourServlet.setBundleInclusionRule(BundleInclusionRule.BASED_ON_INCLUDES);
+		}
+	}
+
+	@Test
+	public void testStreamingDisabledByResponseExaminingInterceptor() throws Exception {
+		ourServlet.setStreamingBundleEncoding(true);
+
+		InterceptorAdapter passive = new InterceptorAdapter();
+		ourServlet.registerInterceptor(passive);
+		try {
+			executeSearch("_format=json");
+			assertEquals("[0-50, 50-100, 100-120]", ourLoadedRanges.toString());
+		} finally {
+			ourServlet.unregisterInterceptor(passive);
+		}
+
+		ourLoadedRanges.clear();
+		ResponseHighlighterInterceptor highlighter = new ResponseHighlighterInterceptor();
+		ourServlet.registerInterceptor(highlighter);
+		try {
+			String response = executeSearch("_format=json");
+			assertEquals("[0-120]", ourLoadedRanges.toString());
+			assertEquals(120, ourCtx.newJsonParser().parseResource(Bundle.class, response).getEntry().size());
+		} finally {
+			ourServlet.unregisterInterceptor(highlighter);
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Search()
+		public IBundleProvider search(@IncludeParam(allow = "Patient:organization") Set<Include> theIncludes, @IncludeParam(reverse = true) Set<Include> theRevIncludes) {
+			return new IBundleProvider() {
+				@Override
+				public IPrimitiveType<java.util.Date> getPublished() {
+					return new InstantType("2018-01-01T10:00:00Z");
+				}
+
+				@Override
+				public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
+					ourLoadedRanges.add(theFromIndex + "-" + theToIndex);
+					List<IBaseResource> retVal = new ArrayList<>();
+					for (int i = theFromIndex; i < theToIndex; i++) {
+						Organization org = new Organization();
+						org.setId("Organization/O" + (i % 3));
+						org.setName("Org " + (i % 3));
+
+						Patient p = new Patient();
+						p.setId("Patient/" + i);
+						p.addName().setFamily("Family " + i).addGiven("Given");
+						p.addIdentifier().setSystem("http://foo").setValue(Integer.toString(i));
+						p.getManagingOrganization().setResource(org);
+						retVal.add(p);
+					}
+					return retVal;
+				}
+
+				@Override
+				public String getUuid() {
+					return "BUNDLEID";
+				}
+
+				@Override
+				public Integer preferredPageSize() {
+					return null;
+				}
+
+				@Override
+				public Integer size() {
+					return 120;
+				}
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,279 @@
+package ca.uhn.fhir.rest.server;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Create;
+import ca.uhn.fhir.rest.annotation.ResourceParam;
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.annotation.Update;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.util.PortUtil;
+import ca.uhn.fhir.util.TestUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class StreamingRequestParsingR4Test {
+
+	private static CloseableHttpClient ourClient;
+	private static FhirContext ourCtx = FhirContext.forR4();
+	private static boolean ourLastRequestWasStreamed;
+	private static Patient ourLastPatient;
+	private static String ourLastRawBody;
+	private static Bundle ourLastTransaction;
+	private static String ourInterceptorRawBody;
+	private static boolean ourInterceptorLoadsBody;
+	private static int ourPort;
+	private static Server ourServer;
+	private static RestfulServer ourServlet;
+
+	@Before
+	public void before() {
+		ourServlet.setStreamingRequestParsing(true);
+		ourLastRequestWasStreamed = false;
+		ourLastPatient = null;
+		ourLastRawBody = null;
+		ourLastTransaction = null;
+		ourInterceptorRawBody = null;
+		ourInterceptorLoadsBody = false;
+	}
+
+	@After
+	public void after() {
+		ourServlet.setStreamingRequestParsing(false);
+	}
+
+	private static byte[] gzip(String theContents) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		GZIPOutputStream gos = new GZIPOutputStream(bos);
+		gos.write(theContents.getBytes(StandardCharsets.UTF_8));
+		gos.close();
+		return bos.toByteArray();
+	}
+
+	private static void execute(HttpEntityEnclosingRequestBase theRequest, int theExpectedStatus) throws Exception {
+		CloseableHttpResponse status = ourClient.execute(theRequest);
+		try {
+			String responseContent = IOUtils.toString(status.getEntity().getContent(), StandardCharsets.UTF_8);
+			assertEquals(responseContent, theExpectedStatus, status.getStatusLine().getStatusCode());
+		} finally {
+			IOUtils.closeQuietly(status.getEntity().getContent());
+		}
+	}
+
+	private static String createPatientJson() {
+		Patient patient = new Patient();
+		patient.addName().setFamily("FAMILY");
+		return ourCtx.newJsonParser().encodeResourceToString(patient);
+	}
+
+	@Test
+	public void testCreateIsStreamed() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new StringEntity(createPatientJson(), ContentType.create(Constants.CT_FHIR_JSON_NEW, "UTF-8")));
+		execute(httpPost, 201);
+
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamily());
+		assertTrue(ourLastRequestWasStreamed);
+	}
+
+	@Test
+	public void testCreateGzipIsStreamed() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		ByteArrayEntity entity = new ByteArrayEntity(gzip(createPatientJson()), ContentType.create(Constants.CT_FHIR_JSON_NEW, "UTF-8"));
+		httpPost.setEntity(entity);
+		httpPost.addHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+		execute(httpPost, 201);
+
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamily());
+		assertTrue(ourLastRequestWasStreamed);
+	}
+
+	@Test
+	public void testCreateNotStreamedWhenDisabled() throws Exception {
+		ourServlet.setStreamingRequestParsing(false);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		ByteArrayEntity entity = new ByteArrayEntity(gzip(createPatientJson()), ContentType.create(Constants.CT_FHIR_JSON_NEW, "UTF-8"));
+		httpPost.setEntity(entity);
+		httpPost.addHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+		execute(httpPost, 201);
+
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamily());
+		assertFalse(ourLastRequestWasStreamed);
+	}
+
+	@Test
+	public void testCreateWithInterceptorLoadingBody() throws Exception {
+		ourInterceptorLoadsBody = true;
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new ByteArrayEntity(gzip(createPatientJson()), ContentType.create(Constants.CT_FHIR_JSON_NEW, "UTF-8")));
+		httpPost.addHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+		execute(httpPost, 201);
+
+		assertEquals(createPatientJson(), ourInterceptorRawBody);
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamily());
+		assertFalse(ourLastRequestWasStreamed);
+	}
+
+	@Test
+	public void testCreateWithoutContentType() throws Exception {
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/Patient");
+		httpPost.setEntity(new ByteArrayEntity(createPatientJson().getBytes(StandardCharsets.UTF_8)));
+		execute(httpPost, 201);
+
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamily());
+	}
+
+	/**
+	 * The update method takes both the parsed resource and the raw body, so
+	 * the body can't be streamed
+	 */
+	@Test
+	public void testUpdateReadingBodyTwice() throws Exception {
+		HttpPut httpPut = new HttpPut("http://localhost:" + ourPort + "/Patient/123");
+		Patient patient = new Patient();
+		patient.setId("Patient/123");
+		patient.addName().setFamily("FAMILY");
+		String body = ourCtx.newJsonParser().encodeResourceToString(patient);
+		httpPut.setEntity(new ByteArrayEntity(gzip(body), ContentType.create(Constants.CT_FHIR_JSON_NEW, "UTF-8")));
+		httpPut.addHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+		execute(httpPut, 200);
+
+		assertEquals("FAMILY", ourLastPatient.getNameFirstRep().getFamily());
+		assertEquals(body, ourLastRawBody);
+		assertFalse(ourLastRequestWasStreamed);
+	}
+
+	@Test
+	public void testTransactionGzipIsStreamed() throws Exception {
+		Bundle input = new Bundle();
+		input.setType(Bundle.BundleType.TRANSACTION);
+		for (int i = 0; i < 100; i++) {
+			Patient patient = new Patient();
+			patient.addName().setFamily("FAMILY" + i);
+			input.addEntry().setResource(patient).getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl("Patient");
+		}
+		String body = ourCtx.newXmlParser().encodeResourceToString(input);
+
+		HttpPost httpPost = new HttpPost("http://localhost:" + ourPort + "/");
+		httpPost.setEntity(new ByteArrayEntity(gzip(body), ContentType.create(Constants.CT_FHIR_XML_NEW, "UTF-8")));
+		httpPost.addHeader(Constants.HEADER_CONTENT_ENCODING, "gzip");
+		execute(httpPost, 200);
+
+		assertEquals(100, ourLastTransaction.getEntry().size());
+		assertEquals("FAMILY99", ((Patient) ourLastTransaction.getEntry().get(99).getResource()).getNameFirstRep().getFamily());
+		assertTrue(ourLastRequestWasStreamed);
+	}
+
+	private static boolean wasStreamed(RequestDetails theRequestDetails) {
+		try {
+			theRequestDetails.loadRequestContents();
+			return false;
+		} catch (IllegalStateException e) {
+			return true;
+		}
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() throws Exception {
+		ourServer.stop();
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		ourPort = PortUtil.findFreePort();
+		ourServer = new Server(ourPort);
+
+		ServletHandler proxyHandler = new ServletHandler();
+		ourServlet = new RestfulServer(ourCtx);
+		ourServlet.setResourceProviders(new DummyPatientResourceProvider());
+		ourServlet.setPlainProviders(new DummyTransactionProvider());
+		ourServlet.registerInterceptor(new InterceptorAdapter() {
+			@Override
+			public boolean incomingRequestPostProcessed(RequestDetails theRequestDetails, HttpServletRequest theRequest, HttpServletResponse theResponse) {
+				if (ourInterceptorLoadsBody) {
+					ourInterceptorRawBody = new String(theRequestDetails.loadRequestContents(), StandardCharsets.UTF_8);
+				}
+				return true;
+			}
+		});
+		ServletHolder servletHolder = new ServletHolder(ourServlet);
+		proxyHandler.addServletWithMapping(servletHolder, "/*");
+		ourServer.setHandler(proxyHandler);
+		ourServer.start();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+		HttpClientBuilder builder = HttpClientBuilder.create();
+		builder.setConnectionManager(connectionManager);
+		ourClient = builder.build();
+	}
+
+	public static class DummyPatientResourceProvider implements IResourceProvider {
+
+		@Create()
+		public MethodOutcome create(@ResourceParam Patient thePatient, RequestDetails theRequestDetails) {
+			ourLastPatient = thePatient;
+			ourLastRequestWasStreamed = wasStreamed(theRequestDetails);
+			return new MethodOutcome(new IdType("Patient/1/_history/1"));
+		}
+
+		@Override
+		public Class<? extends IBaseResource> getResourceType() {
+			return Patient.class;
+		}
+
+		@Update()
+		public MethodOutcome update(@ResourceParam Patient thePatient, @ResourceParam String theRawBody, RequestDetails theRequestDetails) {
+			ourLastPatient = thePatient;
+			ourLastRawBody = theRawBody;
+			ourLastRequestWasStreamed = wasStreamed(theRequestDetails);
+			return new MethodOutcome(new IdType("Patient/123/_history/2"));
+		}
+
+	}
+
+	public static class DummyTransactionProvider {
+
+		@Transaction
+		public Bundle transaction(@TransactionParam Bundle theInput, RequestDetails theRequestDetails) {
+			ourLastTransaction = theInput;
+			ourLastRequestWasStreamed = wasStreamed(theRequestDetails);
+			Bundle retVal = new Bundle();
+			retVal.setType(Bundle.BundleType.TRANSACTIONRESPONSE);
+			return retVal;
+		}
+
+	}
+
+}
@@ -41,6 +41,8 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 	private StructureDefinition myStructureDefintion;
 
 	private IValidationSupport myValidationSupport;
+	private HapiWorkerContext myWorkerContext;
+	private FhirContext myWorkerContextFhirContext;
 
 	/**
 	 * Constructor
@@ -98,6 +100,22 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 		return myBestPracticeWarningLevel;
 	}
 
+	/**
+	 * Returns the number of conformance resource, expansion and code validation lookups which
+	 * were answered from the cache held by this validator
+	 */
+	public synchronized long getCacheHitCount() {
+		return myWorkerContext != null ? myWorkerContext.getCacheHitCount() : 0;
+	}
+
+	/**
+	 * Returns the number of conformance resource, expansion and code validation lookups which
+	 * had to be passed to the {@link IValidationSupport validation support}
+	 */
+	public synchronized long getCacheMissCount() {
+		return myWorkerContext != null ? myWorkerContext.getCacheMissCount() : 0;
+	}
+
 	/**
 	 * Returns the {@link IValidationSupport validation support} in use by this validator. Default is an instance of
 	 * {@link DefaultProfileValidationSupport} if the no-arguments constructor for this object was used.
@@ -106,6 +124,29 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 		return myValidationSupport;
 	}
 
+	/**
+	 * Returns the worker context shared by all validations using the given context, creating
+	 * it if needed
+	 */
+	private synchronized HapiWorkerContext getWorkerContext(FhirContext theCtx) {
+		if (myWorkerContext == null || myWorkerContextFhirContext != theCtx) {
+			myWorkerContext = new HapiWorkerContext(theCtx, myValidationSupport);
+			myWorkerContextFhirContext = theCtx;
+		}
+		return myWorkerContext;
+	}
+
+	/**
+	 * Discards any StructureDefinitions, ValueSet expansions and code validation results
+	 * which have been cached by this validator. This should be called whenever the conformance
+	 * resources supplied by the {@link IValidationSupport validation support} change.
+	 */
+	public synchronized void invalidateCaches() {
+		if (myWorkerContext != null) {
+			myWorkerContext.invalidateCaches();
+		}
+	}
+
 	/**
 	 * If set to {@literal true} (default is true) extensions which are not known to the
 	 * validator (e.g. because they have not been explicitly declared in a profile) will
@@ -164,12 +205,13 @@ public class FhirInstanceValidator extends BaseValidatorBridge implements IValid
 	 * Sets the {@link IValidationSupport validation support} in use by this validator. Default is an instance of
 	 * {@link DefaultProfileValidationSupport} if the no-arguments constructor for this object was used.
 	 */
-	public void setValidationSupport(IValidationSupport theValidationSupport) {
+	public synchronized void setValidationSupport(IValidationSupport theValidationSupport) {
 		myValidationSupport = theValidationSupport;
+		myWorkerContext = null;
 	}
 
 	protected List<ValidationMessage> validate(final FhirContext theCtx, String theInput, EncodingEnum theEncoding) {
-		HapiWorkerContext workerContext = new HapiWorkerContext(theCtx, myValidationSupport);
+		HapiWorkerContext workerContext = getWorkerContext(theCtx);
 
 		InstanceValidator v;
 		IEvaluationContext evaluationCtx = new NullEvaluationContext();
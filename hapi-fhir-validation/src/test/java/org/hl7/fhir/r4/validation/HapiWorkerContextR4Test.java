@@ -0,0 +1,167 @@
+package org.hl7.fhir.r4.validation;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.TestUtil;
+import org.hl7.fhir.r4.context.IWorkerContext.ValidationResult;
+import org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext;
+import org.hl7.fhir.r4.hapi.ctx.IValidationSupport;
+import org.hl7.fhir.r4.hapi.ctx.IValidationSupport.CodeValidationResult;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.ExpansionProfile;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class HapiWorkerContextR4Test {
+
+	private static FhirContext ourCtx = FhirContext.forR4();
+	private IValidationSupport myMockSupport;
+	private HapiWorkerContext myWorkerContext;
+
+	@Before
+	public void before() {
+		myMockSupport = mock(IValidationSupport.class);
+		myWorkerContext = new HapiWorkerContext(ourCtx, myMockSupport, 2);
+	}
+
+	@Test
+	public void testFetchResourceIsCachedUntilInvalidated() {
+		ValueSet vs = new ValueSet();
+		vs.setUrl("http://example.com/vs");
+		when(myMockSupport.fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://example.com/vs"))).thenReturn(vs);
+
+		assertSame(vs, myWorkerContext.fetchResource(ValueSet.class, "http://example.com/vs"));
+		assertSame(vs, myWorkerContext.fetchResource(ValueSet.class, "http://example.com/vs"));
+		verify(myMockSupport, times(1)).fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://example.com/vs"));
+		assertEquals(1, myWorkerContext.getCacheHitCount());
+		assertEquals(1, myWorkerContext.getCacheMissCount());
+
+		// The same URL as a different type is a separate entry
+		assertNull(myWorkerContext.fetchResource(CodeSystem.class, "http://example.com/vs"));
+
+		myWorkerContext.invalidateCaches();
+		assertSame(vs, myWorkerContext.fetchResource(ValueSet.class, "http://example.com/vs"));
+		verify(myMockSupport, times(2)).fetchResource(any(FhirContext.class), eq(ValueSet.class), eq("http://example.com/vs"));
+	}
+
+	/**
+	 * The validator writes working state onto the StructureDefinitions it uses, so a
+	 * shared instance must never be handed to more than one thread
+	 */
+	@Test
+	public void testFetchStructureDefinitionReturnsCopyPerThread() throws Exception {
+		StructureDefinition sd = new StructureDefinition();
+		sd.setUrl("http://example.com/sd");
+		when(myMockSupport.fetchResource(any(FhirContext.class), eq(StructureDefinition.class), eq("http://example.com/sd"))).thenReturn(sd);
+
+		final StructureDefinition first = myWorkerContext.fetchResource(StructureDefinition.class, "http://example.com/sd");
+		assertNotSame(sd, first);
+		assertEquals("http://example.com/sd", first.getUrl());
+		assertSame(first, myWorkerContext.fetchResource(StructureDefinition.class, "http://example.com/sd"));
+
+		final AtomicReference<StructureDefinition> other = new AtomicReference<StructureDefinition>();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				other.set(myWorkerContext.fetchResource(StructureDefinition.class, "http://example.com/sd"));
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNotNull(other.get());
+		assertNotSame(sd, other.get());
+		assertNotSame(first, other.get());
+
+		// The shared instance is only fetched once
+		verify(myMockSupport, times(1)).fetchResource(any(FhirContext.class), eq(StructureDefinition.class), eq("http://example.com/sd"));
+
+		myWorkerContext.invalidateCaches();
+		StructureDefinition afterInvalidate = myWorkerContext.fetchResource(StructureDefinition.class, "http://example.com/sd");
+		assertNotSame(first, afterInvalidate);
+		verify(myMockSupport, times(2)).fetchResource(any(FhirContext.class), eq(StructureDefinition.class), eq("http://example.com/sd"));
+	}
+
+	@Test
+	public void testExpansionProfileIsPerThread() throws Exception {
+		ExpansionProfile profile = new ExpansionProfile();
+		myWorkerContext.setExpansionProfile(profile);
+		assertSame(profile, myWorkerContext.getExpansionProfile());
+
+		final AtomicReference<ExpansionProfile> other = new AtomicReference<ExpansionProfile>(new ExpansionProfile());
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				other.set(myWorkerContext.getExpansionProfile());
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNull(other.get());
+	}
+
+	@Test
+	public void testCacheIsBounded() {
+		when(myMockSupport.fetchCodeSystem(any(FhirContext.class), any(String.class))).thenReturn(new CodeSystem());
+
+		myWorkerContext.fetchCodeSystem("http://example.com/cs1");
+		myWorkerContext.fetchCodeSystem("http://example.com/cs2");
+		myWorkerContext.fetchCodeSystem("http://example.com/cs1");
+		myWorkerContext.fetchCodeSystem("http://example.com/cs3");
+		verify(myMockSupport, times(3)).fetchCodeSystem(any(FhirContext.class), any(String.class));
+
+		// cs2 was the least recently used entry so it was evicted
+		myWorkerContext.fetchCodeSystem("http://example.com/cs2");
+		verify(myMockSupport, times(4)).fetchCodeSystem(any(FhirContext.class), any(String.class));
+		myWorkerContext.fetchCodeSystem("http://example.com/cs2");
+		verify(myMockSupport, times(4)).fetchCodeSystem(any(FhirContext.class), any(String.class));
+	}
+
+	@Test
+	public void testValidateCodeIsCached() {
+		ConceptDefinitionComponent definition = new ConceptDefinitionComponent().setCode("A").setDisplay("Code A");
+		when(myMockSupport.validateCode(any(FhirContext.class), eq("http://example.com/cs"), eq("A"), any(String.class))).thenReturn(new CodeValidationResult(definition));
+
+		ValidationResult first = myWorkerContext.validateCode("http://example.com/cs", "A", null);
+		ValidationResult second = myWorkerContext.validateCode("http://example.com/cs", "A", null);
+		assertSame(first, second);
+		assertEquals("Code A", second.getDisplay());
+		verify(myMockSupport, times(1)).validateCode(any(FhirContext.class), eq("http://example.com/cs"), eq("A"), any(String.class));
+
+		// Null results aren't cached
+		assertNull(myWorkerContext.validateCode("http://example.com/cs", "B", null));
+		assertNull(myWorkerContext.validateCode("http://example.com/cs", "B", null));
+		verify(myMockSupport, times(2)).validateCode(any(FhirContext.class), eq("http://example.com/cs"), eq("B"), any(String.class));
+	}
+
+	@Test
+	public void testValidateCodeErrorIsNotCached() {
+		when(myMockSupport.validateCode(any(FhirContext.class), eq("http://example.com/cs"), eq("A"), any(String.class))).thenReturn(new CodeValidationResult(IssueSeverity.ERROR, "Unknown code"));
+
+		ValidationResult result = myWorkerContext.validateCode("http://example.com/cs", "A", null);
+		assertEquals("Unknown code", result.getMessage());
+
+		// The code is added to the terminology, so the next validation must see it
+		ConceptDefinitionComponent definition = new ConceptDefinitionComponent().setCode("A");
+		when(myMockSupport.validateCode(any(FhirContext.class), eq("http://example.com/cs"), eq("A"), any(String.class))).thenReturn(new CodeValidationResult(definition));
+		result = myWorkerContext.validateCode("http://example.com/cs", "A", null);
+		assertTrue(result.isOk());
+		verify(myMockSupport, times(2)).validateCode(any(FhirContext.class), eq("http://example.com/cs"), eq("A"), any(String.class));
+	}
+
+	@AfterClass
+	public static void afterClassClearContext() {
+		TestUtil.clearAllStaticFieldsForUnitTest();
+	}
+
+}